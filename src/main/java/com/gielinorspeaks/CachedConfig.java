@@ -0,0 +1,89 @@
+package com.gielinorspeaks;
+
+import lombok.Getter;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Plain-field copy of {@link GielinorSpeaksConfig}.
+ * ===
+ * Every call on the config interface goes through RuneLite's reflective proxy and a config
+ * lookup, which is too slow for code that runs per event or per frame. Read settings from
+ * here instead; the plugin calls {@link #refresh()} whenever the config group changes.
+ */
+@Singleton
+public class CachedConfig {
+	private static final long BYTES_PER_MB = 1024 * 1024;
+
+	private final GielinorSpeaksConfig config;
+
+	@Getter
+	private volatile boolean enabled;
+
+	@Getter
+	private volatile boolean dialogueBoxEnabled;
+
+	@Getter
+	private volatile boolean overheadTextEnabled;
+
+	@Getter
+	private volatile boolean warmRestart;
+
+	@Getter
+	private volatile long retainedCacheBytes;
+
+	@Getter
+	private volatile String voiceServerUrl;
+
+	@Getter
+	private volatile boolean prefetchQuestDialogue;
+
+	@Getter
+	private volatile boolean showDebugOverlay;
+
+	@Getter
+	private volatile int handlerBudgetMicros;
+
+	@Inject
+	public CachedConfig(GielinorSpeaksConfig config) {
+		this.config = config;
+		refresh();
+	}
+
+	/**
+	 * Re-reads every setting from the config.
+	 */
+	public void refresh() {
+		enabled = config.enabled();
+		dialogueBoxEnabled = config.enableDialogueBox();
+		overheadTextEnabled = config.enableOverheadText();
+		warmRestart = config.warmRestart();
+		retainedCacheBytes = config.retainedCacheMb() * BYTES_PER_MB;
+		voiceServerUrl = config.voiceServerUrl();
+		prefetchQuestDialogue = config.prefetchQuestDialogue();
+		showDebugOverlay = config.showDebugOverlay();
+		handlerBudgetMicros = config.handlerBudgetMicros();
+	}
+
+	/**
+	 * True if dialogue box conversations should be voiced.
+	 */
+	public boolean isDialogueBoxActive() {
+		return enabled && dialogueBoxEnabled;
+	}
+
+	/**
+	 * True if overhead text should be voiced.
+	 */
+	public boolean isOverheadTextActive() {
+		return enabled && overheadTextEnabled;
+	}
+
+	/**
+	 * True if quest dialogue should be prefetched. Pointless when no dialogue is voiced.
+	 */
+	public boolean isQuestPrefetchActive() {
+		return enabled && prefetchQuestDialogue && (dialogueBoxEnabled || overheadTextEnabled);
+	}
+}
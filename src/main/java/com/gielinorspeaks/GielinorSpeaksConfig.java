@@ -3,10 +3,29 @@ package com.gielinorspeaks;
 import net.runelite.client.config.Config;
 import net.runelite.client.config.ConfigGroup;
 import net.runelite.client.config.ConfigItem;
+import net.runelite.client.config.ConfigSection;
+import net.runelite.client.config.Range;
 
-@ConfigGroup("gielinorspeaks")
+@ConfigGroup(GielinorSpeaksConfig.GROUP)
 public interface GielinorSpeaksConfig extends Config {
-	@SuppressWarnings("unused") // Used by RuneLite config system
+	String GROUP = "gielinorspeaks";
+
+	@ConfigSection(
+		name = "Voice Server",
+		description = "Where voice clips are downloaded from",
+		position = 50,
+		closedByDefault = true
+	)
+	String serverSection = "server";
+
+	@ConfigSection(
+		name = "Debug",
+		description = "Diagnostics for the plugin's performance",
+		position = 99,
+		closedByDefault = true
+	)
+	String debugSection = "debug";
+
 	@ConfigItem(
 		keyName = "enabled",
 		name = "Enable Plugin",
@@ -17,7 +36,6 @@ public interface GielinorSpeaksConfig extends Config {
 		return true;
 	}
 
-	@SuppressWarnings("unused") // Used by RuneLite config system
 	@ConfigItem(
 		keyName = "enableDialogueBox",
 		name = "Dialogue Box Detection",
@@ -28,7 +46,6 @@ public interface GielinorSpeaksConfig extends Config {
 		return true;
 	}
 
-	@SuppressWarnings("unused") // Used by RuneLite config system
 	@ConfigItem(
 		keyName = "enableOverheadText",
 		name = "Overhead Text Detection",
@@ -38,4 +55,70 @@ public interface GielinorSpeaksConfig extends Config {
 	{
 		return true;
 	}
+
+	@ConfigItem(
+		keyName = "warmRestart",
+		name = "Keep Cache When Disabled",
+		description = "Keep recently played voices in memory while the plugin is turned off, so turning it back on is instant"
+	)
+	default boolean warmRestart()
+	{
+		return true;
+	}
+
+	@Range(max = 64)
+	@ConfigItem(
+		keyName = "retainedCacheMb",
+		name = "Kept Cache Size (MB)",
+		description = "Maximum memory used by voices kept while the plugin is turned off"
+	)
+	default int retainedCacheMb()
+	{
+		return 16;
+	}
+
+	@ConfigItem(
+		keyName = "voiceServerUrl",
+		name = "Voice Server URL",
+		description = "Base URL of the voice server. Leave empty to only play voices that are already cached",
+		section = serverSection
+	)
+	default String voiceServerUrl()
+	{
+		return "";
+	}
+
+	@ConfigItem(
+		keyName = "prefetchQuestDialogue",
+		name = "Prefetch Quest Dialogue",
+		description = "Download voices for the next stages of your quests in the background, so quest conversations never wait",
+		section = serverSection
+	)
+	default boolean prefetchQuestDialogue()
+	{
+		return true;
+	}
+
+	@ConfigItem(
+		keyName = "showDebugOverlay",
+		name = "Show Timing Overlay",
+		description = "Show how much client thread time the plugin's handlers use",
+		section = debugSection
+	)
+	default boolean showDebugOverlay()
+	{
+		return false;
+	}
+
+	@Range(min = 50, max = 16000)
+	@ConfigItem(
+		keyName = "handlerBudgetMicros",
+		name = "Handler Budget (microseconds)",
+		description = "Log a warning when a single handler uses more client thread time than this",
+		section = debugSection
+	)
+	default int handlerBudgetMicros()
+	{
+		return 1000;
+	}
 }
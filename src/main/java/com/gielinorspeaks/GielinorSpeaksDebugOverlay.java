@@ -0,0 +1,106 @@
+package com.gielinorspeaks;
+
+import com.gielinorspeaks.buffer.BufferPool;
+import com.gielinorspeaks.cache.MemoryGovernor;
+import com.gielinorspeaks.metrics.ClientThreadMetrics;
+import com.gielinorspeaks.metrics.ClientThreadMetrics.Handler;
+import net.runelite.client.ui.overlay.OverlayPanel;
+import net.runelite.client.ui.overlay.OverlayPosition;
+import net.runelite.client.ui.overlay.components.LineComponent;
+import net.runelite.client.ui.overlay.components.TitleComponent;
+
+import javax.inject.Inject;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+
+/**
+ * Debug panel showing the plugin's client thread usage.
+ * ===
+ * Lists each handler as {@code invocations x average (max)} in microseconds, the number of
+ * invocations over the configured budget, and the plugin's share of client thread time
+ * over roughly the last second.
+ * ===
+ * Below that, the memory pressure seen by the {@link MemoryGovernor}, any cache tiers it
+ * has shed, and hits/misses for each {@link BufferPool} size class in use.
+ */
+public class GielinorSpeaksDebugOverlay extends OverlayPanel {
+	private static final Handler[] HANDLERS = Handler.values();
+
+	private final ClientThreadMetrics metrics;
+	private final MemoryGovernor memoryGovernor;
+	private final BufferPool bufferPool;
+
+	@Inject
+	public GielinorSpeaksDebugOverlay(GielinorSpeaksPlugin plugin, ClientThreadMetrics metrics, MemoryGovernor memoryGovernor,
+		BufferPool bufferPool) {
+		super(plugin);
+		this.metrics = metrics;
+		this.memoryGovernor = memoryGovernor;
+		this.bufferPool = bufferPool;
+		setPosition(OverlayPosition.TOP_LEFT);
+	}
+
+	@Override
+	public Dimension render(Graphics2D graphics) {
+		panelComponent.getChildren().add(TitleComponent.builder()
+			.text("Gielinor Speaks")
+			.build());
+
+		panelComponent.getChildren().add(LineComponent.builder()
+			.left("Client thread")
+			.right(String.format("%.3f%%", metrics.sampleClientThreadShare() * 100))
+			.build());
+
+		long overBudget = 0;
+		for (Handler handler : HANDLERS) {
+			long invocations = metrics.getInvocations(handler);
+			overBudget += metrics.getOverBudget(handler);
+			if (invocations == 0) {
+				continue;
+			}
+
+			long averageMicros = metrics.getTotalNanos(handler) / invocations / 1000;
+			long maxMicros = metrics.getMaxNanos(handler) / 1000;
+			panelComponent.getChildren().add(LineComponent.builder()
+				.left(handler.getLabel())
+				.right(invocations + " x " + averageMicros + "us (" + maxMicros + ")")
+				.rightColor(metrics.getMaxNanos(handler) > metrics.getBudgetNanos() ? Color.ORANGE : Color.WHITE)
+				.build());
+		}
+
+		panelComponent.getChildren().add(LineComponent.builder()
+			.left("Over budget")
+			.right(Long.toString(overBudget))
+			.rightColor(overBudget > 0 ? Color.RED : Color.GREEN)
+			.build());
+
+		panelComponent.getChildren().add(LineComponent.builder()
+			.left("Memory")
+			.right(Math.round(memoryGovernor.getPressure() * 100) + "%")
+			.build());
+
+		if (memoryGovernor.getShedTierCount() > 0) {
+			panelComponent.getChildren().add(LineComponent.builder()
+				.left("Shed")
+				.right(String.join(", ", memoryGovernor.getShedTierNames()) + " (" + memoryGovernor.getShedEvents() + ")")
+				.rightColor(Color.ORANGE)
+				.build());
+		}
+
+		for (int sizeClass = 0; sizeClass < BufferPool.CLASS_COUNT; sizeClass++) {
+			long hits = bufferPool.getHits(sizeClass);
+			long misses = bufferPool.getMisses(sizeClass);
+			if (hits + misses == 0) {
+				continue;
+			}
+
+			panelComponent.getChildren().add(LineComponent.builder()
+				.left("Buffers " + BufferPool.classBytes(sizeClass) / 1024 + "K")
+				.right(hits + " / " + misses)
+				.build());
+		}
+
+		return super.render(graphics);
+	}
+}
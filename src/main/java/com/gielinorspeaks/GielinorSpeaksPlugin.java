@@ -1,16 +1,37 @@
 package com.gielinorspeaks;
 
-import com.gielinorspeaks.model.DialogueEvent;
+import com.gielinorspeaks.api.VoiceApiClient;
+import com.gielinorspeaks.audio.ClipDecoder;
+import com.gielinorspeaks.buffer.BufferPool;
+import com.gielinorspeaks.cache.CacheScrubber;
+import com.gielinorspeaks.cache.ClipCache;
+import com.gielinorspeaks.cache.ClipWriter;
+import com.gielinorspeaks.cache.MemoryGovernor;
+import com.gielinorspeaks.cache.WarmCacheRetainer;
+import com.gielinorspeaks.metrics.ClientThreadMetrics;
+import com.gielinorspeaks.metrics.jfr.PipelineEvents;
+import com.gielinorspeaks.model.VoiceLine;
 import com.gielinorspeaks.service.DialogueDetectionService;
+import com.gielinorspeaks.service.NpcTable;
 import com.gielinorspeaks.service.OverheadTextService;
+import com.gielinorspeaks.service.QuestPrefetcher;
+import com.gielinorspeaks.service.SpeakerTracker;
+import com.gielinorspeaks.service.VoicePipeline;
 import com.google.inject.Provides;
 import javax.inject.Inject;
 import lombok.extern.slf4j.Slf4j;
 import net.runelite.api.Client;
+import net.runelite.client.callback.ClientThread;
 import net.runelite.client.config.ConfigManager;
 import net.runelite.client.eventbus.EventBus;
+import net.runelite.client.eventbus.Subscribe;
+import net.runelite.client.events.ConfigChanged;
 import net.runelite.client.plugins.Plugin;
 import net.runelite.client.plugins.PluginDescriptor;
+import net.runelite.client.ui.overlay.OverlayManager;
+
+import java.util.List;
+import java.util.Objects;
 
 @Slf4j
 @PluginDescriptor(
@@ -21,9 +42,11 @@ public class GielinorSpeaksPlugin extends Plugin {
 	@Inject
 	private Client client;
 
-	@SuppressWarnings("unused") // Used for future config checks
 	@Inject
-	private GielinorSpeaksConfig config;
+	private ClientThread clientThread;
+
+	@Inject
+	private CachedConfig cachedConfig;
 
 	@Inject
 	private EventBus eventBus;
@@ -34,18 +57,97 @@ public class GielinorSpeaksPlugin extends Plugin {
 	@Inject
 	private OverheadTextService overheadTextService;
 
+	@Inject
+	private SpeakerTracker speakerTracker;
+
+	@Inject
+	private NpcTable npcTable;
+
+	@Inject
+	private QuestPrefetcher questPrefetcher;
+
+	@Inject
+	private VoicePipeline voicePipeline;
+
+	@Inject
+	private ClipDecoder clipDecoder;
+
+	@Inject
+	private VoiceApiClient voiceApiClient;
+
+	@Inject
+	private ClipCache clipCache;
+
+	@Inject
+	private BufferPool bufferPool;
+
+	@Inject
+	private MemoryGovernor memoryGovernor;
+
+	@Inject
+	private WarmCacheRetainer warmCacheRetainer;
+
+	@Inject
+	private CacheScrubber cacheScrubber;
+
+	@Inject
+	private ClipWriter clipWriter;
+
+	@Inject
+	private ClientThreadMetrics clientThreadMetrics;
+
+	@Inject
+	private OverlayManager overlayManager;
+
+	@Inject
+	private GielinorSpeaksDebugOverlay debugOverlay;
+
+	// Registration state, guarded by this
+	private boolean dialogueDetectionRegistered;
+	private boolean overheadTextRegistered;
+	private boolean questPrefetchRegistered;
+
+	/**
+	 * Runs on the client's startup path, so only cheap registration happens here.
+	 * Cache indexes and the audio device are opened in the background by the voice pipeline.
+	 * The audio decoder isn't loaded until the player first interacts with an NPC.
+	 */
 	@Override
 	protected void startUp() {
 		log.info("Gielinor Speaks has started!");
 
-		// Set up callbacks for dialogue events
-		dialogueDetectionService.setDialogueCallback(this::onDialogueDetected);
+		// Set up callbacks for dialogue events, starting from a fresh NPC table; startUp isn't on
+		// the client thread, where the table is used
+		clientThread.invoke(npcTable::clear);
+		dialogueDetectionService.setLineCallback(this::onDialogueDetected);
+		dialogueDetectionService.setRepeatCallback(this::onDialogueRepeated);
 		dialogueDetectionService.setDialogueEndCallback(this::onDialogueEnded);
-		overheadTextService.setDialogueCallback(this::onDialogueDetected);
+		dialogueDetectionService.setInteractionCallback(npc -> clipDecoder.prewarm());
+		overheadTextService.setBatchCallback(this::onOverheadTextDetected);
+		overheadTextService.setSpeakerCallback(speakerTracker::track);
+		questPrefetcher.setBundleCallback(voicePipeline::prefetchQuestBundle);
+
+		// Register services with event bus, only for the sources that are turned on
+		cachedConfig.refresh();
+		voiceApiClient.setBaseUrl(cachedConfig.getVoiceServerUrl());
+		updateSubscriptions();
+		updateDebugTools();
+
+		// Pipeline JFR events stay disabled unless a recording is running
+		PipelineEvents.install();
+
+		// Reuse caches kept from the last run, then open the rest off the client thread
+		warmCacheRetainer.reattach();
+		voicePipeline.start();
+
+		// Verify the disk cache slowly in the background, fetching corrupt clips again
+		cacheScrubber.setCorruptListener(voicePipeline::redownload);
+		cacheScrubber.start();
 
-		// Register services with event bus
-		eventBus.register(dialogueDetectionService);
-		eventBus.register(overheadTextService);
+		// Give cached clips back when the client runs low on memory
+		memoryGovernor.register("Idle buffers", MemoryGovernor.PRIORITY_BUFFER_POOL, bufferPool);
+		memoryGovernor.register("Decoded clips", MemoryGovernor.PRIORITY_DECODED_CLIPS, clipCache);
+		memoryGovernor.start();
 	}
 
 	@Override
@@ -53,34 +155,170 @@ public class GielinorSpeaksPlugin extends Plugin {
 		log.info("Gielinor Speaks has stopped!");
 
 		// Unregister services from event bus
-		eventBus.unregister(dialogueDetectionService);
-		eventBus.unregister(overheadTextService);
+		setDialogueDetectionRegistered(false);
+		setOverheadTextRegistered(false);
+		setQuestPrefetchRegistered(false);
+		overlayManager.remove(debugOverlay);
+		PipelineEvents.uninstall();
+
+		cacheScrubber.stop();
+		cacheScrubber.setCorruptListener(null);
+		voicePipeline.shutdown();
+		memoryGovernor.stop();
+
+		// Finish writing clips the pipeline has queued, so they aren't downloaded again next time
+		try {
+			if (!clipWriter.drain(ClipWriter.DRAIN_TIMEOUT_MILLIS)) {
+				log.warn("Gave up waiting for {} voice clips to be written", clipWriter.getUnfinishedCount());
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		// Keep a bounded amount of cache state around in case the plugin is turned back on
+		if (cachedConfig.isWarmRestart()) {
+			warmCacheRetainer.retain(this, cachedConfig.getRetainedCacheBytes());
+		}
+		else {
+			warmCacheRetainer.release();
+		}
 
 		// Clear callbacks
-		dialogueDetectionService.setDialogueCallback(null);
+		dialogueDetectionService.setLineCallback(null);
+		dialogueDetectionService.setRepeatCallback(null);
 		dialogueDetectionService.setDialogueEndCallback(null);
-		overheadTextService.setDialogueCallback(null);
+		dialogueDetectionService.setInteractionCallback(null);
+		overheadTextService.setBatchCallback(null);
+		overheadTextService.setSpeakerCallback(null);
+		questPrefetcher.setBundleCallback(null);
+	}
+
+	@Subscribe
+	public void onConfigChanged(ConfigChanged event) {
+		if (!GielinorSpeaksConfig.GROUP.equals(event.getGroup())) {
+			return;
+		}
+
+		String previousUrl = cachedConfig.getVoiceServerUrl();
+		cachedConfig.refresh();
+		voiceApiClient.setBaseUrl(cachedConfig.getVoiceServerUrl());
+		boolean questPrefetchWasRegistered = questPrefetchRegistered;
+		updateSubscriptions();
+		updateDebugTools();
+
+		// Another server publishes other quest stages
+		if (questPrefetchWasRegistered && questPrefetchRegistered && !Objects.equals(previousUrl, cachedConfig.getVoiceServerUrl())) {
+			questPrefetcher.reload();
+		}
+	}
+
+	/**
+	 * Registers each detection service only while its source is turned on, so a disabled
+	 * source costs nothing: the event bus never dispatches to it.
+	 */
+	private void updateSubscriptions() {
+		setDialogueDetectionRegistered(cachedConfig.isDialogueBoxActive());
+		setOverheadTextRegistered(cachedConfig.isOverheadTextActive());
+		setQuestPrefetchRegistered(cachedConfig.isQuestPrefetchActive());
+	}
+
+	private void updateDebugTools() {
+		clientThreadMetrics.setBudgetMicros(cachedConfig.getHandlerBudgetMicros());
+		if (cachedConfig.isShowDebugOverlay()) {
+			overlayManager.add(debugOverlay);
+		}
+		else {
+			overlayManager.remove(debugOverlay);
+		}
+	}
+
+	private synchronized void setDialogueDetectionRegistered(boolean register) {
+		if (register == dialogueDetectionRegistered) {
+			return;
+		}
+
+		if (register) {
+			eventBus.register(dialogueDetectionService);
+		}
+		else {
+			eventBus.unregister(dialogueDetectionService);
+		}
+		dialogueDetectionRegistered = register;
+		log.debug("Dialogue box detection {}", register ? "enabled" : "disabled");
+	}
+
+	private synchronized void setOverheadTextRegistered(boolean register) {
+		if (register == overheadTextRegistered) {
+			return;
+		}
+
+		if (register) {
+			eventBus.register(overheadTextService);
+			eventBus.register(speakerTracker);
+		}
+		else {
+			eventBus.unregister(overheadTextService);
+			eventBus.unregister(speakerTracker);
+		}
+		overheadTextRegistered = register;
+		log.debug("Overhead text detection {}", register ? "enabled" : "disabled");
+	}
+
+	private synchronized void setQuestPrefetchRegistered(boolean register) {
+		if (register == questPrefetchRegistered) {
+			return;
+		}
+
+		if (register) {
+			eventBus.register(questPrefetcher);
+			// No login event if the player is already logged in
+			questPrefetcher.reload();
+		}
+		else {
+			eventBus.unregister(questPrefetcher);
+		}
+		questPrefetchRegistered = register;
+		log.debug("Quest dialogue prefetch {}", register ? "enabled" : "disabled");
 	}
 
 	/**
-	 * Handle detected dialogue events from both sources
+	 * Handle detected dialogue box lines
 	 */
-	private void onDialogueDetected(DialogueEvent event) {
+	private void onDialogueDetected(VoiceLine line) {
 		// Phase 1: Just log the dialogue for verification
 		log.info("=== DIALOGUE DETECTED ===");
-		log.info("Source: {}", event.getSource());
-		log.info("NPC: {} (ID: {})", event.getNpcName(), event.getNpcId());
-		log.info("Text: {}", event.getDialogueText());
-		if (event.getAnimationId() != null) {
-			log.info("Animation ID: {}", event.getAnimationId());
+		log.info("Source: {}", line.getSource());
+		log.info("NPC: {} (ID: {})", line.getNpcName(), line.getNpcId());
+		log.info("Text: {}", line.getText());
+		if (line.hasAnimation()) {
+			log.info("Animation ID: {}", line.getAnimationId());
 		}
 		log.info("========================");
 
-		// Future phases will add:
-		// - Dialogue hashing
-		// - Cache check
-		// - API request
-		// - Audio playback
+		PipelineEvents.dialogueDetected(line.getSource(), line.getNpcId());
+		voicePipeline.submit(line);
+	}
+
+	/**
+	 * Handle a game tick's overhead text, handed to the voice pipeline in one go
+	 */
+	private void onOverheadTextDetected(List<VoiceLine> lines) {
+		for (VoiceLine line : lines) {
+			log.debug("Overhead text from {} (ID: {}): {}", line.getNpcName(), line.getNpcId(), line.getText());
+			PipelineEvents.dialogueDetected(line.getSource(), line.getNpcId());
+		}
+		voicePipeline.submitAll(lines);
+	}
+
+	/**
+	 * Handle dialogue lines said again in the same interaction (widget reloads, re-opened conversations)
+	 */
+	private void onDialogueRepeated(VoiceLine line) {
+		log.debug("Dialogue repeated by {} (ID: {}): {}", line.getNpcName(), line.getNpcId(), line.getText());
+
+		PipelineEvents.dialogueDetected(line.getSource(), line.getNpcId());
+		voicePipeline.submitRepeat(line);
 	}
 
 	/**
@@ -91,8 +329,7 @@ public class GielinorSpeaksPlugin extends Plugin {
 		log.info("NPC ID: {}", npcId);
 		log.info("======================");
 
-		// Future phases will add:
-		// - Stop audio playback for this NPC
+		voicePipeline.stopSpeaking(npcId);
 	}
 
 	@SuppressWarnings("unused") // Used by RuneLite dependency injection
@@ -0,0 +1,311 @@
+package com.gielinorspeaks.api;
+
+import com.gielinorspeaks.buffer.BufferPool;
+import com.gielinorspeaks.cache.DialogueHash;
+import com.gielinorspeaks.metrics.jfr.PipelineEvents;
+import com.gielinorspeaks.model.Emotion;
+import com.gielinorspeaks.model.NpcManifest;
+import com.gielinorspeaks.model.QuestStageTable;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSource;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fetches pre-generated voice clips from the voice server.
+ * ===
+ * Clips are addressed by NPC id and dialogue hash:
+ * {@code <base>/npcs/<npcId>/lines/<hash>.wav}, with {@code ?emotion=<emotion>} for any
+ * variant other than neutral. A 404 means the line (or variant) has not been voiced.
+ * ===
+ * Each voiced NPC has a JSON manifest at {@code <base>/npcs/<npcId>/manifest}, carrying the
+ * generation of its voice profile, which the server bumps whenever it regenerates the voice,
+ * and its voiced lines, each by hash and optionally with its text.
+ * ===
+ * The server may also publish a {@link QuestStageTable} at {@code <base>/quests/stages.txt},
+ * listing the lines likely next at each quest stage.
+ * ===
+ * Fetching is disabled until a server URL is configured; the pipeline then only plays clips
+ * that are already cached on disk.
+ * ===
+ * NOTE ON THREAD SAFETY: All fetches block on the network, and may be called from any
+ * background thread: fetchClip() from the voice thread and the pipeline's fetch executor, and
+ * fetchManifest() from the fetch executor, at once. The base URL may be changed from any
+ * thread.
+ */
+@Slf4j
+@Singleton
+public class VoiceApiClient {
+	/**
+	 * Upper bound on a single clip request, including reading the body.
+	 */
+	static final long FETCH_TIMEOUT_SECONDS = 10;
+
+	/**
+	 * Largest clip accepted from the server. A minute of speech is well under this.
+	 */
+	static final int MAX_CLIP_BYTES = 16 * 1024 * 1024;
+
+	/**
+	 * Initial buffer for responses without a Content-Length.
+	 */
+	private static final int UNKNOWN_LENGTH_INITIAL_BYTES = 64 * 1024;
+
+	private final OkHttpClient httpClient;
+	private final Gson gson;
+
+	@Nullable
+	private volatile HttpUrl baseUrl;
+
+	@Inject
+	public VoiceApiClient(OkHttpClient httpClient, Gson gson) {
+		this.httpClient = httpClient.newBuilder()
+			.callTimeout(FETCH_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+			.build();
+		this.gson = gson;
+	}
+
+	/**
+	 * Sets the voice server to fetch from. An empty or malformed URL disables fetching.
+	 */
+	public void setBaseUrl(@Nullable String url) {
+		String trimmed = url == null ? "" : url.trim();
+		if (trimmed.isEmpty()) {
+			baseUrl = null;
+			return;
+		}
+
+		HttpUrl parsed = HttpUrl.parse(trimmed);
+		if (parsed == null) {
+			log.warn("Ignoring malformed voice server URL: {}", trimmed);
+		}
+		baseUrl = parsed;
+	}
+
+	public boolean isConfigured() {
+		return baseUrl != null;
+	}
+
+	/**
+	 * Downloads the encoded clip for a variant of a line into a buffer from {@code pool}.
+	 * The caller must release the buffer back to the pool.
+	 *
+	 * @return the clip, flipped for reading, or null if the line has not been voiced or no
+	 * server is configured
+	 * @throws IOException if the request fails or the server returns an error
+	 */
+	@Nullable
+	public ByteBuffer fetchClip(int npcId, long dialogueHash, Emotion emotion, BufferPool pool) throws IOException {
+		HttpUrl base = baseUrl;
+		if (base == null) {
+			return null;
+		}
+
+		HttpUrl.Builder urlBuilder = base.newBuilder()
+			.addPathSegment("npcs")
+			.addPathSegment(Integer.toString(npcId))
+			.addPathSegment("lines")
+			.addPathSegment(DialogueHash.toHex(dialogueHash) + ".wav");
+		if (emotion != Emotion.NEUTRAL) {
+			urlBuilder.addQueryParameter("emotion", emotion.getKey());
+		}
+		HttpUrl url = urlBuilder.build();
+		Request request = new Request.Builder()
+			.url(url)
+			.build();
+
+		Object event = PipelineEvents.beginFetch();
+		int status = 0;
+		long bytes = 0;
+		try (Response response = httpClient.newCall(request).execute()) {
+			status = response.code();
+			if (status == 404) {
+				return null;
+			}
+			if (!response.isSuccessful()) {
+				throw new IOException("Voice server returned " + status + " for " + url);
+			}
+
+			ResponseBody body = response.body();
+			if (body == null) {
+				throw new IOException("Empty response for " + url);
+			}
+			ByteBuffer clip = readBody(body, pool);
+			bytes = clip.remaining();
+			return clip;
+		}
+		finally {
+			PipelineEvents.endFetch(event, npcId, dialogueHash, status, bytes);
+		}
+	}
+
+	/**
+	 * Reads an NPC's manifest: its voice profile generation and the voiced lines listed with
+	 * their text. Lines without text or with a malformed hash are left out.
+	 *
+	 * @return the manifest, or null if the NPC has none (it isn't voiced) or no server is
+	 * configured
+	 * @throws IOException if the request fails, the server returns an error or the manifest
+	 * can't be read
+	 */
+	@Nullable
+	public NpcManifest fetchManifest(int npcId) throws IOException {
+		HttpUrl base = baseUrl;
+		if (base == null) {
+			return null;
+		}
+
+		HttpUrl url = base.newBuilder()
+			.addPathSegment("npcs")
+			.addPathSegment(Integer.toString(npcId))
+			.addPathSegment("manifest")
+			.build();
+		Request request = new Request.Builder()
+			.url(url)
+			.build();
+
+		try (Response response = httpClient.newCall(request).execute()) {
+			if (response.code() == 404) {
+				return null;
+			}
+			if (!response.isSuccessful()) {
+				throw new IOException("Voice server returned " + response.code() + " for " + url);
+			}
+
+			ResponseBody body = response.body();
+			if (body == null) {
+				throw new IOException("Empty response for " + url);
+			}
+			Manifest manifest = gson.fromJson(body.charStream(), Manifest.class);
+			// Manifests from before generations were introduced describe generation 0
+			return manifest != null ? manifest.toNpcManifest() : new NpcManifest(0, new long[0], new String[0]);
+		}
+		catch (JsonParseException e) {
+			throw new IOException("Malformed manifest at " + url, e);
+		}
+	}
+
+	/**
+	 * Downloads the quest stage table.
+	 *
+	 * @return the table, {@link QuestStageTable#EMPTY} if the server doesn't publish one, or
+	 * null if no server is configured
+	 * @throws IOException if the request fails or the server returns an error
+	 */
+	@Nullable
+	public QuestStageTable fetchQuestStages() throws IOException {
+		HttpUrl base = baseUrl;
+		if (base == null) {
+			return null;
+		}
+
+		HttpUrl url = base.newBuilder()
+			.addPathSegment("quests")
+			.addPathSegment("stages.txt")
+			.build();
+		Request request = new Request.Builder()
+			.url(url)
+			.build();
+
+		try (Response response = httpClient.newCall(request).execute()) {
+			if (response.code() == 404) {
+				return QuestStageTable.EMPTY;
+			}
+			if (!response.isSuccessful()) {
+				throw new IOException("Voice server returned " + response.code() + " for " + url);
+			}
+
+			ResponseBody body = response.body();
+			if (body == null) {
+				throw new IOException("Empty response for " + url);
+			}
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(body.byteStream(), StandardCharsets.UTF_8))) {
+				return QuestStageTable.parse(reader);
+			}
+		}
+	}
+
+	/**
+	 * The part of an NPC's manifest the client reads; the emotions of each line are ignored.
+	 */
+	private static final class Manifest {
+		private int generation;
+		private List<ManifestLine> lines;
+
+		private NpcManifest toNpcManifest() {
+			int count = 0;
+			long[] hashes = new long[lines != null ? lines.size() : 0];
+			String[] texts = new String[hashes.length];
+			for (int i = 0; i < hashes.length; i++) {
+				ManifestLine line = lines.get(i);
+				if (line == null || line.hash == null || line.text == null || line.text.isEmpty()) {
+					continue;
+				}
+				try {
+					hashes[count] = DialogueHash.fromHex(line.hash);
+				}
+				catch (NumberFormatException e) {
+					continue;
+				}
+				texts[count++] = line.text;
+			}
+			return new NpcManifest(generation, Arrays.copyOf(hashes, count), Arrays.copyOf(texts, count));
+		}
+	}
+
+	private static final class ManifestLine {
+		private String hash;
+		private String text;
+	}
+
+	/**
+	 * Reads a response body into a pooled buffer, sized from Content-Length when the server
+	 * sends one and grown a size class at a time when it doesn't. Reads through the body's own
+	 * source rather than Channels.newChannel, whose read holds a lock across the blocking socket
+	 * read and so pins a virtual thread to its carrier.
+	 */
+	private static ByteBuffer readBody(ResponseBody body, BufferPool pool) throws IOException {
+		long length = body.contentLength();
+		if (length > MAX_CLIP_BYTES) {
+			throw new IOException("Clip too large: " + length + " bytes");
+		}
+
+		ByteBuffer buffer = pool.acquire(length > 0 ? (int) length : UNKNOWN_LENGTH_INITIAL_BYTES);
+		try (BufferedSource source = body.source()) {
+			while (true) {
+				if (!buffer.hasRemaining()) {
+					if (buffer.capacity() >= MAX_CLIP_BYTES) {
+						throw new IOException("Clip larger than " + MAX_CLIP_BYTES + " bytes");
+					}
+					buffer = pool.grow(buffer, buffer.capacity() * 2);
+				}
+				if (source.read(buffer) < 0) {
+					break;
+				}
+			}
+			buffer.flip();
+			return buffer;
+		}
+		catch (IOException | RuntimeException e) {
+			pool.release(buffer);
+			throw e;
+		}
+	}
+}
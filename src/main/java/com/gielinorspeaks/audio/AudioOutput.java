@@ -0,0 +1,222 @@
+package com.gielinorspeaks.audio;
+
+import com.gielinorspeaks.metrics.jfr.PipelineEvents;
+import com.gielinorspeaks.model.VoiceLine;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Owns the audio output device and plays voice clips on a dedicated audio thread.
+ * ===
+ * Opening the device can block for hundreds of milliseconds on some systems (and fail outright
+ * on headless ones), so {@link #open()} is called from the background initializer, never from
+ * the client thread. When no device is available, playback requests are ignored.
+ * ===
+ * Only one clip plays at a time: starting a new clip interrupts the current one.
+ * ===
+ * Clips arrive already in {@link #OUTPUT_FORMAT} and loudness-normalized (see
+ * {@link ClipProcessor}), so playback only spreads each mono sample over the two channels of
+ * the {@link #LINE_FORMAT stereo line}.
+ * ===
+ * PLACEMENT:
+ * A clip played for a speaker (an NPC in the scene) is scaled by that speaker's left and right
+ * gain from {@link SpeakerGains}, read once per chunk of {@link #WRITE_CHUNK_BYTES} without
+ * locking. The gains are ramped across each chunk from the previous chunk's, so a speaker
+ * moving between ticks doesn't click. Clips without a speaker play centered at full volume.
+ */
+@Slf4j
+@Singleton
+public class AudioOutput {
+	/**
+	 * Format of the clips' PCM: 22.05kHz, 16-bit, mono, signed little-endian.
+	 */
+	public static final AudioFormat OUTPUT_FORMAT = new AudioFormat(22050f, 16, 1, true, false);
+
+	/**
+	 * Format of the device line: {@link #OUTPUT_FORMAT} in stereo, so voices can be panned.
+	 */
+	static final AudioFormat LINE_FORMAT = new AudioFormat(22050f, 16, 2, true, false);
+
+	/**
+	 * Mono bytes per chunk written to the line, about 90ms; gains are read once per chunk.
+	 */
+	static final int WRITE_CHUNK_BYTES = 4096;
+
+	private final SpeakerGains speakerGains;
+
+	// Audio thread only
+	private final byte[] stereoChunk = new byte[WRITE_CHUNK_BYTES * 2];
+	private final float[] targetGains = new float[2];
+
+	/**
+	 * Incremented to interrupt whatever is currently playing.
+	 */
+	private final AtomicInteger playbackGeneration = new AtomicInteger();
+
+	/**
+	 * Playback generation of the last clip the audio thread finished writing, or gave up on.
+	 */
+	private volatile int finishedGeneration;
+
+	private volatile SourceDataLine line;
+	private ExecutorService audioExecutor;
+
+	@Inject
+	public AudioOutput(SpeakerGains speakerGains) {
+		this.speakerGains = speakerGains;
+	}
+
+	/**
+	 * Opens the output device. Safe to call again after {@link #close()}.
+	 */
+	public synchronized void open() {
+		if (line != null) {
+			return;
+		}
+
+		try {
+			SourceDataLine newLine = AudioSystem.getSourceDataLine(LINE_FORMAT);
+			newLine.open(LINE_FORMAT);
+			newLine.start();
+
+			audioExecutor = Executors.newSingleThreadExecutor(r -> {
+				Thread thread = new Thread(r, "gielinor-speaks-audio");
+				thread.setDaemon(true);
+				return thread;
+			});
+			line = newLine;
+			log.debug("Opened audio output: {}", LINE_FORMAT);
+		}
+		catch (LineUnavailableException | IllegalArgumentException | SecurityException e) {
+			log.warn("No audio output device available, voices will not be played", e);
+		}
+	}
+
+	/**
+	 * Plays PCM in {@link #OUTPUT_FORMAT}, interrupting any clip that is already playing.
+	 * Returns immediately; device writes happen on the audio thread.
+	 *
+	 * @param speaker scene index of the NPC whose {@link SpeakerGains} to follow, or
+	 *                {@link VoiceLine#NO_SPEAKER} to play centered at full volume
+	 * @return the clip's playback generation, for {@link #isPlaying(int)}; 0 if there is no device
+	 */
+	public int play(byte[] pcm, int speaker) {
+		if (line == null) {
+			return 0;
+		}
+
+		int generation = playbackGeneration.incrementAndGet();
+		audioExecutor.execute(() -> write(pcm, speaker, generation));
+		return generation;
+	}
+
+	/**
+	 * Whether the clip of a playback generation returned by {@link #play} is still queued or
+	 * being written, and hasn't been interrupted.
+	 */
+	public boolean isPlaying(int generation) {
+		return line != null && generation == playbackGeneration.get() && generation != finishedGeneration;
+	}
+
+	/**
+	 * Stops the clip of a playback generation returned by {@link #play}, unless another clip
+	 * has been played or it has already been stopped.
+	 */
+	public void stop(int generation) {
+		if (!playbackGeneration.compareAndSet(generation, generation + 1)) {
+			return;
+		}
+		SourceDataLine current = line;
+		if (current != null) {
+			current.flush();
+		}
+	}
+
+	/**
+	 * Stops playback and releases the output device.
+	 */
+	public synchronized void close() {
+		SourceDataLine current = line;
+		if (current == null) {
+			return;
+		}
+
+		line = null;
+		playbackGeneration.incrementAndGet();
+		audioExecutor.shutdownNow();
+		current.stop();
+		current.close();
+		log.debug("Closed audio output");
+	}
+
+	private void write(byte[] pcm, int speaker, int generation) {
+		SourceDataLine current = line;
+		Object event = PipelineEvents.beginPlayback();
+		boolean interrupted = false;
+
+		// Starts at the speaker's current gains rather than ramping up to them
+		targetGains[0] = 1;
+		targetGains[1] = 1;
+		if (speaker != VoiceLine.NO_SPEAKER) {
+			speakerGains.read(speaker, targetGains);
+		}
+		float left = targetGains[0];
+		float right = targetGains[1];
+
+		try {
+			for (int offset = 0; offset < pcm.length; offset += WRITE_CHUNK_BYTES) {
+				if (current == null || generation != playbackGeneration.get()) {
+					interrupted = true;
+					return;
+				}
+
+				// A speaker that lost its slot keeps its last gains
+				if (speaker != VoiceLine.NO_SPEAKER) {
+					speakerGains.read(speaker, targetGains);
+				}
+				int length = Math.min(WRITE_CHUNK_BYTES, pcm.length - offset);
+				spread(pcm, offset, length, stereoChunk, left, right, targetGains[0], targetGains[1]);
+				left = targetGains[0];
+				right = targetGains[1];
+				current.write(stereoChunk, 0, length / 2 * LINE_FORMAT.getFrameSize());
+			}
+		}
+		finally {
+			finishedGeneration = generation;
+			PipelineEvents.endPlayback(event, pcm.length, interrupted);
+		}
+	}
+
+	/**
+	 * Spreads 16-bit mono samples over two channels, ramping each channel's gain linearly
+	 * from its start to its end value across the chunk.
+	 */
+	static void spread(byte[] mono, int offset, int length, byte[] stereo, float leftFrom, float rightFrom,
+		float leftTo, float rightTo) {
+		int samples = length / 2;
+		float leftStep = (leftTo - leftFrom) / samples;
+		float rightStep = (rightTo - rightFrom) / samples;
+		for (int i = 0; i < samples; i++) {
+			int sample = (short) ((mono[offset + i * 2] & 0xff) | (mono[offset + i * 2 + 1] << 8));
+			int leftSample = clamp(Math.round(sample * (leftFrom + leftStep * i)));
+			int rightSample = clamp(Math.round(sample * (rightFrom + rightStep * i)));
+			stereo[i * 4] = (byte) leftSample;
+			stereo[i * 4 + 1] = (byte) (leftSample >> 8);
+			stereo[i * 4 + 2] = (byte) rightSample;
+			stereo[i * 4 + 3] = (byte) (rightSample >> 8);
+		}
+	}
+
+	private static int clamp(int sample) {
+		return Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, sample));
+	}
+}
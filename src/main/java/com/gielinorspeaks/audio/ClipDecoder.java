@@ -0,0 +1,130 @@
+package com.gielinorspeaks.audio;
+
+import com.gielinorspeaks.buffer.BufferPool;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Entry point for decoding clips, so nothing of the decoder is loaded until a clip needs it.
+ * ===
+ * The {@link ClipProcessor} decodes through the sound system's service providers. The first
+ * decode looks up and loads every installed file reader (the MIDI one brings in the software
+ * synthesizer) and format converter, and runs the resampler cold; together these take long
+ * enough to be felt. This class references none of it, so constructing it at startup is free.
+ * ===
+ * PRE-WARMING:
+ * {@link #prewarm()} decodes a short synthesized clip once, on a low priority background
+ * thread. It is called when the player first interacts with an NPC, so the decoder is loaded
+ * before the first clip comes back from the server. A clip decoded before the warm-up is done
+ * pays the remaining cost itself, as it would without pre-warming.
+ */
+@Slf4j
+@Singleton
+public class ClipDecoder {
+	/**
+	 * @see ClipProcessor#VERSION
+	 */
+	public static final int VERSION = ClipProcessor.VERSION;
+
+	/**
+	 * Format of the warm-up clip: mono WAV at a rate that needs resampling.
+	 */
+	static final int WARM_UP_SAMPLE_RATE = 16000;
+	static final int WARM_UP_MILLIS = 100;
+
+	private static final int WAV_HEADER_BYTES = 44;
+
+	private final AtomicBoolean warmUpStarted = new AtomicBoolean();
+	private final CountDownLatch warm = new CountDownLatch(1);
+
+	@Inject
+	public ClipDecoder() {
+	}
+
+	/**
+	 * Processes an encoded clip, leaving the buffer's position unchanged.
+	 *
+	 * @see ClipProcessor#process(ByteBuffer, BufferPool)
+	 */
+	public byte[] process(ByteBuffer clip, @Nullable BufferPool pool) throws UnsupportedAudioFileException, IOException {
+		// A real clip warms the decoder as well as a synthesized one
+		warmUpStarted.set(true);
+		try {
+			return ClipProcessor.process(clip, pool);
+		}
+		finally {
+			warm.countDown();
+		}
+	}
+
+	/**
+	 * Loads the decoder in the background, unless that has already started. Returns
+	 * immediately; safe to call from the client thread.
+	 */
+	public void prewarm() {
+		if (warmUpStarted.get() || !warmUpStarted.compareAndSet(false, true)) {
+			return;
+		}
+
+		Thread thread = new Thread(this::warmUp, "gielinor-speaks-decoder");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
+	}
+
+	public boolean isWarm() {
+		return warm.getCount() == 0;
+	}
+
+	/**
+	 * Waits for the decoder to have been loaded, by a warm-up or a clip.
+	 *
+	 * @return false if it still wasn't after {@code timeoutMillis}
+	 */
+	public boolean awaitWarm(long timeoutMillis) throws InterruptedException {
+		return warm.await(timeoutMillis, TimeUnit.MILLISECONDS);
+	}
+
+	private void warmUp() {
+		long start = System.nanoTime();
+		try {
+			ClipProcessor.process(ByteBuffer.wrap(synthesize()), null);
+			log.debug("Loaded the audio decoder in {}ms", (System.nanoTime() - start) / 1_000_000);
+		}
+		catch (UnsupportedAudioFileException | IOException | RuntimeException e) {
+			// Clips report their own decoding failures
+			log.debug("Unable to warm up the audio decoder", e);
+		}
+		finally {
+			warm.countDown();
+		}
+	}
+
+	/**
+	 * A quiet tone in a 16-bit mono WAV, so every step from decoding to normalization runs.
+	 */
+	static byte[] synthesize() {
+		int frames = WARM_UP_SAMPLE_RATE * WARM_UP_MILLIS / 1000;
+		ByteBuffer wav = ByteBuffer.allocate(WAV_HEADER_BYTES + frames * 2).order(ByteOrder.LITTLE_ENDIAN);
+		wav.put("RIFF".getBytes(StandardCharsets.US_ASCII)).putInt(36 + frames * 2)
+			.put("WAVEfmt ".getBytes(StandardCharsets.US_ASCII)).putInt(16)
+			.putShort((short) 1).putShort((short) 1).putInt(WARM_UP_SAMPLE_RATE).putInt(WARM_UP_SAMPLE_RATE * 2)
+			.putShort((short) 2).putShort((short) 16)
+			.put("data".getBytes(StandardCharsets.US_ASCII)).putInt(frames * 2);
+		for (int i = 0; i < frames; i++) {
+			wav.putShort((short) (Math.sin(2 * Math.PI * 440 * i / WARM_UP_SAMPLE_RATE) * 1000));
+		}
+		return wav.array();
+	}
+}
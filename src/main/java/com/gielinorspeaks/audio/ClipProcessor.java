@@ -0,0 +1,238 @@
+package com.gielinorspeaks.audio;
+
+import com.gielinorspeaks.buffer.BufferPool;
+import com.gielinorspeaks.buffer.ByteBufferInputStream;
+
+import javax.annotation.Nullable;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Turns an encoded clip into PCM that can be written to the output line as is.
+ * ===
+ * Runs once per clip, when it enters the local cache; the result is stored next to the
+ * original so later plays skip all of this. Steps:
+ * 1. Decode to 16-bit PCM at the clip's own sample rate, mixing down to mono.
+ * 2. Resample to {@link AudioOutput#OUTPUT_FORMAT} with a windowed-sinc filter.
+ * 3. Measure loudness and apply a single gain to bring it to {@link #TARGET_LOUDNESS_DB}.
+ * ===
+ * LOUDNESS:
+ * Mean square level over {@link #BLOCK_MILLIS} blocks, ignoring blocks quieter than
+ * {@link #SILENCE_GATE_DB} so pauses between words don't make a line look quiet. This is the
+ * gating scheme of ITU-R BS.1770 without its frequency weighting, which matters little for
+ * speech. The gain is capped so the loudest sample stays under {@link #PEAK_CEILING_DB} and
+ * near-silent clips aren't boosted into noise.
+ */
+public final class ClipProcessor {
+	/**
+	 * Version of the processing, stored with the result. Bump when the output changes so
+	 * previously processed clips are redone.
+	 */
+	public static final int VERSION = 1;
+
+	static final double TARGET_LOUDNESS_DB = -20;
+	static final double SILENCE_GATE_DB = -60;
+	static final double PEAK_CEILING_DB = -1;
+	static final double MAX_GAIN_DB = 18;
+	static final int BLOCK_MILLIS = 100;
+
+	/**
+	 * Half-width of the resampling filter, in input samples at the output rate.
+	 */
+	private static final int RESAMPLE_TAPS = 8;
+
+	private static final int READ_CHUNK_BYTES = 4096;
+
+	private static final class Decoded {
+		private final float[] samples;
+		private final float sampleRate;
+
+		private Decoded(float[] samples, float sampleRate) {
+			this.samples = samples;
+			this.sampleRate = sampleRate;
+		}
+	}
+
+	private ClipProcessor() {
+	}
+
+	/**
+	 * Processes the remaining bytes of an encoded clip, leaving the buffer's position unchanged.
+	 *
+	 * @param pool used for intermediate buffers, if given
+	 * @return PCM in {@link AudioOutput#OUTPUT_FORMAT}, loudness-normalized
+	 * @throws IllegalArgumentException if the clip's encoding can't be decoded
+	 */
+	public static byte[] process(ByteBuffer clip, @Nullable BufferPool pool) throws UnsupportedAudioFileException, IOException {
+		Decoded decoded = decodeMono(clip, pool);
+		float[] resampled = resample(decoded.samples, decoded.sampleRate, AudioOutput.OUTPUT_FORMAT.getSampleRate());
+		double gain = normalizationGain(resampled, AudioOutput.OUTPUT_FORMAT.getSampleRate());
+		return toPcm16(resampled, gain);
+	}
+
+	/**
+	 * Decodes to mono samples in [-1, 1] at the clip's own sample rate.
+	 */
+	private static Decoded decodeMono(ByteBuffer clip, @Nullable BufferPool pool) throws UnsupportedAudioFileException, IOException {
+		try (AudioInputStream source = AudioSystem.getAudioInputStream(new ByteBufferInputStream(clip.duplicate()))) {
+			AudioFormat original = source.getFormat();
+			AudioFormat pcm16 = new AudioFormat(original.getSampleRate(), 16, original.getChannels(), true, false);
+			try (AudioInputStream converted = pcm16.matches(original) ? source : AudioSystem.getAudioInputStream(pcm16, source)) {
+				int channels = pcm16.getChannels();
+				ByteBuffer bytes = readAll(converted, clip.remaining(), pool);
+				try {
+					bytes.order(ByteOrder.LITTLE_ENDIAN);
+					int frames = bytes.remaining() / (2 * channels);
+					float[] samples = new float[frames];
+					for (int frame = 0; frame < frames; frame++) {
+						int sum = 0;
+						for (int channel = 0; channel < channels; channel++) {
+							sum += bytes.getShort();
+						}
+						samples[frame] = sum / (32768f * channels);
+					}
+					return new Decoded(samples, pcm16.getSampleRate());
+				}
+				finally {
+					if (pool != null) {
+						pool.release(bytes);
+					}
+				}
+			}
+		}
+	}
+
+	private static ByteBuffer readAll(AudioInputStream stream, int sizeHint, @Nullable BufferPool pool) throws IOException {
+		long known = stream.getFrameLength() * stream.getFormat().getFrameSize();
+		int capacity = stream.getFrameLength() != AudioSystem.NOT_SPECIFIED && known <= Integer.MAX_VALUE
+			? (int) known
+			: sizeHint;
+		ByteBuffer out = pool != null ? pool.acquire(capacity) : ByteBuffer.allocate(capacity);
+		byte[] chunk = new byte[READ_CHUNK_BYTES];
+		try {
+			int read;
+			while ((read = stream.read(chunk)) != -1) {
+				if (out.remaining() < read) {
+					out = grow(out, Math.max(out.capacity() * 2, out.position() + read), pool);
+				}
+				out.put(chunk, 0, read);
+			}
+			out.flip();
+			return out;
+		}
+		catch (IOException | RuntimeException e) {
+			if (pool != null) {
+				pool.release(out);
+			}
+			throw e;
+		}
+	}
+
+	private static ByteBuffer grow(ByteBuffer buffer, int capacity, @Nullable BufferPool pool) {
+		if (pool != null) {
+			return pool.grow(buffer, capacity);
+		}
+		ByteBuffer larger = ByteBuffer.allocate(capacity);
+		buffer.flip();
+		return larger.put(buffer);
+	}
+
+	/**
+	 * Resamples with a Lanczos-windowed sinc filter. When downsampling, the filter cutoff is
+	 * lowered to the output Nyquist frequency so nothing above it aliases back down.
+	 */
+	static float[] resample(float[] input, float inputRate, float outputRate) {
+		if (inputRate == outputRate || input.length == 0) {
+			return input;
+		}
+
+		double step = inputRate / outputRate;
+		double cutoff = Math.min(1.0, 1.0 / step);
+		double halfWidth = RESAMPLE_TAPS / cutoff;
+		int outputLength = (int) Math.floor(input.length / step);
+		float[] output = new float[outputLength];
+
+		for (int i = 0; i < outputLength; i++) {
+			double center = i * step;
+			int first = Math.max(0, (int) Math.ceil(center - halfWidth));
+			int last = Math.min(input.length - 1, (int) Math.floor(center + halfWidth));
+			double sum = 0;
+			double weights = 0;
+			for (int j = first; j <= last; j++) {
+				double x = (center - j) * cutoff;
+				double weight = sinc(x) * sinc(x / RESAMPLE_TAPS);
+				sum += input[j] * weight;
+				weights += weight;
+			}
+			// Normalizing by the summed weights keeps DC gain at 1, including at the edges
+			output[i] = weights != 0 ? (float) (sum / weights) : 0f;
+		}
+		return output;
+	}
+
+	private static double sinc(double x) {
+		if (x == 0) {
+			return 1;
+		}
+		double px = Math.PI * x;
+		return Math.sin(px) / px;
+	}
+
+	/**
+	 * Gain (as a linear factor) that brings the gated loudness to the target, within the
+	 * peak and maximum-gain limits.
+	 */
+	static double normalizationGain(float[] samples, float sampleRate) {
+		int blockLength = Math.max(1, (int) (sampleRate * BLOCK_MILLIS / 1000));
+		double gate = dbToPower(SILENCE_GATE_DB);
+		double gatedSum = 0;
+		int gatedBlocks = 0;
+		float peak = 0;
+
+		for (int start = 0; start < samples.length; start += blockLength) {
+			int end = Math.min(samples.length, start + blockLength);
+			double sumSquares = 0;
+			for (int i = start; i < end; i++) {
+				float sample = samples[i];
+				sumSquares += sample * sample;
+				peak = Math.max(peak, Math.abs(sample));
+			}
+
+			double meanSquare = sumSquares / (end - start);
+			if (meanSquare >= gate) {
+				gatedSum += meanSquare;
+				gatedBlocks++;
+			}
+		}
+
+		if (gatedBlocks == 0 || peak == 0) {
+			// Silence; nothing to normalize
+			return 1;
+		}
+
+		double loudnessDb = 10 * Math.log10(gatedSum / gatedBlocks);
+		double gainDb = Math.min(TARGET_LOUDNESS_DB - loudnessDb, MAX_GAIN_DB);
+		double peakLimitDb = PEAK_CEILING_DB - 20 * Math.log10(peak);
+		return Math.pow(10, Math.min(gainDb, peakLimitDb) / 20);
+	}
+
+	private static double dbToPower(double db) {
+		return Math.pow(10, db / 10);
+	}
+
+	private static byte[] toPcm16(float[] samples, double gain) {
+		byte[] pcm = new byte[samples.length * 2];
+		for (int i = 0; i < samples.length; i++) {
+			long value = Math.round(samples[i] * gain * 32767);
+			short sample = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value));
+			pcm[2 * i] = (byte) sample;
+			pcm[2 * i + 1] = (byte) (sample >> 8);
+		}
+		return pcm;
+	}
+}
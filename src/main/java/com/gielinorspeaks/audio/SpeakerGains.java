@@ -0,0 +1,124 @@
+package com.gielinorspeaks.audio;
+
+import com.gielinorspeaks.model.VoiceLine;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+/**
+ * Left and right gain of each NPC whose voice is placed in the scene, shared between the
+ * client thread, which computes them once per game tick, and the audio thread, which applies
+ * them to every chunk it plays.
+ * ===
+ * A fixed table of {@link #MAX_SPEAKERS} slots in two primitive arrays: the speaker's scene
+ * index per slot, and its left and right gain interleaved. Updates never allocate.
+ * ===
+ * NOTE ON THREAD SAFETY: A sequence lock, with the client thread as the only writer. Writes
+ * happen between {@link #beginUpdate()} and {@link #endUpdate()}, which make the sequence odd
+ * and then even again; {@link #read} copies a speaker's gains and retries if the sequence
+ * changed meanwhile. The audio thread never blocks, and a batch of updates is seen whole.
+ */
+@Singleton
+public class SpeakerGains {
+	public static final int MAX_SPEAKERS = 8;
+
+	/**
+	 * Scene index of the speaker in each slot, or {@link VoiceLine#NO_SPEAKER} if free.
+	 */
+	private final int[] speakers = new int[MAX_SPEAKERS];
+
+	/**
+	 * Left and right gain of the speaker in each slot.
+	 */
+	private final float[] gains = new float[MAX_SPEAKERS * 2];
+
+	/**
+	 * Odd while an update is in progress.
+	 */
+	private volatile int sequence;
+
+	@Inject
+	public SpeakerGains() {
+		Arrays.fill(speakers, VoiceLine.NO_SPEAKER);
+	}
+
+	// ===========================
+	// Client thread
+	// ===========================
+
+	public void beginUpdate() {
+		sequence++;
+		// Keeps the writes below from being seen before the sequence turns odd
+		VarHandle.storeStoreFence();
+	}
+
+	public void endUpdate() {
+		sequence++;
+	}
+
+	/**
+	 * Slot of a speaker, or -1 if it has none.
+	 */
+	public int slotOf(int speaker) {
+		for (int slot = 0; slot < MAX_SPEAKERS; slot++) {
+			if (speakers[slot] == speaker) {
+				return slot;
+			}
+		}
+		return -1;
+	}
+
+	public int getSpeaker(int slot) {
+		return speakers[slot];
+	}
+
+	/**
+	 * Puts a speaker and its gains in a slot. Only between {@link #beginUpdate()} and
+	 * {@link #endUpdate()}.
+	 */
+	public void set(int slot, int speaker, float left, float right) {
+		speakers[slot] = speaker;
+		gains[slot * 2] = left;
+		gains[slot * 2 + 1] = right;
+	}
+
+	/**
+	 * Frees a slot. Only between {@link #beginUpdate()} and {@link #endUpdate()}.
+	 */
+	public void clear(int slot) {
+		speakers[slot] = VoiceLine.NO_SPEAKER;
+	}
+
+	// ===========================
+	// Audio thread
+	// ===========================
+
+	/**
+	 * Copies a speaker's left and right gain into {@code out}.
+	 *
+	 * @return false if the speaker has no slot, leaving {@code out} unchanged
+	 */
+	public boolean read(int speaker, float[] out) {
+		while (true) {
+			int before = sequence;
+			if ((before & 1) == 0) {
+				int slot = slotOf(speaker);
+				float left = slot >= 0 ? gains[slot * 2] : 0;
+				float right = slot >= 0 ? gains[slot * 2 + 1] : 0;
+				// Keeps the reads above from being satisfied after the check below
+				VarHandle.loadLoadFence();
+				if (sequence == before) {
+					if (slot < 0) {
+						return false;
+					}
+					out[0] = left;
+					out[1] = right;
+					return true;
+				}
+			}
+			Thread.onSpinWait();
+		}
+	}
+}
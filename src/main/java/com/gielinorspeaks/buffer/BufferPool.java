@@ -0,0 +1,195 @@
+package com.gielinorspeaks.buffer;
+
+import com.gielinorspeaks.cache.Sheddable;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Pool of direct byte buffers for clip downloads, disk reads and decoding.
+ * ===
+ * SIZE CLASSES:
+ * Buffers come in power-of-two sizes from {@link #MIN_CLASS_BYTES} to {@link #MAX_CLASS_BYTES}.
+ * A request is served from the smallest class that fits, so a buffer is at most twice the size
+ * asked for. Up to {@link #MAX_IDLE_PER_CLASS} released buffers are kept per class; requests
+ * above the largest class get an unpooled buffer.
+ * ===
+ * USAGE:
+ * Every buffer from {@link #acquire(int)} must be handed back with {@link #release(ByteBuffer)}
+ * once the caller is done with it, usually in a finally block. Lent buffers are tracked by
+ * identity ({@link #getOutstandingCount()}) so tests can check nothing leaks, and releasing a
+ * direct buffer the pool didn't lend, or has already had back, throws.
+ * ===
+ * Registered with the memory governor as the first tier to shed: while shed, idle buffers are
+ * dropped and released buffers are left to the garbage collector.
+ * ===
+ * NOTE ON THREAD SAFETY: All methods are synchronized. Buffers are acquired a few times per
+ * voiced line, from the voice thread and the pipeline's fetch and disk executors.
+ */
+@Slf4j
+@Singleton
+public class BufferPool implements Sheddable {
+	static final int MIN_CLASS_SHIFT = 12;
+	static final int MAX_CLASS_SHIFT = 22;
+	public static final int MIN_CLASS_BYTES = 1 << MIN_CLASS_SHIFT;
+	public static final int MAX_CLASS_BYTES = 1 << MAX_CLASS_SHIFT;
+	public static final int CLASS_COUNT = MAX_CLASS_SHIFT - MIN_CLASS_SHIFT + 1;
+	static final int MAX_IDLE_PER_CLASS = 2;
+
+	private final ByteBuffer[][] idle = new ByteBuffer[CLASS_COUNT][MAX_IDLE_PER_CLASS];
+	private final int[] idleCounts = new int[CLASS_COUNT];
+	private final long[] hits = new long[CLASS_COUNT];
+	private final long[] misses = new long[CLASS_COUNT];
+	private long oversized;
+	/**
+	 * Buffers acquired and not yet released. By identity, as buffers compare by content.
+	 */
+	private final Set<ByteBuffer> lent = Collections.newSetFromMap(new IdentityHashMap<>());
+	private boolean shed;
+
+	@Inject
+	public BufferPool() {
+	}
+
+	/**
+	 * Returns a cleared direct buffer with at least {@code minCapacity} bytes of capacity.
+	 * The limit is set to the capacity.
+	 */
+	public synchronized ByteBuffer acquire(int minCapacity) {
+		if (minCapacity < 0) {
+			throw new IllegalArgumentException("Negative capacity: " + minCapacity);
+		}
+
+		int sizeClass = sizeClass(minCapacity);
+		if (sizeClass < 0) {
+			oversized++;
+			return lend(ByteBuffer.allocateDirect(minCapacity));
+		}
+
+		int count = idleCounts[sizeClass];
+		if (count > 0) {
+			hits[sizeClass]++;
+			ByteBuffer buffer = idle[sizeClass][count - 1];
+			idle[sizeClass][count - 1] = null;
+			idleCounts[sizeClass] = count - 1;
+			buffer.clear();
+			return lend(buffer);
+		}
+
+		misses[sizeClass]++;
+		return lend(ByteBuffer.allocateDirect(classBytes(sizeClass)));
+	}
+
+	private ByteBuffer lend(ByteBuffer buffer) {
+		lent.add(buffer);
+		return buffer;
+	}
+
+	/**
+	 * Returns a buffer obtained from {@link #acquire(int)} to the pool. Heap buffers, which
+	 * the pool never lends, are ignored.
+	 *
+	 * @throws IllegalStateException if the buffer is direct but not currently lent by this
+	 * pool: released twice, or allocated elsewhere
+	 */
+	public synchronized void release(ByteBuffer buffer) {
+		if (!buffer.isDirect()) {
+			return;
+		}
+		if (!lent.remove(buffer)) {
+			throw new IllegalStateException("Buffer released twice or not from this pool");
+		}
+
+		int capacity = buffer.capacity();
+		int sizeClass = Integer.bitCount(capacity) == 1 ? sizeClass(capacity) : -1;
+		if (sizeClass >= 0 && !shed && idleCounts[sizeClass] < MAX_IDLE_PER_CLASS) {
+			idle[sizeClass][idleCounts[sizeClass]++] = buffer;
+		}
+	}
+
+	/**
+	 * Moves the bytes written to {@code buffer} so far into a larger pooled buffer, positioned
+	 * after them, and releases {@code buffer}. Used when the final size of a download isn't
+	 * known up front.
+	 */
+	public ByteBuffer grow(ByteBuffer buffer, int minCapacity) {
+		ByteBuffer larger = acquire(minCapacity);
+		buffer.flip();
+		larger.put(buffer);
+		release(buffer);
+		return larger;
+	}
+
+	/**
+	 * Number of buffers acquired and not yet released.
+	 */
+	public synchronized int getOutstandingCount() {
+		return lent.size();
+	}
+
+	public synchronized long getHits(int sizeClass) {
+		return hits[sizeClass];
+	}
+
+	public synchronized long getMisses(int sizeClass) {
+		return misses[sizeClass];
+	}
+
+	/**
+	 * Requests too large for any size class.
+	 */
+	public synchronized long getOversized() {
+		return oversized;
+	}
+
+	public static int classBytes(int sizeClass) {
+		return 1 << (MIN_CLASS_SHIFT + sizeClass);
+	}
+
+	@Override
+	public synchronized void shed() {
+		shed = true;
+		for (int sizeClass = 0; sizeClass < CLASS_COUNT; sizeClass++) {
+			for (int i = 0; i < idleCounts[sizeClass]; i++) {
+				idle[sizeClass][i] = null;
+			}
+			idleCounts[sizeClass] = 0;
+		}
+	}
+
+	@Override
+	public synchronized void restore() {
+		shed = false;
+	}
+
+	/**
+	 * Bytes held in idle buffers.
+	 */
+	@Override
+	public synchronized long sizeInBytes() {
+		long bytes = 0;
+		for (int sizeClass = 0; sizeClass < CLASS_COUNT; sizeClass++) {
+			bytes += (long) idleCounts[sizeClass] * classBytes(sizeClass);
+		}
+		return bytes;
+	}
+
+	/**
+	 * Smallest size class holding {@code bytes}, or -1 if none is large enough.
+	 */
+	static int sizeClass(int bytes) {
+		if (bytes > MAX_CLASS_BYTES) {
+			return -1;
+		}
+		if (bytes <= MIN_CLASS_BYTES) {
+			return 0;
+		}
+		// Bits needed for bytes - 1, i.e. ceil(log2(bytes))
+		return 32 - Integer.numberOfLeadingZeros(bytes - 1) - MIN_CLASS_SHIFT;
+	}
+}
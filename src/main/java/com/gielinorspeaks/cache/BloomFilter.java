@@ -0,0 +1,123 @@
+package com.gielinorspeaks.cache;
+
+import java.nio.LongBuffer;
+
+/**
+ * Fixed-size Bloom filter over 64-bit dialogue hashes.
+ * ===
+ * Answers "is this line definitely not cached?" without touching the disk, which is the
+ * common case for ambient overhead text. Bits are held in a {@link LongBuffer}, either over a
+ * primitive long[] or over a memory-mapped file shared with other processes (see
+ * {@link ClipIndex}), so lookups don't allocate or box.
+ * ===
+ * NOTE ON THREAD SAFETY: Not synchronized. Writes must happen on a single thread; concurrent
+ * readers may observe a stale negative for a key that is being added, which is harmless here.
+ */
+public final class BloomFilter {
+	private final LongBuffer bits;
+	private final long numBits;
+	private final int numHashes;
+
+	private BloomFilter(LongBuffer bits, int numHashes) {
+		this.bits = bits;
+		this.numBits = (long) bits.capacity() * Long.SIZE;
+		this.numHashes = numHashes;
+	}
+
+	/**
+	 * Creates a filter sized for the expected number of insertions at the given false positive rate.
+	 */
+	public static BloomFilter create(int expectedInsertions, double falsePositiveRate) {
+		int words = optimalWords(expectedInsertions, falsePositiveRate);
+		return new BloomFilter(LongBuffer.wrap(new long[words]), optimalHashes(words, expectedInsertions));
+	}
+
+	/**
+	 * Creates a filter over existing bits, e.g. a view of a memory-mapped file. The bits must
+	 * have been written with the same number of hash functions.
+	 */
+	public static BloomFilter over(LongBuffer bits, int numHashes) {
+		if (bits.capacity() == 0 || numHashes < 1) {
+			throw new IllegalArgumentException("Empty filter: " + bits.capacity() + " words, " + numHashes + " hashes");
+		}
+		return new BloomFilter(bits, numHashes);
+	}
+
+	/**
+	 * Number of 64-bit words needed for the expected insertions at the given false positive rate.
+	 */
+	public static int optimalWords(int expectedInsertions, double falsePositiveRate) {
+		if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+			throw new IllegalArgumentException("falsePositiveRate must be in (0, 1): " + falsePositiveRate);
+		}
+
+		int n = Math.max(1, expectedInsertions);
+		long m = (long) Math.ceil(-n * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+		return (int) Math.max(1, (m + Long.SIZE - 1) / Long.SIZE);
+	}
+
+	/**
+	 * Number of hash functions that minimizes false positives for a filter of {@code words}.
+	 */
+	public static int optimalHashes(int words, int expectedInsertions) {
+		return Math.max(1, (int) Math.round((double) words * Long.SIZE / Math.max(1, expectedInsertions) * Math.log(2)));
+	}
+
+	public int getNumHashes() {
+		return numHashes;
+	}
+
+	/**
+	 * Records a key as present.
+	 */
+	public void put(long key) {
+		long hash = mix(key);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		for (int i = 1; i <= numHashes; i++) {
+			long index = bitIndex(h1 + i * h2);
+			int word = (int) (index >>> 6);
+			bits.put(word, bits.get(word) | 1L << index);
+		}
+	}
+
+	/**
+	 * Returns false if the key was definitely never added, true if it might have been.
+	 */
+	public boolean mightContain(long key) {
+		long hash = mix(key);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		for (int i = 1; i <= numHashes; i++) {
+			long index = bitIndex(h1 + i * h2);
+			if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Approximate memory held by the bit array, in bytes.
+	 */
+	public long sizeInBytes() {
+		return (long) bits.capacity() * Long.BYTES;
+	}
+
+	private long bitIndex(int combinedHash) {
+		return (combinedHash & 0x7fffffffL) % numBits;
+	}
+
+	/**
+	 * Murmur3 finalizer. Dialogue hashes are already well distributed, but callers may
+	 * also insert derived keys, so the bits are re-mixed before splitting into two halves.
+	 */
+	private static long mix(long key) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return key;
+	}
+}
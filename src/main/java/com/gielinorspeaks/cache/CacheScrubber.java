@@ -0,0 +1,191 @@
+package com.gielinorspeaks.cache;
+
+import com.gielinorspeaks.model.Emotion;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Verifies the clip store in the background, once per session, so corrupt entries are found
+ * before they are played rather than when, and reclaims the space of clips orphaned by a
+ * voice being regenerated.
+ * ===
+ * Walks the store on its own minimum-priority thread, starting {@link #START_DELAY_MILLIS}
+ * after startup so it stays out of the way of login and the first loads. Each entry is
+ * checked with {@link ClipStore#verify(int, long)}; entries already read this session are
+ * skipped, since reads verify them too.
+ * ===
+ * THROTTLING:
+ * After each entry the scrubber sleeps long enough to keep its reads under
+ * {@link #BYTES_PER_SECOND}, and at least {@link #MIN_PAUSE_MILLIS}, so it never competes
+ * with the voice pipeline or the game for the disk. A full pass over a large cache takes
+ * minutes; that is fine, since reads verify anything needed sooner.
+ * ===
+ * Corrupt entries are quarantined by the store and reported to the {@link #corruptListener},
+ * which queues them for downloading again, by the line and emotion their trailer records.
+ * Clips stored before trailers recorded them can't be reported; they are downloaded again
+ * the next time they are spoken. Each pass also deletes temporary files that a crashed
+ * writer left behind.
+ * ===
+ * COMPACTION:
+ * Before verifying a clip, its trailer is checked against the NPC's current
+ * {@link ProfileGenerations generation}. A clip from an older generation can no longer be
+ * found under any key, so it is deleted along with its processed version instead.
+ */
+@Slf4j
+@Singleton
+public class CacheScrubber {
+	static final long START_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(1);
+	static final long BYTES_PER_SECOND = 256 * 1024;
+	static final long MIN_PAUSE_MILLIS = 20;
+
+	private final ClipStore clipStore;
+	private final ProfileGenerations profileGenerations;
+
+	/**
+	 * Receives each corrupt entry, on the scrubber thread.
+	 */
+	@Setter
+	private volatile CorruptListener corruptListener;
+
+	@Getter
+	private volatile int verifiedCount;
+
+	@Getter
+	private volatile int corruptCount;
+
+	@Getter
+	private volatile int reclaimedCount;
+
+	private Thread thread;
+
+	@Inject
+	public CacheScrubber(ClipStore clipStore, ProfileGenerations profileGenerations) {
+		this.clipStore = clipStore;
+		this.profileGenerations = profileGenerations;
+	}
+
+	public synchronized void start() {
+		if (thread != null) {
+			return;
+		}
+
+		thread = new Thread(() -> {
+			try {
+				scrub(START_DELAY_MILLIS, BYTES_PER_SECOND);
+			}
+			catch (InterruptedException e) {
+				log.debug("Cache scrub stopped");
+			}
+		}, "gielinor-speaks-scrubber");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
+	}
+
+	public synchronized void stop() {
+		if (thread != null) {
+			thread.interrupt();
+			thread = null;
+		}
+	}
+
+	/**
+	 * Verifies every entry in the store once, sleeping between entries to stay under
+	 * {@code bytesPerSecond}.
+	 */
+	void scrub(long startDelayMillis, long bytesPerSecond) throws InterruptedException {
+		Thread.sleep(startDelayMillis);
+		long start = System.nanoTime();
+
+		try {
+			int deleted = clipStore.deleteStaleTemporaryFiles(ClipStore.STALE_TEMPORARY_MILLIS);
+			if (deleted > 0) {
+				log.debug("Deleted {} temporary files left by an interrupted write", deleted);
+			}
+		}
+		catch (IOException e) {
+			log.debug("Unable to clean up temporary files in clip store", e);
+		}
+
+		// Listed up front so verification can't trip over its own quarantine moves
+		Entries entries = new Entries();
+		try {
+			profileGenerations.load();
+			clipStore.forEachClip(entries::add);
+		}
+		catch (IOException e) {
+			log.debug("Unable to list clip store for scrubbing", e);
+			return;
+		}
+
+		for (int i = 0; i < entries.size; i++) {
+			int npcId = entries.npcIds[i];
+			long hash = entries.hashes[i];
+			ClipStore.ClipTrailer trailer;
+			long bytes;
+			try {
+				// Read before verifying, which moves a corrupt clip out of the store
+				trailer = clipStore.readTrailer(npcId, hash);
+				if (trailer != null && trailer.getGeneration() < profileGenerations.get(npcId)) {
+					clipStore.delete(npcId, hash);
+					reclaimedCount++;
+					Thread.sleep(MIN_PAUSE_MILLIS);
+					continue;
+				}
+				bytes = clipStore.verify(npcId, hash);
+			}
+			catch (IOException e) {
+				log.debug("Unable to verify voice clip {}", DialogueHash.toHex(hash), e);
+				trailer = null;
+				bytes = 0;
+			}
+
+			if (bytes == ClipStore.CORRUPT) {
+				corruptCount++;
+				CorruptListener listener = corruptListener;
+				if (listener != null && trailer != null && trailer.getEmotion() != null) {
+					listener.corrupt(npcId, trailer.getLineHash(), trailer.getEmotion());
+				}
+				bytes = 0;
+			}
+			else {
+				verifiedCount++;
+			}
+
+			Thread.sleep(Math.max(MIN_PAUSE_MILLIS, bytes * 1000 / bytesPerSecond));
+		}
+
+		log.debug("Scrubbed {} voice clips in {}s, {} corrupt, {} from old voice generations deleted", entries.size,
+			TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start), corruptCount, reclaimedCount);
+	}
+
+	/**
+	 * Receives each corrupt clip whose trailer records the variant it is.
+	 */
+	@FunctionalInterface
+	public interface CorruptListener {
+		void corrupt(int npcId, long lineHash, Emotion emotion);
+	}
+
+	private static final class Entries {
+		private int[] npcIds = new int[256];
+		private long[] hashes = new long[256];
+		private int size;
+
+		private void add(int npcId, long hash) {
+			if (size == hashes.length) {
+				npcIds = Arrays.copyOf(npcIds, size * 2);
+				hashes = Arrays.copyOf(hashes, size * 2);
+			}
+			npcIds[size] = npcId;
+			hashes[size++] = hash;
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package com.gielinorspeaks.cache;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * In-memory cache of decoded voice clips, keyed by dialogue hash.
+ * ===
+ * Holds PCM ready to be written to the audio device, so a repeated line skips both the
+ * disk read and the decode. Bounded by total clip bytes and evicts least recently used first.
+ * ===
+ * Registered with the {@link MemoryGovernor}: while shed, the cache is empty and ignores
+ * inserts, so every line is read from disk.
+ * ===
+ * NOTE ON THREAD SAFETY: All methods are synchronized. The cache is touched once per
+ * voiced line, so contention is not a concern.
+ */
+@Slf4j
+@Singleton
+public class ClipCache implements Sheddable {
+	public static final long DEFAULT_MAX_BYTES = 32L * 1024 * 1024;
+
+	private final LinkedHashMap<Long, byte[]> clips = new LinkedHashMap<>(64, 0.75f, true);
+	private long maxBytes = DEFAULT_MAX_BYTES;
+	private long currentBytes;
+	private boolean shed;
+
+	@Inject
+	public ClipCache() {
+	}
+
+	@Nullable
+	public synchronized byte[] get(long dialogueHash) {
+		return clips.get(dialogueHash);
+	}
+
+	public synchronized boolean contains(long dialogueHash) {
+		return clips.containsKey(dialogueHash);
+	}
+
+	/**
+	 * Adds a decoded clip, evicting older clips if the cache is over budget.
+	 * Clips larger than the whole budget, or added while shed, are not cached.
+	 */
+	public synchronized void put(long dialogueHash, byte[] pcm) {
+		if (shed || pcm.length > maxBytes) {
+			return;
+		}
+
+		byte[] previous = clips.put(dialogueHash, pcm);
+		if (previous != null) {
+			currentBytes -= previous.length;
+		}
+		currentBytes += pcm.length;
+		evictTo(maxBytes);
+	}
+
+	/**
+	 * Returns true if a clip of the given size can be added without evicting anything.
+	 */
+	public synchronized boolean hasRoomFor(long bytes) {
+		return !shed && currentBytes + bytes <= maxBytes;
+	}
+
+	/**
+	 * Evicts least recently used clips until at most {@code bytes} remain.
+	 * Doesn't change the budget for future inserts.
+	 */
+	public synchronized void trimTo(long bytes) {
+		evictTo(bytes);
+	}
+
+	public synchronized void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+		evictTo(maxBytes);
+	}
+
+	public synchronized void clear() {
+		clips.clear();
+		currentBytes = 0;
+	}
+
+	@Override
+	public synchronized void shed() {
+		shed = true;
+		clear();
+	}
+
+	@Override
+	public synchronized void restore() {
+		shed = false;
+	}
+
+	public synchronized boolean isShed() {
+		return shed;
+	}
+
+	public synchronized int size() {
+		return clips.size();
+	}
+
+	@Override
+	public synchronized long sizeInBytes() {
+		return currentBytes;
+	}
+
+	private void evictTo(long bytes) {
+		Iterator<Map.Entry<Long, byte[]>> it = clips.entrySet().iterator();
+		while (currentBytes > bytes && it.hasNext()) {
+			currentBytes -= it.next().getValue().length;
+			it.remove();
+		}
+	}
+}
@@ -0,0 +1,477 @@
+package com.gielinorspeaks.cache;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.DirectoryStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Index of the clips held by the {@link ClipStore}, shared by every client using the store.
+ * ===
+ * Backed by a {@link BloomFilter}, so a miss (the common case for ambient dialogue) is answered
+ * without any disk access, while a hit is confirmed by reading the clip from the store.
+ * ===
+ * SHARING:
+ * The filter lives in a versioned file in the store directory ({@code index.<n>.bloom}, see
+ * {@link #indexFileName}) and is memory-mapped, so several clients on one machine see each
+ * other's clips. {@link #VERSION_FILE} holds the current version, and is mapped too. Reads are
+ * plain loads from the mappings and take no lock. Writers hold an exclusive lock on
+ * {@link #LOCK_FILE} while they set bits (and while a file is built), so concurrent writers
+ * never lose each other's bits.
+ * ===
+ * Loading maps the current file when there is one. The store directory is only scanned when
+ * the file is missing, damaged, or filled past the capacity it was built for; the rebuild is
+ * written under the next version's name and the version file updated, so no file another
+ * client maps is ever replaced (which Windows refuses). A client still mapping an old version
+ * remaps the current one as soon as it sees the version change: before setting bits, so they
+ * go where every client looks, and on its next lookup. Old versions are deleted by the next
+ * client to load once nothing maps them; on POSIX systems, straight away.
+ * ===
+ * A reader may see a stale negative for a clip another client is adding; the store's
+ * download lock ({@link ClipStore#readOrDownload}) re-checks the disk, so that never
+ * causes a second download.
+ * ===
+ * If the file can't be mapped (e.g. a read-only disk), the index falls back to a private
+ * in-memory filter built from a scan.
+ * ===
+ * Loading can take a while on large caches and slow disks, so it must not be called from
+ * the client thread.
+ * ===
+ * NOTE ON THREAD SAFETY: add() must be called from a single thread (the voice thread), as
+ * required by {@link BloomFilter}. mightContain() may be called from any thread.
+ */
+@Slf4j
+@Singleton
+public class ClipIndex {
+	/**
+	 * Extra capacity reserved on load for clips added during the session.
+	 */
+	static final int SESSION_HEADROOM = 4096;
+	static final double FALSE_POSITIVE_RATE = 0.01;
+
+	/**
+	 * Smallest capacity a shared index is built with, so it rarely needs rebuilding.
+	 */
+	static final int MIN_SHARED_CAPACITY = 65536;
+
+	static final String VERSION_FILE = "index.version";
+	static final String LOCK_FILE = "index.lock";
+
+	/**
+	 * Index file of releases before versioned files, deleted on load.
+	 */
+	static final String LEGACY_INDEX_FILE = "index.bloom";
+
+	private static final String INDEX_FILE_PREFIX = "index.";
+	private static final String INDEX_FILE_SUFFIX = ".bloom";
+
+	private static final int INDEX_MAGIC = 0x47534958; // "GSIX"
+	private static final int INDEX_VERSION = 1;
+
+	/**
+	 * Header: magic, version, hash count, capacity (ints), then the insertion count (long).
+	 */
+	private static final int HEADER_BYTES = 24;
+	static final int COUNT_OFFSET = 16;
+
+	/**
+	 * Version file: magic, then the version of the current index file (ints); 0 for none.
+	 */
+	private static final int VERSION_MAGIC = 0x47534956; // "GSIV"
+	private static final int VERSION_FILE_BYTES = 8;
+	private static final int CURRENT_OFFSET = 4;
+
+	/**
+	 * File locks are held per JVM, so threads of one JVM (e.g. two indexes over the same
+	 * directory in tests) must also exclude each other.
+	 */
+	private static final Object JVM_LOCK = new Object();
+
+	private volatile BloomFilter filter = BloomFilter.create(SESSION_HEADROOM, FALSE_POSITIVE_RATE);
+	private volatile boolean loaded;
+
+	/**
+	 * Mappings of the shared index file and the version file, the version mapped, the store
+	 * directory and the channel of its lock file; null (and 0) when the index is private.
+	 * Swapped together while holding {@link #JVM_LOCK}.
+	 */
+	@Nullable
+	private volatile MappedByteBuffer mapping;
+	@Nullable
+	private volatile MappedByteBuffer versionMapping;
+	private volatile int version;
+	@Nullable
+	private volatile Path directory;
+	@Nullable
+	private volatile FileChannel lockChannel;
+
+	@Inject
+	public ClipIndex() {
+	}
+
+	/**
+	 * Maps the store's shared index, building it from the clips currently held by the store
+	 * if needed.
+	 */
+	public synchronized void load(ClipStore store) throws IOException {
+		long start = System.nanoTime();
+		closeShared();
+
+		Path directory = store.getDirectory();
+		try {
+			Files.createDirectories(directory);
+			FileChannel channel = FileChannel.open(directory.resolve(LOCK_FILE),
+				StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			try {
+				MappedByteBuffer newMapping;
+				synchronized (JVM_LOCK) {
+					try (FileLock ignored = channel.lock()) {
+						MappedByteBuffer newVersionMapping = mapVersion(directory.resolve(VERSION_FILE));
+						int current = newVersionMapping.getInt(CURRENT_OFFSET);
+						newMapping = current > 0 ? mapShared(directory.resolve(indexFileName(current))) : null;
+						if (newMapping == null) {
+							current = Math.max(current, latestVersion(directory)) + 1;
+							newMapping = buildShared(store, directory.resolve(indexFileName(current)));
+							newVersionMapping.putInt(CURRENT_OFFSET, current);
+							newVersionMapping.force();
+						}
+						deleteOldVersions(directory, current);
+
+						mapping = newMapping;
+						versionMapping = newVersionMapping;
+						version = current;
+						this.directory = directory;
+						lockChannel = channel;
+						filter = BloomFilter.over(bitsOf(newMapping), newMapping.getInt(8));
+					}
+				}
+
+				loaded = true;
+				log.debug("Mapped shared clip index {} of {} clips in {}ms ({} bytes)", version,
+					newMapping.getLong(COUNT_OFFSET), (System.nanoTime() - start) / 1_000_000, filter.sizeInBytes());
+				return;
+			}
+			catch (IOException | RuntimeException e) {
+				channel.close();
+				throw e;
+			}
+		}
+		catch (IOException e) {
+			log.warn("Unable to share the clip index with other clients, indexing privately", e);
+		}
+
+		loadPrivate(store, start);
+	}
+
+	/**
+	 * Drops the index. {@link #mightContain(long)} reports nothing until the next load.
+	 */
+	public synchronized void unload() {
+		loaded = false;
+		filter = BloomFilter.create(SESSION_HEADROOM, FALSE_POSITIVE_RATE);
+		closeShared();
+	}
+
+	/**
+	 * Records a newly stored clip, for every client sharing the index.
+	 */
+	public void add(long dialogueHash) {
+		FileChannel channel = lockChannel;
+		if (mapping == null || channel == null) {
+			filter.put(dialogueHash);
+			return;
+		}
+
+		synchronized (JVM_LOCK) {
+			try (FileLock ignored = channel.lock()) {
+				// Rebuilt by another client since; the bits must go in the file everyone maps
+				remapIfRebuilt();
+				filter.put(dialogueHash);
+				MappedByteBuffer shared = mapping;
+				if (shared != null) {
+					shared.putLong(COUNT_OFFSET, shared.getLong(COUNT_OFFSET) + 1);
+				}
+			}
+			catch (IOException e) {
+				// Still visible to this client; others find the clip through the download lock
+				log.debug("Unable to lock shared clip index", e);
+				filter.put(dialogueHash);
+			}
+		}
+	}
+
+	/**
+	 * Returns false if the clip is definitely not stored.
+	 */
+	public boolean mightContain(long dialogueHash) {
+		MappedByteBuffer versions = versionMapping;
+		if (versions != null && versions.getInt(CURRENT_OFFSET) != version) {
+			synchronized (JVM_LOCK) {
+				remapIfRebuilt();
+			}
+		}
+		return filter.mightContain(dialogueHash);
+	}
+
+	public boolean isLoaded() {
+		return loaded;
+	}
+
+	/**
+	 * Whether the index is backed by the shared file (rather than a private fallback).
+	 */
+	public boolean isShared() {
+		return mapping != null;
+	}
+
+	/**
+	 * Version of the shared index file mapped, 0 when the index is private.
+	 */
+	int getVersion() {
+		return version;
+	}
+
+	static String indexFileName(int version) {
+		return INDEX_FILE_PREFIX + version + INDEX_FILE_SUFFIX;
+	}
+
+	/**
+	 * Maps the current index file if another client has rebuilt it since this one was mapped.
+	 * Call while holding {@link #JVM_LOCK}. If it can't be mapped, this client carries on
+	 * with the old file until the next load rebuilds it.
+	 */
+	private void remapIfRebuilt() {
+		MappedByteBuffer versions = versionMapping;
+		Path shared = directory;
+		if (versions == null || shared == null) {
+			return;
+		}
+		int current = versions.getInt(CURRENT_OFFSET);
+		if (current == version) {
+			return;
+		}
+
+		try {
+			MappedByteBuffer newMapping = mapShared(shared.resolve(indexFileName(current)));
+			if (newMapping == null) {
+				log.debug("Unable to map rebuilt clip index {}, keeping the old one", current);
+				return;
+			}
+			mapping = newMapping;
+			filter = BloomFilter.over(bitsOf(newMapping), newMapping.getInt(8));
+			// Only now, so a failed map is retried on the next call, and so that a lookup seeing
+			// the new version also sees the new filter
+			version = current;
+			log.debug("Remapped clip index {} rebuilt by another client", current);
+		}
+		catch (IOException e) {
+			log.debug("Unable to map rebuilt clip index {}, keeping the old one", current, e);
+		}
+	}
+
+	private void loadPrivate(ClipStore store, long start) throws IOException {
+		int[] count = new int[1];
+		store.forEachClip((npcId, hash) -> count[0]++);
+
+		BloomFilter newFilter = BloomFilter.create(count[0] + SESSION_HEADROOM, FALSE_POSITIVE_RATE);
+		store.forEachClip((npcId, hash) -> newFilter.put(hash));
+
+		filter = newFilter;
+		loaded = true;
+
+		log.debug("Indexed {} cached clips in {}ms ({} bytes)",
+			count[0], (System.nanoTime() - start) / 1_000_000, newFilter.sizeInBytes());
+	}
+
+	/**
+	 * Maps the version file, creating it (at version 0) if it is missing or damaged. Call with
+	 * the index lock held.
+	 */
+	private static MappedByteBuffer mapVersion(Path versionFile) throws IOException {
+		try (FileChannel channel = FileChannel.open(versionFile,
+			StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			boolean valid = channel.size() == VERSION_FILE_BYTES;
+			if (!valid) {
+				channel.truncate(0);
+				channel.write(ByteBuffer.wrap(new byte[VERSION_FILE_BYTES]), 0);
+			}
+
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, VERSION_FILE_BYTES);
+			if (!valid || mapped.getInt(0) != VERSION_MAGIC || mapped.getInt(CURRENT_OFFSET) < 0) {
+				mapped.putInt(0, VERSION_MAGIC).putInt(CURRENT_OFFSET, 0);
+			}
+			return mapped;
+		}
+	}
+
+	/**
+	 * Highest version of the index files in the directory, 0 if there are none.
+	 */
+	private static int latestVersion(Path directory) throws IOException {
+		int latest = 0;
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, INDEX_FILE_PREFIX + "*" + INDEX_FILE_SUFFIX)) {
+			for (Path file : files) {
+				latest = Math.max(latest, versionOf(file));
+			}
+		}
+		return latest;
+	}
+
+	/**
+	 * Deletes index files other than the current one, and the legacy one. A file still mapped
+	 * by another client can't be deleted on Windows; it is tried again on the next load.
+	 */
+	private static void deleteOldVersions(Path directory, int current) {
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, INDEX_FILE_PREFIX + "*" + INDEX_FILE_SUFFIX)) {
+			for (Path file : files) {
+				if (versionOf(file) != current) {
+					deleteOldVersion(file);
+				}
+			}
+		}
+		catch (IOException e) {
+			log.debug("Unable to list old clip indexes", e);
+		}
+		deleteOldVersion(directory.resolve(LEGACY_INDEX_FILE));
+	}
+
+	private static void deleteOldVersion(Path file) {
+		try {
+			Files.deleteIfExists(file);
+		}
+		catch (IOException e) {
+			log.debug("Old clip index {} still in use", file.getFileName());
+		}
+	}
+
+	/**
+	 * Version of an index file from its name, or -1 if the name isn't one.
+	 */
+	private static int versionOf(Path file) {
+		String name = file.getFileName().toString();
+		if (name.length() <= INDEX_FILE_PREFIX.length() + INDEX_FILE_SUFFIX.length()) {
+			return -1;
+		}
+		try {
+			return Integer.parseInt(name.substring(INDEX_FILE_PREFIX.length(), name.length() - INDEX_FILE_SUFFIX.length()));
+		}
+		catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Maps an existing index file. Call with the index lock held.
+	 *
+	 * @return the mapping, or null if the file is missing, damaged or over capacity
+	 */
+	@Nullable
+	private static MappedByteBuffer mapShared(Path indexFile) throws IOException {
+		if (!Files.isRegularFile(indexFile)) {
+			return null;
+		}
+
+		try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			long size = channel.size();
+			if (size < HEADER_BYTES + Long.BYTES) {
+				return null;
+			}
+
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+			int capacity = mapped.getInt(12);
+			int words = BloomFilter.optimalWords(capacity, FALSE_POSITIVE_RATE);
+			if (mapped.getInt(0) != INDEX_MAGIC || mapped.getInt(4) != INDEX_VERSION || mapped.getInt(8) < 1
+				|| size != HEADER_BYTES + (long) words * Long.BYTES) {
+				log.debug("Rebuilding damaged clip index");
+				return null;
+			}
+			if (mapped.getLong(COUNT_OFFSET) > capacity) {
+				log.debug("Rebuilding clip index filled past its capacity of {}", capacity);
+				return null;
+			}
+			return mapped;
+		}
+	}
+
+	/**
+	 * Builds a new index file from the clips in the store and moves it into place, under a
+	 * name no client maps yet. Call with the index lock held.
+	 */
+	private static MappedByteBuffer buildShared(ClipStore store, Path indexFile) throws IOException {
+		int[] count = new int[1];
+		store.forEachClip((npcId, hash) -> count[0]++);
+
+		int capacity = Math.max(MIN_SHARED_CAPACITY, (count[0] + SESSION_HEADROOM) * 2);
+		int words = BloomFilter.optimalWords(capacity, FALSE_POSITIVE_RATE);
+		int hashes = BloomFilter.optimalHashes(words, capacity);
+
+		Path temp = Files.createTempFile(indexFile.getParent(), indexFile.getFileName().toString(), ".tmp");
+		try {
+			try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+				long size = HEADER_BYTES + (long) words * Long.BYTES;
+				// Writing the last byte sizes the file; the rest reads as zero
+				channel.write(ByteBuffer.wrap(new byte[1]), size - 1);
+				MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+				mapped.putInt(0, INDEX_MAGIC)
+					.putInt(4, INDEX_VERSION)
+					.putInt(8, hashes)
+					.putInt(12, capacity)
+					.putLong(COUNT_OFFSET, count[0]);
+
+				BloomFilter built = BloomFilter.over(bitsOf(mapped), hashes);
+				store.forEachClip((npcId, hash) -> built.put(hash));
+				mapped.force();
+
+				try {
+					Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				}
+				catch (AtomicMoveNotSupportedException e) {
+					Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING);
+				}
+				log.debug("Built shared clip index of {} clips with capacity {}", count[0], capacity);
+				return mapped;
+			}
+		}
+		finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private static LongBuffer bitsOf(MappedByteBuffer mapped) {
+		ByteBuffer view = mapped.duplicate();
+		view.position(HEADER_BYTES);
+		return view.slice().asLongBuffer();
+	}
+
+	private void closeShared() {
+		synchronized (JVM_LOCK) {
+			mapping = null;
+			versionMapping = null;
+			version = 0;
+			directory = null;
+		}
+		FileChannel channel = lockChannel;
+		lockChannel = null;
+		if (channel != null) {
+			try {
+				channel.close();
+			}
+			catch (IOException e) {
+				log.debug("Unable to close clip index lock", e);
+			}
+		}
+	}
+}
@@ -0,0 +1,681 @@
+package com.gielinorspeaks.cache;
+
+import com.gielinorspeaks.buffer.BufferPool;
+import com.gielinorspeaks.model.Emotion;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import net.runelite.client.RuneLite;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/**
+ * On-disk store of voice clips, one file per dialogue line.
+ * ===
+ * Layout: {@code <directory>/<npcId>/<dialogueHash>.wav}
+ * ===
+ * Next to each clip, a {@code .pcm} file may hold the processed version of it: PCM ready for
+ * the output line, behind a 12 byte header (magic, processing version, checksum). A processed
+ * file with the wrong header is treated as missing, so it is redone after the processing
+ * changes.
+ * ===
+ * INTEGRITY:
+ * Clips end with a 24 byte trailer (line hash, emotion, profile generation, CRC32C of the
+ * clip, magic), and processed files carry the CRC32C of their PCM in the header. Each entry
+ * is verified the first time it is read in a session and trusted after that, so a crash
+ * mid-write can't lead to corrupt audio without every read paying for a checksum. A corrupt
+ * clip is moved to {@link #QUARANTINE_DIRECTORY} and reads as missing, so it is downloaded
+ * again; a corrupt processed file is deleted and redone. Older trailers are still read:
+ * clips written before checksums existed have no trailer and are read as is; clips written
+ * before generations have an 8 byte trailer without one, and are generation 0; clips written
+ * before variants were recorded have a 12 byte trailer without the line and emotion. The
+ * {@link CacheScrubber} verifies the rest of the store in the background.
+ * ===
+ * GENERATIONS:
+ * Clips are stored under their key in the NPC's current voice profile generation
+ * ({@link DialogueHash#generation}), so a regenerated voice simply stops finding the old
+ * files. The generation in the trailer lets the {@link CacheScrubber} find and delete those
+ * later. Keys can't be turned back into lines, so the trailer also records which line and
+ * emotion the clip is, for the scrubber to have a corrupt clip downloaded again.
+ * ===
+ * Grouping by NPC keeps directories small and lets a whole NPC be dropped in one go.
+ * Writes go to a temporary file that is atomically moved into place, so readers never
+ * observe a partially written clip.
+ * ===
+ * SHARING:
+ * Several clients on one machine may use the same directory. Besides the atomic writes,
+ * {@link #readOrDownload} serializes downloads of a clip across processes with a byte-range
+ * lock on {@link #DOWNLOAD_LOCK_FILE}, one byte per stripe of {@link #DOWNLOAD_LOCK_STRIPES},
+ * and re-checks the disk once it holds the lock, so each clip is downloaded only once.
+ */
+@Slf4j
+@Singleton
+public class ClipStore {
+	static final String CLIP_EXTENSION = ".wav";
+	static final String PROCESSED_EXTENSION = ".pcm";
+	static final int PROCESSED_MAGIC = 0x47535032; // "GSP2"
+	private static final int PROCESSED_HEADER_BYTES = 12;
+
+	static final int CLIP_TRAILER_MAGIC = 0x4753434b; // "GSCK"
+	private static final int CLIP_TRAILER_BYTES = 8;
+
+	static final int GENERATION_TRAILER_MAGIC = 0x47534347; // "GSCG"
+	static final int GENERATION_TRAILER_BYTES = 12;
+
+	static final int VARIANT_TRAILER_MAGIC = 0x47534356; // "GSCV"
+	static final int VARIANT_TRAILER_BYTES = 24;
+
+	static final String QUARANTINE_DIRECTORY = "quarantine";
+
+	/**
+	 * Most files kept in quarantine for inspection; further corrupt files are deleted.
+	 */
+	static final int MAX_QUARANTINED = 64;
+
+	/**
+	 * Returned by {@link #verify(int, long)} for an entry that was corrupt.
+	 */
+	public static final long CORRUPT = -1;
+
+	private static final ByteBuffer CORRUPT_CLIP = ByteBuffer.allocate(0);
+	static final String TEMP_EXTENSION = ".tmp";
+
+	/**
+	 * Age after which a temporary file is assumed to be left over from a crashed writer.
+	 */
+	static final long STALE_TEMPORARY_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+	static final String DOWNLOAD_LOCK_FILE = "downloads.lock";
+	static final int DOWNLOAD_LOCK_STRIPES = 1024;
+
+	/**
+	 * File locks are held per JVM, so threads of one JVM also take the stripe's lock here.
+	 */
+	private static final ReentrantLock[] JVM_DOWNLOAD_LOCKS = new ReentrantLock[DOWNLOAD_LOCK_STRIPES];
+
+	static {
+		for (int i = 0; i < DOWNLOAD_LOCK_STRIPES; i++) {
+			JVM_DOWNLOAD_LOCKS[i] = new ReentrantLock();
+		}
+	}
+
+	private final Path directory;
+
+	/**
+	 * Entries verified this session, by dialogue hash.
+	 */
+	private final Set<Long> verifiedClips = ConcurrentHashMap.newKeySet();
+	private final Set<Long> verifiedProcessed = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Opened on first download. Guarded by {@code this}.
+	 */
+	private FileChannel downloadLockChannel;
+
+	@Inject
+	public ClipStore() {
+		this(new File(RuneLite.RUNELITE_DIR, "gielinor-speaks" + File.separator + "clips"));
+	}
+
+	public ClipStore(File directory) {
+		this.directory = directory.toPath();
+	}
+
+	public Path getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Reads a clip from disk.
+	 *
+	 * @return the clip bytes, or null if the clip is not stored (or was corrupt)
+	 */
+	@Nullable
+	public byte[] read(int npcId, long dialogueHash) throws IOException {
+		ByteBuffer clip = readClip(npcId, dialogueHash, null);
+		if (clip == null || clip == CORRUPT_CLIP) {
+			return null;
+		}
+		byte[] bytes = new byte[clip.remaining()];
+		clip.get(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Reads a clip from disk into a buffer from {@code pool}, without a heap copy.
+	 * The caller must release the buffer back to the pool.
+	 *
+	 * @return the clip, flipped for reading, or null if the clip is not stored (or was corrupt)
+	 */
+	@Nullable
+	public ByteBuffer read(int npcId, long dialogueHash, BufferPool pool) throws IOException {
+		ByteBuffer clip = readClip(npcId, dialogueHash, pool);
+		return clip != CORRUPT_CLIP ? clip : null;
+	}
+
+	/**
+	 * @return the clip, null if it is not stored, or {@link #CORRUPT_CLIP} if it was quarantined
+	 */
+	@Nullable
+	private ByteBuffer readClip(int npcId, long dialogueHash, @Nullable BufferPool pool) throws IOException {
+		ByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(clipPath(npcId, dialogueHash), StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("Clip too large: " + size + " bytes");
+			}
+
+			buffer = pool != null ? pool.acquire((int) size) : ByteBuffer.allocate((int) size);
+			try {
+				buffer.limit((int) size);
+				readFully(channel, buffer);
+				buffer.flip();
+			}
+			catch (IOException | RuntimeException e) {
+				release(buffer, pool);
+				throw e;
+			}
+		}
+		catch (NoSuchFileException e) {
+			return null;
+		}
+
+		int size = buffer.remaining();
+		int trailerBytes = trailerBytes(size >= Integer.BYTES ? buffer.getInt(size - Integer.BYTES) : 0, size);
+		if (trailerBytes == 0) {
+			// Written before checksums; nothing to verify
+			return buffer;
+		}
+
+		int checksum = buffer.getInt(size - CLIP_TRAILER_BYTES);
+		buffer.limit(size - trailerBytes);
+		if (!verifiedClips.contains(dialogueHash)) {
+			if (checksum(buffer) != checksum) {
+				release(buffer, pool);
+				log.warn("Voice clip {} is corrupt, quarantining it", DialogueHash.toHex(dialogueHash));
+				quarantine(clipPath(npcId, dialogueHash));
+				return CORRUPT_CLIP;
+			}
+			verifiedClips.add(dialogueHash);
+		}
+		return buffer;
+	}
+
+	/**
+	 * Writes a line's neutral clip of generation 0 to disk, replacing any existing clip for
+	 * the same line.
+	 */
+	public void write(int npcId, long dialogueHash, byte[] clip) throws IOException {
+		write(npcId, dialogueHash, ByteBuffer.wrap(clip));
+	}
+
+	/**
+	 * Writes the remaining bytes of a line's neutral clip of generation 0 to disk, replacing any
+	 * existing clip for the same line. Leaves the buffer's position unchanged.
+	 */
+	public void write(int npcId, long dialogueHash, ByteBuffer clip) throws IOException {
+		write(npcId, dialogueHash, dialogueHash, Emotion.NEUTRAL, 0, clip);
+	}
+
+	/**
+	 * Writes a variant's clip of the given voice profile generation, stored under its key in
+	 * that generation. Leaves the buffer's position unchanged.
+	 */
+	public void write(int npcId, long key, long lineHash, Emotion emotion, int generation, ByteBuffer clip)
+		throws IOException {
+		ByteBuffer trailer = ByteBuffer.allocate(VARIANT_TRAILER_BYTES);
+		trailer.putLong(lineHash).putInt(emotion.ordinal()).putInt(generation).putInt(checksum(clip))
+			.putInt(VARIANT_TRAILER_MAGIC).flip();
+		writeAtomically(clipPath(npcId, key), clip.duplicate(), trailer);
+		verifiedClips.add(key);
+	}
+
+	/**
+	 * Reads a clip into a buffer from {@code pool}, downloading and storing it first if no
+	 * client sharing this directory has stored it yet. Blocks while another client downloads
+	 * the same clip. The caller must release the buffer back to the pool.
+	 *
+	 * @param key        the clip's key in {@code generation}
+	 * @param lineHash   hash of the line the clip is a variant of, recorded with it
+	 * @param emotion    emotion of the variant, recorded with it
+	 * @param generation voice profile generation the downloaded clip is stored as
+	 * @return the clip, flipped for reading, or null if it is not stored and the downloader
+	 * has none
+	 */
+	@Nullable
+	public ByteBuffer readOrDownload(int npcId, long key, long lineHash, Emotion emotion, int generation, BufferPool pool,
+		ClipDownloader downloader) throws IOException {
+		int stripe = (int) (key & (DOWNLOAD_LOCK_STRIPES - 1));
+		ReentrantLock jvmLock = JVM_DOWNLOAD_LOCKS[stripe];
+		jvmLock.lock();
+		try (FileLock ignored = lockDownloadStripe(stripe)) {
+			// Another client may have stored it while we waited
+			ByteBuffer clip = read(npcId, key, pool);
+			if (clip != null) {
+				return clip;
+			}
+
+			clip = downloader.download();
+			if (clip == null) {
+				return null;
+			}
+
+			try {
+				write(npcId, key, lineHash, emotion, generation, clip);
+			}
+			catch (IOException e) {
+				// Still playable this session from memory
+				log.warn("Unable to cache voice clip {}", DialogueHash.toHex(key), e);
+			}
+			return clip;
+		}
+		finally {
+			jvmLock.unlock();
+		}
+	}
+
+	/**
+	 * Reads the processed version of a clip straight into an array of its exact size.
+	 *
+	 * @param version processing version the result must have been written with
+	 * @return the processed PCM, or null if there is none for this version
+	 */
+	@Nullable
+	public byte[] readProcessed(int npcId, long dialogueHash, int version) throws IOException {
+		try (FileChannel channel = FileChannel.open(processedPath(npcId, dialogueHash), StandardOpenOption.READ)) {
+			long size = channel.size() - PROCESSED_HEADER_BYTES;
+			if (size < 0 || size > Integer.MAX_VALUE) {
+				return null;
+			}
+
+			ByteBuffer header = ByteBuffer.allocate(PROCESSED_HEADER_BYTES);
+			readFully(channel, header);
+			header.flip();
+			if (header.getInt() != PROCESSED_MAGIC || header.getInt() != version) {
+				return null;
+			}
+			int checksum = header.getInt();
+
+			byte[] pcm = new byte[(int) size];
+			readFully(channel, ByteBuffer.wrap(pcm));
+			if (!verifiedProcessed.contains(dialogueHash)) {
+				if (checksum(ByteBuffer.wrap(pcm)) != checksum) {
+					log.warn("Processed voice clip {} is corrupt, redoing it", DialogueHash.toHex(dialogueHash));
+					Files.deleteIfExists(processedPath(npcId, dialogueHash));
+					return null;
+				}
+				verifiedProcessed.add(dialogueHash);
+			}
+			return pcm;
+		}
+		catch (NoSuchFileException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Stores the processed version of a clip, replacing any earlier one.
+	 */
+	public void writeProcessed(int npcId, long dialogueHash, int version, byte[] pcm) throws IOException {
+		writeAtomically(processedPath(npcId, dialogueHash), processedHeader(version, pcm), ByteBuffer.wrap(pcm));
+		verifiedProcessed.add(dialogueHash);
+	}
+
+	/**
+	 * Header of a processed file holding {@code pcm}, flipped for writing.
+	 */
+	static ByteBuffer processedHeader(int version, byte[] pcm) {
+		ByteBuffer header = ByteBuffer.allocate(PROCESSED_HEADER_BYTES);
+		header.putInt(PROCESSED_MAGIC).putInt(version).putInt(checksum(ByteBuffer.wrap(pcm))).flip();
+		return header;
+	}
+
+	/**
+	 * Marks a processed file written outside {@link #writeProcessed} (by the {@link ClipWriter})
+	 * as verified.
+	 */
+	void trustProcessed(long dialogueHash) {
+		verifiedProcessed.add(dialogueHash);
+	}
+
+	/**
+	 * Verifies a stored clip and its processed version, unless already verified this session.
+	 * A corrupt clip is quarantined and a corrupt processed file deleted, as on a normal read.
+	 *
+	 * @return the number of bytes read, or {@link #CORRUPT} if either file was corrupt
+	 */
+	public long verify(int npcId, long dialogueHash) throws IOException {
+		long bytes = 0;
+		if (!verifiedClips.contains(dialogueHash)) {
+			ByteBuffer clip = readClip(npcId, dialogueHash, null);
+			if (clip == CORRUPT_CLIP) {
+				return CORRUPT;
+			}
+			bytes += clip != null ? clip.capacity() : 0;
+		}
+
+		Path processed = processedPath(npcId, dialogueHash);
+		if (!verifiedProcessed.contains(dialogueHash) && Files.exists(processed)) {
+			ByteBuffer header = ByteBuffer.allocate(PROCESSED_HEADER_BYTES);
+			try (FileChannel channel = FileChannel.open(processed, StandardOpenOption.READ)) {
+				readFully(channel, header);
+			}
+			catch (NoSuchFileException | EOFException e) {
+				return bytes;
+			}
+
+			// Only the version it was written with can be read back, so check against that
+			int version = header.getInt(4);
+			byte[] pcm = readProcessed(npcId, dialogueHash, version);
+			if (pcm == null && !Files.exists(processed)) {
+				return CORRUPT;
+			}
+			bytes += pcm != null ? pcm.length : 0;
+		}
+		return bytes;
+	}
+
+	/**
+	 * Reads what a stored clip's trailer records, without verifying the clip. Clips without a
+	 * generation in their trailer are generation 0, and those without a variant have no line
+	 * hash or emotion.
+	 *
+	 * @return the trailer, or null if the clip isn't stored
+	 */
+	@Nullable
+	public ClipTrailer readTrailer(int npcId, long key) throws IOException {
+		try (FileChannel channel = FileChannel.open(clipPath(npcId, key), StandardOpenOption.READ)) {
+			long size = channel.size();
+			ByteBuffer trailer = ByteBuffer.allocate((int) Math.min(size, VARIANT_TRAILER_BYTES));
+			channel.position(size - trailer.capacity());
+			readFully(channel, trailer);
+
+			int end = trailer.capacity();
+			int magic = end >= Integer.BYTES ? trailer.getInt(end - Integer.BYTES) : 0;
+			if (magic == VARIANT_TRAILER_MAGIC && end == VARIANT_TRAILER_BYTES) {
+				int ordinal = trailer.getInt(8);
+				Emotion emotion = ordinal >= 0 && ordinal < Emotion.values().length ? Emotion.fromOrdinal(ordinal) : null;
+				return new ClipTrailer(trailer.getInt(12), trailer.getLong(0), emotion);
+			}
+			if (magic == GENERATION_TRAILER_MAGIC && end >= GENERATION_TRAILER_BYTES) {
+				return new ClipTrailer(trailer.getInt(end - GENERATION_TRAILER_BYTES), 0, null);
+			}
+			return new ClipTrailer(0, 0, null);
+		}
+		catch (NoSuchFileException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Deletes a stored clip and its processed version.
+	 *
+	 * @return the number of bytes freed
+	 */
+	public long delete(int npcId, long key) throws IOException {
+		long bytes = 0;
+		for (Path file : new Path[]{clipPath(npcId, key), processedPath(npcId, key)}) {
+			try {
+				long size = Files.size(file);
+				if (Files.deleteIfExists(file)) {
+					bytes += size;
+				}
+			}
+			catch (NoSuchFileException e) {
+				// Not stored, or deleted meanwhile
+			}
+		}
+		verifiedClips.remove(key);
+		verifiedProcessed.remove(key);
+		return bytes;
+	}
+
+	/**
+	 * Visits every stored clip. Files that don't follow the store layout are skipped.
+	 */
+	public void forEachClip(ClipVisitor visitor) throws IOException {
+		if (!Files.isDirectory(directory)) {
+			return;
+		}
+
+		try (DirectoryStream<Path> npcDirs = Files.newDirectoryStream(directory, Files::isDirectory)) {
+			for (Path npcDir : npcDirs) {
+				int npcId;
+				try {
+					npcId = Integer.parseInt(npcDir.getFileName().toString());
+				}
+				catch (NumberFormatException e) {
+					continue;
+				}
+
+				try (DirectoryStream<Path> clips = Files.newDirectoryStream(npcDir, "*" + CLIP_EXTENSION)) {
+					for (Path clip : clips) {
+						String name = clip.getFileName().toString();
+						try {
+							long hash = DialogueHash.fromHex(name.substring(0, name.length() - CLIP_EXTENSION.length()));
+							visitor.visit(npcId, hash);
+						}
+						catch (NumberFormatException e) {
+							log.debug("Skipping unrecognised file in clip store: {}", clip);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Deletes temporary files last modified more than {@code olderThanMillis} ago, left behind
+	 * by a writer that crashed before moving them into place.
+	 *
+	 * @return the number of files deleted
+	 */
+	public int deleteStaleTemporaryFiles(long olderThanMillis) throws IOException {
+		if (!Files.isDirectory(directory)) {
+			return 0;
+		}
+
+		long cutoff = System.currentTimeMillis() - olderThanMillis;
+		int deleted = 0;
+		try (DirectoryStream<Path> npcDirs = Files.newDirectoryStream(directory, Files::isDirectory)) {
+			for (Path npcDir : npcDirs) {
+				try (DirectoryStream<Path> temps = Files.newDirectoryStream(npcDir, "*" + TEMP_EXTENSION)) {
+					for (Path temp : temps) {
+						try {
+							if (Files.getLastModifiedTime(temp).toMillis() <= cutoff && Files.deleteIfExists(temp)) {
+								deleted++;
+							}
+						}
+						catch (NoSuchFileException e) {
+							// Moved into place meanwhile
+						}
+					}
+				}
+			}
+		}
+		return deleted;
+	}
+
+	private FileLock lockDownloadStripe(int stripe) throws IOException {
+		FileChannel channel;
+		synchronized (this) {
+			// Interrupting a thread blocked in lock() closes the channel, so reopen if needed
+			if (downloadLockChannel == null || !downloadLockChannel.isOpen()) {
+				Files.createDirectories(directory);
+				downloadLockChannel = FileChannel.open(directory.resolve(DOWNLOAD_LOCK_FILE),
+					StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			}
+			channel = downloadLockChannel;
+		}
+		return channel.lock(stripe, 1, false);
+	}
+
+	/**
+	 * Writes the buffers to a temporary file and moves it over {@code target}.
+	 */
+	private static void writeAtomically(Path target, ByteBuffer... contents) throws IOException {
+		Files.createDirectories(target.getParent());
+
+		// Unique per writer, so two threads storing the same line can't interleave
+		Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), TEMP_EXTENSION);
+		try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+			for (ByteBuffer content : contents) {
+				while (content.hasRemaining()) {
+					channel.write(content);
+				}
+			}
+		}
+		try {
+			Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (AtomicMoveNotSupportedException e) {
+			Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Moves a corrupt file out of the store, keeping the latest few for inspection.
+	 */
+	private void quarantine(Path file) {
+		try {
+			Path target = quarantinePath(file);
+			Files.createDirectories(target.getParent());
+			int quarantined;
+			try (DirectoryStream<Path> files = Files.newDirectoryStream(target.getParent())) {
+				quarantined = 0;
+				for (Path ignored : files) {
+					quarantined++;
+				}
+			}
+
+			if (quarantined >= MAX_QUARANTINED) {
+				Files.deleteIfExists(file);
+			}
+			else {
+				Files.move(file, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		catch (IOException e) {
+			log.warn("Unable to quarantine corrupt voice clip {}", file, e);
+		}
+	}
+
+	Path quarantinePath(Path file) {
+		return directory.resolve(QUARANTINE_DIRECTORY)
+			.resolve(file.getParent().getFileName() + "-" + file.getFileName());
+	}
+
+	/**
+	 * Length of the trailer of a clip of {@code size} bytes ending in {@code magic}, or 0 if it
+	 * has none.
+	 */
+	private static int trailerBytes(int magic, int size) {
+		if (magic == VARIANT_TRAILER_MAGIC && size >= VARIANT_TRAILER_BYTES) {
+			return VARIANT_TRAILER_BYTES;
+		}
+		if (magic == GENERATION_TRAILER_MAGIC && size >= GENERATION_TRAILER_BYTES) {
+			return GENERATION_TRAILER_BYTES;
+		}
+		if (magic == CLIP_TRAILER_MAGIC && size >= CLIP_TRAILER_BYTES) {
+			return CLIP_TRAILER_BYTES;
+		}
+		return 0;
+	}
+
+	private static int checksum(ByteBuffer data) {
+		CRC32C crc = new CRC32C();
+		crc.update(data.duplicate());
+		return (int) crc.getValue();
+	}
+
+	private static void release(ByteBuffer buffer, @Nullable BufferPool pool) {
+		if (pool != null) {
+			pool.release(buffer);
+		}
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				throw new EOFException("File truncated while reading");
+			}
+		}
+	}
+
+	Path clipPath(int npcId, long dialogueHash) {
+		return directory.resolve(Integer.toString(npcId)).resolve(DialogueHash.toHex(dialogueHash) + CLIP_EXTENSION);
+	}
+
+	Path processedPath(int npcId, long dialogueHash) {
+		return directory.resolve(Integer.toString(npcId)).resolve(DialogueHash.toHex(dialogueHash) + PROCESSED_EXTENSION);
+	}
+
+	/**
+	 * What a stored clip's trailer records, from {@link #readTrailer}.
+	 */
+	public static final class ClipTrailer {
+		/**
+		 * Voice profile generation the clip was written for.
+		 */
+		@Getter
+		private final int generation;
+
+		/**
+		 * Hash of the line the clip is a variant of, if {@link #emotion} is known.
+		 */
+		@Getter
+		private final long lineHash;
+
+		/**
+		 * Emotion of the variant, or null if the trailer predates variants being recorded.
+		 */
+		@Getter
+		@Nullable
+		private final Emotion emotion;
+
+		ClipTrailer(int generation, long lineHash, @Nullable Emotion emotion) {
+			this.generation = generation;
+			this.lineHash = lineHash;
+			this.emotion = emotion;
+		}
+	}
+
+	/**
+	 * Fetches a clip that no client has stored yet, for {@link #readOrDownload}.
+	 */
+	@FunctionalInterface
+	public interface ClipDownloader {
+		/**
+		 * @return the clip in a buffer the caller will release, or null if there is none
+		 */
+		@Nullable
+		ByteBuffer download() throws IOException;
+	}
+
+	/**
+	 * Receives each clip found by {@link #forEachClip(ClipVisitor)}.
+	 */
+	@FunctionalInterface
+	public interface ClipVisitor {
+		void visit(int npcId, long dialogueHash);
+	}
+}
@@ -0,0 +1,347 @@
+package com.gielinorspeaks.cache;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind persistence for the {@link ClipStore}, so disk writes and fsyncs stay off the
+ * path from download to playback.
+ * ===
+ * Processed clips are queued and read back from memory until written; {@link #readProcessed}
+ * checks the queue before the disk. Downloaded clips are already put in place (unsynced) by
+ * {@link ClipStore#readOrDownload}, under the download lock other clients rely on, so only
+ * their fsync is queued here.
+ * ===
+ * BATCHING:
+ * A single writer thread takes everything queued, up to {@link #MAX_BATCH} writes, and commits
+ * it in phases: write each file to a temporary file, fsync them all, move them all into place,
+ * then fsync each directory once. A crash at any point leaves every entry either missing
+ * (redone on the next read) or complete; never a partial file under a real name. Temporary
+ * files left behind are deleted by the {@link CacheScrubber}.
+ * ===
+ * BACKPRESSURE:
+ * The queue holds at most {@link #QUEUE_CAPACITY} writes and {@link #MAX_QUEUED_BYTES}. When
+ * it is full the caller writes synchronously, so a slow disk costs latency rather than memory.
+ * ===
+ * The writer thread starts on the first write and exits when idle. {@link #drain(long)}
+ * waits for everything queued to be written, for use on shutdown.
+ */
+@Slf4j
+@Singleton
+public class ClipWriter {
+	static final int QUEUE_CAPACITY = 64;
+	static final int MAX_BATCH = 32;
+	static final long MAX_QUEUED_BYTES = 32L * 1024 * 1024;
+	static final long IDLE_TIMEOUT_MILLIS = 5000;
+	public static final long DRAIN_TIMEOUT_MILLIS = 5000;
+
+	private final ClipStore clipStore;
+	private final BlockingQueue<PendingWrite> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+	/**
+	 * Processed clips queued and not yet in place, by dialogue hash.
+	 */
+	private final Map<Long, PendingWrite> pendingProcessed = new ConcurrentHashMap<>();
+
+	/**
+	 * Writes queued or being written, and their processed bytes. Guarded by {@code this}.
+	 */
+	private int unfinished;
+	private long queuedBytes;
+	private Thread thread;
+
+	@Nullable
+	private volatile BatchListener batchListener;
+
+	/**
+	 * Phases of a batch, reported to the {@link BatchListener} after each file.
+	 */
+	enum Step {
+		WRITTEN,
+		SYNCED,
+		MOVED
+	}
+
+	/**
+	 * Observes batch progress on the writer thread; used to simulate crashes mid-batch.
+	 */
+	@FunctionalInterface
+	interface BatchListener {
+		void onStep(Step step, int index, int batchSize);
+	}
+
+	private static final class PendingWrite {
+		private final long hash;
+		private final int version;
+		private final Path target;
+
+		/**
+		 * PCM of a processed clip, or null to only fsync a clip already in place.
+		 */
+		@Nullable
+		private final byte[] pcm;
+
+		@Nullable
+		private Path temp;
+
+		private PendingWrite(long hash, int version, Path target, @Nullable byte[] pcm) {
+			this.hash = hash;
+			this.version = version;
+			this.target = target;
+			this.pcm = pcm;
+		}
+	}
+
+	@Inject
+	public ClipWriter(ClipStore clipStore) {
+		this.clipStore = clipStore;
+	}
+
+	/**
+	 * Queues a processed clip for writing, or writes it now if the queue is full.
+	 * The array must not be modified afterwards.
+	 */
+	public void writeProcessed(int npcId, long dialogueHash, int version, byte[] pcm) throws IOException {
+		PendingWrite write = new PendingWrite(dialogueHash, version, clipStore.processedPath(npcId, dialogueHash), pcm);
+		pendingProcessed.put(dialogueHash, write);
+		if (!enqueue(write)) {
+			try {
+				clipStore.writeProcessed(npcId, dialogueHash, version, pcm);
+			}
+			finally {
+				pendingProcessed.remove(dialogueHash, write);
+			}
+		}
+	}
+
+	/**
+	 * Reads a processed clip, from the queue if it hasn't been written yet.
+	 *
+	 * @see ClipStore#readProcessed(int, long, int)
+	 */
+	@Nullable
+	public byte[] readProcessed(int npcId, long dialogueHash, int version) throws IOException {
+		PendingWrite pending = pendingProcessed.get(dialogueHash);
+		if (pending != null && pending.version == version) {
+			return pending.pcm;
+		}
+		return clipStore.readProcessed(npcId, dialogueHash, version);
+	}
+
+	/**
+	 * Queues an fsync of a clip the store has put in place. Dropped if the queue is full;
+	 * the checksum catches a clip lost in a crash before the operating system wrote it.
+	 */
+	public void sync(int npcId, long dialogueHash) {
+		enqueue(new PendingWrite(dialogueHash, 0, clipStore.clipPath(npcId, dialogueHash), null));
+	}
+
+	/**
+	 * Waits for everything queued to be written.
+	 *
+	 * @return false if writes were still outstanding after {@code timeoutMillis}
+	 */
+	public synchronized boolean drain(long timeoutMillis) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		while (unfinished > 0) {
+			long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+			if (remaining <= 0) {
+				return false;
+			}
+			wait(remaining);
+		}
+		return true;
+	}
+
+	/**
+	 * Number of writes queued or being written.
+	 */
+	public synchronized int getUnfinishedCount() {
+		return unfinished;
+	}
+
+	void setBatchListener(@Nullable BatchListener batchListener) {
+		this.batchListener = batchListener;
+	}
+
+	private synchronized boolean enqueue(PendingWrite write) {
+		long bytes = write.pcm != null ? write.pcm.length : 0;
+		if (queuedBytes + bytes > MAX_QUEUED_BYTES || !queue.offer(write)) {
+			return false;
+		}
+
+		unfinished++;
+		queuedBytes += bytes;
+		if (thread == null) {
+			thread = new Thread(this::run, "gielinor-speaks-writer");
+			thread.setDaemon(true);
+			thread.start();
+		}
+		return true;
+	}
+
+	private void run() {
+		List<PendingWrite> batch = new ArrayList<>(MAX_BATCH);
+		while (true) {
+			PendingWrite first;
+			try {
+				first = queue.poll(IDLE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+			}
+			catch (InterruptedException e) {
+				first = queue.poll();
+			}
+
+			if (first == null) {
+				synchronized (this) {
+					if (queue.isEmpty()) {
+						thread = null;
+						return;
+					}
+				}
+				continue;
+			}
+
+			batch.add(first);
+			queue.drainTo(batch, MAX_BATCH - 1);
+			try {
+				writeBatch(batch);
+			}
+			catch (IOException | RuntimeException e) {
+				// Missing entries are downloaded or processed again when next needed
+				log.warn("Unable to write {} voice clips to the cache", batch.size(), e);
+			}
+			finally {
+				finish(batch);
+				batch.clear();
+			}
+		}
+	}
+
+	private void writeBatch(List<PendingWrite> batch) throws IOException {
+		long start = System.nanoTime();
+		BatchListener listener = batchListener;
+		int size = batch.size();
+
+		try {
+			for (int i = 0; i < size; i++) {
+				PendingWrite write = batch.get(i);
+				if (write.pcm != null) {
+					Files.createDirectories(write.target.getParent());
+					write.temp = Files.createTempFile(write.target.getParent(), write.target.getFileName().toString(),
+						ClipStore.TEMP_EXTENSION);
+					try (FileChannel channel = FileChannel.open(write.temp, StandardOpenOption.WRITE)) {
+						writeFully(channel, ClipStore.processedHeader(write.version, write.pcm));
+						writeFully(channel, ByteBuffer.wrap(write.pcm));
+					}
+				}
+				report(listener, Step.WRITTEN, i, size);
+			}
+
+			for (int i = 0; i < size; i++) {
+				PendingWrite write = batch.get(i);
+				force(write.pcm != null ? write.temp : write.target);
+				report(listener, Step.SYNCED, i, size);
+			}
+
+			Set<Path> directories = new LinkedHashSet<>();
+			for (int i = 0; i < size; i++) {
+				PendingWrite write = batch.get(i);
+				if (write.pcm != null) {
+					move(write.temp, write.target);
+					write.temp = null;
+					clipStore.trustProcessed(write.hash);
+					directories.add(write.target.getParent());
+				}
+				report(listener, Step.MOVED, i, size);
+			}
+
+			// Makes the moves themselves durable
+			for (Path directory : directories) {
+				forceDirectory(directory);
+			}
+		}
+		finally {
+			for (PendingWrite write : batch) {
+				if (write.temp != null) {
+					Files.deleteIfExists(write.temp);
+				}
+			}
+		}
+
+		log.debug("Wrote {} voice clips to the cache in {}ms", size, (System.nanoTime() - start) / 1_000_000);
+	}
+
+	private synchronized void finish(List<PendingWrite> batch) {
+		for (PendingWrite write : batch) {
+			if (write.pcm != null) {
+				pendingProcessed.remove(write.hash, write);
+				queuedBytes -= write.pcm.length;
+			}
+		}
+		unfinished -= batch.size();
+		notifyAll();
+	}
+
+	private static void report(@Nullable BatchListener listener, Step step, int index, int size) {
+		if (listener != null) {
+			listener.onStep(step, index, size);
+		}
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	private static void force(Path file) throws IOException {
+		// Opened for writing since some platforms can't flush a read-only handle
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			channel.force(true);
+		}
+		catch (NoSuchFileException e) {
+			// Quarantined or replaced meanwhile
+		}
+	}
+
+	private static void forceDirectory(Path directory) {
+		try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+			channel.force(true);
+		}
+		catch (IOException e) {
+			// Not supported on every platform (e.g. Windows); the moves are then only as
+			// durable as the file system makes them
+			log.trace("Unable to sync directory {}", directory, e);
+		}
+	}
+
+	private static void move(Path source, Path target) throws IOException {
+		try {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (AtomicMoveNotSupportedException e) {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package com.gielinorspeaks.cache;
+
+import com.gielinorspeaks.model.Emotion;
+
+/**
+ * Computes the stable 64-bit hash that identifies a voiced dialogue line.
+ * The hash covers the NPC ID and the cleaned dialogue text, so the same line spoken by
+ * two different NPCs maps to two different clips.
+ * ===
+ * Uses FNV-1a over the NPC ID bytes followed by the UTF-16 code units of the text.
+ * It is cheap, allocation free and stable across JVMs and sessions, which matters
+ * because the hash is also used as the on-disk clip file name.
+ */
+public final class DialogueHash {
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private DialogueHash() {
+	}
+
+	/**
+	 * Hashes a dialogue line for the given NPC.
+	 */
+	public static long of(int npcId, String dialogueText) {
+		long hash = FNV_OFFSET_BASIS;
+		for (int shift = 0; shift < Integer.SIZE; shift += Byte.SIZE) {
+			hash ^= (npcId >>> shift) & 0xff;
+			hash *= FNV_PRIME;
+		}
+		return mix(hash, dialogueText);
+	}
+
+	/**
+	 * Hashes an NPC name on its own, with the same function as the text of a line.
+	 */
+	public static long ofName(String npcName) {
+		return mix(FNV_OFFSET_BASIS, npcName);
+	}
+
+	private static long mix(long hash, String text) {
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			hash ^= c & 0xff;
+			hash *= FNV_PRIME;
+			hash ^= c >>> 8;
+			hash *= FNV_PRIME;
+		}
+		return hash;
+	}
+
+	/**
+	 * Key of an emotional variant of a line. The neutral variant keeps the plain line hash, so
+	 * clips cached before variants existed stay valid; other variants mix the emotion into the
+	 * hash with the murmur3 finalizer so they spread evenly through the clip index.
+	 */
+	public static long variant(long lineHash, Emotion emotion) {
+		if (emotion == Emotion.NEUTRAL) {
+			return lineHash;
+		}
+
+		long h = lineHash ^ (emotion.ordinal() * 0x9e3779b97f4a7c15L);
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/**
+	 * Key of a variant's clip in one generation of its NPC's voice profile, under which it is
+	 * cached in memory and on disk. Generation 0 keeps the variant key, so clips cached before
+	 * generations existed stay valid; later generations are mixed in the same way as emotions,
+	 * so a regenerated voice starts from an empty cache without anything being deleted.
+	 */
+	public static long generation(long variantHash, int generation) {
+		if (generation == 0) {
+			return variantHash;
+		}
+
+		long h = variantHash ^ (generation * 0xc2b2ae3d27d4eb4fL);
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/**
+	 * Formats a hash as a fixed-width, lowercase hex string (used for file names and logging).
+	 */
+	public static String toHex(long hash) {
+		String hex = Long.toHexString(hash);
+		return hex.length() == 16 ? hex : "0000000000000000".substring(hex.length()) + hex;
+	}
+
+	/**
+	 * Parses a hash previously formatted with {@link #toHex(long)}.
+	 *
+	 * @throws NumberFormatException if the string is not a valid hash
+	 */
+	public static long fromHex(String hex) {
+		if (hex.length() != 16) {
+			throw new NumberFormatException("Expected 16 hex digits: " + hex);
+		}
+		return Long.parseUnsignedLong(hex, 16);
+	}
+}
@@ -0,0 +1,208 @@
+package com.gielinorspeaks.cache;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import net.runelite.client.RuneLite;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tracks how often each dialogue line is played and persists the most played lines,
+ * so the next session can preload them into memory before the player hears them.
+ * ===
+ * Snapshot format (big-endian): magic, version, entry count, then per entry
+ * {@code npcId (int), dialogueHash (long), plays (int)}, ordered from most to least played.
+ * ===
+ * Play counts carried over from previous sessions are halved on load, so lines the player
+ * no longer hears fade out of the hot set over a few sessions.
+ * ===
+ * NOTE ON THREAD SAFETY: All methods are synchronized. Plays are recorded on the voice thread,
+ * while loads and saves happen on the lifecycle thread.
+ */
+@Slf4j
+@Singleton
+public class HotSet {
+	/**
+	 * Number of lines written to the snapshot.
+	 */
+	public static final int SNAPSHOT_SIZE = 256;
+
+	/**
+	 * Number of distinct lines tracked in memory before the least played are pruned.
+	 */
+	static final int MAX_TRACKED = 4 * SNAPSHOT_SIZE;
+
+	private static final int MAGIC = 0x47534853; // "GSHS"
+	private static final int VERSION = 1;
+
+	private final Path snapshotFile;
+	private final Map<Long, Entry> entries = new HashMap<>();
+	private boolean loaded;
+
+	@Inject
+	public HotSet() {
+		this(new File(RuneLite.RUNELITE_DIR, "gielinor-speaks" + File.separator + "hotset.dat"));
+	}
+
+	public HotSet(File snapshotFile) {
+		this.snapshotFile = snapshotFile.toPath();
+	}
+
+	/**
+	 * Records one play of a line.
+	 */
+	public synchronized void recordPlay(int npcId, long dialogueHash) {
+		Entry entry = entries.get(dialogueHash);
+		if (entry == null) {
+			if (entries.size() >= MAX_TRACKED) {
+				prune();
+			}
+			entry = new Entry(npcId, dialogueHash);
+			entries.put(dialogueHash, entry);
+		}
+		entry.plays++;
+	}
+
+	/**
+	 * Returns the most played lines, hottest first.
+	 */
+	public synchronized List<Entry> getHottest(int limit) {
+		List<Entry> sorted = new ArrayList<>(entries.size());
+		for (Entry entry : entries.values()) {
+			sorted.add(entry.copy());
+		}
+		sorted.sort((a, b) -> Integer.compare(b.plays, a.plays));
+		return sorted.size() > limit ? new ArrayList<>(sorted.subList(0, limit)) : sorted;
+	}
+
+	/**
+	 * Loads the snapshot written by a previous session. Does nothing if already loaded
+	 * (e.g. the plugin was toggled and the in-memory counts are more recent).
+	 */
+	public synchronized void load() throws IOException {
+		if (loaded) {
+			return;
+		}
+		loaded = true;
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotFile)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				log.debug("Ignoring unrecognised hot set snapshot");
+				return;
+			}
+
+			int count = Math.min(in.readInt(), SNAPSHOT_SIZE);
+			for (int i = 0; i < count; i++) {
+				Entry entry = new Entry(in.readInt(), in.readLong());
+				entry.plays = Math.max(1, in.readInt() / 2);
+				entries.merge(entry.dialogueHash, entry, (current, previous) -> {
+					current.plays += previous.plays;
+					return current;
+				});
+			}
+			log.debug("Loaded hot set of {} lines", count);
+		}
+		catch (NoSuchFileException e) {
+			// First run
+		}
+		catch (EOFException e) {
+			log.debug("Ignoring truncated hot set snapshot");
+		}
+	}
+
+	/**
+	 * Writes the hottest lines to the snapshot file. Does nothing if the previous snapshot
+	 * was never loaded, since writing would discard the history it holds. Each save writes a
+	 * temp file of its own, so clients sharing the folder never write into the same one.
+	 */
+	public void save() throws IOException {
+		List<Entry> hottest;
+		synchronized (this) {
+			if (!loaded) {
+				return;
+			}
+			hottest = getHottest(SNAPSHOT_SIZE);
+		}
+		if (hottest.isEmpty()) {
+			return;
+		}
+
+		Files.createDirectories(snapshotFile.getParent());
+		Path temp = Files.createTempFile(snapshotFile.getParent(), snapshotFile.getFileName().toString(), ClipStore.TEMP_EXTENSION);
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(hottest.size());
+				for (Entry entry : hottest) {
+					out.writeInt(entry.npcId);
+					out.writeLong(entry.dialogueHash);
+					out.writeInt(entry.plays);
+				}
+			}
+
+			try {
+				Files.move(temp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, snapshotFile, StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * Drops the least played half of the tracked lines.
+	 */
+	private void prune() {
+		List<Entry> hottest = getHottest(MAX_TRACKED / 2);
+		entries.clear();
+		for (Entry entry : hottest) {
+			entries.put(entry.dialogueHash, entry);
+		}
+	}
+
+	/**
+	 * A line in the hot set and how many times it has been played.
+	 */
+	public static final class Entry {
+		@Getter
+		private final int npcId;
+
+		@Getter
+		private final long dialogueHash;
+
+		@Getter
+		private int plays;
+
+		Entry(int npcId, long dialogueHash) {
+			this.npcId = npcId;
+			this.dialogueHash = dialogueHash;
+		}
+
+		private Entry copy() {
+			Entry copy = new Entry(npcId, dialogueHash);
+			copy.plays = plays;
+			return copy;
+		}
+	}
+}
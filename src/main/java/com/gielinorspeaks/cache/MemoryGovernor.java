@@ -0,0 +1,293 @@
+package com.gielinorspeaks.cache;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sheds in-memory cache tiers when the client runs low on memory, and restores them once
+ * the pressure is gone.
+ * ===
+ * PRESSURE:
+ * Measured as the highest of
+ * - heap usage after the last collection, per tenured pool, as a fraction of the pool maximum
+ * - direct buffer usage as a fraction of the heap maximum (the JVM's default direct limit)
+ * Post-collection usage is used for the heap so that garbage waiting to be collected doesn't
+ * count as pressure. Eden and survivor pools are left out: they are emptied by every young
+ * collection, and a survivor space is routinely full after one under the Serial and Parallel
+ * collectors, so they say nothing about how much memory the client keeps.
+ * ===
+ * POLICY:
+ * Tiers are shed one per check, lowest priority first, while pressure is at or above
+ * {@link #SHED_THRESHOLD}, and restored one per check, in reverse order, once pressure is
+ * below {@link #RESTORE_THRESHOLD}. The gap between the two keeps a tier from flapping, and
+ * going one tier at a time gives the collector a chance to show the effect of each step.
+ * ===
+ * Checks run every {@link #CHECK_INTERVAL_SECONDS} and immediately when a tenured pool crosses
+ * its collection usage threshold. Direct memory has no memory pool to put a threshold on, so
+ * it is only seen by the periodic check.
+ * ===
+ * NOTE ON THREAD SAFETY: All state is guarded by {@code this}; the metric fields are also
+ * volatile so the debug overlay can read them without locking. Checks run on the shared
+ * scheduled executor, never on the client thread.
+ */
+@Slf4j
+@Singleton
+public class MemoryGovernor {
+	static final double SHED_THRESHOLD = 0.85;
+	static final double RESTORE_THRESHOLD = 0.70;
+	static final long CHECK_INTERVAL_SECONDS = 5;
+
+	/**
+	 * Name fragments of the young generation pools of HotSpot's collectors.
+	 */
+	private static final String[] YOUNG_POOL_NAMES = {"Eden", "Survivor", "Young"};
+
+	/**
+	 * Priority of idle pooled buffers. Higher priorities are shed later.
+	 */
+	public static final int PRIORITY_BUFFER_POOL = 0;
+
+	/**
+	 * Priority of the decoded clip cache.
+	 */
+	public static final int PRIORITY_DECODED_CLIPS = 10;
+
+	private static final class Tier {
+		private final String name;
+		private final int priority;
+		private final Sheddable cache;
+
+		private Tier(String name, int priority, Sheddable cache) {
+			this.name = name;
+			this.priority = priority;
+			this.cache = cache;
+		}
+	}
+
+	private final ScheduledExecutorService executor;
+	private final NotificationListener thresholdListener = this::onMemoryNotification;
+
+	/**
+	 * Registered tiers, lowest priority first.
+	 */
+	private final List<Tier> tiers = new ArrayList<>();
+
+	/**
+	 * Pools whose collection usage threshold was set by us, and so must be cleared on stop.
+	 */
+	private final List<MemoryPoolMXBean> thresholdPools = new ArrayList<>();
+
+	/**
+	 * Number of tiers currently shed. These are always the first tiers in {@link #tiers}.
+	 */
+	@Getter
+	private volatile int shedTierCount;
+
+	/**
+	 * Total number of times a tier has been shed.
+	 */
+	@Getter
+	private volatile long shedEvents;
+
+	/**
+	 * Pressure seen by the last check, from 0 to 1.
+	 */
+	@Getter
+	private volatile double pressure;
+
+	private ScheduledFuture<?> checkTask;
+	private boolean listenerInstalled;
+
+	@Inject
+	public MemoryGovernor(ScheduledExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Registers a cache tier. Registering the same cache again has no effect.
+	 *
+	 * @param priority tiers with lower priority are shed first
+	 */
+	public synchronized void register(String name, int priority, Sheddable cache) {
+		for (Tier tier : tiers) {
+			if (tier.cache == cache) {
+				return;
+			}
+		}
+
+		// Insert after the shed tiers so the shed prefix stays intact
+		int index = shedTierCount;
+		while (index < tiers.size() && tiers.get(index).priority <= priority) {
+			index++;
+		}
+		tiers.add(index, new Tier(name, priority, cache));
+	}
+
+	/**
+	 * Starts watching memory usage. Returns immediately; the JMX setup runs on the executor.
+	 */
+	public synchronized void start() {
+		if (checkTask != null) {
+			return;
+		}
+
+		checkTask = executor.scheduleWithFixedDelay(this::check, CHECK_INTERVAL_SECONDS, CHECK_INTERVAL_SECONDS, TimeUnit.SECONDS);
+		executor.execute(this::installThresholds);
+	}
+
+	/**
+	 * Stops watching memory usage and restores every shed tier.
+	 */
+	public synchronized void stop() {
+		if (checkTask == null) {
+			return;
+		}
+
+		checkTask.cancel(false);
+		checkTask = null;
+
+		if (listenerInstalled) {
+			try {
+				((NotificationEmitter) ManagementFactory.getMemoryMXBean()).removeNotificationListener(thresholdListener);
+			}
+			catch (ListenerNotFoundException e) {
+				log.debug("Memory threshold listener was not registered", e);
+			}
+			listenerInstalled = false;
+		}
+		for (MemoryPoolMXBean pool : thresholdPools) {
+			pool.setCollectionUsageThreshold(0);
+		}
+		thresholdPools.clear();
+
+		while (shedTierCount > 0) {
+			restoreLast();
+		}
+	}
+
+	private synchronized void installThresholds() {
+		// Stopped before this ran
+		if (checkTask == null || listenerInstalled) {
+			return;
+		}
+
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			long max = pool.getUsage().getMax();
+			if (isTenured(pool) && pool.isCollectionUsageThresholdSupported() && max > 0
+				&& pool.getCollectionUsageThreshold() == 0) {
+				// Leave thresholds set by anyone else alone
+				pool.setCollectionUsageThreshold((long) (max * SHED_THRESHOLD));
+				thresholdPools.add(pool);
+			}
+		}
+		((NotificationEmitter) ManagementFactory.getMemoryMXBean()).addNotificationListener(thresholdListener, null, null);
+		listenerInstalled = true;
+	}
+
+	/**
+	 * Samples memory usage and sheds or restores one tier.
+	 */
+	void check() {
+		double sampled = Math.max(sampleHeapPressure(ManagementFactory.getMemoryPoolMXBeans()), sampleDirectPressure());
+		evaluate(sampled);
+	}
+
+	synchronized void evaluate(double sampled) {
+		pressure = sampled;
+		if (sampled >= SHED_THRESHOLD && shedTierCount < tiers.size()) {
+			Tier tier = tiers.get(shedTierCount);
+			long released = tier.cache.sizeInBytes();
+			tier.cache.shed();
+			shedTierCount++;
+			shedEvents++;
+			log.info("Memory usage at {}%, shed {} ({} KB)", Math.round(sampled * 100), tier.name, released / 1024);
+		}
+		else if (sampled < RESTORE_THRESHOLD && shedTierCount > 0) {
+			log.info("Memory usage down to {}%, restoring {}", Math.round(sampled * 100), tiers.get(shedTierCount - 1).name);
+			restoreLast();
+		}
+	}
+
+	/**
+	 * Names of the tiers currently shed, for display.
+	 */
+	public synchronized List<String> getShedTierNames() {
+		List<String> names = new ArrayList<>(shedTierCount);
+		for (int i = 0; i < shedTierCount; i++) {
+			names.add(tiers.get(i).name);
+		}
+		return names;
+	}
+
+	private void restoreLast() {
+		shedTierCount--;
+		tiers.get(shedTierCount).cache.restore();
+	}
+
+	private void onMemoryNotification(Notification notification, Object handback) {
+		if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType())) {
+			// Delivered on a JMX thread; don't do the work there
+			executor.execute(this::check);
+		}
+	}
+
+	static double sampleHeapPressure(List<MemoryPoolMXBean> pools) {
+		double highest = 0;
+		for (MemoryPoolMXBean pool : pools) {
+			if (!isTenured(pool)) {
+				continue;
+			}
+
+			MemoryUsage usage = pool.getCollectionUsage();
+			if (usage != null && usage.getMax() > 0) {
+				highest = Math.max(highest, (double) usage.getUsed() / usage.getMax());
+			}
+		}
+		return highest;
+	}
+
+	/**
+	 * Whether the pool holds long-lived objects: a heap pool that isn't part of the young
+	 * generation. Collectors with a single heap pool, like ZGC without generations and
+	 * Shenandoah, count as tenured.
+	 */
+	static boolean isTenured(MemoryPoolMXBean pool) {
+		if (pool.getType() != MemoryType.HEAP) {
+			return false;
+		}
+		for (String young : YOUNG_POOL_NAMES) {
+			if (pool.getName().contains(young)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static double sampleDirectPressure() {
+		long maxDirect = Runtime.getRuntime().maxMemory();
+		for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+			if ("direct".equals(pool.getName())) {
+				return (double) pool.getMemoryUsed() / maxDirect;
+			}
+		}
+		return 0;
+	}
+}
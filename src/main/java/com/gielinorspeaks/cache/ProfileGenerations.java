@@ -0,0 +1,149 @@
+package com.gielinorspeaks.cache;
+
+import lombok.extern.slf4j.Slf4j;
+import net.runelite.client.RuneLite;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Current voice profile generation of each NPC, as last published in its manifest.
+ * ===
+ * The voice server bumps an NPC's generation whenever it regenerates that NPC's voice. Clips
+ * are cached under keys scoped by generation ({@link DialogueHash#generation}), so recording a
+ * bump here invalidates every clip of that NPC at once, in memory and on disk, without
+ * touching a file. The {@link CacheScrubber} deletes the old generation's files later.
+ * ===
+ * NPCs never seen with a generation are at generation 0. Generations only move forward: a
+ * lower value than the one known is ignored, since it comes from a stale manifest.
+ * ===
+ * Snapshot format (big-endian): magic, version, entry count, then per entry
+ * {@code npcId (int), generation (int)}. Kept next to the clips, since it describes them and
+ * is shared with every client using the store; saves merge with the file on disk, keeping the
+ * higher generation, so two clients don't undo each other's bumps.
+ * ===
+ * NOTE ON THREAD SAFETY: Lookups may come from any thread. Loads and updates are synchronized.
+ */
+@Slf4j
+@Singleton
+public class ProfileGenerations {
+	static final String FILE_NAME = "generations.dat";
+
+	private static final int MAGIC = 0x47535047; // "GSPG"
+	private static final int VERSION = 1;
+
+	private final Path file;
+	private final Map<Integer, Integer> generations = new ConcurrentHashMap<>();
+	private boolean loaded;
+
+	@Inject
+	public ProfileGenerations() {
+		this(new File(RuneLite.RUNELITE_DIR, "gielinor-speaks" + File.separator + "clips" + File.separator + FILE_NAME));
+	}
+
+	public ProfileGenerations(File file) {
+		this.file = file.toPath();
+	}
+
+	public Path getFile() {
+		return file;
+	}
+
+	/**
+	 * Current generation of an NPC's voice, 0 if it has never been bumped.
+	 */
+	public int get(int npcId) {
+		return generations.getOrDefault(npcId, 0);
+	}
+
+	/**
+	 * Records the generation published for an NPC, saving it if it is newer than the one known.
+	 *
+	 * @return whether the generation changed, invalidating the NPC's cached clips
+	 */
+	public synchronized boolean update(int npcId, int generation) throws IOException {
+		if (generation <= get(npcId)) {
+			return false;
+		}
+
+		generations.put(npcId, generation);
+		save();
+		return true;
+	}
+
+	/**
+	 * Loads the generations recorded by this or another client. Does nothing if already loaded.
+	 */
+	public synchronized void load() throws IOException {
+		if (loaded) {
+			return;
+		}
+		loaded = true;
+		read().forEach((npcId, generation) -> generations.merge(npcId, generation, Math::max));
+	}
+
+	private Map<Integer, Integer> read() throws IOException {
+		Map<Integer, Integer> stored = new HashMap<>();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				log.debug("Ignoring unrecognised voice generations file");
+				return stored;
+			}
+
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				stored.merge(in.readInt(), in.readInt(), Math::max);
+			}
+		}
+		catch (NoSuchFileException e) {
+			// Nothing regenerated yet
+		}
+		catch (EOFException e) {
+			log.debug("Ignoring truncated voice generations file");
+		}
+		return stored;
+	}
+
+	private void save() throws IOException {
+		read().forEach((npcId, generation) -> generations.merge(npcId, generation, Math::max));
+
+		Files.createDirectories(file.getParent());
+		Path temp = Files.createTempFile(file.getParent(), FILE_NAME, ClipStore.TEMP_EXTENSION);
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(generations.size());
+				for (Map.Entry<Integer, Integer> entry : generations.entrySet()) {
+					out.writeInt(entry.getKey());
+					out.writeInt(entry.getValue());
+				}
+			}
+
+			try {
+				Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+}
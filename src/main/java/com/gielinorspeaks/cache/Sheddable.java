@@ -0,0 +1,26 @@
+package com.gielinorspeaks.cache;
+
+/**
+ * A cache whose memory can be given back under memory pressure.
+ * ===
+ * Shedding must only cost performance: everything a sheddable cache holds can be recovered
+ * from disk or the network.
+ *
+ * @see MemoryGovernor
+ */
+public interface Sheddable {
+	/**
+	 * Releases everything held and stops growing until {@link #restore()} is called.
+	 */
+	void shed();
+
+	/**
+	 * Allows the cache to grow back to its normal capacity.
+	 */
+	void restore();
+
+	/**
+	 * Memory currently held, in bytes.
+	 */
+	long sizeInBytes();
+}
@@ -0,0 +1,136 @@
+package com.gielinorspeaks.cache;
+
+import com.gielinorspeaks.GielinorSpeaksConfig;
+import lombok.extern.slf4j.Slf4j;
+import net.runelite.client.eventbus.EventBus;
+import net.runelite.client.eventbus.Subscribe;
+import net.runelite.client.events.ConfigChanged;
+import net.runelite.client.events.PluginChanged;
+import net.runelite.client.plugins.Plugin;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the in-memory caches alive while the plugin is turned off, so turning it back on
+ * (or switching profiles) doesn't start from a cold cache.
+ * ===
+ * On retain, the clip cache is trimmed to the retained budget and the clip index is kept as is.
+ * Retained state is fully released when:
+ * - the plugin is removed (PluginChanged with loaded = false)
+ * - the plugin stays off for longer than {@link #RETENTION_MINUTES}
+ * - warm restart is turned off in the config while the plugin is off
+ * ===
+ * The plugin's own subscriptions are gone while it is off, so this registers itself on the
+ * event bus only for the time state is retained.
+ */
+@Slf4j
+@Singleton
+public class WarmCacheRetainer {
+	static final long RETENTION_MINUTES = 30;
+
+	private final ClipCache clipCache;
+	private final ClipIndex clipIndex;
+	private final EventBus eventBus;
+	private final ScheduledExecutorService executor;
+
+	private Plugin retainingPlugin;
+	private ScheduledFuture<?> expiry;
+
+	@Inject
+	public WarmCacheRetainer(ClipCache clipCache, ClipIndex clipIndex, EventBus eventBus, ScheduledExecutorService executor) {
+		this.clipCache = clipCache;
+		this.clipIndex = clipIndex;
+		this.eventBus = eventBus;
+		this.executor = executor;
+	}
+
+	/**
+	 * Retains cache state for the next startUp, bounded to {@code maxRetainedBytes} of clips.
+	 */
+	public synchronized void retain(Plugin plugin, long maxRetainedBytes) {
+		clipCache.trimTo(maxRetainedBytes);
+
+		if (retainingPlugin == null) {
+			eventBus.register(this);
+		}
+		retainingPlugin = plugin;
+
+		cancelExpiry();
+		expiry = executor.schedule(this::expire, RETENTION_MINUTES, TimeUnit.MINUTES);
+
+		log.debug("Retaining {} clips ({} bytes) while disabled", clipCache.size(), clipCache.sizeInBytes());
+	}
+
+	/**
+	 * Stops the release timers and hands the retained state back to the running plugin.
+	 *
+	 * @return true if warm state was retained from a previous run
+	 */
+	public synchronized boolean reattach() {
+		if (retainingPlugin == null) {
+			return false;
+		}
+
+		stopRetaining();
+		log.debug("Reattached warm cache with {} clips", clipCache.size());
+		return true;
+	}
+
+	/**
+	 * Drops all cached clips and the clip index.
+	 */
+	public synchronized void release() {
+		if (retainingPlugin != null) {
+			stopRetaining();
+		}
+
+		clipCache.clear();
+		clipIndex.unload();
+		log.debug("Released cached voice state");
+	}
+
+	public synchronized boolean isRetaining() {
+		return retainingPlugin != null;
+	}
+
+	@Subscribe
+	public void onPluginChanged(PluginChanged event) {
+		if (!event.isLoaded() && event.getPlugin() == retainingPlugin) {
+			release();
+		}
+	}
+
+	@Subscribe
+	public void onConfigChanged(ConfigChanged event) {
+		if (GielinorSpeaksConfig.GROUP.equals(event.getGroup())
+			&& "warmRestart".equals(event.getKey())
+			&& !Boolean.parseBoolean(event.getNewValue())) {
+			release();
+		}
+	}
+
+	private synchronized void expire() {
+		// May race with reattach(); only release if still off
+		if (retainingPlugin != null) {
+			log.debug("Plugin disabled for {} minutes, releasing retained cache", RETENTION_MINUTES);
+			release();
+		}
+	}
+
+	private void stopRetaining() {
+		retainingPlugin = null;
+		cancelExpiry();
+		eventBus.unregister(this);
+	}
+
+	private void cancelExpiry() {
+		if (expiry != null) {
+			expiry.cancel(false);
+			expiry = null;
+		}
+	}
+}
@@ -0,0 +1,130 @@
+package com.gielinorspeaks.concurrent;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs background I/O (downloads and disk reads) for the voice pipeline, on whichever threads
+ * suit the JVM the plugin is running on.
+ * ===
+ * THREADS:
+ * - Java 21+: a virtual thread per task, at most {@code virtualParallelism} running at once.
+ *   A task blocked on the network or disk holds no platform thread, so many can wait at once
+ *   for little more memory than their own state.
+ * - Older JVMs: a fixed pool of {@code platformThreads} daemon threads at minimum priority,
+ *   taking tasks in order from an unbounded queue. Each thread reserves a full stack, so the
+ *   pool is kept small.
+ * ===
+ * The choice is made by {@link IoThreads}, which the jar carries twice: the Java 11 version,
+ * which has no virtual threads, and one under {@code META-INF/versions/21} that JVMs from 21
+ * on load instead. {@link #getParallelism()} tells callers how much work is worth handing
+ * over at once.
+ * ===
+ * NOTE ON THREAD SAFETY: All methods may be called from any thread. Tasks executed after
+ * {@link #shutdownNow()} are dropped.
+ */
+@Slf4j
+public final class IoExecutor implements Executor {
+	private final ExecutorService executor;
+	private final boolean virtual;
+	private final int parallelism;
+
+	/**
+	 * Limits running tasks on virtual threads; null on a platform pool, whose size does.
+	 */
+	private final Semaphore running;
+
+	private IoExecutor(ExecutorService executor, boolean virtual, int parallelism) {
+		this.executor = executor;
+		this.virtual = virtual;
+		this.parallelism = parallelism;
+		this.running = virtual ? new Semaphore(parallelism) : null;
+	}
+
+	/**
+	 * Creates an executor on virtual threads where the JVM has them, or a platform pool.
+	 *
+	 * @param name               prefix of the thread names
+	 * @param platformThreads    size of the platform pool
+	 * @param virtualParallelism tasks allowed to run at once on virtual threads
+	 */
+	public static IoExecutor create(String name, int platformThreads, int virtualParallelism) {
+		ExecutorService virtual = IoThreads.newVirtualThreadExecutor(name);
+		if (virtual != null) {
+			return new IoExecutor(virtual, true, virtualParallelism);
+		}
+		return platform(name, platformThreads);
+	}
+
+	/**
+	 * Creates a platform pool whatever the JVM, for comparing the two.
+	 */
+	public static IoExecutor platform(String name, int threads) {
+		AtomicInteger created = new AtomicInteger();
+		ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+			Thread thread = new Thread(r, name + "-" + created.incrementAndGet());
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		});
+		return new IoExecutor(pool, false, threads);
+	}
+
+	@Override
+	public void execute(Runnable task) {
+		try {
+			executor.execute(running == null ? task : () -> runBounded(task));
+		}
+		catch (RejectedExecutionException e) {
+			log.debug("Dropped I/O task after shutdown");
+		}
+	}
+
+	/**
+	 * Whether tasks run on virtual threads.
+	 */
+	public boolean isVirtual() {
+		return virtual;
+	}
+
+	/**
+	 * Tasks that run at once; more wait their turn.
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * Interrupts running tasks and drops waiting ones.
+	 */
+	public void shutdownNow() {
+		executor.shutdownNow();
+	}
+
+	public boolean isShutdown() {
+		return executor.isShutdown();
+	}
+
+	private void runBounded(Runnable task) {
+		try {
+			running.acquire();
+		}
+		catch (InterruptedException e) {
+			// Shut down while waiting its turn
+			return;
+		}
+
+		try {
+			task.run();
+		}
+		finally {
+			running.release();
+		}
+	}
+}
@@ -0,0 +1,24 @@
+package com.gielinorspeaks.concurrent;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Virtual threads for the {@link IoExecutor}, where the JVM has them.
+ * ===
+ * This is the Java 11 version, compiled into the jar proper: there are no virtual threads, so
+ * the executor falls back to a platform pool. JVMs from 21 on load the version in
+ * {@code src/main/java21} from {@code META-INF/versions/21} instead.
+ */
+final class IoThreads {
+	private IoThreads() {
+	}
+
+	/**
+	 * @return an executor starting a virtual thread per task, or null if there are none
+	 */
+	@Nullable
+	static ExecutorService newVirtualThreadExecutor(String name) {
+		return null;
+	}
+}
@@ -0,0 +1,169 @@
+package com.gielinorspeaks.metrics;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how much client thread time the plugin's handlers use.
+ * ===
+ * Every {@code @Subscribe} handler and {@code clientThread.invokeLater} task of the detection
+ * services brackets its work with {@link #start()} and {@link #record(Handler, long)}. Each
+ * record is two nanoTime reads plus a few primitive array updates.
+ * ===
+ * A handler invocation that takes longer than the configured budget is counted and logged
+ * (at most once per {@link #WARN_INTERVAL_NANOS} per handler, so a slow path doesn't flood the log).
+ * ===
+ * NOTE ON THREAD SAFETY: Counters are plain fields; they are only written on the client thread
+ * and read by the debug overlay, which also renders on the client thread.
+ */
+@Slf4j
+@Singleton
+public class ClientThreadMetrics {
+	static final long WARN_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+	/**
+	 * Minimum wall time between client thread share samples.
+	 */
+	private static final long SHARE_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	/**
+	 * Client thread entry points of the plugin.
+	 */
+	public enum Handler {
+		INTERACTING_CHANGED("Interacting"),
+		WIDGET_LOADED("Widget loaded"),
+		WIDGET_LOADED_DEFERRED("Widget read"),
+		WIDGET_CLOSED("Widget closed"),
+		OVERHEAD_TEXT_CHANGED("Overhead text"),
+		OVERHEAD_TEXT_BATCH("Overhead batch"),
+		GAME_STATE_CHANGED("Game state"),
+		VARBIT_CHANGED("Quest stage"),
+		GAME_TICK("Speaker placement");
+
+		@Getter
+		private final String label;
+
+		Handler(String label) {
+			this.label = label;
+		}
+	}
+
+	private static final Handler[] HANDLERS = Handler.values();
+
+	private final long[] invocations = new long[HANDLERS.length];
+	private final long[] totalNanos = new long[HANDLERS.length];
+	private final long[] maxNanos = new long[HANDLERS.length];
+	private final long[] overBudget = new long[HANDLERS.length];
+	private final long[] lastWarnNanos = new long[HANDLERS.length];
+
+	private long budgetNanos = TimeUnit.MICROSECONDS.toNanos(1000);
+	private long busyNanos;
+
+	// Client thread share sampling
+	private long windowStartNanos = System.nanoTime();
+	private long windowStartBusyNanos;
+	private double clientThreadShare;
+
+	@Inject
+	public ClientThreadMetrics() {
+	}
+
+	/**
+	 * Returns the start timestamp to pass to {@link #record(Handler, long)}.
+	 */
+	public long start() {
+		return System.nanoTime();
+	}
+
+	/**
+	 * Records one invocation of a handler that started at {@code startNanos}.
+	 */
+	public void record(Handler handler, long startNanos) {
+		long now = System.nanoTime();
+		long elapsed = now - startNanos;
+		int i = handler.ordinal();
+
+		invocations[i]++;
+		totalNanos[i] += elapsed;
+		busyNanos += elapsed;
+		if (elapsed > maxNanos[i]) {
+			maxNanos[i] = elapsed;
+		}
+
+		if (elapsed > budgetNanos) {
+			overBudget[i]++;
+			if (now - lastWarnNanos[i] > WARN_INTERVAL_NANOS || lastWarnNanos[i] == 0) {
+				lastWarnNanos[i] = now;
+				log.warn("{} took {}us on the client thread (budget {}us, {} times over budget so far)",
+					handler, elapsed / 1000, budgetNanos / 1000, overBudget[i]);
+			}
+		}
+	}
+
+	public void setBudgetMicros(int budgetMicros) {
+		budgetNanos = TimeUnit.MICROSECONDS.toNanos(budgetMicros);
+	}
+
+	public long getBudgetNanos() {
+		return budgetNanos;
+	}
+
+	public long getInvocations(Handler handler) {
+		return invocations[handler.ordinal()];
+	}
+
+	public long getTotalNanos(Handler handler) {
+		return totalNanos[handler.ordinal()];
+	}
+
+	public long getMaxNanos(Handler handler) {
+		return maxNanos[handler.ordinal()];
+	}
+
+	public long getOverBudget(Handler handler) {
+		return overBudget[handler.ordinal()];
+	}
+
+	/**
+	 * Total client thread time spent in all handlers since startup.
+	 */
+	public long getBusyNanos() {
+		return busyNanos;
+	}
+
+	/**
+	 * Fraction of wall time the client thread spent in plugin handlers, sampled over roughly
+	 * the last second. Sampling happens on read, so call this regularly (e.g. every frame).
+	 */
+	public double sampleClientThreadShare() {
+		long now = System.nanoTime();
+		long wall = now - windowStartNanos;
+		if (wall >= SHARE_WINDOW_NANOS) {
+			clientThreadShare = (double) (busyNanos - windowStartBusyNanos) / wall;
+			windowStartNanos = now;
+			windowStartBusyNanos = busyNanos;
+		}
+		return clientThreadShare;
+	}
+
+	/**
+	 * Clears all counters.
+	 */
+	public void reset() {
+		for (int i = 0; i < HANDLERS.length; i++) {
+			invocations[i] = 0;
+			totalNanos[i] = 0;
+			maxNanos[i] = 0;
+			overBudget[i] = 0;
+			lastWarnNanos[i] = 0;
+		}
+		busyNanos = 0;
+		windowStartNanos = System.nanoTime();
+		windowStartBusyNanos = 0;
+		clientThreadShare = 0;
+	}
+}
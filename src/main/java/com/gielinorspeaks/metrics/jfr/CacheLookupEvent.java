@@ -0,0 +1,23 @@
+package com.gielinorspeaks.metrics.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("gielinorspeaks.CacheLookup")
+@Label("Voice Cache Lookup")
+@Description("Lookup of a dialogue line in the memory and disk caches")
+@Category({"Gielinor Speaks", "Cache"})
+@StackTrace(false)
+class CacheLookupEvent extends jdk.jfr.Event {
+	@Label("NPC ID")
+	int npcId;
+
+	@Label("Dialogue Hash")
+	long dialogueHash;
+
+	@Label("Result")
+	String result;
+}
@@ -0,0 +1,26 @@
+package com.gielinorspeaks.metrics.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("gielinorspeaks.Decode")
+@Label("Voice Decode")
+@Description("Decoding of a voice clip to PCM")
+@Category({"Gielinor Speaks", "Audio"})
+@StackTrace(false)
+class DecodeEvent extends jdk.jfr.Event {
+	@Label("Dialogue Hash")
+	long dialogueHash;
+
+	@Label("Encoded Bytes")
+	@DataAmount
+	long encodedBytes;
+
+	@Label("PCM Bytes")
+	@DataAmount
+	long pcmBytes;
+}
@@ -0,0 +1,20 @@
+package com.gielinorspeaks.metrics.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("gielinorspeaks.DialogueDetected")
+@Label("Dialogue Detected")
+@Description("A DialogueEvent was created by a detection service")
+@Category({"Gielinor Speaks", "Detection"})
+@StackTrace(false)
+class DialogueDetectedEvent extends jdk.jfr.Event {
+	@Label("Source")
+	String source;
+
+	@Label("NPC ID")
+	int npcId;
+}
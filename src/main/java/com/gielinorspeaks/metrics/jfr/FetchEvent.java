@@ -0,0 +1,28 @@
+package com.gielinorspeaks.metrics.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("gielinorspeaks.Fetch")
+@Label("Voice Fetch")
+@Description("HTTP request for a voice clip")
+@Category({"Gielinor Speaks", "Network"})
+@StackTrace(false)
+class FetchEvent extends jdk.jfr.Event {
+	@Label("NPC ID")
+	int npcId;
+
+	@Label("Dialogue Hash")
+	long dialogueHash;
+
+	@Label("Status")
+	int status;
+
+	@Label("Bytes")
+	@DataAmount
+	long bytes;
+}
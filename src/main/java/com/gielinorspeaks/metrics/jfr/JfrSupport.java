@@ -0,0 +1,124 @@
+package com.gielinorspeaks.metrics.jfr;
+
+import com.gielinorspeaks.model.DialogueSource;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+
+/**
+ * The only class that touches jdk.jfr types outside the event classes themselves.
+ * Loaded by {@link PipelineEvents} once the module is known to be present.
+ */
+final class JfrSupport {
+	private static final FlightRecorderListener LISTENER = new FlightRecorderListener() {
+		@Override
+		public void recordingStateChanged(Recording recording) {
+			PipelineEvents.setRecording(isAnyRecordingRunning());
+		}
+	};
+
+	private JfrSupport() {
+	}
+
+	static void install() {
+		FlightRecorder.addListener(LISTENER);
+		// The listener only hears about later changes; pick up a recording started before us
+		PipelineEvents.setRecording(isAnyRecordingRunning());
+	}
+
+	static void uninstall() {
+		FlightRecorder.removeListener(LISTENER);
+	}
+
+	private static boolean isAnyRecordingRunning() {
+		// Asking an uninitialized recorder for its recordings would start it up
+		if (!FlightRecorder.isInitialized()) {
+			return false;
+		}
+
+		for (Recording recording : FlightRecorder.getFlightRecorder().getRecordings()) {
+			if (recording.getState() == RecordingState.RUNNING) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	static void dialogueDetected(DialogueSource source, int npcId) {
+		DialogueDetectedEvent event = new DialogueDetectedEvent();
+		if (event.isEnabled()) {
+			event.source = source.name();
+			event.npcId = npcId;
+			event.commit();
+		}
+	}
+
+	static Object beginCacheLookup() {
+		CacheLookupEvent event = new CacheLookupEvent();
+		event.begin();
+		return event;
+	}
+
+	static void endCacheLookup(Object handle, int npcId, long dialogueHash, PipelineEvents.LookupResult result) {
+		CacheLookupEvent event = (CacheLookupEvent) handle;
+		event.end();
+		if (event.shouldCommit()) {
+			event.npcId = npcId;
+			event.dialogueHash = dialogueHash;
+			event.result = result.name();
+			event.commit();
+		}
+	}
+
+	static Object beginFetch() {
+		FetchEvent event = new FetchEvent();
+		event.begin();
+		return event;
+	}
+
+	static void endFetch(Object handle, int npcId, long dialogueHash, int status, long bytes) {
+		FetchEvent event = (FetchEvent) handle;
+		event.end();
+		if (event.shouldCommit()) {
+			event.npcId = npcId;
+			event.dialogueHash = dialogueHash;
+			event.status = status;
+			event.bytes = bytes;
+			event.commit();
+		}
+	}
+
+	static Object beginDecode() {
+		DecodeEvent event = new DecodeEvent();
+		event.begin();
+		return event;
+	}
+
+	static void endDecode(Object handle, long dialogueHash, long encodedBytes, long pcmBytes) {
+		DecodeEvent event = (DecodeEvent) handle;
+		event.end();
+		if (event.shouldCommit()) {
+			event.dialogueHash = dialogueHash;
+			event.encodedBytes = encodedBytes;
+			event.pcmBytes = pcmBytes;
+			event.commit();
+		}
+	}
+
+	static Object beginPlayback() {
+		PlaybackEvent event = new PlaybackEvent();
+		event.begin();
+		return event;
+	}
+
+	static void endPlayback(Object handle, long pcmBytes, boolean interrupted) {
+		PlaybackEvent event = (PlaybackEvent) handle;
+		event.end();
+		if (event.shouldCommit()) {
+			event.pcmBytes = pcmBytes;
+			event.interrupted = interrupted;
+			event.commit();
+		}
+	}
+}
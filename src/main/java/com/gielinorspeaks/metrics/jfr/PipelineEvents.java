@@ -0,0 +1,144 @@
+package com.gielinorspeaks.metrics.jfr;
+
+import com.gielinorspeaks.model.DialogueSource;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.annotation.Nullable;
+
+/**
+ * Emits Java Flight Recorder events for each stage of the dialogue-to-voice pipeline, so plugin
+ * activity can be lined up with GC pauses and client-thread stalls in a recording.
+ * ===
+ * COST WHEN NOT RECORDING:
+ * Every emitter first checks a single volatile flag, which is only set while a JFR recording is
+ * running. Until then no event objects are allocated and no jdk.jfr class is touched.
+ * ===
+ * AVAILABILITY:
+ * RuneLite may ship on a runtime without the jdk.jfr module. All JFR types are confined to
+ * {@link JfrSupport}, which is only loaded once {@link #install()} has found the module, so this
+ * class is safe to call on any runtime.
+ * ===
+ * USAGE:
+ * Durational events are split into begin/end pairs. begin returns an opaque handle (null when
+ * not recording) that must be passed to the matching end call, which accepts null.
+ */
+@Slf4j
+public final class PipelineEvents {
+	/**
+	 * Outcome of a clip cache lookup.
+	 */
+	public enum LookupResult {
+		MEMORY,
+		DISK,
+		MISS
+	}
+
+	private static final Object LOCK = new Object();
+
+	private static volatile boolean recording;
+
+	// Guarded by LOCK
+	private static boolean installed;
+
+	private PipelineEvents() {
+	}
+
+	/**
+	 * Starts following JFR recording state. Does nothing if JFR is unavailable.
+	 */
+	public static void install() {
+		synchronized (LOCK) {
+			if (installed) {
+				return;
+			}
+
+			try {
+				Class.forName("jdk.jfr.FlightRecorder", false, PipelineEvents.class.getClassLoader());
+				JfrSupport.install();
+				installed = true;
+			}
+			catch (ClassNotFoundException | LinkageError | SecurityException e) {
+				log.debug("Java Flight Recorder is not available, pipeline events are disabled");
+			}
+		}
+	}
+
+	/**
+	 * Stops following JFR recording state and disables all events.
+	 */
+	public static void uninstall() {
+		synchronized (LOCK) {
+			if (!installed) {
+				return;
+			}
+
+			JfrSupport.uninstall();
+			installed = false;
+			recording = false;
+		}
+	}
+
+	public static boolean isRecording() {
+		return recording;
+	}
+
+	static void setRecording(boolean running) {
+		if (running != recording) {
+			log.debug("JFR recording {}, pipeline events {}", running ? "started" : "stopped", running ? "enabled" : "disabled");
+		}
+		recording = running;
+	}
+
+	public static void dialogueDetected(DialogueSource source, int npcId) {
+		if (recording) {
+			JfrSupport.dialogueDetected(source, npcId);
+		}
+	}
+
+	@Nullable
+	public static Object beginCacheLookup() {
+		return recording ? JfrSupport.beginCacheLookup() : null;
+	}
+
+	public static void endCacheLookup(@Nullable Object event, int npcId, long dialogueHash, LookupResult result) {
+		if (event != null) {
+			JfrSupport.endCacheLookup(event, npcId, dialogueHash, result);
+		}
+	}
+
+	@Nullable
+	public static Object beginFetch() {
+		return recording ? JfrSupport.beginFetch() : null;
+	}
+
+	/**
+	 * @param status HTTP status, or 0 if the request failed without a response
+	 */
+	public static void endFetch(@Nullable Object event, int npcId, long dialogueHash, int status, long bytes) {
+		if (event != null) {
+			JfrSupport.endFetch(event, npcId, dialogueHash, status, bytes);
+		}
+	}
+
+	@Nullable
+	public static Object beginDecode() {
+		return recording ? JfrSupport.beginDecode() : null;
+	}
+
+	public static void endDecode(@Nullable Object event, long dialogueHash, long encodedBytes, long pcmBytes) {
+		if (event != null) {
+			JfrSupport.endDecode(event, dialogueHash, encodedBytes, pcmBytes);
+		}
+	}
+
+	@Nullable
+	public static Object beginPlayback() {
+		return recording ? JfrSupport.beginPlayback() : null;
+	}
+
+	public static void endPlayback(@Nullable Object event, long pcmBytes, boolean interrupted) {
+		if (event != null) {
+			JfrSupport.endPlayback(event, pcmBytes, interrupted);
+		}
+	}
+}
@@ -0,0 +1,22 @@
+package com.gielinorspeaks.metrics.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("gielinorspeaks.Playback")
+@Label("Voice Playback")
+@Description("A voice clip playing on the audio device, from start to stop")
+@Category({"Gielinor Speaks", "Audio"})
+@StackTrace(false)
+class PlaybackEvent extends jdk.jfr.Event {
+	@Label("PCM Bytes")
+	@DataAmount
+	long pcmBytes;
+
+	@Label("Interrupted")
+	boolean interrupted;
+}
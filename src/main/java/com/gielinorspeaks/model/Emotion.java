@@ -0,0 +1,91 @@
+package com.gielinorspeaks.model;
+
+import lombok.Getter;
+
+import javax.annotation.Nullable;
+
+/**
+ * Emotional variant of a voiced line, derived from the chathead animation shown with it.
+ * ===
+ * The animation id to emotion mapping is compiled into a byte array indexed by animation id,
+ * so classifying is a bounds check and an array read. Animations that aren't chathead
+ * emotions (or aren't known yet) map to {@link #NEUTRAL}.
+ */
+public enum Emotion {
+	NEUTRAL("neutral"),
+	HAPPY("happy"),
+	LAUGHING("laughing"),
+	SAD("sad"),
+	ANGRY("angry"),
+	SHOCKED("shocked"),
+	CONFUSED("confused");
+
+	/**
+	 * Name used by the voice server.
+	 */
+	@Getter
+	private final String key;
+
+	Emotion(String key) {
+		this.key = key;
+	}
+
+	private static final Emotion[] VALUES = values();
+
+	public static final int COUNT = VALUES.length;
+
+	private static final int FIRST_ANIMATION = 554;
+	private static final int LAST_ANIMATION = 617;
+
+	/**
+	 * Emotion ordinal per animation id, offset by {@link #FIRST_ANIMATION}.
+	 */
+	private static final byte[] ANIMATION_EMOTIONS = new byte[LAST_ANIMATION - FIRST_ANIMATION + 1];
+
+	static {
+		// Each chathead emotion comes in four variants (1-4) of increasing length
+		map(554, 557, CONFUSED); // CHATQUIZ1-4
+		map(567, 570, HAPPY); // CHATHAP1-4
+		map(571, 574, SHOCKED); // CHATSHOCK1-4
+		map(588, 591, NEUTRAL); // CHATNEU1-4
+		map(605, 608, LAUGHING); // CHATLAUGH1-4
+		map(610, 613, SAD); // CHATSAD1-4
+		map(614, 617, ANGRY); // CHATANGRY1-4
+	}
+
+	private static void map(int first, int last, Emotion emotion) {
+		for (int animation = first; animation <= last; animation++) {
+			ANIMATION_EMOTIONS[animation - FIRST_ANIMATION] = (byte) emotion.ordinal();
+		}
+	}
+
+	/**
+	 * Classifies a chathead animation.
+	 */
+	public static Emotion forAnimation(int animationId) {
+		int index = animationId - FIRST_ANIMATION;
+		if (index < 0 || index >= ANIMATION_EMOTIONS.length) {
+			return NEUTRAL;
+		}
+		return VALUES[ANIMATION_EMOTIONS[index]];
+	}
+
+	public static Emotion fromOrdinal(int ordinal) {
+		return VALUES[ordinal];
+	}
+
+	/**
+	 * Looks up an emotion by its voice server name.
+	 *
+	 * @return the emotion, or null if the name isn't known
+	 */
+	@Nullable
+	public static Emotion forKey(String key) {
+		for (Emotion emotion : VALUES) {
+			if (emotion.key.equals(key)) {
+				return emotion;
+			}
+		}
+		return null;
+	}
+}
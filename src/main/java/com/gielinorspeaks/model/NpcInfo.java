@@ -0,0 +1,76 @@
+package com.gielinorspeaks.model;
+
+import com.gielinorspeaks.cache.DialogueHash;
+import lombok.Getter;
+
+/**
+ * What the plugin knows about one NPC composition: its canonical name, the name's hash and
+ * whether the voice server has a voice for it.
+ * ===
+ * Created once per composition id per session by the {@link com.gielinorspeaks.service.NpcTable}
+ * and shared by every line that NPC says, so later stages read these instead of going back
+ * to the NPC actor.
+ * ===
+ * VOICE PROFILE:
+ * Starts {@link VoiceProfile#UNKNOWN}. The voice pipeline marks it available once any clip of
+ * the NPC plays, and unavailable once {@link #UNVOICED_LINES_BEFORE_UNAVAILABLE} different
+ * lines turned out not to be voiced before that, after which it stops asking the server
+ * about the NPC for the rest of the session.
+ * ===
+ * NOTE ON THREAD SAFETY: Name and hash are final. The voice profile is only written on the
+ * voice thread and is volatile so other threads (e.g. the debug overlay) can read it.
+ */
+public final class NpcInfo {
+	public static final int UNVOICED_LINES_BEFORE_UNAVAILABLE = 3;
+
+	public enum VoiceProfile {
+		UNKNOWN,
+		AVAILABLE,
+		UNAVAILABLE
+	}
+
+	/**
+	 * Composition id, as returned by {@code NPC.getId()}.
+	 */
+	@Getter
+	private final int id;
+
+	@Getter
+	private final String name;
+
+	/**
+	 * {@link DialogueHash#ofName(String)} of the name.
+	 */
+	@Getter
+	private final long nameHash;
+
+	@Getter
+	private volatile VoiceProfile voiceProfile = VoiceProfile.UNKNOWN;
+
+	/**
+	 * Lines found not to be voiced while the profile was unknown. Voice thread only.
+	 */
+	private int unvoicedLines;
+
+	public NpcInfo(int id, String name) {
+		this.id = id;
+		this.name = name;
+		this.nameHash = DialogueHash.ofName(name);
+	}
+
+	/**
+	 * Records that a clip of this NPC was found.
+	 */
+	public void markVoiced() {
+		voiceProfile = VoiceProfile.AVAILABLE;
+	}
+
+	/**
+	 * Records that a line of this NPC has not been voiced.
+	 */
+	public void markUnvoiced() {
+		if (voiceProfile == VoiceProfile.UNKNOWN && ++unvoicedLines >= UNVOICED_LINES_BEFORE_UNAVAILABLE) {
+			voiceProfile = VoiceProfile.UNAVAILABLE;
+		}
+	}
+}
@@ -0,0 +1,47 @@
+package com.gielinorspeaks.model;
+
+import lombok.Getter;
+
+/**
+ * What the voice server publishes about an NPC's voice: the generation of its voice profile
+ * and the text of its voiced lines, where the server lists it.
+ * ===
+ * Line hashes are the server's, as clips are addressed by; the text is only used to find a
+ * voiced line close to one that isn't.
+ * ===
+ * Immutable, so it may be shared between threads.
+ */
+public final class NpcManifest {
+	/**
+	 * Generation of the voice profile; 0 for manifests from before generations existed.
+	 */
+	@Getter
+	private final int generation;
+
+	private final long[] lineHashes;
+	private final String[] lineTexts;
+
+	public NpcManifest(int generation, long[] lineHashes, String[] lineTexts) {
+		if (lineHashes.length != lineTexts.length) {
+			throw new IllegalArgumentException("Expected a text for each of " + lineHashes.length + " lines, got " + lineTexts.length);
+		}
+		this.generation = generation;
+		this.lineHashes = lineHashes.clone();
+		this.lineTexts = lineTexts.clone();
+	}
+
+	/**
+	 * Number of voiced lines listed with their text.
+	 */
+	public int getLineCount() {
+		return lineHashes.length;
+	}
+
+	public long getLineHash(int line) {
+		return lineHashes[line];
+	}
+
+	public String getLineText(int line) {
+		return lineTexts[line];
+	}
+}
@@ -0,0 +1,255 @@
+package com.gielinorspeaks.model;
+
+import com.gielinorspeaks.cache.DialogueHash;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Which NPC lines are likely next at each quest stage, as published by the voice server.
+ * ===
+ * FORMAT:
+ * One bundle per line, fields separated by whitespace; blank lines and lines starting with
+ * {@code #} are ignored:
+ * {@code <varbit|varp> <var id> <first stage> <last stage> <npc id> <line hash>[:<emotion>]...}
+ * A bundle applies while the quest's varbit (or varp) holds a value from the first to the last
+ * stage, inclusive. Line hashes are {@link DialogueHash#toHex hex}, optionally followed by the
+ * emotion the line is voiced in; neutral otherwise. Malformed lines are skipped.
+ * ===
+ * The table is stored in flat primitive arrays, since {@link #indexOfTracked} is asked on every
+ * varbit change in the client and mustn't box or allocate.
+ * ===
+ * Immutable once parsed, so it may be shared between threads.
+ */
+@Slf4j
+public final class QuestStageTable {
+	public static final QuestStageTable EMPTY = new QuestStageTable(new Builder());
+
+	/**
+	 * Kind of variable a quest keeps its progress in.
+	 */
+	public enum VarType {
+		VARBIT("varbit"),
+		VARP("varp");
+
+		private final String key;
+
+		VarType(String key) {
+			this.key = key;
+		}
+	}
+
+	/**
+	 * Receives the bundles matching a stage, by index.
+	 */
+	@FunctionalInterface
+	public interface BundleVisitor {
+		void visit(int bundle);
+	}
+
+	// Per bundle
+	private final byte[] varTypes;
+	private final int[] varIds;
+	private final int[] firstStages;
+	private final int[] lastStages;
+	private final int[] npcIds;
+
+	/**
+	 * Index of each bundle's first line, plus one past the last bundle's.
+	 */
+	private final int[] lineStarts;
+
+	// Per line
+	private final long[] lineHashes;
+	private final byte[] lineEmotions;
+
+	/**
+	 * Sorted, distinct ids of the variables any bundle depends on, per {@link VarType}.
+	 */
+	private final int[][] trackedIds = new int[VarType.values().length][];
+
+	private QuestStageTable(Builder builder) {
+		int bundles = builder.bundles;
+		varTypes = Arrays.copyOf(builder.varTypes, bundles);
+		varIds = Arrays.copyOf(builder.varIds, bundles);
+		firstStages = Arrays.copyOf(builder.firstStages, bundles);
+		lastStages = Arrays.copyOf(builder.lastStages, bundles);
+		npcIds = Arrays.copyOf(builder.npcIds, bundles);
+		lineStarts = Arrays.copyOf(builder.lineStarts, bundles + 1);
+		lineStarts[bundles] = builder.lines;
+		lineHashes = Arrays.copyOf(builder.lineHashes, builder.lines);
+		lineEmotions = Arrays.copyOf(builder.lineEmotions, builder.lines);
+
+		for (VarType type : VarType.values()) {
+			int[] ids = new int[bundles];
+			int count = 0;
+			for (int i = 0; i < bundles; i++) {
+				if (varTypes[i] == type.ordinal()) {
+					ids[count++] = varIds[i];
+				}
+			}
+			trackedIds[type.ordinal()] = Arrays.stream(ids, 0, count).sorted().distinct().toArray();
+		}
+	}
+
+	/**
+	 * Reads a table in the format described above.
+	 */
+	public static QuestStageTable parse(BufferedReader reader) throws IOException {
+		Builder builder = new Builder();
+		int skipped = 0;
+		String line;
+		while ((line = reader.readLine()) != null) {
+			line = line.trim();
+			if (line.isEmpty() || line.charAt(0) == '#') {
+				continue;
+			}
+			if (!builder.add(line.split("\\s+"))) {
+				skipped++;
+			}
+		}
+
+		if (skipped > 0) {
+			log.debug("Skipped {} malformed quest stage bundles", skipped);
+		}
+		return new QuestStageTable(builder);
+	}
+
+	/**
+	 * Position of a variable in {@link #getTrackedIds}, or a negative number if no bundle
+	 * depends on it.
+	 */
+	public int indexOfTracked(VarType type, int varId) {
+		return Arrays.binarySearch(trackedIds[type.ordinal()], varId);
+	}
+
+	/**
+	 * Ids of the variables any bundle depends on, sorted. Must not be modified.
+	 */
+	public int[] getTrackedIds(VarType type) {
+		return trackedIds[type.ordinal()];
+	}
+
+	/**
+	 * Visits every bundle that applies while the given variable holds {@code stage}.
+	 */
+	public void forEachBundle(VarType type, int varId, int stage, BundleVisitor visitor) {
+		for (int i = 0; i < varIds.length; i++) {
+			if (varIds[i] == varId && varTypes[i] == type.ordinal() && stage >= firstStages[i] && stage <= lastStages[i]) {
+				visitor.visit(i);
+			}
+		}
+	}
+
+	public int getBundleCount() {
+		return varIds.length;
+	}
+
+	public int getNpcId(int bundle) {
+		return npcIds[bundle];
+	}
+
+	public int getLineCount(int bundle) {
+		return lineStarts[bundle + 1] - lineStarts[bundle];
+	}
+
+	/**
+	 * Plain line hash of a bundle's line, to be combined with its {@link #getEmotion emotion}.
+	 */
+	public long getLineHash(int bundle, int line) {
+		return lineHashes[lineStarts[bundle] + line];
+	}
+
+	public Emotion getEmotion(int bundle, int line) {
+		return Emotion.fromOrdinal(lineEmotions[lineStarts[bundle] + line]);
+	}
+
+	private static final class Builder {
+		private byte[] varTypes = new byte[64];
+		private int[] varIds = new int[64];
+		private int[] firstStages = new int[64];
+		private int[] lastStages = new int[64];
+		private int[] npcIds = new int[64];
+		private int[] lineStarts = new int[65];
+		private long[] lineHashes = new long[256];
+		private byte[] lineEmotions = new byte[256];
+		private int bundles;
+		private int lines;
+
+		/**
+		 * Adds a bundle from its fields.
+		 *
+		 * @return false if the fields are malformed, leaving the builder unchanged
+		 */
+		private boolean add(String[] fields) {
+			if (fields.length < 6) {
+				return false;
+			}
+
+			VarType type = null;
+			for (VarType candidate : VarType.values()) {
+				if (candidate.key.equals(fields[0])) {
+					type = candidate;
+				}
+			}
+
+			int varId;
+			int firstStage;
+			int lastStage;
+			int npcId;
+			long[] hashes = new long[fields.length - 5];
+			byte[] emotions = new byte[hashes.length];
+			try {
+				varId = Integer.parseInt(fields[1]);
+				firstStage = Integer.parseInt(fields[2]);
+				lastStage = Integer.parseInt(fields[3]);
+				npcId = Integer.parseInt(fields[4]);
+				for (int i = 0; i < hashes.length; i++) {
+					String field = fields[5 + i];
+					int colon = field.indexOf(':');
+					Emotion emotion = colon < 0 ? Emotion.NEUTRAL : Emotion.forKey(field.substring(colon + 1));
+					if (emotion == null) {
+						return false;
+					}
+					hashes[i] = DialogueHash.fromHex(colon < 0 ? field : field.substring(0, colon));
+					emotions[i] = (byte) emotion.ordinal();
+				}
+			}
+			catch (NumberFormatException e) {
+				return false;
+			}
+			if (type == null || firstStage > lastStage) {
+				return false;
+			}
+
+			if (bundles == varIds.length) {
+				int capacity = bundles * 2;
+				varTypes = Arrays.copyOf(varTypes, capacity);
+				varIds = Arrays.copyOf(varIds, capacity);
+				firstStages = Arrays.copyOf(firstStages, capacity);
+				lastStages = Arrays.copyOf(lastStages, capacity);
+				npcIds = Arrays.copyOf(npcIds, capacity);
+				lineStarts = Arrays.copyOf(lineStarts, capacity + 1);
+			}
+			if (lines + hashes.length > lineHashes.length) {
+				int capacity = Math.max(lineHashes.length * 2, lines + hashes.length);
+				lineHashes = Arrays.copyOf(lineHashes, capacity);
+				lineEmotions = Arrays.copyOf(lineEmotions, capacity);
+			}
+
+			varTypes[bundles] = (byte) type.ordinal();
+			varIds[bundles] = varId;
+			firstStages[bundles] = firstStage;
+			lastStages[bundles] = lastStage;
+			npcIds[bundles] = npcId;
+			lineStarts[bundles] = lines;
+			System.arraycopy(hashes, 0, lineHashes, lines, hashes.length);
+			System.arraycopy(emotions, 0, lineEmotions, lines, emotions.length);
+			bundles++;
+			lines += hashes.length;
+			return true;
+		}
+	}
+}
@@ -0,0 +1,116 @@
+package com.gielinorspeaks.model;
+
+import com.gielinorspeaks.cache.DialogueHash;
+import lombok.Getter;
+
+/**
+ * Compact form of a detected line, used inside the plugin from detection through to playback.
+ * ===
+ * Differs from {@link DialogueEvent} in what it costs to create on the client thread:
+ * - The animation is a primitive with a {@link #NO_ANIMATION} sentinel, so no Integer is boxed
+ *   (only -128..127 are cached, and chathead animations are all above that).
+ * - The line hash is computed once, here, instead of by every stage that needs it.
+ * - The NPC is a reference to its shared {@link NpcInfo}, so the name is never copied and
+ *   nothing downstream goes back to the NPC actor. Where the voice is placed is carried as the
+ *   actor's scene index ({@link #speakerIndex}).
+ * ===
+ * {@link #toDialogueEvent()} adapts it for callbacks that take a {@link DialogueEvent}; the
+ * detection services only pay for that when such a callback is set.
+ */
+public final class VoiceLine {
+	/**
+	 * Animation id meaning no animation was captured (same value the client uses).
+	 */
+	public static final int NO_ANIMATION = -1;
+
+	/**
+	 * Speaker index meaning the voice isn't placed in the scene, but played centered at full
+	 * volume (dialogue the player is taking part in).
+	 */
+	public static final int NO_SPEAKER = -1;
+
+	@Getter
+	private final NpcInfo npc;
+
+	@Getter
+	private final String text;
+
+	@Getter
+	private final DialogueSource source;
+
+	/**
+	 * Chathead (or NPC) animation shown with the line, or {@link #NO_ANIMATION}.
+	 */
+	@Getter
+	private final int animationId;
+
+	/**
+	 * {@link DialogueHash#of(int, String)} of the NPC id and text.
+	 */
+	@Getter
+	private final long lineHash;
+
+	/**
+	 * Scene index of the NPC saying the line, whose position the voice follows, or
+	 * {@link #NO_SPEAKER}.
+	 */
+	@Getter
+	private final int speakerIndex;
+
+	public VoiceLine(NpcInfo npc, String text, DialogueSource source, int animationId) {
+		this(npc, text, source, animationId, NO_SPEAKER);
+	}
+
+	public VoiceLine(NpcInfo npc, String text, DialogueSource source, int animationId, int speakerIndex) {
+		this(npc, text, DialogueHash.of(npc.getId(), text), source, animationId, speakerIndex);
+	}
+
+	/**
+	 * Creates a line whose hash the caller has already computed.
+	 *
+	 * @param lineHash {@link DialogueHash#of(int, String)} of the NPC id and text
+	 */
+	public VoiceLine(NpcInfo npc, String text, long lineHash, DialogueSource source, int animationId, int speakerIndex) {
+		this.npc = npc;
+		this.text = text;
+		this.source = source;
+		this.animationId = animationId;
+		this.speakerIndex = speakerIndex;
+		this.lineHash = lineHash;
+	}
+
+	/**
+	 * Creates a line for an NPC that isn't in the {@link com.gielinorspeaks.service.NpcTable}.
+	 */
+	public VoiceLine(int npcId, String npcName, String text, DialogueSource source, int animationId) {
+		this(new NpcInfo(npcId, npcName), text, source, animationId);
+	}
+
+	public static VoiceLine from(DialogueEvent event) {
+		Integer animationId = event.getAnimationId();
+		return new VoiceLine(event.getNpcId(), event.getNpcName(), event.getDialogueText(), event.getSource(),
+			animationId != null ? animationId : NO_ANIMATION);
+	}
+
+	public int getNpcId() {
+		return npc.getId();
+	}
+
+	public String getNpcName() {
+		return npc.getName();
+	}
+
+	public boolean hasAnimation() {
+		return animationId != NO_ANIMATION;
+	}
+
+	public DialogueEvent toDialogueEvent() {
+		return new DialogueEvent(npc.getId(), npc.getName(), text, source, hasAnimation() ? animationId : null);
+	}
+
+	@Override
+	public String toString() {
+		return "VoiceLine(npcId=" + npc.getId() + ", npcName=" + npc.getName() + ", text=" + text + ", source=" + source
+			+ ", animationId=" + animationId + ")";
+	}
+}
@@ -1,7 +1,11 @@
 package com.gielinorspeaks.service;
 
+import com.gielinorspeaks.metrics.ClientThreadMetrics;
+import com.gielinorspeaks.metrics.ClientThreadMetrics.Handler;
 import com.gielinorspeaks.model.DialogueEvent;
 import com.gielinorspeaks.model.DialogueSource;
+import com.gielinorspeaks.model.NpcInfo;
+import com.gielinorspeaks.model.VoiceLine;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import net.runelite.api.Actor;
@@ -34,19 +38,30 @@ import java.util.function.Consumer;
  * of state tracking (handles edge cases like widget reloads).
  * ===
  * NOTE ON THREAD SAFETY: All state is accessed only on the client thread via @Subscribe methods
- * and ClientThread.invokeLater().
+ * and ClientThread.invokeLater(). Each of these entry points is timed by ClientThreadMetrics.
  * ===
  * DESIGN DECISIONS:
  * - No polling: WidgetLoaded fires immediately when new dialogue appears
  * - invokeLater(): Ensures widget text is fully populated before reading
  * - cachedInteractingNpc: Captured early, since Player.getInteracting() becomes null after the interaction event.
  * - Deduplication: Tracks last text to avoid firing duplicate events
+ * - Line history: The hashes of the last {@link #RECENT_LINES} lines of the interaction are kept
+ *   across widget reloads and re-opened conversations, in a primitive ring; a line found there
+ *   goes to the repeat callback, so the pipeline replays it instead of looking it up again.
+ *   Cleared when a new interaction starts.
  */
 @Slf4j
 @Singleton
 public class DialogueDetectionService {
+	/**
+	 * Number of line hashes remembered per interaction.
+	 */
+	static final int RECENT_LINES = 16;
+
 	private final Client client;
 	private final ClientThread clientThread;
+	private final ClientThreadMetrics metrics;
+	private final NpcTable npcTable;
 
     /**
      * Callback to be invoked when NPC dialogue is detected.
@@ -56,6 +71,19 @@ public class DialogueDetectionService {
     @Setter
 	private Consumer<DialogueEvent> dialogueCallback;
 
+	/**
+	 * Callback to be invoked with the compact form of the same lines.
+	 */
+	@Setter
+	private Consumer<VoiceLine> lineCallback;
+
+	/**
+	 * Callback to be invoked instead of the line callback with lines already said in this
+	 * interaction. When not set, those go to the line callback as well.
+	 */
+	@Setter
+	private Consumer<VoiceLine> repeatCallback;
+
 	/**
 	 * Callback to be invoked when NPC dialogue ends.
 	 * Called when player options appear or dialogue window closes.
@@ -64,10 +92,25 @@ public class DialogueDetectionService {
 	@Setter
 	private Consumer<Integer> dialogueEndCallback;
 
+	/**
+	 * Callback to be invoked when the player starts interacting with an NPC,
+	 * before any of its dialogue appears.
+	 */
+	@Setter
+	private Consumer<NPC> interactionCallback;
+
 	// State tracking
 	// Note: These fields are only accessed on the client thread
 	private String lastDialogueText = "";
 
+	/**
+	 * Hashes of the interaction's recent lines, written round-robin; the first
+	 * {@code recentLineCount} slots are in use.
+	 */
+	private final long[] recentLines = new long[RECENT_LINES];
+	private int recentLineCount;
+	private int nextRecentLine;
+
 	/**
 	 * Cached NPC captured immediately when player interacts.
 	 * Player.getInteracting() only works briefly, so we cache it early.
@@ -76,17 +119,29 @@ public class DialogueDetectionService {
 	private NPC cachedInteractingNpc = null;
 
 	@Inject
-	public DialogueDetectionService(Client client, ClientThread clientThread) {
+	public DialogueDetectionService(Client client, ClientThread clientThread, ClientThreadMetrics metrics, NpcTable npcTable) {
 		this.client = client;
 		this.clientThread = clientThread;
+		this.metrics = metrics;
+		this.npcTable = npcTable;
+	}
+
+	@Subscribe
+	public void onInteractingChanged(InteractingChanged event) {
+		long start = metrics.start();
+		try {
+			handleInteractingChanged(event);
+		}
+		finally {
+			metrics.record(Handler.INTERACTING_CHANGED, start);
+		}
 	}
 
 	/**
 	 * Captures NPC reference immediately when player starts interacting.
 	 * This is critical because Player.getInteracting() is only non-null briefly.
 	 */
-	@Subscribe
-	public void onInteractingChanged(InteractingChanged event) {
+	private void handleInteractingChanged(InteractingChanged event) {
 		// Check if the local player changed their interaction target
 		if (event.getSource() == client.getLocalPlayer()) {
             // Capture the current actor that the player is interacting with
@@ -99,12 +154,28 @@ public class DialogueDetectionService {
 				if (cachedInteractingNpc == null || cachedInteractingNpc.getIndex() != eventNPC.getIndex()) {
 					cachedInteractingNpc = eventNPC;
 					resetDialogueState();
+					recentLineCount = 0;
+					nextRecentLine = 0;
                     log.debug("Interaction started with {} (ID: {})", eventNPC.getName(), eventNPC.getId());
+					if (interactionCallback != null) {
+						interactionCallback.accept(eventNPC);
+					}
 				}
 			}
 		}
 	}
 
+	@Subscribe
+	public void onWidgetLoaded(WidgetLoaded event) {
+		long start = metrics.start();
+		try {
+			handleWidgetLoaded(event);
+		}
+		finally {
+			metrics.record(Handler.WIDGET_LOADED, start);
+		}
+	}
+
 	/**
 	 * Event-driven dialogue detection when dialogue widget loads.
 	 * Uses invokeLater() to ensure widget text is fully populated.
@@ -112,8 +183,7 @@ public class DialogueDetectionService {
 	 * ===
 	 * Also detects when chat menu appear, signaling dialogue end.
 	 */
-	@Subscribe
-	public void onWidgetLoaded(WidgetLoaded event) {
+	private void handleWidgetLoaded(WidgetLoaded event) {
 		// Detect chat menu appearing (dialogue ended, player's turn)
 		if (event.getGroupId() == InterfaceID.CHATMENU) {
 			fireDialogueEndCallback("Chat menu appeared");
@@ -129,59 +199,93 @@ public class DialogueDetectionService {
 
 		// Use invokeLater to ensure widget is fully populated before reading
 		clientThread.invokeLater(() -> {
-			// Filter out player dialogue (unless player voice is enabled in the future)
-			if (isPlayerDialogue(isChatLeft)) {
-				log.debug("Skipping player dialogue");
-				// TODO: When player voice feature is added, check config here:
-				// if (!config.enablePlayerVoice()) { return; }
-				return;
+			long start = metrics.start();
+			try {
+				readDialogueWidget(isChatLeft);
 			}
-
-			// Fallback: try to get NPC from current interaction if we don't have one cached
-			if (cachedInteractingNpc == null) {
-				NPC interactingNpc = getCurrentInteractingNpc();
-				if (interactingNpc != null) {
-					cachedInteractingNpc = interactingNpc;
-				}
-				else {
-					log.warn("Dialogue widget loaded but no NPC interaction found");
-					return;
-				}
+			finally {
+				metrics.record(Handler.WIDGET_LOADED_DEFERRED, start);
 			}
+		});
+	}
 
-			// Read dialogue text from the appropriate widget (left or right)
-			Widget dialogWidget = isChatLeft
-				? client.getWidget(InterfaceID.ChatLeft.TEXT)
-				: client.getWidget(InterfaceID.ChatRight.TEXT);
+	/**
+	 * Reads the loaded dialogue widget and fires a dialogue event if the text is new.
+	 * Runs in a deferred client thread task, once the widget text is populated.
+	 */
+	private void readDialogueWidget(boolean isChatLeft) {
+		// Filter out player dialogue (unless player voice is enabled in the future)
+		if (isPlayerDialogue(isChatLeft)) {
+			log.debug("Skipping player dialogue");
+			// TODO: When player voice feature is added, check config here:
+			// if (!config.enablePlayerVoice()) { return; }
+			return;
+		}
 
-			if (dialogWidget == null || dialogWidget.isHidden()) {
+		// Fallback: try to get NPC from current interaction if we don't have one cached
+		if (cachedInteractingNpc == null) {
+			NPC interactingNpc = getCurrentInteractingNpc();
+			if (interactingNpc != null) {
+				cachedInteractingNpc = interactingNpc;
+			}
+			else {
+				log.warn("Dialogue widget loaded but no NPC interaction found");
 				return;
 			}
+		}
 
-			String rawText = dialogWidget.getText();
-			String cleanedText = cleanDialogueText(rawText);
+		// Read dialogue text from the appropriate widget (left or right)
+		Widget dialogWidget = isChatLeft
+			? client.getWidget(InterfaceID.ChatLeft.TEXT)
+			: client.getWidget(InterfaceID.ChatRight.TEXT);
 
-			// Deduplicate: only fire event if text actually changed
-			if (cleanedText.equals(lastDialogueText)) {
-				return;
-			}
+		if (dialogWidget == null || dialogWidget.isHidden()) {
+			return;
+		}
+
+		String rawText = dialogWidget.getText();
+		String cleanedText = cleanDialogueText(rawText);
 
-			lastDialogueText = cleanedText;
+		// Deduplicate: only fire event if text actually changed
+		if (cleanedText.equals(lastDialogueText)) {
+			return;
+		}
+
+		lastDialogueText = cleanedText;
 
-			// Fire dialogue event
+		// Fire dialogue event
+		if (lineCallback != null || repeatCallback != null || dialogueCallback != null) {
+			VoiceLine line = createVoiceLine(cleanedText);
+			Consumer<VoiceLine> callback = lineCallback;
+			if (!rememberLine(line.getLineHash()) && repeatCallback != null) {
+				log.debug("Line said again in this interaction");
+				callback = repeatCallback;
+			}
+			if (callback != null) {
+				callback.accept(line);
+			}
 			if (dialogueCallback != null) {
-				DialogueEvent dialogueEvent = createDialogueEvent(cleanedText);
-				dialogueCallback.accept(dialogueEvent);
+				dialogueCallback.accept(line.toDialogueEvent());
 			}
-		});
+		}
+	}
+
+	@Subscribe
+	public void onWidgetClosed(WidgetClosed event) {
+		long start = metrics.start();
+		try {
+			handleWidgetClosed(event);
+		}
+		finally {
+			metrics.record(Handler.WIDGET_CLOSED, start);
+		}
 	}
 
 	/**
 	 * Cleanup when dialogue widget closes.
 	 * Resets state and fires dialogue end callback.
 	 */
-	@Subscribe
-	public void onWidgetClosed(WidgetClosed event) {
+	private void handleWidgetClosed(WidgetClosed event) {
 		// Detect NPC dialogue window closing (CHAT_LEFT or CHAT_RIGHT)
 		if (isChatDialogueInterface(event.getGroupId())) {
 			fireDialogueEndCallback("Dialogue window closed");
@@ -189,6 +293,26 @@ public class DialogueDetectionService {
 		}
 	}
 
+	/**
+	 * Adds a line hash to the interaction's history, unless it is already there.
+	 *
+	 * @return false if the line was already said in this interaction
+	 */
+	private boolean rememberLine(long lineHash) {
+		for (int i = 0; i < recentLineCount; i++) {
+			if (recentLines[i] == lineHash) {
+				return false;
+			}
+		}
+
+		recentLines[nextRecentLine] = lineHash;
+		nextRecentLine = (nextRecentLine + 1) % RECENT_LINES;
+		if (recentLineCount < RECENT_LINES) {
+			recentLineCount++;
+		}
+		return true;
+	}
+
 	/**
 	 * Strips HTML tags and normalizes whitespace in dialogue text.
 	 */
@@ -199,21 +323,17 @@ public class DialogueDetectionService {
 	}
 
 	/**
-	 * Creates a DialogueEvent with NPC details and animation ID.
+	 * Creates a VoiceLine with NPC details and animation ID.
 	 * Only called when we have new dialogue to report.
 	 */
-	private DialogueEvent createDialogueEvent(String cleanedText) {
-		int npcId = cachedInteractingNpc.getId();
-		String npcName = cachedInteractingNpc.getName();
-		Integer animationId = extractAnimationId();
-
-		log.debug("Dialogue: {} ({}): '{}'{}",
-			npcName, npcId, cleanedText,
-			animationId != null ? " [anim:" + animationId + "]" : "");
-
-		return new DialogueEvent(
-			npcId,
-			npcName != null ? npcName : "Unknown",
+	private VoiceLine createVoiceLine(String cleanedText) {
+		NpcInfo npcInfo = npcTable.intern(cachedInteractingNpc);
+		int animationId = extractAnimationId();
+
+		log.debug("Dialogue: {}: '{}'", npcInfo.getName(), cleanedText);
+
+		return new VoiceLine(
+			npcInfo,
 			cleanedText,
 			DialogueSource.DIALOGUE_BOX,
 			animationId
@@ -223,40 +343,32 @@ public class DialogueDetectionService {
 	/**
 	 * Extracts animation ID for emotion tracking.
 	 * Tries dialogue widget HEAD animation first (both left and right), falls back to NPC animation.
+	 * Returns {@link VoiceLine#NO_ANIMATION} if none is available.
 	 */
-	@Nullable
-	private Integer extractAnimationId() {
+	private int extractAnimationId() {
 		// Try left widget animation (more reliable for dialogue emotions)
-		Integer animId = getWidgetAnimationId(InterfaceID.ChatLeft.HEAD);
-		if (animId != null) {
+		int animId = getWidgetAnimationId(InterfaceID.ChatLeft.HEAD);
+		if (animId != VoiceLine.NO_ANIMATION) {
 			return animId;
 		}
 
 		// Try right widget animation
 		animId = getWidgetAnimationId(InterfaceID.ChatRight.HEAD);
-		if (animId != null) {
+		if (animId != VoiceLine.NO_ANIMATION) {
 			return animId;
 		}
 
-		// Fall back to NPC's current animation
-		int npcAnimId = cachedInteractingNpc.getAnimation();
-		return npcAnimId != -1 ? npcAnimId : null;
+		// Fall back to NPC's current animation (-1 when idle, same as NO_ANIMATION)
+		return cachedInteractingNpc.getAnimation();
 	}
 
 	/**
 	 * Gets animation ID from a widget component.
-	 * Returns null if widget doesn't exist or has no animation.
+	 * Returns {@link VoiceLine#NO_ANIMATION} if widget doesn't exist or has no animation.
 	 */
-	@Nullable
-	private Integer getWidgetAnimationId(int widgetId) {
+	private int getWidgetAnimationId(int widgetId) {
 		Widget widget = client.getWidget(widgetId);
-		if (widget != null) {
-			int animId = widget.getAnimationId();
-			if (animId != -1) {
-				return animId;
-			}
-		}
-		return null;
+		return widget != null ? widget.getAnimationId() : VoiceLine.NO_ANIMATION;
 	}
 
 	/**
@@ -317,7 +429,7 @@ public class DialogueDetectionService {
 
 	/**
 	 * Resets dialogue tracking state when widget closes.
-	 * Keeps cachedInteractingNpc - it persists until a new interaction starts.
+	 * Keeps cachedInteractingNpc and the line history - they persist until a new interaction starts.
 	 */
 	private void resetDialogueState() {
 		lastDialogueText = "";
@@ -0,0 +1,102 @@
+package com.gielinorspeaks.service;
+
+import com.gielinorspeaks.model.Emotion;
+
+import java.util.Arrays;
+
+/**
+ * Counts the emotions each NPC has spoken with this session, to guess which variants of a line
+ * are worth prefetching.
+ * ===
+ * An open-addressed table of NPC ids with a row of {@link Emotion#COUNT} counters each, all in
+ * primitive arrays. When the table fills up it is cleared rather than grown: the history only
+ * needs to cover the NPCs of the current area.
+ * ===
+ * NOTE ON THREAD SAFETY: Not synchronized; only used on the voice thread.
+ */
+class EmotionHistory {
+	static final int CAPACITY = 256;
+	private static final int EMPTY = -1;
+
+	private final int[] npcIds = new int[CAPACITY];
+	private final int[] counts = new int[CAPACITY * Emotion.COUNT];
+	private int size;
+
+	EmotionHistory() {
+		Arrays.fill(npcIds, EMPTY);
+	}
+
+	void record(int npcId, Emotion emotion) {
+		int slot = find(npcId);
+		if (slot < 0) {
+			if (size >= CAPACITY * 3 / 4) {
+				clear();
+			}
+			slot = ~find(npcId);
+			npcIds[slot] = npcId;
+			size++;
+		}
+		counts[slot * Emotion.COUNT + emotion.ordinal()]++;
+	}
+
+	/**
+	 * Writes the NPC's most frequent emotions, most frequent first, into {@code out}.
+	 *
+	 * @param exclude left out of the result
+	 * @return number of emotions written; only emotions seen at least once are included
+	 */
+	int likeliest(int npcId, Emotion exclude, Emotion[] out) {
+		int slot = find(npcId);
+		if (slot < 0) {
+			return 0;
+		}
+
+		int base = slot * Emotion.COUNT;
+		int written = 0;
+		while (written < out.length) {
+			int best = -1;
+			for (int emotion = 0; emotion < Emotion.COUNT; emotion++) {
+				if (emotion == exclude.ordinal() || counts[base + emotion] == 0 || contains(out, written, emotion)) {
+					continue;
+				}
+				if (best < 0 || counts[base + emotion] > counts[base + best]) {
+					best = emotion;
+				}
+			}
+			if (best < 0) {
+				break;
+			}
+			out[written++] = Emotion.fromOrdinal(best);
+		}
+		return written;
+	}
+
+	void clear() {
+		Arrays.fill(npcIds, EMPTY);
+		Arrays.fill(counts, 0);
+		size = 0;
+	}
+
+	/**
+	 * Slot of the NPC, or the bitwise complement of the free slot it would go in.
+	 */
+	private int find(int npcId) {
+		int slot = (npcId * 0x9e3779b9 >>> 24) & (CAPACITY - 1);
+		while (npcIds[slot] != EMPTY) {
+			if (npcIds[slot] == npcId) {
+				return slot;
+			}
+			slot = (slot + 1) & (CAPACITY - 1);
+		}
+		return ~slot;
+	}
+
+	private static boolean contains(Emotion[] emotions, int length, int ordinal) {
+		for (int i = 0; i < length; i++) {
+			if (emotions[i].ordinal() == ordinal) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,316 @@
+package com.gielinorspeaks.service;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Finds the voiced line of an NPC closest to one that has no clip, so a line changed slightly
+ * by a game update (punctuation, a word, a number) still gets the voice of the original.
+ * ===
+ * Lines are compared by the Jaccard similarity of their character trigrams, estimated with
+ * MinHash signatures of {@link #SIGNATURE_SIZE} values:
+ * 1. Normalization: letters and digits lower-cased, every digit read as 0, anything else a
+ *    single space; so punctuation and numbers never count against a match
+ * 2. Shingling: each run of {@link #SHINGLE_LENGTH} characters, word boundaries included
+ * 3. Signature: the smallest of each of {@link #SIGNATURE_SIZE} hashes over the shingles,
+ *    keeping only its low byte (b-bit MinHash), packed eight to a long
+ * The share of positions where two signatures agree estimates the share of trigrams the lines
+ * have in common (plus 1/256 of the rest, from bytes agreeing by chance);
+ * {@link #SIMILARITY_THRESHOLD} of them is needed for a match.
+ * ===
+ * Only an NPC's own lines are searched, one by one, skipping those whose trigram count alone
+ * rules them out; the bytes of two signatures are compared a long at a time. A query gives up
+ * after {@link #QUERY_BUDGET_NANOS} with the best line so far, so an NPC with thousands of
+ * lines can't stall the voice thread.
+ * ===
+ * A line costs its hash, its trigram count and its signature, {@link #BYTES_PER_LINE} bytes;
+ * the text isn't kept. NPCs are evicted least recently used first once {@link #MAX_LINES}
+ * lines are indexed.
+ * ===
+ * NOTE ON THREAD SAFETY: Not synchronized; only used on the voice thread.
+ */
+public class NearMatchIndex {
+	/**
+	 * Returned by {@link #closest} when no line is similar enough. Lines with this hash are
+	 * never indexed.
+	 */
+	public static final long NO_MATCH = 0;
+
+	static final int SIGNATURE_SIZE = 32;
+	static final int SHINGLE_LENGTH = 3;
+	static final double SIMILARITY_THRESHOLD = 0.6;
+	static final long QUERY_BUDGET_NANOS = 50_000;
+	static final int MAX_LINES = 16384;
+
+	/**
+	 * Signature positions that must agree for a match.
+	 */
+	private static final int MIN_AGREEING = (int) Math.ceil(SIGNATURE_SIZE * SIMILARITY_THRESHOLD);
+
+	/**
+	 * Longs holding a signature, a byte per value.
+	 */
+	private static final int SIGNATURE_LONGS = SIGNATURE_SIZE / Long.BYTES;
+
+	static final int BYTES_PER_LINE = Long.BYTES + Integer.BYTES + SIGNATURE_SIZE;
+
+	/**
+	 * Every byte but its high bit, for finding the zero bytes of a long.
+	 */
+	private static final long LOW_SEVEN_BITS = 0x7f7f7f7f7f7f7f7fL;
+
+	/**
+	 * Lines searched between checks of the query budget.
+	 */
+	private static final int LINES_PER_BUDGET_CHECK = 32;
+
+	private static final int INITIAL_LINES_PER_NPC = 8;
+	private static final int INITIAL_TEXT_CAPACITY = 128;
+
+	/**
+	 * Odd multipliers and addends of the signature's hash functions, fixed so signatures are
+	 * the same from one session to the next.
+	 */
+	private static final long[] MULTIPLIERS = new long[SIGNATURE_SIZE];
+	private static final long[] ADDENDS = new long[SIGNATURE_SIZE];
+
+	static {
+		long seed = 0x5eed_9e37_79b9_7f4aL;
+		for (int i = 0; i < SIGNATURE_SIZE; i++) {
+			seed = mix(seed + 0x9e3779b97f4a7c15L);
+			MULTIPLIERS[i] = seed | 1;
+			seed = mix(seed + 0x9e3779b97f4a7c15L);
+			ADDENDS[i] = seed;
+		}
+	}
+
+	/**
+	 * Lines of one NPC, in the order they were added.
+	 */
+	private static final class Lines {
+		private long[] hashes = new long[INITIAL_LINES_PER_NPC];
+		private int[] shingleCounts = new int[INITIAL_LINES_PER_NPC];
+		private long[] signatures = new long[INITIAL_LINES_PER_NPC * SIGNATURE_LONGS];
+		private int count;
+
+		private int indexOf(long hash) {
+			for (int i = 0; i < count; i++) {
+				if (hashes[i] == hash) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		private void add(long hash, int shingleCount, long[] signature) {
+			if (count == hashes.length) {
+				hashes = Arrays.copyOf(hashes, count * 2);
+				shingleCounts = Arrays.copyOf(shingleCounts, count * 2);
+				signatures = Arrays.copyOf(signatures, count * 2 * SIGNATURE_LONGS);
+			}
+			hashes[count] = hash;
+			shingleCounts[count] = shingleCount;
+			System.arraycopy(signature, 0, signatures, count * SIGNATURE_LONGS, SIGNATURE_LONGS);
+			count++;
+		}
+	}
+
+	/**
+	 * Lines by NPC id, least recently used first.
+	 */
+	private final Map<Integer, Lines> npcs = new LinkedHashMap<>(16, 0.75f, true);
+	private int lineCount;
+
+	/**
+	 * Scratch space for the line being indexed or looked up.
+	 */
+	private char[] normalized = new char[INITIAL_TEXT_CAPACITY];
+	private final int[] minimums = new int[SIGNATURE_SIZE];
+	private final long[] signature = new long[SIGNATURE_LONGS];
+
+	/**
+	 * Indexes a voiced line of an NPC, unless it already is.
+	 */
+	public void add(int npcId, long lineHash, String text) {
+		if (lineHash == NO_MATCH) {
+			return;
+		}
+		Lines lines = npcs.get(npcId);
+		if (lines != null && lines.indexOf(lineHash) >= 0) {
+			return;
+		}
+
+		int shingles = sign(text);
+		if (shingles == 0) {
+			return;
+		}
+		if (lines == null) {
+			lines = new Lines();
+			npcs.put(npcId, lines);
+		}
+		lines.add(lineHash, shingles, signature);
+		lineCount++;
+
+		while (lineCount > MAX_LINES && npcs.size() > 1) {
+			Map.Entry<Integer, Lines> eldest = npcs.entrySet().iterator().next();
+			lineCount -= eldest.getValue().count;
+			npcs.remove(eldest.getKey());
+		}
+	}
+
+	public boolean contains(int npcId, long lineHash) {
+		Lines lines = npcs.get(npcId);
+		return lines != null && lines.indexOf(lineHash) >= 0;
+	}
+
+	/**
+	 * Finds the NPC's indexed line most similar to {@code text}, other than {@code lineHash}
+	 * itself.
+	 *
+	 * @return the line's hash, or {@link #NO_MATCH} if none reaches
+	 * {@link #SIMILARITY_THRESHOLD}
+	 */
+	public long closest(int npcId, long lineHash, String text) {
+		long start = System.nanoTime();
+		Lines lines = npcs.get(npcId);
+		if (lines == null) {
+			return NO_MATCH;
+		}
+		int shingles = sign(text);
+		if (shingles == 0) {
+			return NO_MATCH;
+		}
+
+		long bestHash = NO_MATCH;
+		int bestAgreeing = MIN_AGREEING - 1;
+		for (int i = 0; i < lines.count; i++) {
+			if (i % LINES_PER_BUDGET_CHECK == LINES_PER_BUDGET_CHECK - 1 && System.nanoTime() - start > QUERY_BUDGET_NANOS) {
+				break;
+			}
+
+			// Similarity is at most the smaller trigram count over the larger one
+			int other = lines.shingleCounts[i];
+			if (Math.min(shingles, other) < SIMILARITY_THRESHOLD * Math.max(shingles, other) || lines.hashes[i] == lineHash) {
+				continue;
+			}
+
+			int agreeing = agreeing(lines.signatures, i * SIGNATURE_LONGS);
+			if (agreeing > bestAgreeing) {
+				bestAgreeing = agreeing;
+				bestHash = lines.hashes[i];
+				if (agreeing == SIGNATURE_SIZE) {
+					break;
+				}
+			}
+		}
+		return bestHash;
+	}
+
+	public int size() {
+		return lineCount;
+	}
+
+	/**
+	 * Approximate heap used by the indexed lines, array headers and spare capacity included.
+	 */
+	public long estimateBytes() {
+		// Map entry and boxed key, the Lines object and its three array headers
+		long bytes = 0;
+		for (Lines lines : npcs.values()) {
+			bytes += 48 + 24 + 3 * 16;
+			bytes += (long) lines.hashes.length * BYTES_PER_LINE;
+		}
+		return bytes;
+	}
+
+	/**
+	 * Agreeing positions of the scratch signature and the one at {@code offset}: the zero
+	 * bytes of their exclusive or.
+	 */
+	private int agreeing(long[] signatures, int offset) {
+		int agreeing = 0;
+		for (int i = 0; i < SIGNATURE_LONGS; i++) {
+			long difference = signatures[offset + i] ^ signature[i];
+			agreeing += Long.bitCount(~((difference & LOW_SEVEN_BITS) + LOW_SEVEN_BITS | difference | LOW_SEVEN_BITS));
+		}
+		return agreeing;
+	}
+
+	/**
+	 * Writes the packed MinHash signature of the text into {@link #signature}.
+	 *
+	 * @return number of trigrams (with repeats), or 0 if the text has no letters or digits
+	 */
+	private int sign(String text) {
+		int length = normalize(text);
+		if (length <= 2) {
+			return 0;
+		}
+
+		Arrays.fill(minimums, Integer.MAX_VALUE);
+		int shingles = 0;
+		for (int i = 0; i + SHINGLE_LENGTH <= length; i++) {
+			long shingle = (long) normalized[i] << 32 | (long) normalized[i + 1] << 16 | normalized[i + 2];
+			for (int j = 0; j < SIGNATURE_SIZE; j++) {
+				int h = (int) ((shingle * MULTIPLIERS[j] + ADDENDS[j]) >>> 33);
+				if (h < minimums[j]) {
+					minimums[j] = h;
+				}
+			}
+			shingles++;
+		}
+
+		for (int i = 0; i < SIGNATURE_LONGS; i++) {
+			long packed = 0;
+			for (int j = 0; j < Long.BYTES; j++) {
+				packed |= (long) (minimums[i * Long.BYTES + j] & 0xff) << (j * Byte.SIZE);
+			}
+			signature[i] = packed;
+		}
+		return shingles;
+	}
+
+	/**
+	 * Writes the normalized text, padded with a space on each side, into {@link #normalized}.
+	 *
+	 * @return its length, or 2 (the padding alone) if it has no letters or digits
+	 */
+	private int normalize(String text) {
+		if (normalized.length < text.length() + 2) {
+			normalized = new char[Math.max(text.length() + 2, normalized.length * 2)];
+		}
+
+		int length = 0;
+		normalized[length++] = ' ';
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (Character.isDigit(c)) {
+				c = '0';
+			}
+			else if (Character.isLetter(c)) {
+				c = Character.toLowerCase(c);
+			}
+			else if (normalized[length - 1] == ' ') {
+				continue;
+			}
+			else {
+				c = ' ';
+			}
+			normalized[length++] = c;
+		}
+		if (normalized[length - 1] != ' ') {
+			normalized[length++] = ' ';
+		}
+		return length;
+	}
+
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
@@ -0,0 +1,105 @@
+package com.gielinorspeaks.service;
+
+import com.gielinorspeaks.model.NpcInfo;
+import net.runelite.api.NPC;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Per-session table of {@link NpcInfo}, keyed by NPC composition id.
+ * ===
+ * The detection services look an NPC up here for every line. Only the first line of a
+ * composition reads its name from the actor; after that the lookup is an int probe into an
+ * open-addressed table and the line carries the shared {@link NpcInfo}.
+ * ===
+ * The table doubles when it is half full. A session sees at most a few thousand compositions,
+ * so it never shrinks; {@link #clear()} drops everything when the plugin restarts.
+ * ===
+ * NOTE ON THREAD SAFETY: Not synchronized; only used on the client thread, {@link #clear()}
+ * included (the plugin posts it there on startup). Other threads get the (thread-safe)
+ * {@link NpcInfo} from the line instead of looking it up.
+ */
+@Singleton
+public class NpcTable {
+	static final int INITIAL_CAPACITY = 256;
+	static final String UNKNOWN_NAME = "Unknown";
+
+	private int[] ids;
+	private NpcInfo[] entries;
+	private int size;
+
+	@Inject
+	public NpcTable() {
+		clear();
+	}
+
+	/**
+	 * Returns the entry for the NPC's composition, creating it on first sight.
+	 */
+	public NpcInfo intern(NPC npc) {
+		int id = npc.getId();
+		int slot = find(id);
+		if (slot >= 0) {
+			return entries[slot];
+		}
+
+		String name = npc.getName();
+		NpcInfo info = new NpcInfo(id, name != null ? name : UNKNOWN_NAME);
+		if ((size + 1) * 2 > ids.length) {
+			grow();
+			slot = find(id);
+		}
+		slot = ~slot;
+		ids[slot] = id;
+		entries[slot] = info;
+		size++;
+		return info;
+	}
+
+	@Nullable
+	public NpcInfo get(int id) {
+		int slot = find(id);
+		return slot >= 0 ? entries[slot] : null;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void clear() {
+		ids = new int[INITIAL_CAPACITY];
+		entries = new NpcInfo[INITIAL_CAPACITY];
+		size = 0;
+	}
+
+	/**
+	 * Slot of the id, or the bitwise complement of the free slot it would go in.
+	 */
+	private int find(int id) {
+		int mask = ids.length - 1;
+		int slot = (id * 0x9e3779b9) >>> 16 & mask;
+		while (entries[slot] != null) {
+			if (ids[slot] == id) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return ~slot;
+	}
+
+	private void grow() {
+		int[] oldIds = ids;
+		NpcInfo[] oldEntries = entries;
+		ids = new int[oldIds.length * 2];
+		entries = new NpcInfo[oldIds.length * 2];
+		for (int i = 0; i < oldIds.length; i++) {
+			if (oldEntries[i] != null) {
+				int slot = ~find(oldIds[i]);
+				ids[slot] = oldIds[i];
+				entries[slot] = oldEntries[i];
+			}
+		}
+	}
+}
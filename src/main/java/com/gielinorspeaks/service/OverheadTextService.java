@@ -1,33 +1,141 @@
 package com.gielinorspeaks.service;
 
+import com.gielinorspeaks.audio.SpeakerGains;
+import com.gielinorspeaks.cache.DialogueHash;
+import com.gielinorspeaks.metrics.ClientThreadMetrics;
+import com.gielinorspeaks.metrics.ClientThreadMetrics.Handler;
 import com.gielinorspeaks.model.DialogueEvent;
 import com.gielinorspeaks.model.DialogueSource;
+import com.gielinorspeaks.model.NpcInfo;
+import com.gielinorspeaks.model.VoiceLine;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import net.runelite.api.Actor;
+import net.runelite.api.Client;
 import net.runelite.api.NPC;
+import net.runelite.api.Player;
+import net.runelite.api.coords.LocalPoint;
+import net.runelite.api.events.GameTick;
 import net.runelite.api.events.OverheadTextChanged;
 import net.runelite.client.eventbus.Subscribe;
 
+import javax.inject.Inject;
 import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.function.Consumer;
 
 /**
  * Service responsible for detecting overhead text from NPCs.
  * Subscribes to OverheadTextChanged events and filters for NPC actors.
  * Can handle multiple NPCs speaking simultaneously.
+ * ===
+ * Overhead text can fire dozens of times per tick in busy areas, so events are only collected
+ * as they arrive, and processed together on the next {@link GameTick}:
+ * 1. Dedup: one line per NPC, its newest text (only that one is shown)
+ * 2. Prioritization: NPCs with a voice first, then NPCs not yet known, then NPCs known to have
+ *    none; nearer NPCs first within each
+ * 3. Hashing: in priority order, skipping lines already taken this tick, until
+ *    {@link #MAX_LINES_PER_TICK} are taken; the rest are never hashed
+ * 4. Handoff: the lines go to the batch callback in one call, most important first; the
+ *    pipeline plays the first of them that has a clip, the rest being fallbacks
+ * ===
+ * Each line is reported as a {@link VoiceLine}; a {@link DialogueEvent} is only built when a
+ * dialogue callback is set.
+ * ===
+ * NOTE ON THREAD SAFETY: Client thread only. The batch arrays are reused from tick to tick
+ * and only grow, so collecting events never allocates once they are big enough for the scene.
  */
 @Slf4j
 @Singleton
 public class OverheadTextService {
+	/**
+	 * Lines handed off per tick. Only one is played, since each clip cuts off the one before;
+	 * the others stand in, in order, when the lines before them have no clip, and more would
+	 * rarely be reached.
+	 */
+	static final int MAX_LINES_PER_TICK = SpeakerGains.MAX_SPEAKERS;
+
+	private static final int INITIAL_BATCH_CAPACITY = 32;
+
+	/**
+	 * Low bits of a sort key holding the batch position; NPC scene indexes are below 65536, so
+	 * one batch never holds more.
+	 */
+	private static final int POSITION_BITS = 16;
+	private static final long POSITION_MASK = (1L << POSITION_BITS) - 1;
+	private static final long MAX_DISTANCE = 0xffffffffL;
+
+	private final Client client;
+	private final ClientThreadMetrics metrics;
+	private final NpcTable npcTable;
+
 	/**
 	 * Callback to be invoked when overhead text is detected
 	 */
 	@Setter
 	private Consumer<DialogueEvent> dialogueCallback;
 
+	/**
+	 * Callback to be invoked with the compact form of the same lines
+	 */
+	@Setter
+	private Consumer<VoiceLine> lineCallback;
+
+	/**
+	 * Callback to be invoked once per tick with all of that tick's lines, most important first
+	 */
+	@Setter
+	private Consumer<List<VoiceLine>> batchCallback;
+
+	/**
+	 * Callback to be invoked with the NPC saying each line, before the line callbacks
+	 */
+	@Setter
+	private Consumer<NPC> speakerCallback;
+
+	/**
+	 * Lines collected this tick, by batch position.
+	 */
+	private NPC[] batchNpcs = new NPC[INITIAL_BATCH_CAPACITY];
+	private int[] batchIndexes = new int[INITIAL_BATCH_CAPACITY];
+	private String[] batchTexts = new String[INITIAL_BATCH_CAPACITY];
+	private NpcInfo[] batchInfos = new NpcInfo[INITIAL_BATCH_CAPACITY];
+	private long[] batchKeys = new long[INITIAL_BATCH_CAPACITY];
+	private int batchSize;
+
+	/**
+	 * Open-addressed table from NPC scene index to batch position + 1 (0 is free), at twice the
+	 * batch capacity.
+	 */
+	private int[] batchSlots = new int[INITIAL_BATCH_CAPACITY * 2];
+
+	/**
+	 * Lines taken in the tick being flushed.
+	 */
+	private final VoiceLine[] tickLines = new VoiceLine[MAX_LINES_PER_TICK];
+	private final NPC[] tickSpeakers = new NPC[MAX_LINES_PER_TICK];
+
+	@Inject
+	public OverheadTextService(Client client, ClientThreadMetrics metrics, NpcTable npcTable) {
+		this.client = client;
+		this.metrics = metrics;
+		this.npcTable = npcTable;
+	}
+
 	@Subscribe
 	public void onOverheadTextChanged(OverheadTextChanged event) {
+		long start = metrics.start();
+		try {
+			handleOverheadTextChanged(event);
+		}
+		finally {
+			metrics.record(Handler.OVERHEAD_TEXT_CHANGED, start);
+		}
+	}
+
+	private void handleOverheadTextChanged(OverheadTextChanged event) {
 		Actor actor = event.getActor();
 
 		// Filter for NPCs only (not players)
@@ -43,23 +151,171 @@ public class OverheadTextService {
 			return;
 		}
 
-		int npcId = npc.getId();
-		String npcName = npc.getName();
+		int index = npc.getIndex();
+		int slot = findSlot(index);
+		if (batchSlots[slot] != 0) {
+			// Said something else earlier this tick; only the newest text is shown
+			batchTexts[batchSlots[slot] - 1] = overheadText;
+			return;
+		}
+
+		if (batchSize == batchNpcs.length) {
+			growBatch();
+			slot = findSlot(index);
+		}
+		batchNpcs[batchSize] = npc;
+		batchIndexes[batchSize] = index;
+		batchTexts[batchSize] = overheadText;
+		batchSlots[slot] = ++batchSize;
+	}
+
+	@Subscribe
+	public void onGameTick(GameTick event) {
+		long start = metrics.start();
+		try {
+			flush();
+		}
+		finally {
+			metrics.record(Handler.OVERHEAD_TEXT_BATCH, start);
+		}
+	}
+
+	/**
+	 * Turns the lines collected this tick into voice lines and hands them off.
+	 */
+	private void flush() {
+		if (batchSize == 0) {
+			return;
+		}
+
+		Player player = client.getLocalPlayer();
+		LocalPoint from = player != null ? player.getLocalLocation() : null;
+		for (int position = 0; position < batchSize; position++) {
+			NpcInfo npcInfo = npcTable.intern(batchNpcs[position]);
+			batchInfos[position] = npcInfo;
+			batchKeys[position] = priority(npcInfo, batchNpcs[position], from) << POSITION_BITS | position;
+		}
+		Arrays.sort(batchKeys, 0, batchSize);
+
+		int count = 0;
+		for (int i = 0; i < batchSize && count < MAX_LINES_PER_TICK; i++) {
+			int position = (int) (batchKeys[i] & POSITION_MASK);
+			NpcInfo npcInfo = batchInfos[position];
+			String text = batchTexts[position];
+			long lineHash = DialogueHash.of(npcInfo.getId(), text);
+			if (taken(lineHash, count)) {
+				// Several NPCs of the same kind saying the same line; one voice is enough
+				continue;
+			}
+
+			log.debug("Detected overhead text - NPC: {} (ID: {}), Text: '{}'",
+				npcInfo.getName(), npcInfo.getId(), text);
 
-		log.debug("Detected overhead text - NPC: {} (ID: {}), Text: '{}'",
-			npcName, npcId, overheadText);
+			tickLines[count] = new VoiceLine(
+				npcInfo,
+				text,
+				lineHash,
+				DialogueSource.OVERHEAD_TEXT,
+				VoiceLine.NO_ANIMATION,  // No animation data for overhead text
+				batchIndexes[position]
+			);
+			tickSpeakers[count] = batchNpcs[position];
+			count++;
+		}
 
-		DialogueEvent dialogueEvent = new DialogueEvent(
-			npcId,
-			npcName != null ? npcName : "Unknown",
-			overheadText,
-			DialogueSource.OVERHEAD_TEXT,
-			null  // No animation data for overhead text
-		);
+		if (batchSize > count) {
+			log.debug("Overhead batch of {} lines, {} handed off", batchSize, count);
+		}
+		clearBatch();
 
-		if (dialogueCallback != null) {
-			dialogueCallback.accept(dialogueEvent);
+		for (int i = 0; i < count; i++) {
+			if (speakerCallback != null) {
+				speakerCallback.accept(tickSpeakers[i]);
+			}
+			if (lineCallback != null) {
+				lineCallback.accept(tickLines[i]);
+			}
+			if (dialogueCallback != null) {
+				dialogueCallback.accept(tickLines[i].toDialogueEvent());
+			}
+		}
+		if (batchCallback != null) {
+			batchCallback.accept(new ArrayList<>(Arrays.asList(tickLines).subList(0, count)));
 		}
+
+		Arrays.fill(tickLines, null);
+		Arrays.fill(tickSpeakers, null);
+	}
+
+	/**
+	 * Sort key of a line, lowest first: the NPC's voice profile, then its squared distance
+	 * from the player (0 if either isn't in the scene, as the speaker tracker treats it).
+	 */
+	private static long priority(NpcInfo npcInfo, NPC npc, LocalPoint from) {
+		long rank;
+		switch (npcInfo.getVoiceProfile()) {
+			case AVAILABLE:
+				rank = 0;
+				break;
+			case UNKNOWN:
+				rank = 1;
+				break;
+			default:
+				rank = 2;
+				break;
+		}
+
+		long distance = 0;
+		LocalPoint to = from != null ? npc.getLocalLocation() : null;
+		if (to != null) {
+			long dx = to.getX() - from.getX();
+			long dy = to.getY() - from.getY();
+			distance = Math.min(dx * dx + dy * dy, MAX_DISTANCE);
+		}
+		return rank << 32 | distance;
+	}
+
+	private boolean taken(long lineHash, int count) {
+		for (int i = 0; i < count; i++) {
+			if (tickLines[i].getLineHash() == lineHash) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Slot of the NPC in {@link #batchSlots}, or the free slot it would go in.
+	 */
+	private int findSlot(int index) {
+		int mask = batchSlots.length - 1;
+		int hash = index * 0x9e3779b9;
+		int slot = (hash ^ hash >>> 16) & mask;
+		while (batchSlots[slot] != 0 && batchIndexes[batchSlots[slot] - 1] != index) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private void growBatch() {
+		int capacity = batchNpcs.length * 2;
+		batchNpcs = Arrays.copyOf(batchNpcs, capacity);
+		batchIndexes = Arrays.copyOf(batchIndexes, capacity);
+		batchTexts = Arrays.copyOf(batchTexts, capacity);
+		batchInfos = Arrays.copyOf(batchInfos, capacity);
+		batchKeys = Arrays.copyOf(batchKeys, capacity);
+		batchSlots = new int[capacity * 2];
+		for (int position = 0; position < batchSize; position++) {
+			batchSlots[findSlot(batchIndexes[position])] = position + 1;
+		}
+	}
+
+	private void clearBatch() {
+		Arrays.fill(batchNpcs, 0, batchSize, null);
+		Arrays.fill(batchTexts, 0, batchSize, null);
+		Arrays.fill(batchInfos, 0, batchSize, null);
+		Arrays.fill(batchSlots, 0);
+		batchSize = 0;
 	}
 
 	/**
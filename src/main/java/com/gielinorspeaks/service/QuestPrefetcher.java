@@ -0,0 +1,261 @@
+package com.gielinorspeaks.service;
+
+import com.gielinorspeaks.api.VoiceApiClient;
+import com.gielinorspeaks.metrics.ClientThreadMetrics;
+import com.gielinorspeaks.metrics.ClientThreadMetrics.Handler;
+import com.gielinorspeaks.model.QuestStageTable;
+import com.gielinorspeaks.model.QuestStageTable.VarType;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import net.runelite.api.Client;
+import net.runelite.api.GameState;
+import net.runelite.api.events.GameStateChanged;
+import net.runelite.api.events.VarbitChanged;
+import net.runelite.client.callback.ClientThread;
+import net.runelite.client.eventbus.Subscribe;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Queues the dialogue likely next in the player's quests for prefetch, so long quest
+ * conversations never wait on the network.
+ * ===
+ * The voice server publishes which lines belong to each quest stage, keyed by the varbit or
+ * varp the game keeps the quest's progress in (see {@link QuestStageTable}). The table is
+ * downloaded on a background thread at the first login; then the tracked variables are read
+ * and the bundles for the current stages are handed to the {@link #bundleCallback}. After
+ * that, each change to a tracked variable (a quest advancing) queues the bundles of the new
+ * stage.
+ * ===
+ * Each bundle is queued at most once per login, and the callback is expected to prefetch at
+ * low priority; the plugin hands bundles to {@link VoicePipeline#prefetchQuestBundle}.
+ * ===
+ * NOTE ON THREAD SAFETY: All state is accessed only on the client thread, from the
+ * @Subscribe methods and tasks posted with ClientThread.invoke(). Only the download runs
+ * elsewhere. VarbitChanged fires for every variable the game touches, so its handler is a
+ * binary search over the tracked ids and nothing else unless a quest actually advanced.
+ */
+@Slf4j
+@Singleton
+public class QuestPrefetcher {
+	/**
+	 * Last value of a tracked variable before it has been read this login.
+	 */
+	private static final int UNKNOWN_VALUE = Integer.MIN_VALUE;
+
+	private final Client client;
+	private final ClientThread clientThread;
+	private final ClientThreadMetrics metrics;
+	private final VoiceApiClient voiceApiClient;
+
+	/**
+	 * Receives each bundle to prefetch, on the client thread.
+	 */
+	@Setter
+	private BundleCallback bundleCallback;
+
+	// Client thread only
+	@Nullable
+	private QuestStageTable table;
+	private boolean loading;
+
+	/**
+	 * Incremented by {@link #reload}, so a download started before it is dropped when it
+	 * finishes rather than installing the previous server's table.
+	 */
+	private int loadId;
+
+	/**
+	 * Last seen value of each tracked variable, per {@link VarType}, in
+	 * {@link QuestStageTable#getTrackedIds} order.
+	 */
+	private int[][] lastValues;
+
+	/**
+	 * Bundles queued since the last login.
+	 */
+	private BitSet queuedBundles;
+
+	@FunctionalInterface
+	public interface BundleCallback {
+		void prefetch(QuestStageTable table, int bundle);
+	}
+
+	@Inject
+	public QuestPrefetcher(Client client, ClientThread clientThread, ClientThreadMetrics metrics, VoiceApiClient voiceApiClient) {
+		this.client = client;
+		this.clientThread = clientThread;
+		this.metrics = metrics;
+		this.voiceApiClient = voiceApiClient;
+	}
+
+	/**
+	 * Forgets the table and downloads it again, now if the player is logged in or else at the
+	 * next login. For when the voice server changes, or prefetching is turned on mid-session.
+	 */
+	public void reload() {
+		clientThread.invoke(() -> {
+			loadId++;
+			loading = false;
+			table = null;
+			lastValues = null;
+			queuedBundles = null;
+			if (client.getGameState() == GameState.LOGGED_IN) {
+				load();
+			}
+		});
+	}
+
+	@Subscribe
+	public void onGameStateChanged(GameStateChanged event) {
+		long start = metrics.start();
+		try {
+			handleGameStateChanged(event);
+		}
+		finally {
+			metrics.record(Handler.GAME_STATE_CHANGED, start);
+		}
+	}
+
+	/**
+	 * LOGGED_IN also follows every loading screen; only variables that changed meanwhile
+	 * queue anything then. Logging out forgets the stages, since another account may log in.
+	 */
+	private void handleGameStateChanged(GameStateChanged event) {
+		if (event.getGameState() == GameState.LOGIN_SCREEN && table != null) {
+			forgetStages(table);
+			return;
+		}
+		if (event.getGameState() != GameState.LOGGED_IN) {
+			return;
+		}
+
+		if (table == null) {
+			load();
+		}
+		else {
+			prefetchCurrentStages(table);
+		}
+	}
+
+	@Subscribe
+	public void onVarbitChanged(VarbitChanged event) {
+		long start = metrics.start();
+		try {
+			handleVarbitChanged(event);
+		}
+		finally {
+			metrics.record(Handler.VARBIT_CHANGED, start);
+		}
+	}
+
+	private void handleVarbitChanged(VarbitChanged event) {
+		QuestStageTable current = table;
+		if (current == null) {
+			return;
+		}
+
+		// Varbit changes also carry the varp they live in; varp changes have no varbit
+		if (event.getVarbitId() != -1) {
+			update(current, VarType.VARBIT, event.getVarbitId(), event.getValue());
+		}
+		else {
+			update(current, VarType.VARP, event.getVarpId(), event.getValue());
+		}
+	}
+
+	/**
+	 * Downloads the table on a background thread, unless a download is already running.
+	 */
+	private void load() {
+		if (loading) {
+			return;
+		}
+		loading = true;
+
+		int id = loadId;
+		Thread loader = new Thread(() -> {
+			QuestStageTable loaded = null;
+			try {
+				loaded = voiceApiClient.fetchQuestStages();
+			}
+			catch (IOException e) {
+				// Tried again at the next login
+				log.debug("Unable to download quest stages", e);
+			}
+
+			QuestStageTable result = loaded;
+			clientThread.invoke(() -> {
+				if (id != loadId) {
+					log.debug("Dropping quest stages downloaded before a reload");
+					return;
+				}
+				loading = false;
+				if (result != null) {
+					install(result);
+				}
+			});
+		}, "gielinor-speaks-quests");
+		loader.setDaemon(true);
+		loader.setPriority(Thread.MIN_PRIORITY);
+		loader.start();
+	}
+
+	private void install(QuestStageTable loaded) {
+		log.debug("Loaded {} quest stage bundles", loaded.getBundleCount());
+		table = loaded;
+		forgetStages(loaded);
+		if (client.getGameState() == GameState.LOGGED_IN) {
+			prefetchCurrentStages(loaded);
+		}
+	}
+
+	private void forgetStages(QuestStageTable current) {
+		lastValues = new int[VarType.values().length][];
+		for (VarType type : VarType.values()) {
+			lastValues[type.ordinal()] = new int[current.getTrackedIds(type).length];
+			Arrays.fill(lastValues[type.ordinal()], UNKNOWN_VALUE);
+		}
+		queuedBundles = new BitSet(current.getBundleCount());
+	}
+
+	/**
+	 * Reads every tracked variable and queues the bundles of stages not seen yet.
+	 */
+	private void prefetchCurrentStages(QuestStageTable current) {
+		for (VarType type : VarType.values()) {
+			int[] ids = current.getTrackedIds(type);
+			for (int id : ids) {
+				int value = type == VarType.VARBIT ? client.getVarbitValue(id) : client.getVarpValue(id);
+				update(current, type, id, value);
+			}
+		}
+	}
+
+	private void update(QuestStageTable current, VarType type, int varId, int value) {
+		int index = current.indexOfTracked(type, varId);
+		if (index < 0) {
+			return;
+		}
+
+		int[] values = lastValues[type.ordinal()];
+		if (values[index] == value) {
+			return;
+		}
+		values[index] = value;
+
+		current.forEachBundle(type, varId, value, bundle -> {
+			if (!queuedBundles.get(bundle)) {
+				queuedBundles.set(bundle);
+				if (bundleCallback != null) {
+					bundleCallback.prefetch(current, bundle);
+				}
+			}
+		});
+	}
+}
@@ -0,0 +1,170 @@
+package com.gielinorspeaks.service;
+
+import com.gielinorspeaks.audio.SpeakerGains;
+import com.gielinorspeaks.metrics.ClientThreadMetrics;
+import com.gielinorspeaks.metrics.ClientThreadMetrics.Handler;
+import net.runelite.api.Client;
+import net.runelite.api.NPC;
+import net.runelite.api.Player;
+import net.runelite.api.coords.LocalPoint;
+import net.runelite.api.events.GameTick;
+import net.runelite.client.eventbus.Subscribe;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Places the voices of NPCs speaking overhead around the player, by distance and direction.
+ * ===
+ * Each NPC that says a line is tracked in a {@link SpeakerGains} slot for
+ * {@link #SPEAKER_TICKS} after its last line. Once per game tick, and when it starts a line,
+ * its left and right gain are computed from where it stands relative to the local player and
+ * the camera, and published for the audio thread in one batch.
+ * ===
+ * GAIN:
+ * Full volume within {@link #FULL_GAIN_TILES}, then falling off with the inverse of the
+ * distance (6dB per doubling), and silent from {@link #MAX_AUDIBLE_TILES}.
+ * ===
+ * PAN:
+ * The offset to the NPC is rotated by the camera yaw, as Perspective.localToCanvas does, so
+ * an NPC on the right of the screen is heard on the right. Balance rather than equal-power,
+ * so a centered voice is exactly as loud as an unplaced one. NPCs closer than
+ * {@link #FULL_GAIN_TILES} are panned less, since they are drawn close to the player.
+ * ===
+ * NOTE ON THREAD SAFETY: Client thread only; the slots are read by the audio thread through
+ * SpeakerGains. Per-tick updates reuse fixed arrays and never allocate.
+ */
+@Singleton
+public class SpeakerTracker {
+	/**
+	 * Local coordinate units per tile (Perspective.LOCAL_TILE_SIZE).
+	 */
+	static final int LOCAL_TILE_SIZE = 128;
+
+	static final double FULL_GAIN_TILES = 2;
+	static final double MAX_AUDIBLE_TILES = 16;
+
+	/**
+	 * Ticks a speaker stays placed after its last line; longer than any overhead line.
+	 */
+	static final int SPEAKER_TICKS = 50;
+
+	/**
+	 * Radians per camera angle unit (2048 per turn).
+	 */
+	private static final double RADIANS_PER_ANGLE_UNIT = Math.PI / 1024;
+
+	private final Client client;
+	private final ClientThreadMetrics metrics;
+	private final SpeakerGains speakerGains;
+
+	/**
+	 * Speaker and tick of its last line, per slot.
+	 */
+	private final NPC[] npcs = new NPC[SpeakerGains.MAX_SPEAKERS];
+	private final int[] lastLineTicks = new int[SpeakerGains.MAX_SPEAKERS];
+	private final float[] placement = new float[2];
+
+	@Inject
+	public SpeakerTracker(Client client, ClientThreadMetrics metrics, SpeakerGains speakerGains) {
+		this.client = client;
+		this.metrics = metrics;
+		this.speakerGains = speakerGains;
+	}
+
+	/**
+	 * Places an NPC that is starting a line, taking the slot of the speaker silent for longest
+	 * if none is free.
+	 */
+	public void track(NPC npc) {
+		int slot = speakerGains.slotOf(npc.getIndex());
+		if (slot < 0) {
+			slot = 0;
+			for (int i = 0; i < npcs.length; i++) {
+				if (npcs[i] == null) {
+					slot = i;
+					break;
+				}
+				if (lastLineTicks[i] < lastLineTicks[slot]) {
+					slot = i;
+				}
+			}
+		}
+
+		npcs[slot] = npc;
+		lastLineTicks[slot] = client.getTickCount();
+		speakerGains.beginUpdate();
+		try {
+			place(slot, client.getLocalPlayer());
+		}
+		finally {
+			speakerGains.endUpdate();
+		}
+	}
+
+	@Subscribe
+	public void onGameTick(GameTick event) {
+		long start = metrics.start();
+		try {
+			update();
+		}
+		finally {
+			metrics.record(Handler.GAME_TICK, start);
+		}
+	}
+
+	private void update() {
+		int tick = client.getTickCount();
+		Player player = client.getLocalPlayer();
+		speakerGains.beginUpdate();
+		try {
+			for (int slot = 0; slot < npcs.length; slot++) {
+				if (npcs[slot] == null) {
+					continue;
+				}
+
+				if (tick - lastLineTicks[slot] > SPEAKER_TICKS) {
+					npcs[slot] = null;
+					speakerGains.clear(slot);
+				}
+				else {
+					place(slot, player);
+				}
+			}
+		}
+		finally {
+			speakerGains.endUpdate();
+		}
+	}
+
+	private void place(int slot, Player player) {
+		NPC npc = npcs[slot];
+		LocalPoint from = player != null ? player.getLocalLocation() : null;
+		LocalPoint to = npc.getLocalLocation();
+		if (from == null || to == null) {
+			// Not in the scene; heard as if next to the player
+			speakerGains.set(slot, npc.getIndex(), 1, 1);
+			return;
+		}
+
+		compute(to.getX() - from.getX(), to.getY() - from.getY(), client.getCameraYaw(), placement);
+		speakerGains.set(slot, npc.getIndex(), placement[0], placement[1]);
+	}
+
+	/**
+	 * Left and right gain of a voice at a local offset (east, north) from the player.
+	 */
+	static void compute(int dx, int dy, int cameraYaw, float[] out) {
+		double x = (double) dx / LOCAL_TILE_SIZE;
+		double y = (double) dy / LOCAL_TILE_SIZE;
+		double distance = Math.hypot(x, y);
+		double gain = distance <= FULL_GAIN_TILES ? 1 : distance >= MAX_AUDIBLE_TILES ? 0 : FULL_GAIN_TILES / distance;
+
+		double yaw = cameraYaw * RADIANS_PER_ANGLE_UNIT;
+		double across = x * Math.cos(yaw) + y * Math.sin(yaw);
+		double pan = Math.max(-1, Math.min(1, across / Math.max(distance, FULL_GAIN_TILES)));
+
+		out[0] = (float) (gain * Math.min(1, 1 - pan));
+		out[1] = (float) (gain * Math.min(1, 1 + pan));
+	}
+}
@@ -0,0 +1,1001 @@
+package com.gielinorspeaks.service;
+
+import com.gielinorspeaks.api.VoiceApiClient;
+import com.gielinorspeaks.audio.AudioOutput;
+import com.gielinorspeaks.audio.ClipDecoder;
+import com.gielinorspeaks.buffer.BufferPool;
+import com.gielinorspeaks.cache.ClipCache;
+import com.gielinorspeaks.cache.ClipIndex;
+import com.gielinorspeaks.cache.ClipStore;
+import com.gielinorspeaks.cache.ClipWriter;
+import com.gielinorspeaks.cache.DialogueHash;
+import com.gielinorspeaks.cache.HotSet;
+import com.gielinorspeaks.cache.ProfileGenerations;
+import com.gielinorspeaks.concurrent.IoExecutor;
+import com.gielinorspeaks.metrics.jfr.PipelineEvents;
+import com.gielinorspeaks.model.Emotion;
+import com.gielinorspeaks.model.NpcInfo;
+import com.gielinorspeaks.model.NpcManifest;
+import com.gielinorspeaks.model.QuestStageTable;
+import com.gielinorspeaks.model.VoiceLine;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Turns detected dialogue into voice playback, off the client thread.
+ * ===
+ * LIFECYCLE:
+ * - start(): Returns immediately. Opens the clip index (unless retained from a previous run)
+ *   and audio device on the voice thread.
+ * - submit(): Accepts dialogue events at any time after start().
+ * - shutdown(): Stops playback, saves the hot set and releases the audio device.
+ * ===
+ * Events submitted while the subsystems are still initializing are held in a small bounded
+ * queue (a batch counting as one) and processed in order once initialization completes. When
+ * the queue is full the oldest event is dropped, since a line the player has already read past
+ * isn't worth voicing.
+ * If initialization fails, events are dropped and the plugin carries on without voices.
+ * ===
+ * Once ready, the lines played most in previous sessions (the {@link HotSet}) are preloaded
+ * from disk into the clip cache on the disk executor, so the first lines of a session are
+ * served from memory.
+ * ===
+ * Lines missing from both caches are downloaded from the voice server, if one is configured,
+ * and played from memory while the {@link ClipWriter} persists them to the disk cache. Lines
+ * the server has not voiced are remembered for the session, and NPCs whose
+ * {@link NpcInfo.VoiceProfile} turns out unavailable aren't asked about again.
+ * ===
+ * Encoded clips only ever live in {@link BufferPool} buffers, from the disk read or download
+ * through to the decoder, so a line served from disk allocates little more than its PCM.
+ * ===
+ * A clip is decoded, resampled and loudness-normalized once, through the {@link ClipDecoder},
+ * when it first enters the cache; the result is stored next to it (write-behind, through the
+ * {@link ClipWriter}) and read back directly from then on.
+ * ===
+ * EMOTIONS:
+ * A line can be voiced once per {@link Emotion}, picked from the chathead animation. Each
+ * variant has its own key ({@link DialogueHash#variant}); the neutral key is the plain line
+ * hash. When the server has no clip for the wanted emotion, the neutral clip is played. After
+ * each line, the other emotions that NPC has used most this session are queued for prefetch.
+ * Prefetches only start when no dialogue is waiting, download and process into the disk cache,
+ * and never touch the clip cache or the audio device.
+ * ===
+ * GENERATIONS:
+ * Clips are cached under their key in the NPC's current voice profile generation
+ * ({@link ProfileGenerations}), and requested from the server by line and emotion alone. The
+ * first time an NPC speaks in a session, once idle, its manifest is read on the fetch
+ * executor; if the server has regenerated the voice since, the new generation is recorded back
+ * on the voice thread and every clip of the old one stops being found, from the next line on.
+ * ===
+ * NEAR MATCHES:
+ * The voiced lines listed with their text in those manifests, and the lines played, go in a
+ * {@link NearMatchIndex}. A line with no clip in any variant, after the exact lookup, is
+ * played with the neutral clip of the NPC's most similar voiced line instead, if one is close
+ * enough; so a line reworded slightly by a game update keeps its voice.
+ * ===
+ * REPEATS:
+ * A line submitted {@link #submitRepeat as a repeat} (said again in the same interaction,
+ * after a widget reload or a re-opened conversation) is left alone if its clip is still
+ * playing, or replayed from the clip cache, without touching the disk, the server, the
+ * emotion history or the prefetch queues. Only if it has been evicted is it looked up again.
+ * ===
+ * QUESTS:
+ * The lines likely next at the player's quest stages ({@link QuestStageTable} bundles, queued
+ * by the {@link QuestPrefetcher}) are prefetched the same way, after the emotion prefetches,
+ * so long quest conversations are on disk before they start.
+ * ===
+ * BACKGROUND I/O:
+ * Prefetches are downloaded, decoded and stored on the fetch executor, and manifests read
+ * there, up to its {@link IoExecutor#getParallelism() parallelism} at once between them, so a
+ * quest bundle arriving doesn't wait on one request at a time and a slow server never holds up
+ * dialogue. The voice thread picks what to fetch and records each outcome (the clip index,
+ * the lines not voiced, the generations and line texts) once the request is done. Both executors
+ * run on virtual threads on Java 21+, and on a small pool of platform threads otherwise.
+ * ===
+ * NOTE ON THREAD SAFETY: submit() is called from the client thread. All pipeline work but
+ * the background I/O runs on the single voice thread, so the clip index, the audio device and
+ * the session state see one caller at a time; prefetch, manifest and preload tasks only use
+ * the thread-safe store, writer, buffer pool, decoder and API client.
+ */
+@Slf4j
+@Singleton
+public class VoicePipeline {
+	/**
+	 * Maximum events held while subsystems are initializing.
+	 */
+	static final int MAX_PENDING_EVENTS = 16;
+
+	/**
+	 * Maximum lines remembered as not voiced, so they aren't requested again every time
+	 * they are said.
+	 */
+	static final int MAX_UNVOICED_LINES = 1024;
+
+	/**
+	 * Maximum variants waiting to be prefetched; the oldest are dropped first.
+	 */
+	static final int MAX_PREFETCH_VARIANTS = 8;
+
+	/**
+	 * Number of other emotions prefetched after each line.
+	 */
+	static final int PREFETCH_EMOTIONS = 2;
+
+	/**
+	 * Maximum quest lines waiting to be prefetched; the oldest are dropped first, since the
+	 * newest come from the stage the player has just reached.
+	 */
+	static final int MAX_QUEST_PREFETCH_VARIANTS = 256;
+
+	/**
+	 * Prefetches downloading at once: a few platform threads, or more virtual threads, which
+	 * cost little while they wait on the server.
+	 */
+	static final int FETCH_THREADS = 4;
+	static final int VIRTUAL_FETCH_PARALLELISM = 32;
+
+	/**
+	 * Disk reads running at once, off the voice thread.
+	 */
+	static final int DISK_THREADS = 1;
+	static final int VIRTUAL_DISK_PARALLELISM = 4;
+
+	private final ClipStore clipStore;
+	private final ClipWriter clipWriter;
+	private final ClipIndex clipIndex;
+	private final ClipCache clipCache;
+	private final AudioOutput audioOutput;
+	private final ClipDecoder clipDecoder;
+	private final HotSet hotSet;
+	private final ProfileGenerations profileGenerations;
+	private final VoiceApiClient voiceApiClient;
+	private final BufferPool bufferPool;
+
+	/**
+	 * Lines the voice server has no clip for, oldest first. Only touched on the voice thread.
+	 */
+	private final Map<Long, Boolean> unvoicedLines = new LinkedHashMap<Long, Boolean>() {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+			return size() > MAX_UNVOICED_LINES;
+		}
+	};
+
+	private final EmotionHistory emotionHistory = new EmotionHistory();
+
+	/**
+	 * Voiced lines by text, for lines with no clip of their own. Only touched on the voice thread.
+	 */
+	private final NearMatchIndex nearMatches = new NearMatchIndex();
+
+	/**
+	 * Variants to prefetch, oldest first. Only touched on the voice thread.
+	 */
+	private final Deque<Variant> prefetchVariants = new ArrayDeque<>();
+	private final Emotion[] likeliestEmotions = new Emotion[PREFETCH_EMOTIONS];
+
+	/**
+	 * Quest lines to prefetch once {@link #prefetchVariants} is empty, oldest first. Only
+	 * touched on the voice thread.
+	 */
+	private final Deque<Variant> questVariants = new ArrayDeque<>();
+
+	/**
+	 * NPCs whose voice profile generation has been, or is waiting to be, checked this session,
+	 * and those waiting. Only touched on the voice thread.
+	 */
+	private final BitSet generationsChecked = new BitSet();
+	private final Deque<NpcInfo> generationChecks = new ArrayDeque<>();
+
+	/**
+	 * Keys of the variants being prefetched on the fetch executor, and the number of manifests
+	 * being read there; together they are kept within its parallelism. Only touched on the
+	 * voice thread.
+	 */
+	private final Set<Long> prefetchesInFlight = new HashSet<>();
+	private int manifestsInFlight;
+
+	/**
+	 * Events handed to the voice thread and not yet processed; prefetching waits for zero.
+	 */
+	private final AtomicInteger queuedEvents = new AtomicInteger();
+
+	/**
+	 * Events received before the pipeline became ready, a batch per entry (a single line is a
+	 * batch of one). Guarded by {@code this}.
+	 */
+	private final Deque<List<VoiceLine>> pendingEvents = new ArrayDeque<>();
+
+	/**
+	 * Key and {@link AudioOutput} playback generation of the clip played last. Only touched on
+	 * the voice thread.
+	 */
+	private long playingKey;
+	private int playingGeneration;
+
+	/**
+	 * NPC id (high half) and playback generation (low half) of the clip played last, read by
+	 * {@link #stopSpeaking} from the client thread.
+	 */
+	private volatile long playingSpeaker;
+
+	private volatile State state = State.STOPPED;
+	private ExecutorService voiceExecutor;
+	private IoExecutor fetchExecutor;
+	private IoExecutor diskExecutor;
+
+	private static final class Variant {
+		private final NpcInfo npc;
+		private final long lineHash;
+		private final Emotion emotion;
+
+		/**
+		 * Whether the clip was stored and has been quarantined, so the index still lists it.
+		 */
+		private final boolean redownload;
+
+		private Variant(NpcInfo npc, long lineHash, Emotion emotion, boolean redownload) {
+			this.npc = npc;
+			this.lineHash = lineHash;
+			this.emotion = emotion;
+			this.redownload = redownload;
+		}
+	}
+
+	public enum State {
+		STOPPED,
+		INITIALIZING,
+		READY,
+		FAILED
+	}
+
+	@Inject
+	public VoicePipeline(ClipStore clipStore, ClipWriter clipWriter, ClipIndex clipIndex, ClipCache clipCache, AudioOutput audioOutput,
+		ClipDecoder clipDecoder, HotSet hotSet, ProfileGenerations profileGenerations, VoiceApiClient voiceApiClient,
+		BufferPool bufferPool) {
+		this.clipStore = clipStore;
+		this.clipWriter = clipWriter;
+		this.clipIndex = clipIndex;
+		this.clipCache = clipCache;
+		this.audioOutput = audioOutput;
+		this.clipDecoder = clipDecoder;
+		this.hotSet = hotSet;
+		this.profileGenerations = profileGenerations;
+		this.voiceApiClient = voiceApiClient;
+		this.bufferPool = bufferPool;
+	}
+
+	/**
+	 * Starts background initialization of the cache index and audio device.
+	 * Does no I/O on the calling thread.
+	 */
+	public synchronized void start() {
+		if (state != State.STOPPED) {
+			return;
+		}
+
+		state = State.INITIALIZING;
+		ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+			Thread thread = new Thread(r, "gielinor-speaks-voice");
+			thread.setDaemon(true);
+			return thread;
+		});
+		voiceExecutor = executor;
+		fetchExecutor = IoExecutor.create("gielinor-speaks-fetch", FETCH_THREADS, VIRTUAL_FETCH_PARALLELISM);
+		diskExecutor = IoExecutor.create("gielinor-speaks-disk", DISK_THREADS, VIRTUAL_DISK_PARALLELISM);
+		executor.execute(() -> initialize(executor));
+	}
+
+	/**
+	 * Stops playback, discards pending events and releases the audio device.
+	 */
+	public void shutdown() {
+		ExecutorService executor;
+		IoExecutor fetch;
+		IoExecutor disk;
+		synchronized (this) {
+			if (state == State.STOPPED) {
+				return;
+			}
+			state = State.STOPPED;
+			pendingEvents.clear();
+			executor = voiceExecutor;
+			fetch = fetchExecutor;
+			disk = diskExecutor;
+			voiceExecutor = null;
+		}
+
+		executor.shutdownNow();
+		fetch.shutdownNow();
+		disk.shutdownNow();
+		audioOutput.close();
+
+		try {
+			hotSet.save();
+		}
+		catch (IOException e) {
+			log.warn("Unable to save voice hot set", e);
+		}
+	}
+
+	/**
+	 * Queues a dialogue event for voicing. Never blocks.
+	 */
+	public void submit(VoiceLine event) {
+		submit(event, false);
+	}
+
+	/**
+	 * Queues a batch of lines, most important first, as one task on the voice thread (the
+	 * overhead text of a game tick). Only the first line with a clip is played: each clip cuts
+	 * off the one before, so the lines after it are dropped without being looked up. Never
+	 * blocks.
+	 */
+	public synchronized void submitAll(List<VoiceLine> events) {
+		if (events.isEmpty()) {
+			return;
+		}
+
+		switch (state) {
+			case READY:
+				queuedEvents.addAndGet(events.size());
+				voiceExecutor.execute(() -> processBatch(events));
+				break;
+			case INITIALIZING:
+				queuePending(events);
+				break;
+			default:
+				break;
+		}
+	}
+
+	/**
+	 * Queues a line already said in the same interaction, to be resolved to the clip still
+	 * playing or in memory rather than looked up again. Before the pipeline is ready, it is
+	 * queued like any other line. Never blocks.
+	 */
+	public void submitRepeat(VoiceLine event) {
+		submit(event, true);
+	}
+
+	private synchronized void submit(VoiceLine event, boolean repeat) {
+		switch (state) {
+			case READY:
+				queuedEvents.incrementAndGet();
+				voiceExecutor.execute(() -> {
+					queuedEvents.decrementAndGet();
+					process(event, repeat);
+				});
+				break;
+			case INITIALIZING:
+				queuePending(Collections.singletonList(event));
+				break;
+			default:
+				break;
+		}
+	}
+
+	private void queuePending(List<VoiceLine> events) {
+		if (pendingEvents.size() >= MAX_PENDING_EVENTS) {
+			List<VoiceLine> dropped = pendingEvents.removeFirst();
+			log.debug("Voice pipeline not ready, dropping queued line from {}", dropped.get(0).getNpcName());
+		}
+		pendingEvents.addLast(events);
+	}
+
+	/**
+	 * Stops the voice of the given NPC, if the clip playing is one of its lines; another NPC's
+	 * line is left to finish. Never blocks.
+	 */
+	public void stopSpeaking(int npcId) {
+		long speaker = playingSpeaker;
+		if (state == State.READY && (int) (speaker >>> 32) == npcId) {
+			audioOutput.stop((int) speaker);
+		}
+	}
+
+	/**
+	 * Queues a variant whose stored clip was found to be corrupt for downloading again, at
+	 * prefetch priority, in the NPC's current generation.
+	 */
+	public synchronized void redownload(int npcId, long lineHash, Emotion emotion) {
+		if (state != State.READY) {
+			return;
+		}
+
+		voiceExecutor.execute(() -> {
+			if (prefetchVariants.size() >= MAX_PREFETCH_VARIANTS) {
+				prefetchVariants.removeFirst();
+			}
+			prefetchVariants.addLast(new Variant(new NpcInfo(npcId, NpcTable.UNKNOWN_NAME), lineHash, emotion, true));
+			prefetchNext();
+		});
+	}
+
+	/**
+	 * Queues the lines of a quest stage bundle for prefetch, behind dialogue and emotion
+	 * prefetches. Bundles queued while initializing are prefetched once ready.
+	 */
+	public synchronized void prefetchQuestBundle(QuestStageTable table, int bundle) {
+		if (state != State.READY && state != State.INITIALIZING) {
+			return;
+		}
+
+		voiceExecutor.execute(() -> {
+			if (state != State.READY) {
+				return;
+			}
+
+			NpcInfo npc = new NpcInfo(table.getNpcId(bundle), NpcTable.UNKNOWN_NAME);
+			int lines = table.getLineCount(bundle);
+			for (int i = 0; i < lines; i++) {
+				if (questVariants.size() >= MAX_QUEST_PREFETCH_VARIANTS) {
+					questVariants.removeFirst();
+				}
+				questVariants.addLast(new Variant(npc, table.getLineHash(bundle, i), table.getEmotion(bundle, i), false));
+			}
+			prefetchNext();
+		});
+	}
+
+	public State getState() {
+		return state;
+	}
+
+	synchronized int getPendingEventCount() {
+		return pendingEvents.size();
+	}
+
+	int getFetchParallelism() {
+		return fetchExecutor.getParallelism();
+	}
+
+	private void initialize(ExecutorService executor) {
+		long start = System.nanoTime();
+		// Prefetches dropped by a previous shutdown never came back
+		prefetchesInFlight.clear();
+		manifestsInFlight = 0;
+		try {
+			profileGenerations.load();
+			if (!clipIndex.isLoaded()) {
+				clipIndex.load(clipStore);
+			}
+			audioOutput.open();
+		}
+		catch (IOException | RuntimeException e) {
+			log.warn("Voice pipeline failed to initialize, voices are disabled for this session", e);
+			synchronized (this) {
+				if (voiceExecutor == executor) {
+					state = State.FAILED;
+					pendingEvents.clear();
+				}
+			}
+			return;
+		}
+
+		List<List<VoiceLine>> pending;
+		synchronized (this) {
+			if (voiceExecutor != executor) {
+				// Shut down while initializing; don't leave the device open behind us
+				if (state == State.STOPPED) {
+					audioOutput.close();
+				}
+				return;
+			}
+			pending = new ArrayList<>(pendingEvents);
+			pendingEvents.clear();
+			for (List<VoiceLine> events : pending) {
+				queuedEvents.addAndGet(events.size());
+			}
+			state = State.READY;
+		}
+
+		log.debug("Voice pipeline ready in {}ms ({} queued events)", (System.nanoTime() - start) / 1_000_000, pending.size());
+
+		// Runs ahead of anything submitted after READY, since both are on the voice thread
+		for (List<VoiceLine> events : pending) {
+			processBatch(events);
+		}
+
+		diskExecutor.execute(this::preloadHotSet);
+	}
+
+	/**
+	 * Loads the hottest lines from disk into the clip cache, hottest first, until the cache
+	 * is full. Never evicts: anything already cached was played this session and is hotter.
+	 */
+	private void preloadHotSet() {
+		long start = System.nanoTime();
+		int preloaded = 0;
+
+		try {
+			hotSet.load();
+			for (HotSet.Entry entry : hotSet.getHottest(HotSet.SNAPSHOT_SIZE)) {
+				if (state != State.READY) {
+					return;
+				}
+
+				long hash = entry.getDialogueHash();
+				if (clipCache.contains(hash) || !clipIndex.mightContain(hash)) {
+					continue;
+				}
+
+				byte[] pcm = clipWriter.readProcessed(entry.getNpcId(), hash, ClipDecoder.VERSION);
+				if (pcm == null) {
+					ByteBuffer clip = clipStore.read(entry.getNpcId(), hash, bufferPool);
+					if (clip == null) {
+						continue;
+					}
+					pcm = processClip(entry.getNpcId(), hash, clip);
+					if (pcm == null) {
+						continue;
+					}
+				}
+
+				if (!clipCache.hasRoomFor(pcm.length)) {
+					break;
+				}
+				clipCache.put(hash, pcm);
+				preloaded++;
+			}
+		}
+		catch (IOException e) {
+			log.debug("Hot set preload stopped early", e);
+		}
+
+		log.debug("Preloaded {} hot clips in {}ms", preloaded, (System.nanoTime() - start) / 1_000_000);
+	}
+
+	/**
+	 * Processes the lines of a batch, counted in {@link #queuedEvents}, in order until one is
+	 * played.
+	 */
+	private void processBatch(List<VoiceLine> events) {
+		for (int i = 0; i < events.size(); i++) {
+			queuedEvents.decrementAndGet();
+			if (process(events.get(i), false)) {
+				int dropped = events.size() - i - 1;
+				if (dropped > 0) {
+					queuedEvents.addAndGet(-dropped);
+					prefetchNext();
+				}
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return whether the line is playing, or was already
+	 */
+	private boolean process(VoiceLine line, boolean repeat) {
+		NpcInfo npc = line.getNpc();
+		long lineHash = line.getLineHash();
+		Emotion emotion = Emotion.forAnimation(line.getAnimationId());
+		int generation = profileGenerations.get(npc.getId());
+		long key = DialogueHash.generation(DialogueHash.variant(lineHash, emotion), generation);
+		if (repeat && replay(line, key, DialogueHash.generation(lineHash, generation))) {
+			return true;
+		}
+
+		emotionHistory.record(npc.getId(), emotion);
+		byte[] pcm = load(npc, key, generation, emotion, lineHash, false);
+		if (pcm == null && emotion != Emotion.NEUTRAL) {
+			// Not every line is voiced in every emotion
+			key = DialogueHash.generation(lineHash, generation);
+			pcm = load(npc, key, generation, Emotion.NEUTRAL, lineHash, false);
+		}
+
+		if (pcm != null) {
+			nearMatches.add(npc.getId(), lineHash, line.getText());
+		}
+		else {
+			long nearHash = nearMatches.closest(npc.getId(), lineHash, line.getText());
+			if (nearHash != NearMatchIndex.NO_MATCH) {
+				key = DialogueHash.generation(nearHash, generation);
+				pcm = load(npc, key, generation, Emotion.NEUTRAL, nearHash, true);
+				if (pcm != null) {
+					log.debug("Voicing {} line {} with near match {}", npc.getName(), DialogueHash.toHex(lineHash),
+						DialogueHash.toHex(nearHash));
+				}
+			}
+		}
+
+		if (pcm != null) {
+			npc.markVoiced();
+			play(line, key, pcm);
+		}
+
+		queueGenerationCheck(npc);
+		queuePrefetch(npc, lineHash, emotion);
+		prefetchNext();
+		return pcm != null;
+	}
+
+	/**
+	 * Resolves a line said again in the same interaction to what it already played: nothing to
+	 * do if that clip is still playing, otherwise the PCM still in the clip cache. The neutral
+	 * clip stands in only when the variant is known not to be voiced.
+	 *
+	 * @return false if neither, and the line needs a full lookup
+	 */
+	private boolean replay(VoiceLine line, long key, long neutralKey) {
+		if ((playingKey == key || playingKey == neutralKey) && audioOutput.isPlaying(playingGeneration)) {
+			return true;
+		}
+
+		byte[] pcm = clipCache.get(key);
+		if (pcm == null && key != neutralKey && unvoicedLines.containsKey(key)) {
+			key = neutralKey;
+			pcm = clipCache.get(key);
+		}
+		if (pcm == null) {
+			return false;
+		}
+
+		play(line, key, pcm);
+		return true;
+	}
+
+	/**
+	 * Finds a variant's PCM in memory or on disk, downloading and processing it if needed,
+	 * and puts it in the clip cache.
+	 *
+	 * @param key       the variant's key in {@code generation}
+	 * @param nearMatch whether the line stands in for the one spoken, see {@link #fetchClip}
+	 * @return the PCM, or null if the variant isn't available
+	 */
+	@Nullable
+	private byte[] load(NpcInfo npc, long key, int generation, Emotion emotion, long lineHash, boolean nearMatch) {
+		int npcId = npc.getId();
+		Object lookup = PipelineEvents.beginCacheLookup();
+		byte[] pcm = clipCache.get(key);
+		if (pcm != null) {
+			PipelineEvents.endCacheLookup(lookup, npcId, key, PipelineEvents.LookupResult.MEMORY);
+			return pcm;
+		}
+
+		ByteBuffer clip = null;
+		if (clipIndex.mightContain(key)) {
+			try {
+				pcm = clipWriter.readProcessed(npcId, key, ClipDecoder.VERSION);
+				if (pcm == null) {
+					clip = clipStore.read(npcId, key, bufferPool);
+				}
+			}
+			catch (IOException e) {
+				log.warn("Unable to read cached voice clip {}", DialogueHash.toHex(key), e);
+			}
+
+			if (pcm == null && clip == null) {
+				log.debug("Index false positive for line {}", DialogueHash.toHex(key));
+			}
+		}
+		PipelineEvents.endCacheLookup(lookup, npcId, key,
+			pcm != null || clip != null ? PipelineEvents.LookupResult.DISK : PipelineEvents.LookupResult.MISS);
+
+		if (pcm == null) {
+			if (clip == null) {
+				clip = fetchClip(npc, lineHash, key, generation, emotion, nearMatch);
+				if (clip == null) {
+					return null;
+				}
+			}
+
+			pcm = processClip(npcId, key, clip);
+			if (pcm == null) {
+				return null;
+			}
+		}
+
+		clipCache.put(key, pcm);
+		return pcm;
+	}
+
+	/**
+	 * Queues a check of the NPC's voice profile generation, the first time it speaks this session.
+	 */
+	private void queueGenerationCheck(NpcInfo npc) {
+		if (!voiceApiClient.isConfigured() || npc.getVoiceProfile() == NpcInfo.VoiceProfile.UNAVAILABLE
+			|| generationsChecked.get(npc.getId())) {
+			return;
+		}
+		generationsChecked.set(npc.getId());
+		generationChecks.addLast(npc);
+	}
+
+	/**
+	 * Reads an NPC's manifest on the fetch executor, then records it back on the voice thread
+	 * and moves on to the next fetch.
+	 */
+	private void checkGeneration(NpcInfo npc) {
+		ExecutorService voice = voiceExecutor;
+		manifestsInFlight++;
+		fetchExecutor.execute(() -> {
+			NpcManifest manifest = null;
+			try {
+				manifest = voiceApiClient.fetchManifest(npc.getId());
+			}
+			catch (IOException e) {
+				// Cached clips keep playing; checked again next session
+				log.debug("Unable to check voice generation of {}", npc.getName(), e);
+			}
+
+			NpcManifest read = manifest;
+			postToVoiceThread(voice, () -> {
+				if (read != null) {
+					recordManifest(npc, read);
+				}
+				finishCheck();
+			});
+		});
+	}
+
+	/**
+	 * Records an NPC's voice profile generation if it has moved on, and indexes the text of its
+	 * voiced lines.
+	 */
+	private void recordManifest(NpcInfo npc, NpcManifest manifest) {
+		int npcId = npc.getId();
+		int generation = manifest.getGeneration();
+		try {
+			if (profileGenerations.update(npcId, generation)) {
+				log.debug("Voice of {} has been regenerated, now at generation {}", npc.getName(), generation);
+			}
+		}
+		catch (IOException e) {
+			// Recorded for this session all the same; read from the server again next session
+			log.debug("Unable to save voice generation of {}", npc.getName(), e);
+		}
+
+		for (int i = 0; i < manifest.getLineCount(); i++) {
+			nearMatches.add(npcId, manifest.getLineHash(i), manifest.getLineText(i));
+		}
+	}
+
+	/**
+	 * Queues the emotions the NPC is most likely to use next for the line just played.
+	 */
+	private void queuePrefetch(NpcInfo npc, long lineHash, Emotion played) {
+		int count = emotionHistory.likeliest(npc.getId(), played, likeliestEmotions);
+		for (int i = 0; i < count; i++) {
+			if (prefetchVariants.size() >= MAX_PREFETCH_VARIANTS) {
+				prefetchVariants.removeFirst();
+			}
+			prefetchVariants.addLast(new Variant(npc, lineHash, likeliestEmotions[i], false));
+		}
+	}
+
+	/**
+	 * Hands queued manifest reads, then queued variants, to the fetch executor until it is busy
+	 * or dialogue is waiting. Called again as each finishes, so the rest follow without holding
+	 * up dialogue submitted meanwhile.
+	 */
+	private void prefetchNext() {
+		int parallelism = fetchExecutor.getParallelism();
+		while (queuedEvents.get() == 0 && fetchesInFlight() < parallelism && !generationChecks.isEmpty()) {
+			checkGeneration(generationChecks.removeFirst());
+		}
+
+		Variant variant;
+		while (queuedEvents.get() == 0 && fetchesInFlight() < parallelism && (variant = pollPrefetch()) != null) {
+			int generation = profileGenerations.get(variant.npc.getId());
+			long hash = DialogueHash.variant(variant.lineHash, variant.emotion);
+			long key = DialogueHash.generation(hash, generation);
+			if (clipCache.contains(key) || (!variant.redownload && clipIndex.mightContain(key))
+				|| unvoicedLines.containsKey(key) || prefetchesInFlight.contains(key)
+				|| !canFetch(variant.npc, hash, key)) {
+				continue;
+			}
+
+			startPrefetch(variant, hash, key, generation);
+		}
+	}
+
+	/**
+	 * Downloads, decodes and stores a variant on the fetch executor, then records the outcome
+	 * back on the voice thread and moves on to the next prefetch.
+	 */
+	private void startPrefetch(Variant variant, long hash, long key, int generation) {
+		ExecutorService voice = voiceExecutor;
+		NpcInfo npc = variant.npc;
+		int npcId = npc.getId();
+		prefetchesInFlight.add(key);
+		fetchExecutor.execute(() -> {
+			ByteBuffer clip;
+			try {
+				clip = download(npcId, variant.lineHash, key, generation, variant.emotion);
+			}
+			catch (IOException e) {
+				log.warn("Unable to download voice clip {}", DialogueHash.toHex(hash), e);
+				postToVoiceThread(voice, () -> finishPrefetch(key));
+				return;
+			}
+
+			boolean voiced = clip != null;
+			if (voiced) {
+				processClip(npcId, key, clip);
+			}
+			postToVoiceThread(voice, () -> {
+				recordFetch(npc, hash, key, variant.emotion, voiced, !variant.redownload, !variant.redownload);
+				finishPrefetch(key);
+			});
+		});
+	}
+
+	private void finishPrefetch(long key) {
+		prefetchesInFlight.remove(key);
+		if (state == State.READY) {
+			prefetchNext();
+		}
+	}
+
+	private void finishCheck() {
+		manifestsInFlight--;
+		if (state == State.READY) {
+			prefetchNext();
+		}
+	}
+
+	private int fetchesInFlight() {
+		return prefetchesInFlight.size() + manifestsInFlight;
+	}
+
+	/**
+	 * Runs a task on the voice thread, unless the pipeline has been shut down (or restarted)
+	 * since {@code voice} was current.
+	 */
+	private synchronized void postToVoiceThread(ExecutorService voice, Runnable task) {
+		if (voice != null && voiceExecutor == voice) {
+			voice.execute(task);
+		}
+	}
+
+	/**
+	 * Next variant to prefetch: emotions for lines just played, then quest lines.
+	 */
+	@Nullable
+	private Variant pollPrefetch() {
+		Variant variant = prefetchVariants.pollFirst();
+		return variant != null ? variant : questVariants.pollFirst();
+	}
+
+	/**
+	 * Runs an encoded clip through the {@link ClipDecoder} and stores the result next to it,
+	 * so this only happens once per clip. Releases the clip's buffer.
+	 *
+	 * @return the processed PCM, or null if the clip can't be decoded
+	 */
+	@Nullable
+	private byte[] processClip(int npcId, long hash, ByteBuffer clip) {
+		Object decode = PipelineEvents.beginDecode();
+		int clipBytes = clip.remaining();
+		byte[] pcm = null;
+		try {
+			pcm = clipDecoder.process(clip, bufferPool);
+		}
+		catch (UnsupportedAudioFileException | IllegalArgumentException | IOException e) {
+			log.warn("Unable to decode voice clip {}", DialogueHash.toHex(hash), e);
+			return null;
+		}
+		finally {
+			bufferPool.release(clip);
+			PipelineEvents.endDecode(decode, hash, clipBytes, pcm != null ? pcm.length : 0);
+		}
+
+		try {
+			clipWriter.writeProcessed(npcId, hash, ClipDecoder.VERSION, pcm);
+		}
+		catch (IOException e) {
+			// Processed again next time it is read from disk
+			log.warn("Unable to store processed voice clip {}", DialogueHash.toHex(hash), e);
+		}
+		return pcm;
+	}
+
+	/**
+	 * Downloads a variant's clip into a pooled buffer and adds it to the disk cache, unless
+	 * another client sharing the cache has just done so.
+	 *
+	 * @param lineHash  hash of the line the variant is of
+	 * @param key       the variant's key in {@code generation}, as the caches know it
+	 * @param nearMatch whether the line stands in for the one spoken; the spoken line has
+	 *                  already counted against the NPC, so a missing clip here doesn't again
+	 * @return the encoded clip, or null if the variant isn't voiced or the download failed
+	 */
+	@Nullable
+	private ByteBuffer fetchClip(NpcInfo npc, long lineHash, long key, int generation, Emotion emotion, boolean nearMatch) {
+		long hash = DialogueHash.variant(lineHash, emotion);
+		if (!canFetch(npc, hash, key)) {
+			return null;
+		}
+
+		ByteBuffer clip;
+		try {
+			clip = download(npc.getId(), lineHash, key, generation, emotion);
+		}
+		catch (IOException e) {
+			log.warn("Unable to download voice clip {}", DialogueHash.toHex(hash), e);
+			return null;
+		}
+
+		recordFetch(npc, hash, key, emotion, clip != null, true, !nearMatch);
+		return clip;
+	}
+
+	/**
+	 * Whether the server may have the variant: one is configured, and neither the NPC nor the
+	 * variant is known not to be voiced.
+	 */
+	private boolean canFetch(NpcInfo npc, long hash, long key) {
+		if (!voiceApiClient.isConfigured() || npc.getVoiceProfile() == NpcInfo.VoiceProfile.UNAVAILABLE
+			|| unvoicedLines.containsKey(key)) {
+			log.debug("No voice for {} line {}", npc.getName(), DialogueHash.toHex(hash));
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Reads the variant's clip from the disk cache if another client sharing it got there
+	 * first, or downloads it into place. Safe on any thread.
+	 *
+	 * @return the encoded clip, or null if the variant isn't voiced
+	 */
+	@Nullable
+	private ByteBuffer download(int npcId, long lineHash, long key, int generation, Emotion emotion) throws IOException {
+		long hash = DialogueHash.variant(lineHash, emotion);
+		return clipStore.readOrDownload(npcId, key, lineHash, emotion, generation, bufferPool,
+			() -> voiceApiClient.fetchClip(npcId, hash, emotion, bufferPool));
+	}
+
+	/**
+	 * Records a download: a stored clip goes in the index, a missing one is remembered.
+	 *
+	 * @param rememberUnvoiced whether a missing clip is remembered, so it isn't requested again
+	 * @param countForNpc      whether a missing neutral clip counts towards the NPC having no
+	 *                         voice
+	 */
+	private void recordFetch(NpcInfo npc, long hash, long key, Emotion emotion, boolean voiced, boolean rememberUnvoiced,
+		boolean countForNpc) {
+		if (voiced) {
+			clipIndex.add(key);
+			clipWriter.sync(npc.getId(), key);
+			return;
+		}
+
+		log.debug("{} line {} has not been voiced {}", npc.getName(), DialogueHash.toHex(hash), emotion.getKey());
+		if (!rememberUnvoiced) {
+			return;
+		}
+		unvoicedLines.put(key, Boolean.TRUE);
+		if (emotion == Emotion.NEUTRAL && countForNpc) {
+			npc.markUnvoiced();
+		}
+	}
+
+	private void play(VoiceLine line, long hash, byte[] pcm) {
+		playingGeneration = audioOutput.play(pcm, line.getSpeakerIndex());
+		playingKey = hash;
+		playingSpeaker = (long) line.getNpcId() << 32 | (playingGeneration & 0xffffffffL);
+		hotSet.recordPlay(line.getNpcId(), hash);
+	}
+}
@@ -0,0 +1,22 @@
+package com.gielinorspeaks.concurrent;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Virtual threads for the {@link IoExecutor}.
+ * ===
+ * This is the Java 21 version, packaged under {@code META-INF/versions/21} and loaded in place
+ * of the one in {@code src/main/java} by JVMs from 21 on. It must keep the same signatures.
+ */
+final class IoThreads {
+	private IoThreads() {
+	}
+
+	/**
+	 * @return an executor starting a virtual thread per task
+	 */
+	static ExecutorService newVirtualThreadExecutor(String name) {
+		return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 1).factory());
+	}
+}
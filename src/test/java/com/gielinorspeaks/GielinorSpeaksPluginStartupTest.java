@@ -0,0 +1,112 @@
+package com.gielinorspeaks;
+
+import com.gielinorspeaks.audio.AudioOutput;
+import com.gielinorspeaks.cache.ClipIndex;
+import com.gielinorspeaks.cache.ClipStore;
+import com.gielinorspeaks.cache.HotSet;
+import com.gielinorspeaks.service.DialogueDetectionService;
+import com.gielinorspeaks.service.OverheadTextService;
+import com.gielinorspeaks.service.VoicePipeline;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import net.runelite.api.Client;
+import net.runelite.client.callback.ClientThread;
+import net.runelite.client.eventbus.EventBus;
+import net.runelite.client.ui.overlay.OverlayManager;
+import okhttp3.OkHttpClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for GielinorSpeaksPlugin startup.
+ * Focus: startUp() runs on the client's startup path, so it must register the detection
+ * services immediately and leave slow subsystem initialization to the background.
+ */
+public class GielinorSpeaksPluginStartupTest {
+	/**
+	 * Bound for registering the services and starting the background threads. It includes
+	 * loading their classes, as this is the first call in a fresh JVM, but is still far below
+	 * the simulated index load, which blocks for seconds.
+	 */
+	private static final long MAX_STARTUP_MILLIS = 500;
+
+	private GielinorSpeaksPlugin plugin;
+	private EventBus mockEventBus;
+	private Injector injector;
+	private CountDownLatch initializationGate;
+
+	@Before
+	public void setUp() throws Exception {
+		mockEventBus = mock(EventBus.class);
+		ClipStore mockClipStore = mock(ClipStore.class);
+		ClipIndex mockClipIndex = mock(ClipIndex.class);
+		initializationGate = new CountDownLatch(1);
+
+		GielinorSpeaksConfig mockConfig = mock(GielinorSpeaksConfig.class);
+		when(mockConfig.enabled()).thenReturn(true);
+		when(mockConfig.enableDialogueBox()).thenReturn(true);
+		when(mockConfig.enableOverheadText()).thenReturn(true);
+
+		// Simulate a cache index that takes a long time to load
+		doAnswer(invocation -> {
+			initializationGate.await(10, TimeUnit.SECONDS);
+			return null;
+		}).when(mockClipIndex).load(mockClipStore);
+
+		plugin = new GielinorSpeaksPlugin();
+
+		// Bound so the overlay, which takes the plugin, gets this instance
+		injector = Guice.createInjector(binder -> {
+			binder.bind(GielinorSpeaksPlugin.class).toInstance(plugin);
+			binder.bind(Client.class).toInstance(mock(Client.class));
+			binder.bind(ClientThread.class).toInstance(mock(ClientThread.class));
+			binder.bind(EventBus.class).toInstance(mockEventBus);
+			binder.bind(OverlayManager.class).toInstance(mock(OverlayManager.class));
+			binder.bind(ScheduledExecutorService.class).toInstance(mock(ScheduledExecutorService.class));
+			binder.bind(GielinorSpeaksConfig.class).toInstance(mockConfig);
+			binder.bind(ClipStore.class).toInstance(mockClipStore);
+			binder.bind(ClipIndex.class).toInstance(mockClipIndex);
+			binder.bind(AudioOutput.class).toInstance(mock(AudioOutput.class));
+			binder.bind(HotSet.class).toInstance(mock(HotSet.class));
+			binder.bind(OkHttpClient.class).toInstance(new OkHttpClient());
+		});
+	}
+
+	@After
+	public void tearDown() {
+		initializationGate.countDown();
+		plugin.shutDown();
+	}
+
+	@Test
+	public void testStartUp_isFastWhileSubsystemsInitialize() {
+		// Act
+		long start = System.nanoTime();
+		plugin.startUp();
+		long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+		// Assert
+		assertTrue("startUp() took " + elapsedMillis + "ms, expected under " + MAX_STARTUP_MILLIS + "ms",
+			elapsedMillis < MAX_STARTUP_MILLIS);
+		assertEquals("Subsystems should still be initializing in the background",
+			VoicePipeline.State.INITIALIZING, injector.getInstance(VoicePipeline.class).getState());
+	}
+
+	@Test
+	public void testStartUp_registersDetectionServicesImmediately() {
+		// Act
+		plugin.startUp();
+
+		// Assert
+		verify(mockEventBus).register(injector.getInstance(DialogueDetectionService.class));
+		verify(mockEventBus).register(injector.getInstance(OverheadTextService.class));
+	}
+}
@@ -0,0 +1,177 @@
+package com.gielinorspeaks;
+
+import com.gielinorspeaks.audio.AudioOutput;
+import com.gielinorspeaks.cache.ClipIndex;
+import com.gielinorspeaks.cache.ClipStore;
+import com.gielinorspeaks.cache.HotSet;
+import com.gielinorspeaks.metrics.ClientThreadMetrics;
+import com.gielinorspeaks.service.DialogueDetectionService;
+import com.gielinorspeaks.service.NpcTable;
+import com.gielinorspeaks.service.OverheadTextService;
+import com.google.inject.Guice;
+import net.runelite.api.Client;
+import net.runelite.api.NPC;
+import net.runelite.api.events.OverheadTextChanged;
+import net.runelite.api.events.WidgetClosed;
+import net.runelite.client.callback.ClientThread;
+import net.runelite.client.eventbus.EventBus;
+import net.runelite.client.ui.overlay.OverlayManager;
+import okhttp3.OkHttpClient;
+import net.runelite.client.events.ConfigChanged;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for GielinorSpeaksPlugin event bus subscriptions.
+ * Focus: Detection services are only subscribed while their source is turned on, so events
+ * for a disabled source never reach plugin code.
+ */
+public class GielinorSpeaksPluginSubscriptionTest {
+	private static final int EVENTS_PER_CHECK = 100;
+
+	private GielinorSpeaksPlugin plugin;
+	private GielinorSpeaksConfig mockConfig;
+	private EventBus eventBus;
+	private OverheadTextService overheadTextService;
+	private DialogueDetectionService dialogueDetectionService;
+	private OverheadTextChanged overheadEvent;
+
+	@Before
+	public void setUp() {
+		mockConfig = mock(GielinorSpeaksConfig.class);
+		when(mockConfig.enabled()).thenReturn(true);
+		when(mockConfig.enableDialogueBox()).thenReturn(true);
+		when(mockConfig.enableOverheadText()).thenReturn(true);
+
+		Client mockClient = mock(Client.class);
+		ClientThread mockClientThread = mock(ClientThread.class);
+		eventBus = new EventBus();
+		overheadTextService = spy(new OverheadTextService(mockClient, new ClientThreadMetrics(), new NpcTable()));
+		dialogueDetectionService = spy(new DialogueDetectionService(mockClient, mockClientThread, new ClientThreadMetrics(), new NpcTable()));
+		overheadEvent = mock(OverheadTextChanged.class);
+		when(overheadEvent.getActor()).thenReturn(mock(NPC.class));
+		when(overheadEvent.getOverheadText()).thenReturn("Hello!");
+
+		plugin = new GielinorSpeaksPlugin();
+
+		// Bound so the overlay, which takes the plugin, gets this instance
+		Guice.createInjector(binder -> {
+			binder.bind(GielinorSpeaksPlugin.class).toInstance(plugin);
+			binder.bind(Client.class).toInstance(mockClient);
+			binder.bind(ClientThread.class).toInstance(mockClientThread);
+			binder.bind(EventBus.class).toInstance(eventBus);
+			binder.bind(OverlayManager.class).toInstance(mock(OverlayManager.class));
+			binder.bind(ScheduledExecutorService.class).toInstance(mock(ScheduledExecutorService.class));
+			binder.bind(GielinorSpeaksConfig.class).toInstance(mockConfig);
+			binder.bind(OverheadTextService.class).toInstance(overheadTextService);
+			binder.bind(DialogueDetectionService.class).toInstance(dialogueDetectionService);
+			binder.bind(ClipStore.class).toInstance(mock(ClipStore.class));
+			binder.bind(ClipIndex.class).toInstance(mock(ClipIndex.class));
+			binder.bind(AudioOutput.class).toInstance(mock(AudioOutput.class));
+			binder.bind(HotSet.class).toInstance(mock(HotSet.class));
+			binder.bind(OkHttpClient.class).toInstance(new OkHttpClient());
+		});
+	}
+
+	@After
+	public void tearDown() {
+		plugin.shutDown();
+	}
+
+	@Test
+	public void testOverheadTextDisabled_handlerNeverInvoked() {
+		// Arrange
+		when(mockConfig.enableOverheadText()).thenReturn(false);
+		plugin.startUp();
+
+		// Act
+		postOverheadText(EVENTS_PER_CHECK);
+
+		// Assert
+		verify(overheadTextService, never()).onOverheadTextChanged(any(OverheadTextChanged.class));
+	}
+
+	@Test
+	public void testOverheadTextEnabled_handlerInvokedPerEvent() {
+		// Arrange
+		plugin.startUp();
+
+		// Act
+		postOverheadText(EVENTS_PER_CHECK);
+
+		// Assert
+		verify(overheadTextService, times(EVENTS_PER_CHECK)).onOverheadTextChanged(any(OverheadTextChanged.class));
+	}
+
+	@Test
+	public void testConfigChanged_unsubscribesAndResubscribesAtRuntime() {
+		// Arrange
+		plugin.startUp();
+
+		// Act - Turn overhead text off
+		when(mockConfig.enableOverheadText()).thenReturn(false);
+		plugin.onConfigChanged(configChanged("enableOverheadText"));
+		postOverheadText(EVENTS_PER_CHECK);
+
+		// Assert
+		verify(overheadTextService, never()).onOverheadTextChanged(any(OverheadTextChanged.class));
+
+		// Act - Turn it back on
+		when(mockConfig.enableOverheadText()).thenReturn(true);
+		plugin.onConfigChanged(configChanged("enableOverheadText"));
+		postOverheadText(EVENTS_PER_CHECK);
+
+		// Assert - Subscribed exactly once again, not duplicated
+		verify(overheadTextService, times(EVENTS_PER_CHECK)).onOverheadTextChanged(any(OverheadTextChanged.class));
+	}
+
+	@Test
+	public void testMasterSwitchOff_disablesBothSources() {
+		// Arrange
+		plugin.startUp();
+
+		// Act
+		when(mockConfig.enabled()).thenReturn(false);
+		plugin.onConfigChanged(configChanged("enabled"));
+		postOverheadText(EVENTS_PER_CHECK);
+		eventBus.post(mock(WidgetClosed.class));
+
+		// Assert
+		verify(overheadTextService, never()).onOverheadTextChanged(any(OverheadTextChanged.class));
+		verify(dialogueDetectionService, never()).onWidgetClosed(any(WidgetClosed.class));
+	}
+
+	@Test
+	public void testConfigChanged_ignoresOtherGroups() {
+		// Arrange
+		plugin.startUp();
+		when(mockConfig.enableOverheadText()).thenReturn(false);
+		ConfigChanged event = configChanged("enableOverheadText");
+		event.setGroup("someotherplugin");
+
+		// Act
+		plugin.onConfigChanged(event);
+		postOverheadText(1);
+
+		// Assert - Still subscribed
+		verify(overheadTextService).onOverheadTextChanged(any(OverheadTextChanged.class));
+	}
+
+	private void postOverheadText(int count) {
+		for (int i = 0; i < count; i++) {
+			eventBus.post(overheadEvent);
+		}
+	}
+
+	private static ConfigChanged configChanged(String key) {
+		ConfigChanged event = new ConfigChanged();
+		event.setGroup(GielinorSpeaksConfig.GROUP);
+		event.setKey(key);
+		return event;
+	}
+}
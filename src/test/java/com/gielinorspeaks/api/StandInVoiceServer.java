@@ -0,0 +1,393 @@
+package com.gielinorspeaks.api;
+
+import com.gielinorspeaks.cache.DialogueHash;
+import com.gielinorspeaks.model.Emotion;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Stand-in for the voice server on localhost, for exercising the fetch path without the real
+ * service. Built on the JDK's HTTP server, so it needs nothing beyond the test classpath.
+ * ===
+ * ENDPOINTS:
+ * - {@code GET /npcs/<npcId>/lines/<hash>.wav[?emotion=<key>]}: a synthetic clip (a tone
+ *   picked from the hash, {@link #clipMillis} long), or 404 if the variant is "not voiced".
+ * - {@code GET /npcs/<npcId>/manifest}: JSON with the NPC's voice profile generation (see
+ *   {@link #setGeneration}), the lines registered with {@link #addLine(int, String)}, with
+ *   their text and the emotions each is voiced in. Clips change tone with the generation.
+ * - {@code GET /quests/stages.txt}: the quest stage table set with {@link #setQuestStages},
+ *   or 404 if none is set.
+ * ===
+ * Whether a variant is voiced is decided from its hash against {@link #unvoicedRate}, so the
+ * answer is the same on every request, as with the real server. Neutral lines that were
+ * registered are always voiced.
+ * ===
+ * FAULTS:
+ * Every response waits {@link #latencyMillis} plus up to {@link #jitterMillis}, fails with a
+ * 503 with probability {@link #errorRate}, and is sent at most {@link #bytesPerSecond} (0 for
+ * no cap). All of these may be changed while the server is running.
+ * ===
+ * Clips are 22.05kHz mono 16-bit WAV, the output format, so they exercise decoding and
+ * normalization but not resampling unless {@link #sampleRate} is changed.
+ */
+public class StandInVoiceServer implements AutoCloseable {
+	private static final int DEFAULT_HANDLER_THREADS = 8;
+	private static final int CHUNK_BYTES = 4096;
+	private static final int WAV_HEADER_BYTES = 44;
+
+	@Getter
+	@Setter
+	private volatile long latencyMillis;
+
+	@Getter
+	@Setter
+	private volatile long jitterMillis;
+
+	@Getter
+	@Setter
+	private volatile double errorRate;
+
+	@Getter
+	@Setter
+	private volatile double unvoicedRate;
+
+	@Getter
+	@Setter
+	private volatile long bytesPerSecond;
+
+	@Getter
+	@Setter
+	private volatile int clipMillis = 1500;
+
+	@Getter
+	@Setter
+	private volatile int sampleRate = 22050;
+
+	/**
+	 * Requests handled at once, each waiting out its latency; the rest queue. Read on start().
+	 */
+	@Getter
+	@Setter
+	private volatile int handlerThreads = DEFAULT_HANDLER_THREADS;
+
+	/**
+	 * Quest stage table to serve, in the format of {@link com.gielinorspeaks.model.QuestStageTable}.
+	 */
+	@Getter
+	@Setter
+	private volatile String questStages;
+
+	@Getter
+	private final AtomicLong requests = new AtomicLong();
+
+	@Getter
+	private final AtomicLong clipsServed = new AtomicLong();
+
+	@Getter
+	private final AtomicLong notVoiced = new AtomicLong();
+
+	@Getter
+	private final AtomicLong errors = new AtomicLong();
+
+	@Getter
+	private final AtomicLong bytesSent = new AtomicLong();
+
+	/**
+	 * Lines registered for the manifest, by NPC id.
+	 */
+	private final Map<Integer, Map<Long, String>> lines = new ConcurrentHashMap<>();
+
+	/**
+	 * Voice profile generation of NPCs that have been regenerated.
+	 */
+	private final Map<Integer, Integer> generations = new ConcurrentHashMap<>();
+
+	private HttpServer server;
+	private ExecutorService executor;
+
+	/**
+	 * Starts serving on an ephemeral localhost port.
+	 *
+	 * @return the base URL to configure the {@link VoiceApiClient} with
+	 */
+	public synchronized String start() throws IOException {
+		if (server != null) {
+			return getBaseUrl();
+		}
+
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		executor = Executors.newFixedThreadPool(handlerThreads, r -> {
+			Thread thread = new Thread(r, "stand-in-voice-server");
+			thread.setDaemon(true);
+			return thread;
+		});
+		server.setExecutor(executor);
+		server.createContext("/npcs/", this::handle);
+		server.createContext("/quests/", this::handle);
+		server.start();
+		return getBaseUrl();
+	}
+
+	public synchronized String getBaseUrl() {
+		return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+	}
+
+	@Override
+	public synchronized void close() {
+		if (server == null) {
+			return;
+		}
+
+		server.stop(0);
+		executor.shutdownNow();
+		server = null;
+		executor = null;
+	}
+
+	/**
+	 * Registers a line for the manifest; its neutral variant is always voiced.
+	 */
+	public void addLine(int npcId, String text) {
+		lines.computeIfAbsent(npcId, id -> new ConcurrentHashMap<>()).put(DialogueHash.of(npcId, text), text);
+	}
+
+	/**
+	 * Regenerates an NPC's voice: its manifest reports the new generation and its clips change.
+	 */
+	public void setGeneration(int npcId, int generation) {
+		generations.put(npcId, generation);
+	}
+
+	public int getGeneration(int npcId) {
+		return generations.getOrDefault(npcId, 0);
+	}
+
+	/**
+	 * Whether the server has a clip for the variant with the given key, as requested by the
+	 * client (the line hash for neutral, the variant hash otherwise).
+	 */
+	public boolean isVoiced(int npcId, long hash, Emotion emotion) {
+		Map<Long, String> registered = lines.get(npcId);
+		if (emotion == Emotion.NEUTRAL && registered != null && registered.containsKey(hash)) {
+			return true;
+		}
+		// Top 53 bits of the mixed hash as a uniform fraction
+		double fraction = (mix(hash ^ emotion.ordinal()) >>> 11) * 0x1.0p-53;
+		return fraction >= unvoicedRate;
+	}
+
+	public void resetCounters() {
+		requests.set(0);
+		clipsServed.set(0);
+		notVoiced.set(0);
+		errors.set(0);
+		bytesSent.set(0);
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try {
+			requests.incrementAndGet();
+			delay();
+			if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+				errors.incrementAndGet();
+				send(exchange, 503, "text/plain", "Stand-in failure".getBytes(StandardCharsets.UTF_8));
+				return;
+			}
+
+			// /npcs/<npcId>/lines/<hash>.wav, /npcs/<npcId>/manifest or /quests/stages.txt
+			String[] path = exchange.getRequestURI().getPath().split("/");
+			if (path.length == 3 && path[1].equals("quests") && path[2].equals("stages.txt")) {
+				String stages = questStages;
+				if (stages == null) {
+					send(exchange, 404, "text/plain", new byte[0]);
+				}
+				else {
+					send(exchange, 200, "text/plain", stages.getBytes(StandardCharsets.UTF_8));
+				}
+				return;
+			}
+
+			int npcId;
+			try {
+				npcId = Integer.parseInt(path[2]);
+			}
+			catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+				send(exchange, 400, "text/plain", new byte[0]);
+				return;
+			}
+
+			if (path.length == 4 && path[3].equals("manifest")) {
+				send(exchange, 200, "application/json", manifest(npcId).getBytes(StandardCharsets.UTF_8));
+			}
+			else if (path.length == 5 && path[3].equals("lines") && path[4].endsWith(".wav")) {
+				serveClip(exchange, npcId, path[4].substring(0, path[4].length() - ".wav".length()));
+			}
+			else {
+				send(exchange, 404, "text/plain", new byte[0]);
+			}
+		}
+		finally {
+			exchange.close();
+		}
+	}
+
+	private void serveClip(HttpExchange exchange, int npcId, String hex) throws IOException {
+		long hash;
+		try {
+			hash = DialogueHash.fromHex(hex);
+		}
+		catch (NumberFormatException e) {
+			send(exchange, 400, "text/plain", new byte[0]);
+			return;
+		}
+
+		Emotion emotion = Emotion.NEUTRAL;
+		String query = exchange.getRequestURI().getQuery();
+		if (query != null && query.startsWith("emotion=")) {
+			String key = query.substring("emotion=".length());
+			for (Emotion candidate : Emotion.values()) {
+				if (candidate.getKey().equals(key)) {
+					emotion = candidate;
+				}
+			}
+		}
+
+		if (!isVoiced(npcId, hash, emotion)) {
+			notVoiced.incrementAndGet();
+			send(exchange, 404, "text/plain", new byte[0]);
+			return;
+		}
+
+		clipsServed.incrementAndGet();
+		send(exchange, 200, "audio/wav", synthesize(hash ^ getGeneration(npcId)));
+	}
+
+	private String manifest(int npcId) {
+		StringBuilder json = new StringBuilder("{\"npcId\":").append(npcId)
+			.append(",\"generation\":").append(getGeneration(npcId))
+			.append(",\"lines\":[");
+		Map<Long, String> registered = lines.get(npcId);
+		if (registered != null) {
+			boolean first = true;
+			for (Map.Entry<Long, String> line : registered.entrySet()) {
+				long hash = line.getKey();
+				json.append(first ? "" : ",").append("{\"hash\":\"").append(DialogueHash.toHex(hash))
+					.append("\",\"text\":").append(quote(line.getValue())).append(",\"emotions\":[");
+				first = false;
+				boolean firstEmotion = true;
+				for (Emotion emotion : Emotion.values()) {
+					if (isVoiced(npcId, DialogueHash.variant(hash, emotion), emotion)) {
+						json.append(firstEmotion ? "" : ",").append('"').append(emotion.getKey()).append('"');
+						firstEmotion = false;
+					}
+				}
+				json.append("]}");
+			}
+		}
+		return json.append("]}").toString();
+	}
+
+	/**
+	 * The text as a JSON string.
+	 */
+	private static String quote(String text) {
+		StringBuilder quoted = new StringBuilder(text.length() + 2).append('"');
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '"' || c == '\\') {
+				quoted.append('\\').append(c);
+			}
+			else if (c < 0x20) {
+				quoted.append(String.format("\\u%04x", (int) c));
+			}
+			else {
+				quoted.append(c);
+			}
+		}
+		return quoted.append('"').toString();
+	}
+
+	/**
+	 * A tone between 200 and 600 Hz, picked from the hash, in a mono 16-bit WAV.
+	 */
+	private byte[] synthesize(long hash) {
+		int rate = sampleRate;
+		int frames = (int) ((long) rate * clipMillis / 1000);
+		ByteBuffer wav = ByteBuffer.allocate(WAV_HEADER_BYTES + frames * 2).order(ByteOrder.LITTLE_ENDIAN);
+		wav.put("RIFF".getBytes(StandardCharsets.US_ASCII)).putInt(36 + frames * 2)
+			.put("WAVEfmt ".getBytes(StandardCharsets.US_ASCII)).putInt(16)
+			.putShort((short) 1).putShort((short) 1).putInt(rate).putInt(rate * 2)
+			.putShort((short) 2).putShort((short) 16)
+			.put("data".getBytes(StandardCharsets.US_ASCII)).putInt(frames * 2);
+
+		double frequency = 200 + Math.floorMod(hash, 400);
+		for (int i = 0; i < frames; i++) {
+			wav.putShort((short) (Math.sin(2 * Math.PI * frequency * i / rate) * 8000));
+		}
+		return wav.array();
+	}
+
+	private void delay() {
+		long jitter = jitterMillis;
+		long millis = latencyMillis + (jitter > 0 ? ThreadLocalRandom.current().nextLong(jitter + 1) : 0);
+		if (millis > 0) {
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(millis));
+		}
+	}
+
+	/**
+	 * Sends the body in chunks, pausing between them to stay under {@link #bytesPerSecond}.
+	 */
+	private void send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", contentType);
+		exchange.sendResponseHeaders(status, body.length > 0 ? body.length : -1);
+		if (body.length == 0) {
+			return;
+		}
+
+		long start = System.nanoTime();
+		try (OutputStream out = exchange.getResponseBody()) {
+			for (int offset = 0; offset < body.length; offset += CHUNK_BYTES) {
+				int length = Math.min(CHUNK_BYTES, body.length - offset);
+				out.write(body, offset, length);
+				bytesSent.addAndGet(length);
+
+				long cap = bytesPerSecond;
+				if (cap > 0) {
+					long due = start + (offset + length) * 1_000_000_000L / cap;
+					long wait = due - System.nanoTime();
+					if (wait > 0) {
+						LockSupport.parkNanos(wait);
+					}
+				}
+			}
+		}
+	}
+
+	private static long mix(long hash) {
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb53a1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+}
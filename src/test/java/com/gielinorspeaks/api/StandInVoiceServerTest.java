@@ -0,0 +1,201 @@
+package com.gielinorspeaks.api;
+
+import com.gielinorspeaks.buffer.BufferPool;
+import com.gielinorspeaks.cache.DialogueHash;
+import com.gielinorspeaks.model.Emotion;
+import com.gielinorspeaks.model.NpcManifest;
+import com.gielinorspeaks.model.QuestStageTable;
+import com.google.gson.Gson;
+import okhttp3.OkHttpClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for StandInVoiceServer, through the real VoiceApiClient.
+ * Focus: Serving clips and manifests, and injecting the configured faults.
+ */
+public class StandInVoiceServerTest {
+	private StandInVoiceServer server;
+	private VoiceApiClient client;
+	private BufferPool pool;
+
+	@Before
+	public void setUp() throws IOException {
+		server = new StandInVoiceServer();
+		client = new VoiceApiClient(new OkHttpClient(), new Gson());
+		client.setBaseUrl(server.start());
+		pool = new BufferPool();
+	}
+
+	@After
+	public void tearDown() {
+		server.close();
+	}
+
+	// ===========================
+	// Serving
+	// ===========================
+
+	@Test
+	public void testFetchClip_servesWavForRegisteredLine() throws IOException {
+		// Arrange
+		server.setUnvoicedRate(1.0);
+		server.setClipMillis(500);
+		server.addLine(1234, "Hello!");
+
+		// Act
+		ByteBuffer clip = client.fetchClip(1234, DialogueHash.of(1234, "Hello!"), Emotion.NEUTRAL, pool);
+
+		// Assert
+		assertNotNull("Registered line should be voiced", clip);
+		assertEquals("Clip should be a WAV file", 0x52494646, clip.getInt(0));
+		assertEquals("Clip should hold half a second of 16-bit audio", 44 + 22050, clip.remaining());
+		assertEquals("Clip should be counted", 1, server.getClipsServed().get());
+		pool.release(clip);
+	}
+
+	@Test
+	public void testFetchClip_returnsNullForUnvoicedVariant() throws IOException {
+		// Arrange
+		server.setUnvoicedRate(1.0);
+		server.addLine(1234, "Hello!");
+		long angry = DialogueHash.variant(DialogueHash.of(1234, "Hello!"), Emotion.ANGRY);
+
+		// Act
+		ByteBuffer clip = client.fetchClip(1234, angry, Emotion.ANGRY, pool);
+
+		// Assert
+		assertNull("Variant should not be voiced", clip);
+		assertEquals("Miss should be counted", 1, server.getNotVoiced().get());
+	}
+
+	@Test
+	public void testManifest_listsRegisteredLines() throws IOException {
+		// Arrange
+		server.setUnvoicedRate(1.0);
+		server.addLine(1234, "Hello!");
+
+		// Act
+		String manifest = get(server.getBaseUrl() + "/npcs/1234/manifest");
+
+		// Assert
+		assertEquals("Manifest should list the neutral variant of the line",
+			"{\"npcId\":1234,\"generation\":0,\"lines\":[{\"hash\":\"" + DialogueHash.toHex(DialogueHash.of(1234, "Hello!"))
+				+ "\",\"text\":\"Hello!\",\"emotions\":[\"" + Emotion.NEUTRAL.getKey() + "\"]}]}", manifest);
+	}
+
+	@Test
+	public void testFetchManifest_readsRegeneratedVoice() throws IOException {
+		// Arrange
+		server.addLine(1234, "Hello!");
+		server.setGeneration(1234, 3);
+
+		// Act
+		NpcManifest manifest = client.fetchManifest(1234);
+
+		// Assert
+		assertEquals("Generation should be read from the manifest", 3, manifest.getGeneration());
+		assertEquals("NPCs never regenerated should be at generation 0", 0, client.fetchManifest(5678).getGeneration());
+	}
+
+	@Test
+	public void testFetchManifest_readsLineTexts() throws IOException {
+		// Arrange
+		server.addLine(1234, "Hello!");
+		server.setGeneration(1234, 2);
+
+		// Act
+		NpcManifest manifest = client.fetchManifest(1234);
+
+		// Assert
+		assertNotNull("Voiced NPC should have a manifest", manifest);
+		assertEquals("Generation should be read", 2, manifest.getGeneration());
+		assertEquals("Line should be listed", 1, manifest.getLineCount());
+		assertEquals("Line hash should be read", DialogueHash.of(1234, "Hello!"), manifest.getLineHash(0));
+		assertEquals("Line text should be read", "Hello!", manifest.getLineText(0));
+	}
+
+	@Test
+	public void testFetchQuestStages_parsesPublishedTable() throws IOException {
+		// Arrange
+		long hash = DialogueHash.of(3308, "Greetings!");
+		server.setQuestStages("# varbit 281 stages 1-3\nvarbit 281 1 3 3308 " + DialogueHash.toHex(hash) + "\n");
+
+		// Act
+		QuestStageTable table = client.fetchQuestStages();
+
+		// Assert
+		assertNotNull("Published table should be returned", table);
+		assertEquals("Table should hold the bundle", 1, table.getBundleCount());
+		assertEquals("Bundle should hold the line", hash, table.getLineHash(0, 0));
+	}
+
+	@Test
+	public void testFetchQuestStages_returnsEmptyTableWhenNotPublished() throws IOException {
+		// Act
+		QuestStageTable table = client.fetchQuestStages();
+
+		// Assert
+		assertSame("Missing table should be treated as empty", QuestStageTable.EMPTY, table);
+	}
+
+	// ===========================
+	// Faults
+	// ===========================
+
+	@Test
+	public void testFetchClip_failsAtErrorRate() {
+		// Arrange
+		server.setErrorRate(1.0);
+		server.addLine(1234, "Hello!");
+
+		// Act & Assert
+		try {
+			client.fetchClip(1234, DialogueHash.of(1234, "Hello!"), Emotion.NEUTRAL, pool);
+			fail("Server error should be thrown");
+		}
+		catch (IOException e) {
+			assertEquals("Error should be counted", 1, server.getErrors().get());
+		}
+		assertEquals("No buffer should leak", 0, pool.getOutstandingCount());
+	}
+
+	@Test
+	public void testFetchClip_slowedByLatencyAndBandwidthCap() throws IOException {
+		// Arrange - about 44KB at 100KB/s, after 100ms
+		server.setLatencyMillis(100);
+		server.setBytesPerSecond(100_000);
+		server.setClipMillis(1000);
+		server.addLine(1234, "Hello!");
+		long start = System.nanoTime();
+
+		// Act
+		ByteBuffer clip = client.fetchClip(1234, DialogueHash.of(1234, "Hello!"), Emotion.NEUTRAL, pool);
+
+		// Assert
+		long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+		assertNotNull("Clip should still arrive", clip);
+		assertTrue("Fetch should take latency plus transfer time, took " + elapsedMillis + "ms", elapsedMillis >= 450);
+		pool.release(clip);
+	}
+
+	private static String get(String url) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		try (InputStream in = connection.getInputStream()) {
+			return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		}
+		finally {
+			connection.disconnect();
+		}
+	}
+}
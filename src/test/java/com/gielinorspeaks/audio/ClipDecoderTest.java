@@ -0,0 +1,49 @@
+package com.gielinorspeaks.audio;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for ClipDecoder.
+ * Focus: Nothing is loaded until asked, and pre-warming happens once in the background.
+ */
+public class ClipDecoderTest {
+	@Test
+	public void testNew_isNotWarm() {
+		// Act
+		ClipDecoder decoder = new ClipDecoder();
+
+		// Assert
+		assertFalse("Decoder should not be loaded on construction", decoder.isWarm());
+	}
+
+	@Test
+	public void testPrewarm_warmsInBackground() throws InterruptedException {
+		// Arrange
+		ClipDecoder decoder = new ClipDecoder();
+
+		// Act
+		decoder.prewarm();
+		decoder.prewarm();
+
+		// Assert
+		assertTrue("Warm-up should finish", decoder.awaitWarm(10_000));
+	}
+
+	@Test
+	public void testProcess_warmsWithoutPrewarm() throws Exception {
+		// Arrange
+		ClipDecoder decoder = new ClipDecoder();
+
+		// Act
+		byte[] pcm = decoder.process(ByteBuffer.wrap(ClipDecoder.synthesize()), null);
+
+		// Assert
+		int expectedFrames = (int) (AudioOutput.OUTPUT_FORMAT.getSampleRate() * ClipDecoder.WARM_UP_MILLIS / 1000);
+		assertEquals("Clip should be resampled to the output rate", expectedFrames, pcm.length / 2, 1);
+		assertTrue("A decoded clip should leave the decoder warm", decoder.isWarm());
+	}
+}
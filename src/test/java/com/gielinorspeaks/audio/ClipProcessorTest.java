@@ -0,0 +1,166 @@
+package com.gielinorspeaks.audio;
+
+import com.gielinorspeaks.buffer.BufferPool;
+import org.junit.Test;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for ClipProcessor.
+ * Focus: Output is always in the output format, resampling preserves pitch and level, and
+ * loudness lands on the target without clipping.
+ */
+public class ClipProcessorTest {
+	private static final float OUTPUT_RATE = AudioOutput.OUTPUT_FORMAT.getSampleRate();
+
+	// ===========================
+	// Resampling
+	// ===========================
+
+	@Test
+	public void testResample_keepsFrequencyWhenDownsampling() {
+		// Arrange - One second of 440Hz at 44.1kHz
+		float[] input = sine(440, 44100, 44100, 0.5f);
+
+		// Act
+		float[] output = ClipProcessor.resample(input, 44100, OUTPUT_RATE);
+
+		// Assert
+		assertEquals("One second at the output rate", (int) OUTPUT_RATE, output.length);
+		assertEquals("Pitch should be unchanged", 880, zeroCrossings(output), 4);
+	}
+
+	@Test
+	public void testResample_keepsLevel() {
+		float[] input = sine(440, 16000, 16000, 0.5f);
+
+		float[] output = ClipProcessor.resample(input, 16000, OUTPUT_RATE);
+
+		assertEquals("Upsampling should keep the level", rms(input), rms(output), 0.01);
+	}
+
+	@Test
+	public void testResample_removesContentAboveOutputNyquist() {
+		// Arrange - 15kHz can't be represented at 22.05kHz
+		float[] input = sine(15000, 48000, 48000, 0.5f);
+
+		// Act
+		float[] output = ClipProcessor.resample(input, 48000, OUTPUT_RATE);
+
+		// Assert
+		assertTrue("Tone above Nyquist should be filtered, not aliased", rms(output) < 0.05);
+	}
+
+	// ===========================
+	// Loudness
+	// ===========================
+
+	@Test
+	public void testNormalizationGain_bringsQuietSpeechToTarget() {
+		// Arrange - A quiet tone with a pause in the middle
+		float[] samples = sine(200, OUTPUT_RATE, (int) OUTPUT_RATE * 2, 0.02f);
+		for (int i = samples.length / 3; i < 2 * samples.length / 3; i++) {
+			samples[i] = 0;
+		}
+
+		// Act
+		double gain = ClipProcessor.normalizationGain(samples, OUTPUT_RATE);
+
+		// Assert - Pause is gated out, so the level of the tone alone is normalized
+		double toneDb = 20 * Math.log10(0.02 / Math.sqrt(2));
+		assertEquals("Tone should reach the target loudness",
+			ClipProcessor.TARGET_LOUDNESS_DB, toneDb + 20 * Math.log10(gain), 0.5);
+	}
+
+	@Test
+	public void testNormalizationGain_neverPushesPeaksOverCeiling() {
+		// Arrange - Mostly quiet, with one loud click
+		float[] samples = sine(200, OUTPUT_RATE, (int) OUTPUT_RATE, 0.02f);
+		samples[100] = 0.9f;
+
+		// Act
+		double gain = ClipProcessor.normalizationGain(samples, OUTPUT_RATE);
+
+		// Assert
+		assertTrue("Peak should stay under the ceiling",
+			20 * Math.log10(0.9f * gain) <= ClipProcessor.PEAK_CEILING_DB + 1e-6);
+	}
+
+	@Test
+	public void testNormalizationGain_leavesSilenceAlone() {
+		assertEquals("Silence should not be amplified", 1.0,
+			ClipProcessor.normalizationGain(new float[22050], OUTPUT_RATE), 0);
+	}
+
+	// ===========================
+	// End to End
+	// ===========================
+
+	@Test
+	public void testProcess_convertsStereo44kClipToOutputFormat() throws Exception {
+		// Arrange - Half a second of stereo at 44.1kHz
+		AudioFormat format = new AudioFormat(44100, 16, 2, true, false);
+		float[] tone = sine(300, 44100, 22050, 0.1f);
+		byte[] pcm = new byte[tone.length * 4];
+		for (int i = 0; i < tone.length; i++) {
+			short sample = (short) (tone[i] * 32767);
+			for (int channel = 0; channel < 2; channel++) {
+				pcm[4 * i + 2 * channel] = (byte) sample;
+				pcm[4 * i + 2 * channel + 1] = (byte) (sample >> 8);
+			}
+		}
+		BufferPool pool = new BufferPool();
+		ByteBuffer clip = ByteBuffer.wrap(createWav(format, pcm, tone.length));
+
+		// Act
+		byte[] processed = ClipProcessor.process(clip, pool);
+
+		// Assert
+		assertEquals("Half a second of mono 16-bit at the output rate", (int) (OUTPUT_RATE / 2) * 2, processed.length);
+		assertEquals("Clip buffer position should be unchanged", 0, clip.position());
+		assertEquals("Intermediate buffers should be released", 0, pool.getOutstandingCount());
+	}
+
+	private static byte[] createWav(AudioFormat format, byte[] pcm, int frames) throws Exception {
+		AudioInputStream stream = new AudioInputStream(new ByteArrayInputStream(pcm), format, frames);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		AudioSystem.write(stream, AudioFileFormat.Type.WAVE, out);
+		return out.toByteArray();
+	}
+
+	private static float[] sine(double frequency, float sampleRate, int length, float amplitude) {
+		float[] samples = new float[length];
+		for (int i = 0; i < length; i++) {
+			samples[i] = (float) (amplitude * Math.sin(2 * Math.PI * frequency * i / sampleRate));
+		}
+		return samples;
+	}
+
+	private static int zeroCrossings(float[] samples) {
+		int crossings = 0;
+		for (int i = 1; i < samples.length; i++) {
+			if ((samples[i - 1] < 0) != (samples[i] < 0)) {
+				crossings++;
+			}
+		}
+		return crossings;
+	}
+
+	private static double rms(float[] samples) {
+		double sum = 0;
+		// Skip the edges, where the filter has less to work with
+		int margin = samples.length / 10;
+		for (int i = margin; i < samples.length - margin; i++) {
+			sum += samples[i] * samples[i];
+		}
+		return Math.sqrt(sum / (samples.length - 2 * margin));
+	}
+}
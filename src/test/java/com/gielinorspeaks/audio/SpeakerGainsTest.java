@@ -0,0 +1,125 @@
+package com.gielinorspeaks.audio;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for SpeakerGains and the stereo mixing in AudioOutput.
+ * Focus: The audio thread only ever sees whole updates, and gains ramp across a chunk.
+ */
+public class SpeakerGainsTest {
+	private final SpeakerGains speakerGains = new SpeakerGains();
+	private final float[] out = new float[2];
+
+	// ===========================
+	// Slots
+	// ===========================
+
+	@Test
+	public void testRead_returnsGainsOfSpeaker() {
+		// Arrange
+		speakerGains.beginUpdate();
+		speakerGains.set(3, 42, 0.25f, 0.75f);
+		speakerGains.endUpdate();
+
+		// Act
+		boolean found = speakerGains.read(42, out);
+
+		// Assert
+		assertTrue("Speaker should be found", found);
+		assertEquals("Left gain should be read", 0.25f, out[0], 0);
+		assertEquals("Right gain should be read", 0.75f, out[1], 0);
+		assertEquals("Speaker should be in its slot", 3, speakerGains.slotOf(42));
+	}
+
+	@Test
+	public void testRead_missesClearedSpeaker() {
+		// Arrange
+		speakerGains.beginUpdate();
+		speakerGains.set(0, 42, 0.5f, 0.5f);
+		speakerGains.clear(0);
+		speakerGains.endUpdate();
+		out[0] = -1;
+
+		// Act
+		boolean found = speakerGains.read(42, out);
+
+		// Assert
+		assertFalse("Cleared speaker should not be found", found);
+		assertEquals("Output should be unchanged", -1, out[0], 0);
+	}
+
+	@Test
+	public void testRead_neverSeesPartialUpdate() throws InterruptedException {
+		// Arrange - the writer always sets both gains to the same value
+		speakerGains.beginUpdate();
+		speakerGains.set(0, 7, 0, 0);
+		speakerGains.endUpdate();
+		AtomicBoolean done = new AtomicBoolean();
+		Thread writer = new Thread(() -> {
+			for (int i = 1; !done.get(); i++) {
+				speakerGains.beginUpdate();
+				speakerGains.set(0, 7, i, i);
+				speakerGains.endUpdate();
+			}
+		});
+		writer.start();
+
+		// Act & Assert
+		try {
+			for (int i = 0; i < 1_000_000; i++) {
+				assertTrue("Speaker should stay placed", speakerGains.read(7, out));
+				assertEquals("Left and right should come from the same update", out[0], out[1], 0);
+			}
+		}
+		finally {
+			done.set(true);
+			writer.join();
+		}
+	}
+
+	// ===========================
+	// Mixing
+	// ===========================
+
+	@Test
+	public void testSpread_rampsEachChannel() {
+		// Arrange - four samples at full scale
+		byte[] mono = new byte[8];
+		for (int i = 0; i < 4; i++) {
+			mono[i * 2] = (byte) 0xff;
+			mono[i * 2 + 1] = 0x3f;
+		}
+		byte[] stereo = new byte[16];
+
+		// Act - left ramps down from 1, right up from 0
+		AudioOutput.spread(mono, 0, mono.length, stereo, 1, 0, 0, 1);
+
+		// Assert
+		assertEquals("Left should start at full gain", 0x3fff, sample(stereo, 0));
+		assertEquals("Right should start silent", 0, sample(stereo, 1));
+		assertEquals("Left should be ramping down", Math.round(0x3fff * 0.5f), sample(stereo, 4));
+		assertEquals("Right should be ramping up", Math.round(0x3fff * 0.5f), sample(stereo, 5));
+	}
+
+	@Test
+	public void testSpread_clampsBoostedSamples() {
+		// Arrange
+		byte[] mono = {(byte) 0xff, 0x7f};
+		byte[] stereo = new byte[4];
+
+		// Act
+		AudioOutput.spread(mono, 0, mono.length, stereo, 2, 2, 2, 2);
+
+		// Assert
+		assertEquals("Left should clamp to full scale", Short.MAX_VALUE, sample(stereo, 0));
+		assertEquals("Right should clamp to full scale", Short.MAX_VALUE, sample(stereo, 1));
+	}
+
+	private static int sample(byte[] stereo, int index) {
+		return (short) ((stereo[index * 2] & 0xff) | (stereo[index * 2 + 1] << 8));
+	}
+}
@@ -0,0 +1,187 @@
+package com.gielinorspeaks.buffer;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for BufferPool.
+ * Focus: Power-of-two size classes, reuse with hit/miss accounting, and leak and
+ * double-release detection.
+ */
+public class BufferPoolTest {
+	// ===========================
+	// Size Classes
+	// ===========================
+
+	@Test
+	public void testSizeClass_roundsUpToPowerOfTwo() {
+		assertEquals("Small requests use the smallest class", 0, BufferPool.sizeClass(1));
+		assertEquals("Exact class size fits its class", 0, BufferPool.sizeClass(BufferPool.MIN_CLASS_BYTES));
+		assertEquals("One byte over moves up a class", 1, BufferPool.sizeClass(BufferPool.MIN_CLASS_BYTES + 1));
+		assertEquals("Largest class", BufferPool.CLASS_COUNT - 1, BufferPool.sizeClass(BufferPool.MAX_CLASS_BYTES));
+		assertEquals("Too large for any class", -1, BufferPool.sizeClass(BufferPool.MAX_CLASS_BYTES + 1));
+	}
+
+	@Test
+	public void testAcquire_returnsDirectBufferOfClassSize() {
+		BufferPool pool = new BufferPool();
+
+		ByteBuffer buffer = pool.acquire(5000);
+
+		assertTrue("Buffer should be direct", buffer.isDirect());
+		assertEquals("Buffer should be one class size", 8192, buffer.capacity());
+		assertEquals("Whole buffer should be writable", 8192, buffer.remaining());
+		pool.release(buffer);
+	}
+
+	// ===========================
+	// Reuse
+	// ===========================
+
+	@Test
+	public void testAcquire_reusesReleasedBuffer() {
+		// Arrange
+		BufferPool pool = new BufferPool();
+		ByteBuffer first = pool.acquire(100);
+		first.put((byte) 1);
+		pool.release(first);
+
+		// Act
+		ByteBuffer second = pool.acquire(200);
+
+		// Assert
+		assertSame("Released buffer should be reused", first, second);
+		assertEquals("Reused buffer should be cleared", 0, second.position());
+		assertEquals("First acquire should miss", 1, pool.getMisses(0));
+		assertEquals("Second acquire should hit", 1, pool.getHits(0));
+		pool.release(second);
+	}
+
+	@Test
+	public void testRelease_keepsBoundedNumberOfIdleBuffers() {
+		// Arrange
+		BufferPool pool = new BufferPool();
+		ByteBuffer[] buffers = new ByteBuffer[BufferPool.MAX_IDLE_PER_CLASS + 1];
+		for (int i = 0; i < buffers.length; i++) {
+			buffers[i] = pool.acquire(100);
+		}
+
+		// Act
+		for (ByteBuffer buffer : buffers) {
+			pool.release(buffer);
+		}
+
+		// Assert
+		assertEquals("Only a bounded number of buffers should stay idle",
+			(long) BufferPool.MAX_IDLE_PER_CLASS * BufferPool.MIN_CLASS_BYTES, pool.sizeInBytes());
+	}
+
+	@Test
+	public void testAcquire_oversizedRequestIsNotPooled() {
+		BufferPool pool = new BufferPool();
+
+		ByteBuffer buffer = pool.acquire(BufferPool.MAX_CLASS_BYTES + 1);
+		pool.release(buffer);
+
+		assertEquals("Oversized request should be counted", 1, pool.getOversized());
+		assertEquals("Oversized buffer should not be kept", 0, pool.sizeInBytes());
+		assertEquals("Oversized buffer should still be tracked", 0, pool.getOutstandingCount());
+	}
+
+	@Test
+	public void testGrow_keepsWrittenBytes() {
+		// Arrange
+		BufferPool pool = new BufferPool();
+		ByteBuffer buffer = pool.acquire(100);
+		buffer.put(new byte[]{1, 2, 3});
+
+		// Act
+		ByteBuffer larger = pool.grow(buffer, BufferPool.MIN_CLASS_BYTES * 2);
+
+		// Assert
+		assertEquals("Grown buffer should be a larger class", BufferPool.MIN_CLASS_BYTES * 2, larger.capacity());
+		assertEquals("Written bytes should carry over", 3, larger.position());
+		assertEquals("Content should carry over", 2, larger.get(1));
+		assertEquals("Only the grown buffer should be outstanding", 1, pool.getOutstandingCount());
+		pool.release(larger);
+	}
+
+	// ===========================
+	// Leaks
+	// ===========================
+
+	@Test
+	public void testOutstandingCount_tracksUnreleasedBuffers() {
+		BufferPool pool = new BufferPool();
+
+		ByteBuffer first = pool.acquire(100);
+		pool.acquire(100);
+		pool.release(first);
+
+		assertEquals("Unreleased buffer should be reported", 1, pool.getOutstandingCount());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testRelease_throwsOnDoubleRelease() {
+		BufferPool pool = new BufferPool();
+		ByteBuffer buffer = pool.acquire(100);
+
+		pool.release(buffer);
+		pool.release(buffer);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testRelease_throwsOnDoubleReleaseOfBufferNotKeptIdle() {
+		BufferPool pool = new BufferPool();
+		ByteBuffer buffer = pool.acquire(100);
+		pool.shed();
+
+		pool.release(buffer);
+		pool.release(buffer);
+	}
+
+	@Test
+	public void testRelease_rejectsDirectBufferFromElsewhere() {
+		BufferPool pool = new BufferPool();
+		pool.acquire(100);
+
+		try {
+			pool.release(ByteBuffer.allocateDirect(BufferPool.MIN_CLASS_BYTES));
+			fail("Foreign buffer should be rejected");
+		}
+		catch (IllegalStateException e) {
+			assertEquals("Foreign buffer should not affect the count", 1, pool.getOutstandingCount());
+			assertEquals("Foreign buffer should not be pooled", 0, pool.sizeInBytes());
+		}
+	}
+
+	@Test
+	public void testRelease_ignoresHeapBuffers() {
+		BufferPool pool = new BufferPool();
+
+		pool.release(ByteBuffer.wrap(new byte[100]));
+
+		assertEquals("Heap buffer should not affect the count", 0, pool.getOutstandingCount());
+	}
+
+	// ===========================
+	// Shedding
+	// ===========================
+
+	@Test
+	public void testShed_dropsIdleBuffersAndStopsPooling() {
+		// Arrange
+		BufferPool pool = new BufferPool();
+		pool.release(pool.acquire(100));
+
+		// Act
+		pool.shed();
+		pool.release(pool.acquire(100));
+
+		// Assert
+		assertEquals("Shed pool should hold no idle buffers", 0, pool.sizeInBytes());
+	}
+}
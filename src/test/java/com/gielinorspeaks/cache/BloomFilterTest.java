@@ -0,0 +1,59 @@
+package com.gielinorspeaks.cache;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for BloomFilter.
+ * Focus: No false negatives, and a false positive rate close to the requested one.
+ */
+public class BloomFilterTest {
+	@Test
+	public void testMightContain_neverReturnsFalseNegatives() {
+		// Arrange
+		BloomFilter filter = BloomFilter.create(10_000, 0.01);
+		for (long key = 0; key < 10_000; key++) {
+			filter.put(DialogueHash.of((int) key, "line " + key));
+		}
+
+		// Act / Assert
+		for (long key = 0; key < 10_000; key++) {
+			assertTrue("Added key must be reported as present",
+				filter.mightContain(DialogueHash.of((int) key, "line " + key)));
+		}
+	}
+
+	@Test
+	public void testMightContain_falsePositiveRateNearTarget() {
+		// Arrange
+		BloomFilter filter = BloomFilter.create(10_000, 0.01);
+		for (int i = 0; i < 10_000; i++) {
+			filter.put(DialogueHash.of(i, "line"));
+		}
+
+		// Act
+		int falsePositives = 0;
+		for (int i = 0; i < 100_000; i++) {
+			if (filter.mightContain(DialogueHash.of(i, "other line"))) {
+				falsePositives++;
+			}
+		}
+
+		// Assert - Allow some slack over the 1% target
+		assertTrue("False positive rate should be near 1% but was " + falsePositives / 1000.0 + "%",
+			falsePositives < 2_000);
+	}
+
+	@Test
+	public void testMightContain_emptyFilterContainsNothing() {
+		BloomFilter filter = BloomFilter.create(100, 0.01);
+
+		assertFalse("Empty filter should not contain anything", filter.mightContain(42L));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCreate_rejectsInvalidFalsePositiveRate() {
+		BloomFilter.create(100, 1.5);
+	}
+}
@@ -0,0 +1,189 @@
+package com.gielinorspeaks.cache;
+
+import com.gielinorspeaks.model.Emotion;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for CacheScrubber.
+ * Focus: Finding corrupt entries in a store written by an earlier session, and deleting clips
+ * of voices that have since been regenerated.
+ */
+public class CacheScrubberTest {
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private ClipStore previousSession;
+	private ProfileGenerations generations;
+
+	@Before
+	public void setUp() throws IOException {
+		previousSession = new ClipStore(temporaryFolder.newFolder("clips"));
+		generations = new ProfileGenerations(previousSession.getDirectory().resolve(ProfileGenerations.FILE_NAME).toFile());
+	}
+
+	// ===========================
+	// Scrubbing
+	// ===========================
+
+	@Test
+	public void testScrub_reportsCorruptClipsAndCountsTheRest() throws Exception {
+		// Arrange
+		for (int i = 0; i < 5; i++) {
+			previousSession.write(100 + i, 10L + i, new byte[]{1, 2, 3, (byte) i});
+		}
+		previousSession.writeProcessed(102, 12L, 1, new byte[]{4, 5, 6});
+		corruptLastByte(previousSession.clipPath(101, 11L));
+
+		ClipStore store = new ClipStore(previousSession.getDirectory().toFile());
+		CacheScrubber scrubber = new CacheScrubber(store, generations);
+		List<Long> reported = new ArrayList<>();
+		scrubber.setCorruptListener((npcId, lineHash, emotion) -> reported.add(lineHash));
+
+		// Act
+		scrubber.scrub(0, Long.MAX_VALUE);
+
+		// Assert
+		assertEquals("Only the corrupt clip should be reported", 1, reported.size());
+		assertEquals("Corrupt clip should be reported by hash", Long.valueOf(11L), reported.get(0));
+		assertEquals("Corrupt clip should be counted", 1, scrubber.getCorruptCount());
+		assertEquals("Other clips should be verified", 4, scrubber.getVerifiedCount());
+		assertNull("Corrupt clip should no longer be readable", store.read(101, 11L));
+		assertArrayEquals("Good processed clip should still be readable", new byte[]{4, 5, 6},
+			store.readProcessed(102, 12L, 1));
+	}
+
+	@Test
+	public void testScrub_reportsCorruptProcessedClip() throws Exception {
+		// Arrange
+		previousSession.write(100, 10L, new byte[]{1, 2, 3});
+		previousSession.writeProcessed(100, 10L, 1, new byte[]{4, 5, 6, 7});
+		corruptLastByte(previousSession.processedPath(100, 10L));
+
+		ClipStore store = new ClipStore(previousSession.getDirectory().toFile());
+		CacheScrubber scrubber = new CacheScrubber(store, generations);
+
+		// Act
+		scrubber.scrub(0, Long.MAX_VALUE);
+
+		// Assert
+		assertEquals("Corrupt processed clip should be counted", 1, scrubber.getCorruptCount());
+		assertFalse("Corrupt processed clip should be deleted", Files.exists(store.processedPath(100, 10L)));
+		assertNotNull("Its clip should still be readable", store.read(100, 10L));
+	}
+
+	@Test
+	public void testScrub_reportsCorruptVariantByLineAndEmotion() throws Exception {
+		// Arrange - An angry clip of a regenerated voice, whose key is no line hash
+		long line = DialogueHash.of(100, "Hello!");
+		long key = DialogueHash.generation(DialogueHash.variant(line, Emotion.ANGRY), 2);
+		previousSession.write(100, key, line, Emotion.ANGRY, 2, ByteBuffer.wrap(new byte[]{1, 2, 3}));
+		generations.update(100, 2);
+		corruptLastByte(previousSession.clipPath(100, key));
+
+		ClipStore store = new ClipStore(previousSession.getDirectory().toFile());
+		CacheScrubber scrubber = new CacheScrubber(store, new ProfileGenerations(generations.getFile().toFile()));
+		List<String> reported = new ArrayList<>();
+		scrubber.setCorruptListener((npcId, lineHash, emotion) -> reported.add(npcId + " " + lineHash + " " + emotion));
+
+		// Act
+		scrubber.scrub(0, Long.MAX_VALUE);
+
+		// Assert
+		assertEquals("Corrupt variant should be reported by its line and emotion",
+			Collections.singletonList(100 + " " + line + " " + Emotion.ANGRY), reported);
+	}
+
+	@Test
+	public void testScrub_doesNotReportCorruptClipWithoutRecordedVariant() throws Exception {
+		// Arrange - Written before trailers recorded the variant
+		Files.createDirectories(previousSession.clipPath(100, 10L).getParent());
+		Files.write(previousSession.clipPath(100, 10L), new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13});
+		ByteBuffer trailer = ByteBuffer.allocate(ClipStore.GENERATION_TRAILER_BYTES);
+		trailer.putInt(0).putInt(0).putInt(ClipStore.GENERATION_TRAILER_MAGIC);
+		Files.write(previousSession.clipPath(100, 10L), trailer.array(), StandardOpenOption.APPEND);
+
+		ClipStore store = new ClipStore(previousSession.getDirectory().toFile());
+		CacheScrubber scrubber = new CacheScrubber(store, generations);
+		List<Long> reported = new ArrayList<>();
+		scrubber.setCorruptListener((npcId, lineHash, emotion) -> reported.add(lineHash));
+
+		// Act
+		scrubber.scrub(0, Long.MAX_VALUE);
+
+		// Assert
+		assertEquals("Corrupt clip should be counted", 1, scrubber.getCorruptCount());
+		assertTrue("Clip whose variant is unknown should not be reported", reported.isEmpty());
+	}
+
+	@Test
+	public void testScrub_skipsEntriesAlreadyReadThisSession() throws Exception {
+		// Arrange
+		previousSession.write(100, 10L, new byte[]{1, 2, 3});
+		ClipStore store = new ClipStore(previousSession.getDirectory().toFile());
+		store.read(100, 10L);
+		corruptLastByte(store.clipPath(100, 10L));
+		CacheScrubber scrubber = new CacheScrubber(store, generations);
+
+		// Act
+		scrubber.scrub(0, Long.MAX_VALUE);
+
+		// Assert
+		assertEquals("Entry verified by a read should not be checked again", 0, scrubber.getCorruptCount());
+		assertEquals("Entry should still count as verified", 1, scrubber.getVerifiedCount());
+	}
+
+	// ===========================
+	// Compaction
+	// ===========================
+
+	@Test
+	public void testScrub_deletesClipsOfOlderGenerations() throws Exception {
+		// Arrange
+		long line = DialogueHash.of(100, "Hello!");
+		long current = DialogueHash.generation(line, 2);
+		previousSession.write(100, line, ByteBuffer.wrap(new byte[]{1, 2, 3}));
+		previousSession.writeProcessed(100, line, 1, new byte[]{4, 5, 6});
+		previousSession.write(100, DialogueHash.generation(line, 1), line, Emotion.NEUTRAL, 1, ByteBuffer.wrap(new byte[]{7, 8, 9}));
+		previousSession.write(100, current, line, Emotion.NEUTRAL, 2, ByteBuffer.wrap(new byte[]{10, 11, 12}));
+		previousSession.write(101, line, ByteBuffer.wrap(new byte[]{13, 14, 15}));
+		generations.update(100, 2);
+
+		ClipStore store = new ClipStore(previousSession.getDirectory().toFile());
+		CacheScrubber scrubber = new CacheScrubber(store, new ProfileGenerations(generations.getFile().toFile()));
+
+		// Act
+		scrubber.scrub(0, Long.MAX_VALUE);
+
+		// Assert
+		assertEquals("Both older generations should be reclaimed", 2, scrubber.getReclaimedCount());
+		assertFalse("Old clip should be deleted", Files.exists(store.clipPath(100, line)));
+		assertFalse("Old processed clip should be deleted", Files.exists(store.processedPath(100, line)));
+		assertNotNull("Current generation should be kept", store.read(100, current));
+		assertNotNull("Other NPCs should be kept", store.read(101, line));
+		assertEquals("Kept clips should be verified", 2, scrubber.getVerifiedCount());
+	}
+
+	/**
+	 * Flips the last data byte, leaving the header or trailer intact.
+	 */
+	private static void corruptLastByte(Path file) throws IOException {
+		byte[] bytes = Files.readAllBytes(file);
+		int trailer = file.toString().endsWith(ClipStore.CLIP_EXTENSION) ? ClipStore.VARIANT_TRAILER_BYTES : 0;
+		bytes[bytes.length - 1 - trailer] ^= 0x5a;
+		Files.write(file, bytes);
+	}
+}
@@ -0,0 +1,100 @@
+package com.gielinorspeaks.cache;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for ClipCache.
+ * Focus: Byte-bounded LRU eviction, trimming and shedding.
+ */
+public class ClipCacheTest {
+	@Test
+	public void testPut_evictsLeastRecentlyUsedWhenOverBudget() {
+		// Arrange
+		ClipCache cache = new ClipCache();
+		cache.setMaxBytes(300);
+		cache.put(1L, new byte[100]);
+		cache.put(2L, new byte[100]);
+		cache.put(3L, new byte[100]);
+		cache.get(1L); // Touch 1 so 2 becomes the eldest
+
+		// Act
+		cache.put(4L, new byte[100]);
+
+		// Assert
+		assertTrue("Recently used clip should stay", cache.contains(1L));
+		assertFalse("Least recently used clip should be evicted", cache.contains(2L));
+		assertEquals("Cache should stay within budget", 300, cache.sizeInBytes());
+	}
+
+	@Test
+	public void testPut_ignoresClipLargerThanBudget() {
+		ClipCache cache = new ClipCache();
+		cache.setMaxBytes(50);
+
+		cache.put(1L, new byte[100]);
+
+		assertEquals("Oversized clip should not be cached", 0, cache.size());
+	}
+
+	@Test
+	public void testPut_replacingClipUpdatesSize() {
+		ClipCache cache = new ClipCache();
+
+		cache.put(1L, new byte[100]);
+		cache.put(1L, new byte[40]);
+
+		assertEquals("Size should reflect the replacement", 40, cache.sizeInBytes());
+	}
+
+	@Test
+	public void testTrimTo_keepsMostRecentClipsWithinBound() {
+		// Arrange
+		ClipCache cache = new ClipCache();
+		for (long i = 0; i < 10; i++) {
+			cache.put(i, new byte[100]);
+		}
+
+		// Act
+		cache.trimTo(250);
+
+		// Assert
+		assertEquals("Should keep two clips", 2, cache.size());
+		assertTrue("Newest clip should be kept", cache.contains(9L));
+		assertTrue("Second newest clip should be kept", cache.contains(8L));
+
+		// Trimming doesn't shrink the budget for future inserts
+		cache.put(10L, new byte[100]);
+		assertEquals("Budget should be unchanged", 3, cache.size());
+	}
+
+	@Test
+	public void testShed_clearsAndRejectsInserts() {
+		// Arrange
+		ClipCache cache = new ClipCache();
+		cache.put(1L, new byte[100]);
+
+		// Act
+		cache.shed();
+		cache.put(2L, new byte[100]);
+
+		// Assert
+		assertEquals("Shed cache should be empty", 0, cache.sizeInBytes());
+		assertFalse("Shed cache should report no room", cache.hasRoomFor(1));
+	}
+
+	@Test
+	public void testRestore_acceptsInsertsAgain() {
+		// Arrange
+		ClipCache cache = new ClipCache();
+		cache.shed();
+
+		// Act
+		cache.restore();
+		cache.put(1L, new byte[100]);
+
+		// Assert
+		assertTrue("Restored cache should accept clips", cache.contains(1L));
+	}
+}
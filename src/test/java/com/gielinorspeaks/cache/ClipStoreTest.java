@@ -0,0 +1,277 @@
+package com.gielinorspeaks.cache;
+
+import com.gielinorspeaks.buffer.BufferPool;
+import com.gielinorspeaks.model.Emotion;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for ClipStore and ClipIndex.
+ * Focus: Round-tripping clips through the on-disk layout and rebuilding the index from it.
+ */
+public class ClipStoreTest {
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private ClipStore store;
+
+	@Before
+	public void setUp() throws IOException {
+		store = new ClipStore(temporaryFolder.newFolder("clips"));
+	}
+
+	@Test
+	public void testWriteAndRead_roundTripsClip() throws IOException {
+		// Arrange
+		long hash = DialogueHash.of(1234, "Hello, adventurer!");
+		byte[] clip = {1, 2, 3, 4};
+
+		// Act
+		store.write(1234, hash, clip);
+
+		// Assert
+		assertArrayEquals("Clip should round-trip", clip, store.read(1234, hash));
+	}
+
+	@Test
+	public void testReadPooled_readsClipIntoPooledBuffer() throws IOException {
+		// Arrange
+		BufferPool pool = new BufferPool();
+		byte[] clip = {1, 2, 3, 4};
+		store.write(1234, 42L, clip);
+
+		// Act
+		ByteBuffer buffer = store.read(1234, 42L, pool);
+
+		// Assert
+		assertNotNull("Stored clip should be read", buffer);
+		assertTrue("Clip should be read into direct memory", buffer.isDirect());
+		byte[] read = new byte[buffer.remaining()];
+		buffer.get(read);
+		assertArrayEquals("Buffer should hold exactly the clip", clip, read);
+
+		pool.release(buffer);
+		assertEquals("No buffers should leak", 0, pool.getOutstandingCount());
+	}
+
+	@Test
+	public void testReadPooled_returnsNullWithoutAcquiringForMissingClip() throws IOException {
+		BufferPool pool = new BufferPool();
+
+		assertNull("Missing clip should read as null", store.read(1234, 42L, pool));
+		assertEquals("No buffer should be acquired", 0, pool.getOutstandingCount());
+	}
+
+	@Test
+	public void testWriteProcessed_roundTripsPcm() throws IOException {
+		// Arrange
+		byte[] pcm = {1, 2, 3, 4, 5, 6};
+
+		// Act
+		store.writeProcessed(1234, 42L, 1, pcm);
+
+		// Assert
+		assertArrayEquals("Processed PCM should round-trip", pcm, store.readProcessed(1234, 42L, 1));
+		assertNull("Original clip should not be created", store.read(1234, 42L));
+	}
+
+	@Test
+	public void testReadProcessed_ignoresOtherProcessingVersion() throws IOException {
+		store.writeProcessed(1234, 42L, 1, new byte[]{1, 2});
+
+		assertNull("Result of older processing should be ignored", store.readProcessed(1234, 42L, 2));
+	}
+
+	@Test
+	public void testRead_returnsNullForMissingClip() throws IOException {
+		assertNull("Missing clip should read as null", store.read(1234, 42L));
+	}
+
+	@Test
+	public void testWrite_leavesNoTemporaryFiles() throws IOException {
+		// Act
+		store.write(1234, 42L, new byte[]{1});
+
+		// Assert
+		try (java.util.stream.Stream<java.nio.file.Path> files = Files.list(store.getDirectory().resolve("1234"))) {
+			assertEquals("Only the clip file should remain", 1, files.count());
+		}
+	}
+
+	@Test
+	public void testRead_quarantinesCorruptClipInNewSession() throws IOException {
+		// Arrange
+		store.write(1234, 42L, new byte[]{1, 2, 3, 4});
+		flipByte(store.clipPath(1234, 42L), 1);
+		ClipStore nextSession = new ClipStore(store.getDirectory().toFile());
+
+		// Act
+		byte[] read = nextSession.read(1234, 42L);
+
+		// Assert
+		assertNull("Corrupt clip should read as missing", read);
+		assertFalse("Corrupt clip should be moved out of the store", Files.exists(store.clipPath(1234, 42L)));
+		assertTrue("Corrupt clip should be kept in quarantine", Files.exists(store.quarantinePath(store.clipPath(1234, 42L))));
+	}
+
+	@Test
+	public void testReadProcessed_deletesCorruptProcessedClip() throws IOException {
+		// Arrange
+		store.writeProcessed(1234, 42L, 1, new byte[]{1, 2, 3, 4});
+		flipByte(store.processedPath(1234, 42L), 13);
+		ClipStore nextSession = new ClipStore(store.getDirectory().toFile());
+
+		// Act
+		byte[] read = nextSession.readProcessed(1234, 42L, 1);
+
+		// Assert
+		assertNull("Corrupt processed clip should read as missing", read);
+		assertFalse("Corrupt processed clip should be deleted", Files.exists(store.processedPath(1234, 42L)));
+	}
+
+	@Test
+	public void testRead_acceptsClipWrittenWithoutTrailer() throws IOException {
+		// Arrange
+		byte[] clip = {1, 2, 3, 4, 5, 6, 7, 8, 9};
+		Files.createDirectories(store.clipPath(1234, 42L).getParent());
+		Files.write(store.clipPath(1234, 42L), clip);
+
+		// Act & Assert
+		assertArrayEquals("Clip from before checksums should read as is", clip, store.read(1234, 42L));
+		assertTrue("Clip from before checksums should verify", store.verify(1234, 42L) >= 0);
+	}
+
+	@Test
+	public void testVerify_reportsCorruptClipOnce() throws IOException {
+		// Arrange
+		store.write(1234, 42L, new byte[]{1, 2, 3, 4});
+		flipByte(store.clipPath(1234, 42L), 0);
+		ClipStore nextSession = new ClipStore(store.getDirectory().toFile());
+
+		// Act
+		long first = nextSession.verify(1234, 42L);
+		long second = nextSession.verify(1234, 42L);
+
+		// Assert
+		assertEquals("Corrupt clip should be reported", ClipStore.CORRUPT, first);
+		assertEquals("Quarantined clip should then be missing", 0, second);
+	}
+
+	@Test
+	public void testReadTrailer_readsVariantAndGeneration() throws IOException {
+		// Arrange
+		long key = DialogueHash.generation(DialogueHash.variant(42L, Emotion.ANGRY), 3);
+		store.write(1234, key, 42L, Emotion.ANGRY, 3, ByteBuffer.wrap(new byte[]{1, 2, 3, 4}));
+
+		// Act
+		ClipStore.ClipTrailer trailer = store.readTrailer(1234, key);
+
+		// Assert
+		assertEquals("Generation should be read from the trailer", 3, trailer.getGeneration());
+		assertEquals("Line should be read from the trailer", 42L, trailer.getLineHash());
+		assertEquals("Emotion should be read from the trailer", Emotion.ANGRY, trailer.getEmotion());
+		assertArrayEquals("Clip should read without its trailer", new byte[]{1, 2, 3, 4}, store.read(1234, key));
+		assertNull("Missing clip should have no trailer", store.readTrailer(1234, 44L));
+	}
+
+	@Test
+	public void testReadTrailer_readsClipsFromBeforeVariantsWereRecorded() throws IOException {
+		// Arrange - One clip with a generation trailer, one from before checksums
+		byte[] data = {1, 2, 3, 4};
+		CRC32C crc = new CRC32C();
+		crc.update(data);
+		ByteBuffer generationClip = ByteBuffer.allocate(data.length + ClipStore.GENERATION_TRAILER_BYTES);
+		generationClip.put(data).putInt(2).putInt((int) crc.getValue()).putInt(ClipStore.GENERATION_TRAILER_MAGIC);
+		Files.createDirectories(store.clipPath(1234, 42L).getParent());
+		Files.write(store.clipPath(1234, 42L), generationClip.array());
+		Files.write(store.clipPath(1234, 43L), new byte[]{5, 6, 7, 8});
+
+		// Act
+		ClipStore.ClipTrailer withGeneration = store.readTrailer(1234, 42L);
+		ClipStore.ClipTrailer withoutTrailer = store.readTrailer(1234, 43L);
+
+		// Assert
+		assertEquals("Generation should be read from the older trailer", 2, withGeneration.getGeneration());
+		assertNull("Older trailer should have no variant", withGeneration.getEmotion());
+		assertArrayEquals("Clip should read without its older trailer", data, store.read(1234, 42L));
+		assertEquals("Clip from before generations should be generation 0", 0, withoutTrailer.getGeneration());
+		assertNull("Clip without a trailer should have no variant", withoutTrailer.getEmotion());
+	}
+
+	@Test
+	public void testDelete_removesClipAndProcessedVersion() throws IOException {
+		// Arrange
+		store.write(1234, 42L, new byte[]{1, 2, 3, 4});
+		store.writeProcessed(1234, 42L, 1, new byte[]{5, 6});
+
+		// Act
+		long freed = store.delete(1234, 42L);
+
+		// Assert
+		assertTrue("Freed bytes should cover both files", freed >= 6);
+		assertNull("Clip should be gone", store.read(1234, 42L));
+		assertNull("Processed clip should be gone", store.readProcessed(1234, 42L, 1));
+	}
+
+	@Test
+	public void testForEachClip_visitsStoredClipsAndSkipsForeignFiles() throws IOException {
+		// Arrange
+		store.write(1, 10L, new byte[]{1});
+		store.write(2, 20L, new byte[]{2});
+		Files.write(store.getDirectory().resolve("1").resolve("notes.wav"), new byte[]{0});
+		Files.createDirectories(store.getDirectory().resolve("not-an-npc"));
+
+		// Act
+		List<Long> visited = new ArrayList<>();
+		store.forEachClip((npcId, hash) -> visited.add(hash));
+
+		// Assert
+		assertEquals("Should visit both clips only", 2, visited.size());
+		assertTrue("Should visit first clip", visited.contains(10L));
+		assertTrue("Should visit second clip", visited.contains(20L));
+	}
+
+	@Test
+	public void testIndexLoad_containsStoredClips() throws IOException {
+		// Arrange
+		long hash = DialogueHash.of(1234, "Hello!");
+		store.write(1234, hash, new byte[]{1});
+		ClipIndex index = new ClipIndex();
+
+		// Act
+		index.load(store);
+
+		// Assert
+		assertTrue("Index should be marked loaded", index.isLoaded());
+		assertTrue("Stored clip should be in index", index.mightContain(hash));
+		assertFalse("Unknown clip should not be in index", index.mightContain(DialogueHash.of(1234, "Goodbye!")));
+	}
+
+	@Test
+	public void testHash_isStableAndNpcScoped() {
+		assertEquals("Hash should be stable", DialogueHash.of(1, "Hi"), DialogueHash.of(1, "Hi"));
+		assertNotEquals("Hash should depend on NPC", DialogueHash.of(1, "Hi"), DialogueHash.of(2, "Hi"));
+		assertEquals("Hex should round-trip", 42L, DialogueHash.fromHex(DialogueHash.toHex(42L)));
+		assertEquals("Negative hash should round-trip", -1L, DialogueHash.fromHex(DialogueHash.toHex(-1L)));
+		assertEquals("Generation 0 should keep the hash", 42L, DialogueHash.generation(42L, 0));
+		assertNotEquals("Later generations should change the key", DialogueHash.generation(42L, 1), DialogueHash.generation(42L, 2));
+	}
+
+	private static void flipByte(Path file, int offset) throws IOException {
+		byte[] bytes = Files.readAllBytes(file);
+		bytes[offset] ^= 0x5a;
+		Files.write(file, bytes);
+	}
+}
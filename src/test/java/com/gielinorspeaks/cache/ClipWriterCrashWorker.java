@@ -0,0 +1,57 @@
+package com.gielinorspeaks.cache;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * A client whose writer dies mid-batch, run in its own JVM by {@link ClipWriterTest}.
+ * ===
+ * Arguments: store directory, {@link ClipWriter.Step} and index at which to halt. Writes one
+ * processed clip on its own, then queues {@link ClipWriterTest#CRASH_BATCH} more while the
+ * writer is held, so they are committed as one batch, and halts the JVM (no shutdown hooks,
+ * no finally blocks) when that batch reaches the given step.
+ */
+final class ClipWriterCrashWorker {
+	static final int CRASH_EXIT_CODE = 3;
+
+	private ClipWriterCrashWorker() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		ClipStore store = new ClipStore(new File(args[0]));
+		ClipWriter.Step crashStep = ClipWriter.Step.valueOf(args[1]);
+		int crashIndex = Integer.parseInt(args[2]);
+
+		CountDownLatch writerHeld = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		ClipWriter writer = new ClipWriter(store);
+		writer.setBatchListener((step, index, batchSize) -> {
+			if (batchSize == 1 && step == ClipWriter.Step.MOVED) {
+				writerHeld.countDown();
+				awaitQuietly(release);
+			}
+			else if (batchSize > 1 && step == crashStep && index == crashIndex) {
+				Runtime.getRuntime().halt(CRASH_EXIT_CODE);
+			}
+		});
+
+		writer.writeProcessed(0, ClipWriterTest.hashOf(0), 1, ClipWriterTest.pcmOf(0));
+		writerHeld.await();
+		for (int i = 1; i <= ClipWriterTest.CRASH_BATCH; i++) {
+			writer.writeProcessed(i, ClipWriterTest.hashOf(i), 1, ClipWriterTest.pcmOf(i));
+		}
+		release.countDown();
+
+		writer.drain(60_000);
+		System.out.println("Writer finished without reaching the crash point");
+	}
+
+	private static void awaitQuietly(CountDownLatch latch) {
+		try {
+			latch.await();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,231 @@
+package com.gielinorspeaks.cache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for ClipWriter.
+ * Focus: queued clips are readable straight away and written in batches, and a writer killed
+ * mid-batch never leaves a partial file under a real name.
+ */
+public class ClipWriterTest {
+	static final int CRASH_BATCH = 20;
+	private static final int CRASH_INDEX = 7;
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private ClipStore store;
+	private ClipWriter writer;
+
+	/**
+	 * Holds the writer after its first single-write batch until released.
+	 */
+	private CountDownLatch writerHeld;
+	private CountDownLatch release;
+
+	@Before
+	public void setUp() throws IOException {
+		store = new ClipStore(temporaryFolder.newFolder("clips"));
+		writer = new ClipWriter(store);
+		writerHeld = new CountDownLatch(1);
+		release = new CountDownLatch(1);
+	}
+
+	@After
+	public void tearDown() {
+		release.countDown();
+	}
+
+	// ===========================
+	// Write-behind
+	// ===========================
+
+	@Test
+	public void testWriteProcessed_readableBeforeWritten() throws Exception {
+		// Arrange
+		holdWriter();
+
+		// Act
+		writer.writeProcessed(1, hashOf(1), 1, pcmOf(1));
+
+		// Assert
+		assertArrayEquals("Queued clip should be readable", pcmOf(1), writer.readProcessed(1, hashOf(1), 1));
+		assertNull("Queued clip should be read for its version only", writer.readProcessed(1, hashOf(1), 2));
+		assertFalse("Queued clip should not be on disk yet", Files.exists(store.processedPath(1, hashOf(1))));
+
+		release.countDown();
+		assertTrue("Queue should drain", writer.drain(5000));
+		assertArrayEquals("Clip should be on disk after draining", pcmOf(1),
+			new ClipStore(store.getDirectory().toFile()).readProcessed(1, hashOf(1), 1));
+	}
+
+	@Test
+	public void testDrain_writesQueuedClipsInBatches() throws Exception {
+		// Arrange
+		AtomicInteger batches = new AtomicInteger();
+		holdWriter((step, index, batchSize) -> {
+			if (step == ClipWriter.Step.MOVED && index == 0) {
+				batches.incrementAndGet();
+			}
+		});
+		for (int i = 1; i <= 40; i++) {
+			writer.writeProcessed(i, hashOf(i), 1, pcmOf(i));
+		}
+
+		// Act
+		release.countDown();
+		boolean drained = writer.drain(5000);
+
+		// Assert
+		assertTrue("Queue should drain", drained);
+		assertEquals("Nothing should be left unfinished", 0, writer.getUnfinishedCount());
+		assertTrue("40 clips should take at most two batches after the first, took " + (batches.get() - 1),
+			batches.get() <= 3);
+		ClipStore nextSession = new ClipStore(store.getDirectory().toFile());
+		for (int i = 1; i <= 40; i++) {
+			assertArrayEquals("Clip " + i + " should be written", pcmOf(i), nextSession.readProcessed(i, hashOf(i), 1));
+		}
+	}
+
+	@Test
+	public void testWriteProcessed_writesSynchronouslyWhenQueueFull() throws Exception {
+		// Arrange
+		holdWriter();
+		for (int i = 1; i <= ClipWriter.QUEUE_CAPACITY; i++) {
+			writer.writeProcessed(i, hashOf(i), 1, pcmOf(i));
+		}
+		int overflow = ClipWriter.QUEUE_CAPACITY + 1;
+
+		// Act
+		writer.writeProcessed(overflow, hashOf(overflow), 1, pcmOf(overflow));
+
+		// Assert
+		assertTrue("Write past the bound should go straight to disk", Files.exists(store.processedPath(overflow, hashOf(overflow))));
+		assertEquals("Queue should stay at its bound", ClipWriter.QUEUE_CAPACITY + 1, writer.getUnfinishedCount());
+	}
+
+	// ===========================
+	// Crash consistency
+	// ===========================
+
+	@Test
+	public void testCrashWhileWritingTemporaryFiles_leavesNoPartialClips() throws Exception {
+		assertCrashConsistent(ClipWriter.Step.WRITTEN, 0, CRASH_INDEX + 1);
+	}
+
+	@Test
+	public void testCrashBeforeMoves_leavesNoPartialClips() throws Exception {
+		assertCrashConsistent(ClipWriter.Step.SYNCED, 0, CRASH_BATCH);
+	}
+
+	@Test
+	public void testCrashMidMoves_keepsClipsAlreadyMoved() throws Exception {
+		assertCrashConsistent(ClipWriter.Step.MOVED, CRASH_INDEX + 1, CRASH_BATCH - CRASH_INDEX - 1);
+	}
+
+	/**
+	 * Kills a writer JVM at {@code step} of clip {@link #CRASH_INDEX} of a batch, then checks
+	 * every clip of the batch is either complete or missing, that exactly {@code expectedWritten}
+	 * are complete, and that the rest are left as {@code expectedTemporary} temporary files.
+	 * ===
+	 * A halted JVM still leaves its writes in the page cache, so this checks the ordering of
+	 * the phases, not that the fsyncs survive a power cut.
+	 */
+	private void assertCrashConsistent(ClipWriter.Step step, int expectedWritten, int expectedTemporary) throws Exception {
+		// Arrange
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+
+		// Act
+		Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+			ClipWriterCrashWorker.class.getName(), store.getDirectory().toString(), step.name(),
+			Integer.toString(CRASH_INDEX))
+			.redirectErrorStream(true)
+			.start();
+		String output = readOutput(process);
+		assertTrue("Worker should finish", process.waitFor(60, TimeUnit.SECONDS));
+
+		// Assert
+		assertEquals("Worker should halt mid-batch: " + output, ClipWriterCrashWorker.CRASH_EXIT_CODE, process.exitValue());
+		ClipStore nextSession = new ClipStore(store.getDirectory().toFile());
+		assertArrayEquals("Clip from the batch before should be complete", pcmOf(0),
+			nextSession.readProcessed(0, hashOf(0), 1));
+
+		int written = 0;
+		for (int i = 1; i <= CRASH_BATCH; i++) {
+			if (Files.exists(store.processedPath(i, hashOf(i)))) {
+				assertArrayEquals("Clip " + i + " should be complete if present", pcmOf(i),
+					nextSession.readProcessed(i, hashOf(i), 1));
+				written++;
+			}
+		}
+		assertEquals("Clips moved before the crash should be kept", expectedWritten, written);
+		assertEquals("Unmoved clips should be left as temporary files for cleanup", expectedTemporary,
+			nextSession.deleteStaleTemporaryFiles(0));
+	}
+
+	private void holdWriter() throws Exception {
+		holdWriter(null);
+	}
+
+	/**
+	 * Writes one clip and holds the writer after it, so everything queued next is written
+	 * together once {@link #release} is counted down.
+	 */
+	private void holdWriter(ClipWriter.BatchListener listener) throws Exception {
+		writer.setBatchListener((step, index, batchSize) -> {
+			if (writerHeld.getCount() > 0 && step == ClipWriter.Step.MOVED) {
+				writerHeld.countDown();
+				try {
+					release.await(10, TimeUnit.SECONDS);
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			if (listener != null) {
+				listener.onStep(step, index, batchSize);
+			}
+		});
+		writer.writeProcessed(0, hashOf(0), 1, pcmOf(0));
+		assertTrue("Writer should start", writerHeld.await(5, TimeUnit.SECONDS));
+	}
+
+	static long hashOf(int i) {
+		return DialogueHash.of(i, "Written line " + i);
+	}
+
+	static byte[] pcmOf(int i) {
+		byte[] pcm = new byte[4096 + i];
+		Arrays.fill(pcm, (byte) i);
+		pcm[0] = (byte) (i >> 8);
+		return pcm;
+	}
+
+	private static String readOutput(Process process) throws IOException {
+		StringBuilder output = new StringBuilder();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				output.append(line).append('\n');
+			}
+		}
+		return output.toString();
+	}
+}
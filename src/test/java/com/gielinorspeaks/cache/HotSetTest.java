@@ -0,0 +1,145 @@
+package com.gielinorspeaks.cache;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for HotSet.
+ * Focus: Ordering by play count, snapshot round-trips and bounded tracking.
+ */
+public class HotSetTest {
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void testGetHottest_ordersByPlayCount() throws IOException {
+		// Arrange
+		HotSet hotSet = new HotSet(new File(temporaryFolder.getRoot(), "hotset.dat"));
+		hotSet.recordPlay(1, 10L);
+		hotSet.recordPlay(2, 20L);
+		hotSet.recordPlay(2, 20L);
+		hotSet.recordPlay(3, 30L);
+		hotSet.recordPlay(3, 30L);
+		hotSet.recordPlay(3, 30L);
+
+		// Act
+		List<HotSet.Entry> hottest = hotSet.getHottest(2);
+
+		// Assert
+		assertEquals("Should limit results", 2, hottest.size());
+		assertEquals("Hottest first", 30L, hottest.get(0).getDialogueHash());
+		assertEquals("Hottest NPC", 3, hottest.get(0).getNpcId());
+		assertEquals("Second hottest", 20L, hottest.get(1).getDialogueHash());
+	}
+
+	@Test
+	public void testSaveAndLoad_roundTripsWithDecay() throws IOException {
+		// Arrange
+		File file = new File(temporaryFolder.getRoot(), "hotset.dat");
+		HotSet previousSession = new HotSet(file);
+		previousSession.load();
+		for (int i = 0; i < 8; i++) {
+			previousSession.recordPlay(1, 10L);
+		}
+		previousSession.recordPlay(2, 20L);
+
+		// Act
+		previousSession.save();
+		HotSet nextSession = new HotSet(file);
+		nextSession.load();
+
+		// Assert
+		List<HotSet.Entry> hottest = nextSession.getHottest(10);
+		assertEquals("Both lines should be restored", 2, hottest.size());
+		assertEquals("Order should be preserved", 10L, hottest.get(0).getDialogueHash());
+		assertEquals("Counts should be halved", 4, hottest.get(0).getPlays());
+		assertEquals("Counts never drop below one", 1, hottest.get(1).getPlays());
+	}
+
+	@Test
+	public void testSave_skippedWhenSnapshotNotLoaded() throws IOException {
+		// Arrange
+		File file = new File(temporaryFolder.getRoot(), "hotset.dat");
+		HotSet hotSet = new HotSet(file);
+		hotSet.recordPlay(1, 10L);
+
+		// Act
+		hotSet.save();
+
+		// Assert
+		assertFalse("Should not overwrite an unread snapshot", file.exists());
+	}
+
+	@Test
+	public void testSave_leavesAnotherClientsTempFileAlone() throws IOException {
+		// Arrange - Another client is halfway through its own save
+		File file = new File(temporaryFolder.getRoot(), "hotset.dat");
+		File otherTemp = new File(temporaryFolder.getRoot(), "hotset.dat.tmp");
+		Files.write(otherTemp.toPath(), new byte[]{1, 2, 3});
+		HotSet hotSet = new HotSet(file);
+		hotSet.load();
+		hotSet.recordPlay(1, 10L);
+
+		// Act
+		hotSet.save();
+
+		// Assert
+		assertArrayEquals("Other client's temp file should be untouched", new byte[]{1, 2, 3},
+			Files.readAllBytes(otherTemp.toPath()));
+		assertEquals("Only the snapshot and the other temp file should remain", 2,
+			temporaryFolder.getRoot().list().length);
+		HotSet nextSession = new HotSet(file);
+		nextSession.load();
+		assertEquals("Snapshot should be written", 1, nextSession.getHottest(10).size());
+	}
+
+	@Test
+	public void testLoad_ignoresCorruptSnapshot() throws IOException {
+		// Arrange
+		File file = temporaryFolder.newFile("hotset.dat");
+		Files.write(file.toPath(), new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+		HotSet hotSet = new HotSet(file);
+
+		// Act
+		hotSet.load();
+
+		// Assert
+		assertTrue("Corrupt snapshot should be ignored", hotSet.getHottest(10).isEmpty());
+	}
+
+	@Test
+	public void testLoad_ignoresTruncatedSnapshot() throws IOException {
+		// Arrange
+		File file = temporaryFolder.newFile("hotset.dat");
+		HotSet hotSet = new HotSet(file);
+
+		// Act
+		hotSet.load();
+
+		// Assert
+		assertTrue("Empty snapshot should be ignored", hotSet.getHottest(10).isEmpty());
+	}
+
+	@Test
+	public void testRecordPlay_boundsTrackedLines() {
+		// Arrange
+		HotSet hotSet = new HotSet(new File(temporaryFolder.getRoot(), "hotset.dat"));
+
+		// Act
+		for (long i = 0; i < HotSet.MAX_TRACKED * 3; i++) {
+			hotSet.recordPlay(1, i);
+		}
+
+		// Assert
+		assertTrue("Tracked lines should stay bounded",
+			hotSet.getHottest(Integer.MAX_VALUE).size() <= HotSet.MAX_TRACKED);
+	}
+}
@@ -0,0 +1,178 @@
+package com.gielinorspeaks.cache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for MemoryGovernor.
+ * Focus: Tiers are shed lowest priority first and restored in reverse, with hysteresis
+ * between the shed and restore thresholds; heap pressure comes from tenured pools only.
+ */
+public class MemoryGovernorTest {
+	private static final double HIGH = MemoryGovernor.SHED_THRESHOLD + 0.05;
+	private static final double MIDDLE = (MemoryGovernor.SHED_THRESHOLD + MemoryGovernor.RESTORE_THRESHOLD) / 2;
+	private static final double LOW = MemoryGovernor.RESTORE_THRESHOLD - 0.05;
+
+	private ScheduledExecutorService executor;
+	private MemoryGovernor governor;
+	private ClipCache important;
+	private ClipCache expendable;
+
+	@Before
+	public void setUp() {
+		executor = Executors.newSingleThreadScheduledExecutor();
+		governor = new MemoryGovernor(executor);
+		important = new ClipCache();
+		expendable = new ClipCache();
+		important.put(1L, new byte[100]);
+		expendable.put(1L, new byte[100]);
+
+		// Registered out of order on purpose
+		governor.register("Important", 20, important);
+		governor.register("Expendable", 10, expendable);
+	}
+
+	@After
+	public void tearDown() {
+		governor.stop();
+		executor.shutdownNow();
+	}
+
+	// ===========================
+	// Shedding
+	// ===========================
+
+	@Test
+	public void testEvaluate_shedsLowestPriorityTierFirst() {
+		// Act
+		governor.evaluate(HIGH);
+
+		// Assert
+		assertTrue("Lowest priority tier should be shed first", expendable.isShed());
+		assertEquals("Shed tier should release its memory", 0, expendable.sizeInBytes());
+		assertFalse("Higher priority tier should be kept", important.isShed());
+		assertEquals("Shed tier should be reported", Collections.singletonList("Expendable"), governor.getShedTierNames());
+	}
+
+	@Test
+	public void testEvaluate_shedsOneTierPerCheck() {
+		// Act
+		governor.evaluate(HIGH);
+		governor.evaluate(HIGH);
+		governor.evaluate(HIGH);
+
+		// Assert
+		assertEquals("Both tiers should be shed", Arrays.asList("Expendable", "Important"), governor.getShedTierNames());
+		assertEquals("Each shed should be counted once", 2, governor.getShedEvents());
+	}
+
+	@Test
+	public void testEvaluate_holdsBetweenThresholds() {
+		// Arrange
+		governor.evaluate(HIGH);
+
+		// Act
+		governor.evaluate(MIDDLE);
+
+		// Assert
+		assertEquals("Nothing should change between thresholds", 1, governor.getShedTierCount());
+		assertTrue("Tier should stay shed", expendable.isShed());
+	}
+
+	// ===========================
+	// Restoring
+	// ===========================
+
+	@Test
+	public void testEvaluate_restoresInReverseOrder() {
+		// Arrange
+		governor.evaluate(HIGH);
+		governor.evaluate(HIGH);
+
+		// Act
+		governor.evaluate(LOW);
+
+		// Assert
+		assertFalse("Last shed tier should be restored first", important.isShed());
+		assertTrue("First shed tier should still be shed", expendable.isShed());
+	}
+
+	@Test
+	public void testStop_restoresAllTiers() {
+		// Arrange
+		governor.start();
+		governor.evaluate(HIGH);
+		governor.evaluate(HIGH);
+
+		// Act
+		governor.stop();
+
+		// Assert
+		assertEquals("No tier should be shed after stop", 0, governor.getShedTierCount());
+		assertFalse(expendable.isShed());
+		assertFalse(important.isShed());
+	}
+
+	@Test
+	public void testRegister_ignoresDuplicate() {
+		// Act
+		governor.register("Expendable again", 5, expendable);
+		governor.evaluate(HIGH);
+		governor.evaluate(HIGH);
+		governor.evaluate(HIGH);
+
+		// Assert
+		assertEquals("Duplicate registration should not add a tier", 2, governor.getShedEvents());
+	}
+
+	// ===========================
+	// Pressure
+	// ===========================
+
+	@Test
+	public void testSampleHeapPressure_ignoresFullSurvivorSpace() {
+		// Arrange - Serial collector pools right after a young collection
+		MemoryPoolMXBean eden = pool("Eden Space", MemoryType.HEAP, 0, 1000);
+		MemoryPoolMXBean survivor = pool("Survivor Space", MemoryType.HEAP, 125, 125);
+		MemoryPoolMXBean tenured = pool("Tenured Gen", MemoryType.HEAP, 300, 1000);
+		MemoryPoolMXBean metaspace = pool("Metaspace", MemoryType.NON_HEAP, 990, 1000);
+
+		// Act
+		double pressure = MemoryGovernor.sampleHeapPressure(Arrays.asList(eden, survivor, tenured, metaspace));
+
+		// Assert
+		assertEquals("Only the tenured pool should count", 0.3, pressure, 0.0001);
+	}
+
+	@Test
+	public void testIsTenured_onlyOldGenerationAndSinglePools() {
+		// Assert
+		assertTrue("Parallel old gen", MemoryGovernor.isTenured(pool("PS Old Gen", MemoryType.HEAP, 0, 1)));
+		assertTrue("G1 old gen", MemoryGovernor.isTenured(pool("G1 Old Gen", MemoryType.HEAP, 0, 1)));
+		assertTrue("ZGC single heap", MemoryGovernor.isTenured(pool("ZHeap", MemoryType.HEAP, 0, 1)));
+		assertFalse("Parallel survivor", MemoryGovernor.isTenured(pool("PS Survivor Space", MemoryType.HEAP, 0, 1)));
+		assertFalse("G1 eden", MemoryGovernor.isTenured(pool("G1 Eden Space", MemoryType.HEAP, 0, 1)));
+		assertFalse("Generational ZGC young", MemoryGovernor.isTenured(pool("ZGC Young Generation", MemoryType.HEAP, 0, 1)));
+		assertFalse("Non-heap", MemoryGovernor.isTenured(pool("CodeHeap 'non-nmethods'", MemoryType.NON_HEAP, 0, 1)));
+	}
+
+	private static MemoryPoolMXBean pool(String name, MemoryType type, long usedAfterCollection, long max) {
+		MemoryPoolMXBean pool = mock(MemoryPoolMXBean.class);
+		when(pool.getName()).thenReturn(name);
+		when(pool.getType()).thenReturn(type);
+		when(pool.getCollectionUsage()).thenReturn(new MemoryUsage(0, usedAfterCollection, max, max));
+		return pool;
+	}
+}
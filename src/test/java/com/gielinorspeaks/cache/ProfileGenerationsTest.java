@@ -0,0 +1,62 @@
+package com.gielinorspeaks.cache;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for ProfileGenerations.
+ * Focus: Generations only move forward, and survive restarts and other clients' saves.
+ */
+public class ProfileGenerationsTest {
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private File file;
+
+	@Before
+	public void setUp() {
+		file = new File(temporaryFolder.getRoot(), ProfileGenerations.FILE_NAME);
+	}
+
+	@Test
+	public void testUpdate_ignoresOlderGenerations() throws IOException {
+		// Arrange
+		ProfileGenerations generations = new ProfileGenerations(file);
+
+		// Act
+		boolean bumped = generations.update(1234, 3);
+		boolean rolledBack = generations.update(1234, 2);
+
+		// Assert
+		assertTrue("Newer generation should be recorded", bumped);
+		assertFalse("Older generation should be ignored", rolledBack);
+		assertEquals("Generation should stay at the newest", 3, generations.get(1234));
+		assertEquals("Other NPCs should be at generation 0", 0, generations.get(5678));
+	}
+
+	@Test
+	public void testLoad_keepsNewestOfEveryClient() throws IOException {
+		// Arrange - Two clients sharing the store, each seeing a different bump
+		ProfileGenerations first = new ProfileGenerations(file);
+		ProfileGenerations second = new ProfileGenerations(file);
+		first.load();
+		second.load();
+		first.update(1234, 2);
+		second.update(5678, 4);
+
+		// Act
+		ProfileGenerations nextSession = new ProfileGenerations(file);
+		nextSession.load();
+
+		// Assert
+		assertEquals("First client's bump should survive the second's save", 2, nextSession.get(1234));
+		assertEquals("Second client's bump should be saved", 4, nextSession.get(5678));
+	}
+}
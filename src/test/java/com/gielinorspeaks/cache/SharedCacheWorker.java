@@ -0,0 +1,68 @@
+package com.gielinorspeaks.cache;
+
+import com.gielinorspeaks.buffer.BufferPool;
+import com.gielinorspeaks.model.Emotion;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * One client of a shared clip store, run in its own JVM by {@link SharedClipStoreTest}.
+ * ===
+ * Arguments: store directory, worker number, clip count. Requests every clip in a shuffled
+ * order, "downloading" the ones no client has stored yet, and prints the number of downloads.
+ */
+final class SharedCacheWorker {
+	private SharedCacheWorker() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		File directory = new File(args[0]);
+		int worker = Integer.parseInt(args[1]);
+		int clips = Integer.parseInt(args[2]);
+
+		ClipStore store = new ClipStore(directory);
+		ClipIndex index = new ClipIndex();
+		BufferPool pool = new BufferPool();
+		index.load(store);
+
+		List<Integer> order = new ArrayList<>();
+		for (int i = 0; i < clips; i++) {
+			order.add(i);
+		}
+		Collections.shuffle(order, new Random(worker));
+
+		int[] downloads = new int[1];
+		for (int i : order) {
+			long hash = SharedClipStoreTest.hashOf(i);
+			if (index.mightContain(hash)) {
+				ByteBuffer clip = store.read(i, hash, pool);
+				if (clip != null) {
+					pool.release(clip);
+					continue;
+				}
+			}
+
+			ByteBuffer clip = store.readOrDownload(i, hash, hash, Emotion.NEUTRAL, 0, pool, () -> {
+				downloads[0]++;
+				// Widen the window in which other workers want the same clip
+				LockSupport.parkNanos(2_000_000);
+				ByteBuffer buffer = pool.acquire(Long.BYTES);
+				buffer.putLong(hash).flip();
+				return buffer;
+			});
+			if (clip == null || clip.getLong(0) != hash) {
+				throw new IllegalStateException("Wrong clip for " + i);
+			}
+			pool.release(clip);
+			index.add(hash);
+		}
+
+		System.out.println(downloads[0]);
+	}
+}
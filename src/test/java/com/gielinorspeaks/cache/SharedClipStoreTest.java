@@ -0,0 +1,250 @@
+package com.gielinorspeaks.cache;
+
+import com.gielinorspeaks.buffer.BufferPool;
+import com.gielinorspeaks.model.Emotion;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for a clip store and index shared by several clients.
+ * Focus: clips added by one client are visible to the others without reloading, and each
+ * clip is downloaded once however many clients want it at the same time.
+ */
+public class SharedClipStoreTest {
+	private static final int WORKERS = 4;
+	private static final int CLIPS = 150;
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private ClipStore store;
+
+	@Before
+	public void setUp() {
+		store = new ClipStore(temporaryFolder.getRoot());
+	}
+
+	// ===========================
+	// Shared index
+	// ===========================
+
+	@Test
+	public void testAdd_visibleToOtherIndexWithoutReload() throws IOException {
+		// Arrange
+		ClipIndex first = new ClipIndex();
+		ClipIndex second = new ClipIndex();
+		first.load(store);
+		second.load(store);
+		long hash = hashOf(1);
+
+		// Act
+		first.add(hash);
+
+		// Assert
+		assertTrue("Index should be shared", second.isShared());
+		assertTrue("Clip added by one client should be visible to the other", second.mightContain(hash));
+	}
+
+	@Test
+	public void testLoad_mapsExistingIndexWithoutRescanning() throws IOException {
+		// Arrange
+		ClipIndex first = new ClipIndex();
+		first.load(store);
+		first.add(hashOf(1));
+		// Written without going through the index, so only a rescan would find it
+		store.write(2, hashOf(2), new byte[]{1});
+		first.unload();
+
+		// Act
+		ClipIndex second = new ClipIndex();
+		second.load(store);
+
+		// Assert
+		assertTrue("Added clip should be kept in the file", second.mightContain(hashOf(1)));
+		assertFalse("Existing index should be mapped, not rebuilt", second.mightContain(hashOf(2)));
+	}
+
+	@Test
+	public void testLoad_rebuildsDamagedIndex() throws IOException {
+		// Arrange
+		ClipIndex first = new ClipIndex();
+		first.load(store);
+		int damaged = first.getVersion();
+		first.unload();
+		store.write(1, hashOf(1), new byte[]{1});
+		Files.write(indexFile(damaged), new byte[64]);
+		ClipIndex index = new ClipIndex();
+
+		// Act
+		index.load(store);
+
+		// Assert
+		assertTrue("Index should be shared", index.isShared());
+		assertTrue("Rebuilt index should contain stored clip", index.mightContain(hashOf(1)));
+		assertTrue("Rebuilt index should get a new version", index.getVersion() > damaged);
+	}
+
+	@Test
+	public void testLoad_rebuildsUnderNewNameAndOtherClientFollows() throws IOException {
+		// Arrange - The first client maps an index that is then filled past its capacity
+		ClipIndex first = new ClipIndex();
+		first.load(store);
+		int oldVersion = first.getVersion();
+		overfill(oldVersion);
+
+		// Act
+		ClipIndex second = new ClipIndex();
+		second.load(store);
+		first.add(hashOf(1));
+		second.add(hashOf(2));
+
+		// Assert
+		assertTrue("Rebuild should get a new version", second.getVersion() > oldVersion);
+		assertFalse("Old version should be deleted once unmapped (immediately on POSIX)", Files.exists(indexFile(oldVersion)));
+		assertEquals("Client on the old version should remap before adding", second.getVersion(), first.getVersion());
+		assertTrue("Clip added by the remapped client should be visible to the other", second.mightContain(hashOf(1)));
+		assertTrue("Clip added after the rebuild should be visible to the remapped client", first.mightContain(hashOf(2)));
+	}
+
+	@Test
+	public void testMightContain_remapsIndexRebuiltByAnotherClient() throws IOException {
+		// Arrange
+		ClipIndex first = new ClipIndex();
+		first.load(store);
+		overfill(first.getVersion());
+		ClipIndex second = new ClipIndex();
+		second.load(store);
+
+		// Act
+		second.add(hashOf(1));
+
+		// Assert
+		assertTrue("Reader should remap the rebuilt index on lookup", first.mightContain(hashOf(1)));
+		assertEquals("Reader should be on the current version", second.getVersion(), first.getVersion());
+	}
+
+	@Test
+	public void testMightContain_retriesRemapThatFailed() throws IOException {
+		// Arrange - The rebuilt index can't be opened when the reader first notices it
+		ClipIndex first = new ClipIndex();
+		first.load(store);
+		int oldVersion = first.getVersion();
+		overfill(oldVersion);
+		ClipIndex second = new ClipIndex();
+		second.load(store);
+		second.add(hashOf(1));
+		Path moved = temporaryFolder.getRoot().toPath().resolve("moved.bloom");
+		Files.move(indexFile(second.getVersion()), moved);
+		first.mightContain(hashOf(1));
+		int versionWhileMissing = first.getVersion();
+
+		// Act
+		Files.move(moved, indexFile(second.getVersion()));
+
+		// Assert
+		assertEquals("Reader should stay on its version while the remap fails", oldVersion, versionWhileMissing);
+		assertTrue("Reader should remap once the rebuilt index can be opened", first.mightContain(hashOf(1)));
+		assertEquals("Reader should be on the current version", second.getVersion(), first.getVersion());
+	}
+
+	// ===========================
+	// Downloads
+	// ===========================
+
+	@Test
+	public void testReadOrDownload_readsClipStoredMeanwhile() throws IOException {
+		// Arrange
+		BufferPool pool = new BufferPool();
+		store.write(1, hashOf(1), new byte[]{42});
+
+		// Act
+		ByteBuffer clip = store.readOrDownload(1, hashOf(1), hashOf(1), Emotion.NEUTRAL, 0, pool, () -> {
+			fail("Stored clip should not be downloaded");
+			return null;
+		});
+
+		// Assert
+		assertEquals("Stored clip should be returned", 42, clip.get(0));
+		pool.release(clip);
+	}
+
+	@Test
+	public void testReadOrDownload_downloadsOnceAcrossProcesses() throws Exception {
+		// Arrange
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		List<Process> processes = new ArrayList<>();
+
+		// Act
+		for (int worker = 0; worker < WORKERS; worker++) {
+			processes.add(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+				SharedCacheWorker.class.getName(), temporaryFolder.getRoot().getPath(), Integer.toString(worker),
+				Integer.toString(CLIPS))
+				.redirectErrorStream(true)
+				.start());
+		}
+
+		int downloads = 0;
+		for (Process process : processes) {
+			String output = readOutput(process);
+			assertTrue("Worker should finish", process.waitFor(60, TimeUnit.SECONDS));
+			assertEquals("Worker should succeed: " + output, 0, process.exitValue());
+			String[] lines = output.trim().split("\n");
+			downloads += Integer.parseInt(lines[lines.length - 1].trim());
+		}
+
+		// Assert
+		assertEquals("Each clip should be downloaded exactly once", CLIPS, downloads);
+		ClipIndex index = new ClipIndex();
+		index.load(store);
+		for (int i = 0; i < CLIPS; i++) {
+			assertNotNull("Clip should be stored", store.read(i, hashOf(i)));
+			assertTrue("Clip should be in the shared index", index.mightContain(hashOf(i)));
+		}
+	}
+
+	/**
+	 * Marks an index file as filled past its capacity, so the next load rebuilds it.
+	 */
+	private void overfill(int version) throws IOException {
+		try (FileChannel channel = FileChannel.open(indexFile(version), StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.allocate(Long.BYTES).putLong(0, Long.MAX_VALUE), ClipIndex.COUNT_OFFSET);
+		}
+	}
+
+	private Path indexFile(int version) {
+		return temporaryFolder.getRoot().toPath().resolve(ClipIndex.indexFileName(version));
+	}
+
+	static long hashOf(int i) {
+		return DialogueHash.of(i, "Shared line " + i);
+	}
+
+	private static String readOutput(Process process) throws IOException {
+		StringBuilder output = new StringBuilder();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				output.append(line).append('\n');
+			}
+		}
+		return output.toString();
+	}
+}
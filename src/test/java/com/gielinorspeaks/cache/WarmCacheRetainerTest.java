@@ -0,0 +1,153 @@
+package com.gielinorspeaks.cache;
+
+import com.gielinorspeaks.GielinorSpeaksConfig;
+import net.runelite.client.eventbus.EventBus;
+import net.runelite.client.events.ConfigChanged;
+import net.runelite.client.events.PluginChanged;
+import net.runelite.client.plugins.Plugin;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for WarmCacheRetainer.
+ * Focus: Cache state survives a plugin toggle within the retained budget, and is fully
+ * released when the plugin is removed or stays off too long.
+ */
+public class WarmCacheRetainerTest {
+	private ClipCache clipCache;
+	private ClipIndex mockClipIndex;
+	private EventBus mockEventBus;
+	private ScheduledExecutorService mockExecutor;
+	private ScheduledFuture<?> mockExpiry;
+	private Plugin mockPlugin;
+	private WarmCacheRetainer retainer;
+
+	@Before
+	public void setUp() {
+		clipCache = new ClipCache();
+		mockClipIndex = mock(ClipIndex.class);
+		mockEventBus = mock(EventBus.class);
+		mockExecutor = mock(ScheduledExecutorService.class);
+		mockExpiry = mock(ScheduledFuture.class);
+		mockPlugin = mock(Plugin.class);
+		doReturn(mockExpiry).when(mockExecutor).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+
+		retainer = new WarmCacheRetainer(clipCache, mockClipIndex, mockEventBus, mockExecutor);
+
+		for (long i = 0; i < 10; i++) {
+			clipCache.put(i, new byte[100]);
+		}
+	}
+
+	@Test
+	public void testRetain_trimsCacheToRetainedBudget() {
+		// Act
+		retainer.retain(mockPlugin, 500);
+
+		// Assert
+		assertEquals("Cache should be trimmed to budget", 500, clipCache.sizeInBytes());
+		assertTrue("Should be retaining", retainer.isRetaining());
+		verify(mockEventBus).register(retainer);
+		verify(mockClipIndex, never()).unload();
+	}
+
+	@Test
+	public void testReattach_keepsRetainedState() {
+		// Arrange
+		retainer.retain(mockPlugin, 500);
+
+		// Act
+		boolean warm = retainer.reattach();
+
+		// Assert
+		assertTrue("Should report warm state", warm);
+		assertEquals("Retained clips should survive", 5, clipCache.size());
+		verify(mockExpiry).cancel(false);
+		verify(mockEventBus).unregister(retainer);
+	}
+
+	@Test
+	public void testReattach_coldWhenNothingRetained() {
+		assertFalse("Should report cold start", retainer.reattach());
+	}
+
+	@Test
+	public void testPluginRemoved_releasesEverything() {
+		// Arrange
+		retainer.retain(mockPlugin, 500);
+
+		// Act
+		retainer.onPluginChanged(new PluginChanged(mockPlugin, false));
+
+		// Assert
+		assertEquals("Cache should be empty", 0, clipCache.size());
+		verify(mockClipIndex).unload();
+		assertFalse("Should no longer be retaining", retainer.isRetaining());
+	}
+
+	@Test
+	public void testOtherPluginRemoved_keepsState() {
+		// Arrange
+		retainer.retain(mockPlugin, 500);
+
+		// Act
+		retainer.onPluginChanged(new PluginChanged(mock(Plugin.class), false));
+
+		// Assert
+		assertEquals("Cache should be untouched", 5, clipCache.size());
+	}
+
+	@Test
+	public void testExpiry_releasesAfterRetentionPeriod() {
+		// Arrange
+		retainer.retain(mockPlugin, 500);
+		ArgumentCaptor<Runnable> expiryTask = ArgumentCaptor.forClass(Runnable.class);
+		verify(mockExecutor).schedule(expiryTask.capture(), eq(WarmCacheRetainer.RETENTION_MINUTES), eq(TimeUnit.MINUTES));
+
+		// Act
+		expiryTask.getValue().run();
+
+		// Assert
+		assertEquals("Cache should be empty", 0, clipCache.size());
+		verify(mockClipIndex).unload();
+	}
+
+	@Test
+	public void testExpiry_ignoredAfterReattach() {
+		// Arrange
+		retainer.retain(mockPlugin, 500);
+		ArgumentCaptor<Runnable> expiryTask = ArgumentCaptor.forClass(Runnable.class);
+		verify(mockExecutor).schedule(expiryTask.capture(), anyLong(), any(TimeUnit.class));
+		retainer.reattach();
+
+		// Act - Timer fires anyway (raced with reattach)
+		expiryTask.getValue().run();
+
+		// Assert
+		assertEquals("Reattached cache must not be released", 5, clipCache.size());
+	}
+
+	@Test
+	public void testWarmRestartDisabled_releasesWhileOff() {
+		// Arrange
+		retainer.retain(mockPlugin, 500);
+		ConfigChanged event = new ConfigChanged();
+		event.setGroup(GielinorSpeaksConfig.GROUP);
+		event.setKey("warmRestart");
+		event.setNewValue("false");
+
+		// Act
+		retainer.onConfigChanged(event);
+
+		// Assert
+		assertEquals("Cache should be empty", 0, clipCache.size());
+	}
+}
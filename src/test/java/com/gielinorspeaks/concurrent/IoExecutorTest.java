@@ -0,0 +1,130 @@
+package com.gielinorspeaks.concurrent;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for IoExecutor.
+ * Focus: The platform pool is bounded and made of daemon threads, whichever threads the JVM
+ * picks respect the parallelism they report, and tasks after shutdown are dropped.
+ */
+public class IoExecutorTest {
+	private static final long TIMEOUT_SECONDS = 5;
+
+	private IoExecutor executor;
+
+	@After
+	public void tearDown() {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+	}
+
+	// ===========================
+	// Platform Pool
+	// ===========================
+
+	@Test
+	public void testPlatform_runsTasksOnNamedDaemonThreads() throws Exception {
+		// Arrange
+		executor = IoExecutor.platform("io-test", 2);
+		AtomicReference<Thread> ranOn = new AtomicReference<>();
+		CountDownLatch done = new CountDownLatch(1);
+
+		// Act
+		executor.execute(() -> {
+			ranOn.set(Thread.currentThread());
+			done.countDown();
+		});
+
+		// Assert
+		assertTrue("Task should run", done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+		assertFalse("Platform pool should not be virtual", executor.isVirtual());
+		assertEquals("Parallelism should be the pool size", 2, executor.getParallelism());
+		assertTrue("Thread should be named after the executor", ranOn.get().getName().startsWith("io-test-"));
+		assertTrue("Thread should not keep the JVM alive", ranOn.get().isDaemon());
+		assertEquals("Background I/O should run at minimum priority", Thread.MIN_PRIORITY, ranOn.get().getPriority());
+	}
+
+	@Test
+	public void testPlatform_queuesTasksBeyondPoolSize() throws Exception {
+		// Arrange
+		executor = IoExecutor.platform("io-test", 2);
+
+		// Act
+		int peak = runBlockingTasks(6);
+
+		// Assert
+		assertEquals("Only the pool's threads should run at once", 2, peak);
+	}
+
+	// ===========================
+	// JVM's Choice
+	// ===========================
+
+	@Test
+	public void testCreate_runsAtMostReportedParallelism() throws Exception {
+		// Arrange - Platform threads on Java 11, virtual ones from 21
+		executor = IoExecutor.create("io-test", 2, 3);
+
+		// Act
+		int peak = runBlockingTasks(8);
+
+		// Assert
+		assertEquals("Parallelism should match the threads picked", executor.isVirtual() ? 3 : 2, executor.getParallelism());
+		assertEquals("Tasks running at once should reach the parallelism and stop there", executor.getParallelism(), peak);
+	}
+
+	// ===========================
+	// Shutdown
+	// ===========================
+
+	@Test
+	public void testExecute_dropsTasksAfterShutdown() throws Exception {
+		// Arrange
+		executor = IoExecutor.platform("io-test", 1);
+		AtomicInteger ran = new AtomicInteger();
+		executor.shutdownNow();
+
+		// Act
+		executor.execute(ran::incrementAndGet);
+
+		// Assert
+		Thread.sleep(50);
+		assertTrue("Executor should report shutdown", executor.isShutdown());
+		assertEquals("Task should be dropped", 0, ran.get());
+	}
+
+	/**
+	 * Runs tasks that each hold on briefly, and returns the most running at once.
+	 */
+	private int runBlockingTasks(int count) throws InterruptedException {
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger peak = new AtomicInteger();
+		CountDownLatch done = new CountDownLatch(count);
+		for (int i = 0; i < count; i++) {
+			executor.execute(() -> {
+				peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+				try {
+					Thread.sleep(50);
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				finally {
+					running.decrementAndGet();
+					done.countDown();
+				}
+			});
+		}
+		assertTrue("All tasks should finish", done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+		return peak.get();
+	}
+}
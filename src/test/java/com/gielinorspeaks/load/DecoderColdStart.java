@@ -0,0 +1,132 @@
+package com.gielinorspeaks.load;
+
+import com.gielinorspeaks.audio.ClipDecoder;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Measures what the first clip costs to decode in a fresh JVM, with and without the
+ * {@link ClipDecoder} having been pre-warmed.
+ * ===
+ * Each run is a separate JVM, since the cost is class loading and first-time initialization
+ * that only happens once per process. A run decodes a 1.5s, 44.1kHz clip (so it is resampled)
+ * and reports:
+ * - first decode: time for that clip, as paid by the voice thread
+ * - next decode: time for the same clip again, the cost without any first-time work
+ * - warm-up: time the background warm-up took beforehand, if any
+ * - classes: classes loaded by the first decode or warm-up
+ * ===
+ * Run with {@code java -cp <test classpath> com.gielinorspeaks.load.DecoderColdStart [runs]}.
+ */
+public final class DecoderColdStart {
+	private static final int CLIP_SAMPLE_RATE = 44100;
+	private static final int CLIP_MILLIS = 1500;
+	private static final long WARM_UP_TIMEOUT_MILLIS = 30_000;
+
+	private DecoderColdStart() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length == 2 && args[0].equals("--run")) {
+			run(args[1].equals("prewarmed"));
+			return;
+		}
+
+		int runs = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+		long[][] cold = new long[runs][];
+		long[][] prewarmed = new long[runs][];
+		for (int i = 0; i < runs; i++) {
+			// Interleaved, so drift in the machine's load affects both alike
+			cold[i] = fork("cold");
+			prewarmed[i] = fork("prewarmed");
+		}
+
+		report("Without pre-warming", cold);
+		report("With pre-warming", prewarmed);
+	}
+
+	/**
+	 * Runs in the forked JVM; prints first decode, next decode and warm-up microseconds and
+	 * classes loaded.
+	 */
+	private static void run(boolean prewarm) throws Exception {
+		ClipDecoder decoder = new ClipDecoder();
+		ByteBuffer clip = ByteBuffer.wrap(synthesize());
+		int classesBefore = ManagementFactory.getClassLoadingMXBean().getLoadedClassCount();
+
+		long warmUpNanos = 0;
+		if (prewarm) {
+			long start = System.nanoTime();
+			decoder.prewarm();
+			if (!decoder.awaitWarm(WARM_UP_TIMEOUT_MILLIS)) {
+				throw new IllegalStateException("Decoder did not warm up");
+			}
+			warmUpNanos = System.nanoTime() - start;
+		}
+
+		long start = System.nanoTime();
+		decoder.process(clip, null);
+		long decodeNanos = System.nanoTime() - start;
+		int classes = ManagementFactory.getClassLoadingMXBean().getLoadedClassCount() - classesBefore;
+
+		start = System.nanoTime();
+		decoder.process(clip, null);
+		long nextDecodeNanos = System.nanoTime() - start;
+
+		System.out.println(decodeNanos / 1000 + " " + nextDecodeNanos / 1000 + " " + warmUpNanos / 1000 + " " + classes);
+	}
+
+	private static long[] fork(String mode) throws IOException, InterruptedException {
+		String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+		Process process = new ProcessBuilder(java, "-Djava.awt.headless=true", "-cp", System.getProperty("java.class.path"),
+			DecoderColdStart.class.getName(), "--run", mode)
+			.redirectError(ProcessBuilder.Redirect.INHERIT)
+			.start();
+
+		String result;
+		try (BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+			result = out.readLine();
+		}
+		if (process.waitFor() != 0 || result == null) {
+			throw new IllegalStateException("Run failed in " + mode + " mode");
+		}
+		return Arrays.stream(result.trim().split(" ")).mapToLong(Long::parseLong).toArray();
+	}
+
+	private static void report(String label, long[][] runs) {
+		System.out.printf(Locale.ROOT, "%-20s first decode %7.1fms  next decode %7.1fms  warm-up %7.1fms  classes %5d"
+			+ "  (median of %d)%n", label, median(runs, 0) / 1000.0, median(runs, 1) / 1000.0, median(runs, 2) / 1000.0,
+			median(runs, 3), runs.length);
+	}
+
+	private static long median(long[][] runs, int column) {
+		long[] values = Arrays.stream(runs).mapToLong(run -> run[column]).sorted().toArray();
+		return values[values.length / 2];
+	}
+
+	/**
+	 * A tone in a 16-bit mono WAV at a rate that needs resampling.
+	 */
+	private static byte[] synthesize() {
+		int frames = CLIP_SAMPLE_RATE * CLIP_MILLIS / 1000;
+		ByteBuffer wav = ByteBuffer.allocate(44 + frames * 2).order(ByteOrder.LITTLE_ENDIAN);
+		wav.put("RIFF".getBytes(StandardCharsets.US_ASCII)).putInt(36 + frames * 2)
+			.put("WAVEfmt ".getBytes(StandardCharsets.US_ASCII)).putInt(16)
+			.putShort((short) 1).putShort((short) 1).putInt(CLIP_SAMPLE_RATE).putInt(CLIP_SAMPLE_RATE * 2)
+			.putShort((short) 2).putShort((short) 16)
+			.put("data".getBytes(StandardCharsets.US_ASCII)).putInt(frames * 2);
+		for (int i = 0; i < frames; i++) {
+			wav.putShort((short) (Math.sin(2 * Math.PI * 220 * i / CLIP_SAMPLE_RATE) * 8000));
+		}
+		return wav.array();
+	}
+}
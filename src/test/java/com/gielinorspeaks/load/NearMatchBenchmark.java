@@ -0,0 +1,179 @@
+package com.gielinorspeaks.load;
+
+import com.gielinorspeaks.cache.DialogueHash;
+import com.gielinorspeaks.service.NearMatchIndex;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.ref.Reference;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Measures {@link NearMatchIndex} lookups after an exact miss: how long they take, how often
+ * they find the line that was reworded, how often they match a line they shouldn't, and what
+ * the index costs in memory per thousand lines.
+ * ===
+ * Each run indexes 10,000 synthetic lines of 6 to 16 words, split between NPCs so that each
+ * has 10, 100 or 1000 lines, then times lookups of:
+ * - reworded lines: an indexed line with its punctuation changed, a number changed or one
+ *   word replaced; the original should be found
+ * - unrelated lines: new lines of the same NPC; nothing should be found
+ * ===
+ * Memory is the heap retained after a full GC by a second index of the same lines (the first
+ * warms up), next to the index's own estimate.
+ * ===
+ * Run with {@code java -cp <test classpath> com.gielinorspeaks.load.NearMatchBenchmark [lines per npc...]}.
+ */
+public final class NearMatchBenchmark {
+	private static final int[] DEFAULT_LINES_PER_NPC = {10, 100, 1000};
+	private static final int TOTAL_LINES = 10_000;
+	private static final int WARM_UP_QUERIES = 20_000;
+	private static final int MEASURED_QUERIES = 20_000;
+
+	private static final String[] WORDS = {
+		"the", "goblin", "adventurer", "sword", "bank", "varrock", "cow", "quest", "king", "dragon", "shop", "coins",
+		"please", "help", "me", "you", "have", "been", "trying", "to", "catch", "find", "bring", "back", "a", "an",
+		"castle", "wizard", "tower", "north", "south", "of", "with", "my", "your", "old", "friend", "lumbridge", "duke",
+		"cook", "cake", "milk", "egg", "flour", "chicken", "rune", "essence", "guard", "gate", "is", "was", "will",
+		"be", "there", "here", "soon", "never", "always", "again", "why", "what", "where", "how", "thank"};
+	private static final String[] PUNCTUATION = {".", "!", "?", "...", ","};
+
+	private NearMatchBenchmark() {
+	}
+
+	public static void main(String[] args) {
+		int[] linesPerNpc = args.length > 0 ? Arrays.stream(args).mapToInt(Integer::parseInt).toArray() : DEFAULT_LINES_PER_NPC;
+		for (int lines : linesPerNpc) {
+			run(lines);
+		}
+	}
+
+	private static void run(int linesPerNpc) {
+		Random random = new Random(linesPerNpc);
+		int npcs = TOTAL_LINES / linesPerNpc;
+		String[][] texts = new String[npcs][linesPerNpc];
+		for (int npc = 0; npc < npcs; npc++) {
+			for (int line = 0; line < linesPerNpc; line++) {
+				texts[npc][line] = sentence(random);
+			}
+		}
+
+		NearMatchIndex index = build(texts);
+
+		for (int i = 0; i < WARM_UP_QUERIES; i++) {
+			int npc = random.nextInt(npcs);
+			String text = reword(texts[npc][random.nextInt(linesPerNpc)], random);
+			index.closest(npc, DialogueHash.of(npc, text), text);
+		}
+
+		long[] rewordedNanos = new long[MEASURED_QUERIES];
+		long[] unrelatedNanos = new long[MEASURED_QUERIES];
+		int found = 0;
+		int falseMatches = 0;
+		for (int i = 0; i < MEASURED_QUERIES; i++) {
+			int npc = random.nextInt(npcs);
+			String original = texts[npc][random.nextInt(linesPerNpc)];
+			String reworded = reword(original, random);
+			long start = System.nanoTime();
+			long match = index.closest(npc, DialogueHash.of(npc, reworded), reworded);
+			rewordedNanos[i] = System.nanoTime() - start;
+			if (match == DialogueHash.of(npc, original)) {
+				found++;
+			}
+
+			String unrelated = sentence(random);
+			start = System.nanoTime();
+			match = index.closest(npc, DialogueHash.of(npc, unrelated), unrelated);
+			unrelatedNanos[i] = System.nanoTime() - start;
+			if (match != NearMatchIndex.NO_MATCH) {
+				falseMatches++;
+			}
+		}
+
+		// The first build warms up, the second is measured
+		retainedHeap(texts);
+		long heap = retainedHeap(texts);
+
+		Arrays.sort(rewordedNanos);
+		Arrays.sort(unrelatedNanos);
+		System.out.printf(Locale.ROOT, "%4d lines/npc  reworded p50 %5.1fus p99 %5.1fus max %6.1fus  found %5.1f%%"
+				+ "  unrelated p50 %5.1fus p99 %5.1fus  false %4.1f%%  per 1000 lines %6.1fKiB (estimate %6.1fKiB)%n",
+			linesPerNpc, micros(rewordedNanos, 50), micros(rewordedNanos, 99), rewordedNanos[MEASURED_QUERIES - 1] / 1000.0,
+			100.0 * found / MEASURED_QUERIES, micros(unrelatedNanos, 50), micros(unrelatedNanos, 99),
+			100.0 * falseMatches / MEASURED_QUERIES, heap * 1000.0 / index.size() / 1024,
+			index.estimateBytes() * 1000.0 / index.size() / 1024);
+	}
+
+	/**
+	 * 6 to 16 words, capitalized, with a number now and then and closing punctuation.
+	 */
+	private static String sentence(Random random) {
+		int words = 6 + random.nextInt(11);
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < words; i++) {
+			if (i > 0) {
+				text.append(' ');
+			}
+			String word = random.nextInt(12) == 0 ? Integer.toString(1 + random.nextInt(500)) : WORDS[random.nextInt(WORDS.length)];
+			text.append(i == 0 ? Character.toUpperCase(word.charAt(0)) + word.substring(1) : word);
+		}
+		return text.append(PUNCTUATION[random.nextInt(PUNCTUATION.length)]).toString();
+	}
+
+	/**
+	 * The line with its punctuation changed, a number changed (or added) or one word replaced.
+	 */
+	private static String reword(String text, Random random) {
+		String[] words = text.split(" ");
+		switch (random.nextInt(3)) {
+			case 0:
+				return text.replaceAll("[.!?,]+$", "") + PUNCTUATION[random.nextInt(PUNCTUATION.length)] + PUNCTUATION[random.nextInt(PUNCTUATION.length)];
+			case 1:
+				for (int i = 0; i < words.length; i++) {
+					if (!words[i].isEmpty() && Character.isDigit(words[i].charAt(0))) {
+						words[i] = Integer.toString(1 + random.nextInt(5000));
+						return String.join(" ", words);
+					}
+				}
+				return text + " " + (1 + random.nextInt(5000));
+			default:
+				words[random.nextInt(words.length)] = WORDS[random.nextInt(WORDS.length)];
+				return String.join(" ", words);
+		}
+	}
+
+	private static double micros(long[] sorted, int percentile) {
+		return sorted[sorted.length * percentile / 100] / 1000.0;
+	}
+
+	private static NearMatchIndex build(String[][] texts) {
+		NearMatchIndex index = new NearMatchIndex();
+		for (int npc = 0; npc < texts.length; npc++) {
+			for (String text : texts[npc]) {
+				index.add(npc, DialogueHash.of(npc, text), text);
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Heap still used after a full GC by an index of the lines, built anew.
+	 */
+	private static long retainedHeap(String[][] texts) {
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		long before = usedAfterGc(memory);
+		NearMatchIndex index = build(texts);
+		long after = usedAfterGc(memory);
+		Reference.reachabilityFence(index);
+		return after - before;
+	}
+
+	private static long usedAfterGc(MemoryMXBean memory) {
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return memory.getHeapMemoryUsage().getUsed();
+	}
+}
@@ -0,0 +1,118 @@
+package com.gielinorspeaks.load;
+
+import com.gielinorspeaks.metrics.ClientThreadMetrics;
+import com.gielinorspeaks.model.VoiceLine;
+import com.gielinorspeaks.service.NpcTable;
+import com.gielinorspeaks.service.OverheadTextService;
+import com.gielinorspeaks.sim.SimulatedClient;
+import net.runelite.api.NPC;
+import net.runelite.api.events.GameTick;
+import net.runelite.api.events.OverheadTextChanged;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Measures what the overhead text of one game tick costs the client thread, with every NPC in
+ * a crowd of 10, 100 and 500 speaking each tick.
+ * ===
+ * A tick is the OverheadTextChanged events of the crowd followed by the GameTick that hands
+ * them off, timed together on this thread. Events are created up front, so only the
+ * service's work is measured. Each crowd is warmed up first, then reports:
+ * - per tick: median and 99th percentile of the whole tick, and the mean of the GameTick alone
+ * - per event: the whole tick divided by the events in it
+ * - allocated: bytes allocated per tick, if the JVM can count them
+ * - lines: lines handed off per tick
+ * ===
+ * Run with {@code java -cp <test classpath> com.gielinorspeaks.load.OverheadTickBenchmark [speakers...]}.
+ */
+public final class OverheadTickBenchmark {
+	private static final int[] DEFAULT_SPEAKERS = {10, 100, 500};
+	private static final int WARM_UP_TICKS = 5_000;
+	private static final int MEASURED_TICKS = 10_000;
+
+	/**
+	 * Lines per NPC, so a speaker says something different from one tick to the next.
+	 */
+	private static final String[] LINES = {
+		"Hello there!", "Nice weather.", "Buying gf!", "Selling lobbies.", "Watch out for goblins.",
+		"Spare some change?", "Ouch!", "Wanna trade?"};
+
+	private OverheadTickBenchmark() {
+	}
+
+	public static void main(String[] args) {
+		int[] speakers = args.length > 0 ? Arrays.stream(args).mapToInt(Integer::parseInt).toArray() : DEFAULT_SPEAKERS;
+		for (int count : speakers) {
+			run(count);
+		}
+	}
+
+	private static void run(int speakers) {
+		SimulatedClient client = new SimulatedClient();
+		OverheadTextService service = new OverheadTextService(client.getClient(), new ClientThreadMetrics(), new NpcTable());
+		long[] handedOff = new long[1];
+		service.setBatchCallback((List<VoiceLine> lines) -> handedOff[0] += lines.size());
+
+		OverheadTextChanged[][] events = new OverheadTextChanged[LINES.length][speakers];
+		for (int i = 0; i < speakers; i++) {
+			NPC npc = client.addNpc(1000 + i, "Crowd " + i);
+			for (int line = 0; line < LINES.length; line++) {
+				events[line][i] = new OverheadTextChanged(npc, LINES[(line + i) % LINES.length]);
+			}
+		}
+		GameTick gameTick = new GameTick();
+
+		for (int tick = 0; tick < WARM_UP_TICKS; tick++) {
+			tick(service, events[tick % LINES.length], gameTick);
+		}
+
+		com.sun.management.ThreadMXBean threads = allocationCounter();
+		long threadId = Thread.currentThread().getId();
+		long allocatedBefore = threads != null ? threads.getThreadAllocatedBytes(threadId) : 0;
+		long[] tickNanos = new long[MEASURED_TICKS];
+		long flushNanos = 0;
+		handedOff[0] = 0;
+		for (int tick = 0; tick < MEASURED_TICKS; tick++) {
+			long start = System.nanoTime();
+			for (OverheadTextChanged event : events[tick % LINES.length]) {
+				service.onOverheadTextChanged(event);
+			}
+			long flushStart = System.nanoTime();
+			service.onGameTick(gameTick);
+			long end = System.nanoTime();
+			tickNanos[tick] = end - start;
+			flushNanos += end - flushStart;
+		}
+		long allocated = threads != null ? threads.getThreadAllocatedBytes(threadId) - allocatedBefore : -1;
+
+		Arrays.sort(tickNanos);
+		long median = tickNanos[MEASURED_TICKS / 2];
+		System.out.printf(Locale.ROOT, "%4d speakers  tick p50 %8.1fus  p99 %8.1fus  game tick %7.1fus  per event %6.0fns"
+				+ "  allocated %7s  lines %.1f%n",
+			speakers, median / 1000.0, tickNanos[MEASURED_TICKS * 99 / 100] / 1000.0,
+			flushNanos / 1000.0 / MEASURED_TICKS, (double) median / speakers,
+			allocated >= 0 ? allocated / MEASURED_TICKS + "B" : "n/a", (double) handedOff[0] / MEASURED_TICKS);
+	}
+
+	private static void tick(OverheadTextService service, OverheadTextChanged[] events, GameTick gameTick) {
+		for (OverheadTextChanged event : events) {
+			service.onOverheadTextChanged(event);
+		}
+		service.onGameTick(gameTick);
+	}
+
+	private static com.sun.management.ThreadMXBean allocationCounter() {
+		if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+			return null;
+		}
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		if (!threads.isThreadAllocatedMemorySupported()) {
+			return null;
+		}
+		threads.setThreadAllocatedMemoryEnabled(true);
+		return threads;
+	}
+}
@@ -0,0 +1,581 @@
+package com.gielinorspeaks.load;
+
+import com.gielinorspeaks.api.StandInVoiceServer;
+import com.gielinorspeaks.api.VoiceApiClient;
+import com.gielinorspeaks.audio.AudioOutput;
+import com.gielinorspeaks.audio.ClipDecoder;
+import com.gielinorspeaks.audio.SpeakerGains;
+import com.gielinorspeaks.buffer.BufferPool;
+import com.gielinorspeaks.cache.ClipCache;
+import com.gielinorspeaks.cache.ClipIndex;
+import com.gielinorspeaks.cache.ClipStore;
+import com.gielinorspeaks.cache.ClipWriter;
+import com.gielinorspeaks.cache.HotSet;
+import com.gielinorspeaks.cache.ProfileGenerations;
+import com.gielinorspeaks.metrics.ClientThreadMetrics;
+import com.gielinorspeaks.model.VoiceLine;
+import com.gielinorspeaks.service.DialogueDetectionService;
+import com.gielinorspeaks.service.NpcTable;
+import com.gielinorspeaks.service.OverheadTextService;
+import com.gielinorspeaks.service.VoicePipeline;
+import com.google.gson.Gson;
+import net.runelite.api.Actor;
+import net.runelite.api.Client;
+import net.runelite.api.NPC;
+import net.runelite.api.Player;
+import net.runelite.api.events.GameTick;
+import net.runelite.api.events.InteractingChanged;
+import net.runelite.api.events.OverheadTextChanged;
+import net.runelite.api.events.WidgetLoaded;
+import net.runelite.api.gameval.InterfaceID;
+import net.runelite.api.widgets.Widget;
+import net.runelite.client.callback.ClientThread;
+import okhttp3.OkHttpClient;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Drives the whole client pipeline with synthetic dialogue at a target rate and reports how
+ * it keeps up.
+ * ===
+ * The generator thread stands in for the client thread: it paces events at
+ * {@link Options#eventsPerSecond}, feeding overhead text to the {@link OverheadTextService}
+ * (with a game tick every {@link #TICK_NANOS}, which hands each tick's lines on) and dialogue boxes to the {@link DialogueDetectionService} (through fake widgets). Detected
+ * lines go to a real {@link VoicePipeline} with a real disk cache in a temporary directory,
+ * fetching from a {@link StandInVoiceServer} on localhost. Only the audio device is replaced.
+ * ===
+ * Lines are drawn from a fixed corpus with a skew towards popular lines, so caches get hits
+ * as they would in play; the first run of a corpus therefore measures downloads and later
+ * lines measure the caches.
+ * ===
+ * REPORT:
+ * Lines submitted and played, throughput, submit-to-play latency percentiles, clip cache and
+ * processed store hit rates, server traffic and the time spent in detection handlers.
+ * ===
+ * Run with {@code java -cp <test classpath> com.gielinorspeaks.load.PipelineLoadGenerator
+ * [--rate=N] [--seconds=N] [--npcs=N] [--lines=N] [--overhead=F] [--latency=MS] [--jitter=MS]
+ * [--errors=F] [--unvoiced=F] [--bandwidth=BYTES_PER_SECOND]}.
+ */
+public final class PipelineLoadGenerator {
+	/**
+	 * First and last chathead animation, used for a share of dialogue boxes.
+	 */
+	private static final int FIRST_CHATHEAD_ANIMATION = 554;
+	private static final int LAST_CHATHEAD_ANIMATION = 617;
+
+	/**
+	 * How long to wait for the pipeline to finish lines already submitted.
+	 */
+	private static final long SETTLE_MILLIS = 10_000;
+
+	/**
+	 * Game tick length; overhead text is batched per tick.
+	 */
+	private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(600);
+
+	public static final class Options {
+		public double eventsPerSecond = 20;
+		public int seconds = 30;
+		public int npcs = 50;
+		public int linesPerNpc = 20;
+
+		/**
+		 * Share of events that are overhead text rather than dialogue boxes.
+		 */
+		public double overheadShare = 0.7;
+
+		/**
+		 * Share of dialogue boxes shown with a chathead animation.
+		 */
+		public double animatedShare = 0.3;
+
+		public long latencyMillis = 50;
+		public long jitterMillis = 50;
+		public double errorRate;
+		public double unvoicedRate = 0.5;
+		public long bytesPerSecond;
+		public long seed = 42;
+
+		static Options parse(String[] args) {
+			Options options = new Options();
+			for (String arg : args) {
+				String[] pair = arg.replaceFirst("^--", "").split("=", 2);
+				if (pair.length != 2) {
+					throw new IllegalArgumentException("Expected --name=value: " + arg);
+				}
+				String value = pair[1];
+				switch (pair[0]) {
+					case "rate": options.eventsPerSecond = Double.parseDouble(value); break;
+					case "seconds": options.seconds = Integer.parseInt(value); break;
+					case "npcs": options.npcs = Integer.parseInt(value); break;
+					case "lines": options.linesPerNpc = Integer.parseInt(value); break;
+					case "overhead": options.overheadShare = Double.parseDouble(value); break;
+					case "latency": options.latencyMillis = Long.parseLong(value); break;
+					case "jitter": options.jitterMillis = Long.parseLong(value); break;
+					case "errors": options.errorRate = Double.parseDouble(value); break;
+					case "unvoiced": options.unvoicedRate = Double.parseDouble(value); break;
+					case "bandwidth": options.bytesPerSecond = Long.parseLong(value); break;
+					case "seed": options.seed = Long.parseLong(value); break;
+					default: throw new IllegalArgumentException("Unknown option: " + arg);
+				}
+			}
+			return options;
+		}
+	}
+
+	public static final class Report {
+		public long submitted;
+		public long played;
+		public double elapsedSeconds;
+
+		/**
+		 * Submit-to-play latency percentiles, in milliseconds.
+		 */
+		public double p50Millis;
+		public double p90Millis;
+		public double p99Millis;
+		public double maxMillis;
+
+		public long clipCacheHits;
+		public long clipCacheMisses;
+		public long processedHits;
+		public long processedMisses;
+
+		public long serverRequests;
+		public long clipsServed;
+		public long notVoiced;
+		public long serverErrors;
+		public long bytesReceived;
+
+		/**
+		 * Time spent in detection handlers on the generator ("client") thread.
+		 */
+		public double handlerMillis;
+		public double handlerMaxMicros;
+
+		public double getThroughput() {
+			return elapsedSeconds > 0 ? played / elapsedSeconds : 0;
+		}
+
+		static double rate(long hits, long misses) {
+			return hits + misses > 0 ? (double) hits / (hits + misses) : 0;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.ROOT,
+				"lines: %d submitted, %d played in %.1fs (%.1f/s)%n"
+					+ "latency: p50 %.1fms, p90 %.1fms, p99 %.1fms, max %.1fms%n"
+					+ "clip cache: %.1f%% hits (%d/%d), processed store: %.1f%% hits (%d/%d)%n"
+					+ "server: %d requests, %d clips, %d not voiced, %d errors, %d KB%n"
+					+ "detection handlers: %.1fms total, %.1fus max",
+				submitted, played, elapsedSeconds, getThroughput(),
+				p50Millis, p90Millis, p99Millis, maxMillis,
+				rate(clipCacheHits, clipCacheMisses) * 100, clipCacheHits, clipCacheHits + clipCacheMisses,
+				rate(processedHits, processedMisses) * 100, processedHits, processedHits + processedMisses,
+				serverRequests, clipsServed, notVoiced, serverErrors, bytesReceived / 1024,
+				handlerMillis, handlerMaxMicros);
+		}
+	}
+
+	private PipelineLoadGenerator() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		Options options = Options.parse(args);
+		File directory = Files.createTempDirectory("gielinor-speaks-load").toFile();
+		System.out.println(run(options, directory));
+	}
+
+	/**
+	 * Runs one load test against a cache in {@code directory}, which may hold clips from an
+	 * earlier run.
+	 */
+	public static Report run(Options options, File directory) throws IOException, InterruptedException {
+		Random random = new Random(options.seed);
+		String[][] corpus = corpus(options);
+
+		try (StandInVoiceServer server = new StandInVoiceServer()) {
+			server.setLatencyMillis(options.latencyMillis);
+			server.setJitterMillis(options.jitterMillis);
+			server.setErrorRate(options.errorRate);
+			server.setUnvoicedRate(options.unvoicedRate);
+			server.setBytesPerSecond(options.bytesPerSecond);
+			for (int npc = 0; npc < corpus.length; npc++) {
+				for (String text : corpus[npc]) {
+					// Registered lines are always voiced; the rest follow the unvoiced rate
+					if (random.nextDouble() >= options.unvoicedRate) {
+						server.addLine(npcId(npc), text);
+					}
+				}
+			}
+			VoiceApiClient apiClient = new VoiceApiClient(new OkHttpClient(), new Gson());
+			apiClient.setBaseUrl(server.start());
+
+			// Pipeline, with the caches instrumented and the audio device replaced
+			Report report = new Report();
+			Map<Long, Deque<Long>> submitTimes = new ConcurrentHashMap<>();
+			LatencyRecorder latencies = new LatencyRecorder();
+			ClipStore store = new ClipStore(new File(directory, "clips"));
+			ClipCache clipCache = new ClipCache() {
+				@Nullable
+				@Override
+				public synchronized byte[] get(long dialogueHash) {
+					byte[] pcm = super.get(dialogueHash);
+					if (pcm != null) {
+						report.clipCacheHits++;
+					}
+					else {
+						report.clipCacheMisses++;
+					}
+					return pcm;
+				}
+			};
+			AtomicLong processedHits = new AtomicLong();
+			AtomicLong processedMisses = new AtomicLong();
+			ClipWriter clipWriter = new ClipWriter(store) {
+				@Nullable
+				@Override
+				public byte[] readProcessed(int npcId, long dialogueHash, int version) throws IOException {
+					byte[] pcm = super.readProcessed(npcId, dialogueHash, version);
+					(pcm != null ? processedHits : processedMisses).incrementAndGet();
+					return pcm;
+				}
+			};
+			HotSet hotSet = new HotSet(new File(directory, "hotset.dat")) {
+				@Override
+				public synchronized void recordPlay(int npcId, long dialogueHash) {
+					// Called by the pipeline right after handing the clip to the audio device
+					Deque<Long> times = submitTimes.get(dialogueHash);
+					Long submitted;
+					synchronized (submitTimes) {
+						submitted = times != null ? times.pollFirst() : null;
+					}
+					if (submitted != null) {
+						latencies.record(System.nanoTime() - submitted);
+					}
+					super.recordPlay(npcId, dialogueHash);
+				}
+			};
+			VoicePipeline pipeline = new VoicePipeline(store, clipWriter, new ClipIndex(), clipCache, new SilentAudioOutput(),
+				new ClipDecoder(), hotSet, new ProfileGenerations(new File(directory, "generations.dat")), apiClient, new BufferPool());
+
+			// Detection services, on fake client objects
+			NpcTable npcTable = new NpcTable();
+			ClientThreadMetrics metrics = new ClientThreadMetrics();
+			FakeClient fakeClient = new FakeClient();
+			DialogueDetectionService dialogueService = new DialogueDetectionService(fakeClient.client, new ImmediateClientThread(),
+				metrics, npcTable);
+			OverheadTextService overheadService = new OverheadTextService(fakeClient.client, metrics, npcTable);
+			Consumer<VoiceLine> submit = line -> {
+				synchronized (submitTimes) {
+					submitTimes.computeIfAbsent(line.getLineHash(), hash -> new ArrayDeque<>()).addLast(System.nanoTime());
+				}
+				report.submitted++;
+				pipeline.submit(line);
+			};
+			dialogueService.setLineCallback(submit);
+			overheadService.setLineCallback(submit);
+
+			pipeline.start();
+			awaitReady(pipeline);
+			server.resetCounters();
+
+			// Paced event loop
+			long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / options.eventsPerSecond);
+			long events = (long) (options.eventsPerSecond * options.seconds);
+			NPC[] npcs = new NPC[corpus.length];
+			for (int npc = 0; npc < corpus.length; npc++) {
+				npcs[npc] = fakeNpc(npcId(npc), "Npc " + npc, npc);
+			}
+			long start = System.nanoTime();
+			long lastTick = start;
+			for (long i = 0; i < events; i++) {
+				long wait = start + i * intervalNanos - System.nanoTime();
+				if (wait > 0) {
+					LockSupport.parkNanos(wait);
+				}
+
+				if (System.nanoTime() - lastTick >= TICK_NANOS) {
+					overheadService.onGameTick(new GameTick());
+					lastTick += TICK_NANOS;
+				}
+
+				int npc = skewed(random, corpus.length);
+				String text = corpus[npc][skewed(random, corpus[npc].length)];
+				if (random.nextDouble() < options.overheadShare) {
+					overheadService.onOverheadTextChanged(new OverheadTextChanged(npcs[npc], text));
+				}
+				else {
+					int animation = random.nextDouble() < options.animatedShare
+						? FIRST_CHATHEAD_ANIMATION + random.nextInt(LAST_CHATHEAD_ANIMATION - FIRST_CHATHEAD_ANIMATION + 1)
+						: VoiceLine.NO_ANIMATION;
+					fakeClient.showDialogue(npcs[npc], text, animation);
+					dialogueService.onInteractingChanged(new InteractingChanged(fakeClient.player, npcs[npc]));
+					WidgetLoaded loaded = new WidgetLoaded();
+					loaded.setGroupId(InterfaceID.CHAT_LEFT);
+					dialogueService.onWidgetLoaded(loaded);
+				}
+			}
+
+			overheadService.onGameTick(new GameTick());
+
+			// Let lines already submitted finish
+			long settleDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SETTLE_MILLIS);
+			long lastPlayed = -1;
+			while (System.nanoTime() < settleDeadline && latencies.count() != lastPlayed) {
+				lastPlayed = latencies.count();
+				Thread.sleep(500);
+			}
+			report.elapsedSeconds = (System.nanoTime() - start) / 1e9;
+
+			pipeline.shutdown();
+			clipWriter.drain(ClipWriter.DRAIN_TIMEOUT_MILLIS);
+
+			report.played = latencies.count();
+			report.p50Millis = latencies.percentile(0.50);
+			report.p90Millis = latencies.percentile(0.90);
+			report.p99Millis = latencies.percentile(0.99);
+			report.maxMillis = latencies.percentile(1.0);
+			report.processedHits = processedHits.get();
+			report.processedMisses = processedMisses.get();
+			report.serverRequests = server.getRequests().get();
+			report.clipsServed = server.getClipsServed().get();
+			report.notVoiced = server.getNotVoiced().get();
+			report.serverErrors = server.getErrors().get();
+			report.bytesReceived = server.getBytesSent().get();
+			long handlerNanos = 0;
+			long handlerMaxNanos = 0;
+			for (ClientThreadMetrics.Handler handler : ClientThreadMetrics.Handler.values()) {
+				handlerNanos += metrics.getTotalNanos(handler);
+				handlerMaxNanos = Math.max(handlerMaxNanos, metrics.getMaxNanos(handler));
+			}
+			report.handlerMillis = handlerNanos / 1e6;
+			report.handlerMaxMicros = handlerMaxNanos / 1e3;
+			return report;
+		}
+	}
+
+	private static String[][] corpus(Options options) {
+		String[][] corpus = new String[options.npcs][options.linesPerNpc];
+		for (int npc = 0; npc < options.npcs; npc++) {
+			for (int line = 0; line < options.linesPerNpc; line++) {
+				corpus[npc][line] = "Line " + line + " of npc " + npc + ", well met adventurer.";
+			}
+		}
+		return corpus;
+	}
+
+	private static int npcId(int npc) {
+		return 1000 + npc;
+	}
+
+	/**
+	 * Picks an index in [0, bound) with low indexes much more likely, roughly as a few NPCs
+	 * and lines dominate play.
+	 */
+	private static int skewed(Random random, int bound) {
+		double u = random.nextDouble();
+		return Math.min(bound - 1, (int) (bound * u * u * u));
+	}
+
+	private static void awaitReady(VoicePipeline pipeline) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+		while (pipeline.getState() == VoicePipeline.State.INITIALIZING && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		if (pipeline.getState() != VoicePipeline.State.READY) {
+			throw new IllegalStateException("Pipeline did not start: " + pipeline.getState());
+		}
+	}
+
+	private static NPC fakeNpc(int id, String name, int index) {
+		return (NPC) Proxy.newProxyInstance(PipelineLoadGenerator.class.getClassLoader(), new Class<?>[]{NPC.class},
+			(proxy, method, args) -> {
+				switch (method.getName()) {
+					case "getId": return id;
+					case "getName": return name;
+					case "getIndex": return index;
+					case "getAnimation": return -1;
+					case "hashCode": return System.identityHashCode(proxy);
+					case "equals": return proxy == args[0];
+					case "toString": return name;
+					default: return defaultValue(method.getReturnType());
+				}
+			});
+	}
+
+	@Nullable
+	private static Object defaultValue(Class<?> type) {
+		if (type == boolean.class) {
+			return false;
+		}
+		if (type == int.class) {
+			return 0;
+		}
+		if (type == long.class) {
+			return 0L;
+		}
+		if (type == double.class) {
+			return 0.0;
+		}
+		if (type == float.class) {
+			return 0f;
+		}
+		if (type == short.class) {
+			return (short) 0;
+		}
+		if (type == byte.class) {
+			return (byte) 0;
+		}
+		if (type == char.class) {
+			return '\0';
+		}
+		return null;
+	}
+
+	/**
+	 * Client, player and dialogue widgets, as proxies answering what the detection service asks.
+	 */
+	private static final class FakeClient {
+		private volatile Actor interacting;
+		private volatile String dialogueText = "";
+		private volatile int headAnimation = VoiceLine.NO_ANIMATION;
+
+		private final Player player = (Player) Proxy.newProxyInstance(PipelineLoadGenerator.class.getClassLoader(),
+			new Class<?>[]{Player.class}, (proxy, method, args) -> {
+				switch (method.getName()) {
+					case "getName": return "Load Tester";
+					case "getInteracting": return interacting;
+					case "hashCode": return System.identityHashCode(proxy);
+					case "equals": return proxy == args[0];
+					default: return defaultValue(method.getReturnType());
+				}
+			});
+
+		private final Widget textWidget = widget(() -> dialogueText, () -> VoiceLine.NO_ANIMATION);
+		private final Widget nameWidget = widget(() -> "Npc", () -> VoiceLine.NO_ANIMATION);
+		private final Widget headWidget = widget(() -> "", () -> headAnimation);
+
+		private final Client client = (Client) Proxy.newProxyInstance(PipelineLoadGenerator.class.getClassLoader(),
+			new Class<?>[]{Client.class}, (proxy, method, args) -> {
+				switch (method.getName()) {
+					case "getLocalPlayer": return player;
+					case "getWidget":
+						if (args.length != 1) {
+							return null;
+						}
+						int id = (Integer) args[0];
+						if (id == InterfaceID.ChatLeft.TEXT) {
+							return textWidget;
+						}
+						if (id == InterfaceID.ChatLeft.NAME) {
+							return nameWidget;
+						}
+						return id == InterfaceID.ChatLeft.HEAD ? headWidget : null;
+					case "isClientThread": return true;
+					case "hashCode": return System.identityHashCode(proxy);
+					case "equals": return proxy == args[0];
+					default: return defaultValue(method.getReturnType());
+				}
+			});
+
+		private void showDialogue(NPC npc, String text, int animation) {
+			interacting = npc;
+			dialogueText = text;
+			headAnimation = animation;
+		}
+
+		private static Widget widget(Supplier<String> text, IntSupplier animation) {
+			return (Widget) Proxy.newProxyInstance(PipelineLoadGenerator.class.getClassLoader(), new Class<?>[]{Widget.class},
+				(proxy, method, args) -> {
+					switch (method.getName()) {
+						case "getText": return text.get();
+						case "getAnimationId": return animation.getAsInt();
+						case "isHidden": return false;
+						case "hashCode": return System.identityHashCode(proxy);
+						case "equals": return proxy == args[0];
+						default: return defaultValue(method.getReturnType());
+					}
+				});
+		}
+	}
+
+	/**
+	 * Runs deferred client thread tasks straight away, on the generator thread.
+	 */
+	private static final class ImmediateClientThread extends ClientThread {
+		@Override
+		public void invokeLater(Runnable runnable) {
+			runnable.run();
+		}
+	}
+
+	/**
+	 * Audio output without a device; playback is timed by the hot set hook instead.
+	 */
+	private static final class SilentAudioOutput extends AudioOutput {
+		private SilentAudioOutput() {
+			super(new SpeakerGains());
+		}
+
+		@Override
+		public synchronized void open() {
+		}
+
+		@Override
+		public int play(byte[] pcm, int speaker) {
+			return 0;
+		}
+
+		@Override
+		public synchronized void close() {
+		}
+	}
+
+	/**
+	 * Latencies of played lines, in nanoseconds.
+	 */
+	private static final class LatencyRecorder {
+		private long[] samples = new long[1024];
+		private int size;
+
+		synchronized void record(long nanos) {
+			if (size == samples.length) {
+				samples = Arrays.copyOf(samples, size * 2);
+			}
+			samples[size++] = nanos;
+		}
+
+		synchronized long count() {
+			return size;
+		}
+
+		synchronized double percentile(double fraction) {
+			if (size == 0) {
+				return 0;
+			}
+			long[] sorted = Arrays.copyOf(samples, size);
+			Arrays.sort(sorted);
+			int index = (int) Math.ceil(fraction * size) - 1;
+			return sorted[Math.max(0, Math.min(size - 1, index))] / 1e6;
+		}
+	}
+}
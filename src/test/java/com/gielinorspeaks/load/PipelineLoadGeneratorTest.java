@@ -0,0 +1,46 @@
+package com.gielinorspeaks.load;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+/**
+ * Smoke tests for PipelineLoadGenerator.
+ * Focus: A short run drives lines end to end, and a second run over the same cache is served
+ * from disk rather than the server.
+ */
+public class PipelineLoadGeneratorTest {
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void testRun_playsLinesAndServesRepeatRunFromDisk() throws Exception {
+		// Arrange
+		PipelineLoadGenerator.Options options = new PipelineLoadGenerator.Options();
+		options.eventsPerSecond = 40;
+		options.seconds = 2;
+		options.npcs = 5;
+		options.linesPerNpc = 4;
+		options.latencyMillis = 5;
+		options.jitterMillis = 5;
+		options.unvoicedRate = 0;
+		File directory = temporaryFolder.getRoot();
+
+		// Act
+		PipelineLoadGenerator.Report first = PipelineLoadGenerator.run(options, directory);
+		PipelineLoadGenerator.Report second = PipelineLoadGenerator.run(options, directory);
+
+		// Assert
+		assertTrue("Lines should be detected: " + first, first.submitted > 0);
+		assertTrue("Lines should be played: " + first, first.played > 0);
+		assertTrue("No more lines can play than were submitted: " + first, first.played <= first.submitted);
+		assertTrue("First run should download clips: " + first, first.clipsServed > 0);
+		assertTrue("Latency should be measured: " + first, first.p50Millis > 0 && first.p50Millis <= first.maxMillis);
+		assertTrue("Repeat run should read processed clips from disk: " + second, second.processedHits > 0);
+		assertTrue("Repeat run should download fewer clips: " + second, second.clipsServed < first.clipsServed);
+	}
+}
@@ -0,0 +1,267 @@
+package com.gielinorspeaks.load;
+
+import com.gielinorspeaks.api.StandInVoiceServer;
+import com.gielinorspeaks.api.VoiceApiClient;
+import com.gielinorspeaks.buffer.BufferPool;
+import com.gielinorspeaks.cache.DialogueHash;
+import com.gielinorspeaks.concurrent.IoExecutor;
+import com.gielinorspeaks.model.Emotion;
+import com.google.gson.Gson;
+import okhttp3.OkHttpClient;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares the {@link IoExecutor} on platform and virtual threads with hundreds of prefetches
+ * in flight: how fast they complete and what the threads waiting on them cost in memory.
+ * ===
+ * A {@link StandInVoiceServer} in this JVM answers every request after a fixed latency, with
+ * enough handler threads that the client decides how many requests are in flight. Each run is a
+ * separate JVM (per JDK given, the current one by default), which downloads the same clips
+ * through a {@link VoiceApiClient} from executor tasks, in one of three modes:
+ * - pool: the platform pool the pipeline gets on Java 11, {@value #POOL_THREADS} threads
+ * - threads: a platform thread per prefetch in flight
+ * - default: what {@link IoExecutor#create} picks on that JDK, virtual threads from 21 on,
+ *   bounded at the prefetches in flight
+ * ===
+ * Every run warms up the HTTP stack first, then reports:
+ * - throughput: clips downloaded per second
+ * - in flight: most prefetches running at once
+ * - threads: most live threads above the idle JVM
+ * - RSS, heap: most resident memory and heap used above the idle JVM, sampled every
+ *   {@value #SAMPLE_MILLIS}ms (RSS needs Linux /proc)
+ * ===
+ * The classpath must carry the multi-release jar, not the class directories, for each JDK to
+ * load its own {@code IoThreads}; the {@code prefetchExecutorBenchmark} task does.
+ * ===
+ * Run with {@code java -cp <jar and test classpath> com.gielinorspeaks.load.PrefetchExecutorBenchmark
+ * [--prefetches=N] [--in-flight=N] [--latency=MS] [--clip-ms=MS] [jdk home...]}.
+ */
+public final class PrefetchExecutorBenchmark {
+	private static final String[] MODES = {"pool", "threads", "default"};
+	private static final int POOL_THREADS = 4;
+	private static final int WARM_UP_FETCHES = 64;
+	private static final int SAMPLE_MILLIS = 5;
+	private static final int NPC_ID = 3308;
+	private static final long RUN_TIMEOUT_SECONDS = 600;
+
+	private PrefetchExecutorBenchmark() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length == 5 && args[0].equals("--run")) {
+			run(args[1], args[2], Integer.parseInt(args[3]), Integer.parseInt(args[4]));
+			return;
+		}
+
+		int prefetches = 1000;
+		int inFlight = 256;
+		long latencyMillis = 250;
+		int clipMillis = 250;
+		List<String> jdks = new ArrayList<>();
+		for (String arg : args) {
+			if (arg.startsWith("--prefetches=")) {
+				prefetches = Integer.parseInt(arg.substring("--prefetches=".length()));
+			}
+			else if (arg.startsWith("--in-flight=")) {
+				inFlight = Integer.parseInt(arg.substring("--in-flight=".length()));
+			}
+			else if (arg.startsWith("--latency=")) {
+				latencyMillis = Long.parseLong(arg.substring("--latency=".length()));
+			}
+			else if (arg.startsWith("--clip-ms=")) {
+				clipMillis = Integer.parseInt(arg.substring("--clip-ms=".length()));
+			}
+			else {
+				jdks.add(arg);
+			}
+		}
+		if (jdks.isEmpty()) {
+			jdks.add(System.getProperty("java.home"));
+		}
+
+		try (StandInVoiceServer server = new StandInVoiceServer()) {
+			server.setLatencyMillis(latencyMillis);
+			server.setClipMillis(clipMillis);
+			server.setHandlerThreads(inFlight + POOL_THREADS);
+			String baseUrl = server.start();
+
+			System.out.printf(Locale.ROOT, "%d prefetches, up to %d in flight, %dms latency, %dms clips%n",
+				prefetches, inFlight, latencyMillis, clipMillis);
+			for (String jdk : jdks) {
+				for (String mode : MODES) {
+					report(mode, prefetches, fork(jdk, mode, baseUrl, prefetches, inFlight));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Runs in the forked JVM; prints the Java version, whether threads were virtual, elapsed
+	 * microseconds, peak in flight, threads, RSS and heap KiB, and failed downloads.
+	 */
+	private static void run(String mode, String baseUrl, int prefetches, int inFlight) throws Exception {
+		VoiceApiClient client = new VoiceApiClient(new OkHttpClient(), new Gson());
+		client.setBaseUrl(baseUrl);
+		BufferPool pool = new BufferPool();
+
+		IoExecutor warmUp = IoExecutor.platform("warm-up", POOL_THREADS);
+		fetchAll(warmUp, client, pool, -WARM_UP_FETCHES, WARM_UP_FETCHES, new AtomicInteger(), new AtomicInteger());
+		warmUp.shutdownNow();
+
+		IoExecutor executor;
+		switch (mode) {
+			case "pool":
+				executor = IoExecutor.platform("bench", POOL_THREADS);
+				break;
+			case "threads":
+				executor = IoExecutor.platform("bench", inFlight);
+				break;
+			default:
+				executor = IoExecutor.create("bench", POOL_THREADS, inFlight);
+				break;
+		}
+
+		System.gc();
+		Thread.sleep(200);
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		int baseThreads = threads.getThreadCount();
+		long baseRss = residentKib();
+		long baseHeap = memory.getHeapMemoryUsage().getUsed() / 1024;
+
+		AtomicLong peakThreads = new AtomicLong();
+		AtomicLong peakRss = new AtomicLong();
+		AtomicLong peakHeap = new AtomicLong();
+		Thread sampler = new Thread(() -> {
+			while (!Thread.currentThread().isInterrupted()) {
+				peakThreads.accumulateAndGet(threads.getThreadCount(), Math::max);
+				peakRss.accumulateAndGet(residentKib(), Math::max);
+				peakHeap.accumulateAndGet(memory.getHeapMemoryUsage().getUsed() / 1024, Math::max);
+				try {
+					Thread.sleep(SAMPLE_MILLIS);
+				}
+				catch (InterruptedException e) {
+					return;
+				}
+			}
+		}, "sampler");
+		sampler.setDaemon(true);
+		sampler.start();
+
+		AtomicInteger peakInFlight = new AtomicInteger();
+		AtomicInteger failures = new AtomicInteger();
+		long start = System.nanoTime();
+		fetchAll(executor, client, pool, 0, prefetches, peakInFlight, failures);
+		long elapsed = System.nanoTime() - start;
+		sampler.interrupt();
+		sampler.join();
+		executor.shutdownNow();
+
+		System.out.println(System.getProperty("java.version") + " " + (executor.isVirtual() ? 1 : 0) + " " + elapsed / 1000
+			+ " " + peakInFlight.get() + " " + (peakThreads.get() - baseThreads - 1)
+			+ " " + (baseRss >= 0 ? peakRss.get() - baseRss : -1) + " " + (peakHeap.get() - baseHeap) + " " + failures.get());
+	}
+
+	/**
+	 * Downloads lines {@code first} to {@code first + count} on the executor and waits for all.
+	 */
+	private static void fetchAll(IoExecutor executor, VoiceApiClient client, BufferPool pool, int first, int count,
+		AtomicInteger peakInFlight, AtomicInteger failures) throws InterruptedException {
+		CountDownLatch done = new CountDownLatch(count);
+		AtomicInteger running = new AtomicInteger();
+		for (int i = first; i < first + count; i++) {
+			long hash = DialogueHash.of(NPC_ID, "Prefetched line " + i);
+			executor.execute(() -> {
+				peakInFlight.accumulateAndGet(running.incrementAndGet(), Math::max);
+				try {
+					ByteBuffer clip = client.fetchClip(NPC_ID, hash, Emotion.NEUTRAL, pool);
+					if (clip != null) {
+						pool.release(clip);
+					}
+					else {
+						failures.incrementAndGet();
+					}
+				}
+				catch (IOException e) {
+					failures.incrementAndGet();
+				}
+				finally {
+					running.decrementAndGet();
+					done.countDown();
+				}
+			});
+		}
+		if (!done.await(RUN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+			throw new IllegalStateException("Prefetches did not finish");
+		}
+	}
+
+	/**
+	 * Resident set size from /proc, or -1 where there is none.
+	 */
+	private static long residentKib() {
+		Path status = Paths.get("/proc/self/status");
+		if (!Files.isReadable(status)) {
+			return -1;
+		}
+		try {
+			for (String line : Files.readAllLines(status, StandardCharsets.US_ASCII)) {
+				if (line.startsWith("VmRSS:")) {
+					return Long.parseLong(line.substring("VmRSS:".length()).replace("kB", "").trim());
+				}
+			}
+		}
+		catch (IOException | NumberFormatException e) {
+			return -1;
+		}
+		return -1;
+	}
+
+	private static long[] fork(String jdk, String mode, String baseUrl, int prefetches, int inFlight)
+		throws IOException, InterruptedException {
+		String java = Paths.get(jdk, "bin", "java").toString();
+		Process process = new ProcessBuilder(java, "-Djava.awt.headless=true", "-cp", System.getProperty("java.class.path"),
+			PrefetchExecutorBenchmark.class.getName(), "--run", mode, baseUrl, Integer.toString(prefetches),
+			Integer.toString(inFlight))
+			.redirectError(ProcessBuilder.Redirect.INHERIT)
+			.start();
+
+		String result;
+		try (BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+			result = out.readLine();
+		}
+		if (process.waitFor() != 0 || result == null) {
+			throw new IllegalStateException("Run failed in " + mode + " mode on " + jdk);
+		}
+
+		String[] fields = result.trim().split(" ");
+		System.out.print("Java " + fields[0] + "  ");
+		return Arrays.stream(fields, 1, fields.length).mapToLong(Long::parseLong).toArray();
+	}
+
+	private static void report(String mode, int prefetches, long[] run) {
+		double seconds = run[1] / 1_000_000.0;
+		System.out.printf(Locale.ROOT, "%-8s %-8s  throughput %7.1f/s  in flight %4d  threads %4d  RSS %9s  heap %8s"
+				+ "  failed %d%n", mode, run[0] == 1 ? "virtual" : "platform", prefetches / seconds, run[2], run[3],
+			run[4] >= 0 ? run[4] + "KiB" : "n/a", run[5] + "KiB", run[6]);
+	}
+}
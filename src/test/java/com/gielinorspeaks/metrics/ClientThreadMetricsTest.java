@@ -0,0 +1,102 @@
+package com.gielinorspeaks.metrics;
+
+import com.gielinorspeaks.metrics.ClientThreadMetrics.Handler;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for ClientThreadMetrics.
+ * Focus: Per-handler counters, budget overruns and the client thread share.
+ */
+public class ClientThreadMetricsTest {
+	private ClientThreadMetrics metrics;
+
+	@Before
+	public void setUp() {
+		metrics = new ClientThreadMetrics();
+		metrics.setBudgetMicros(1000);
+	}
+
+	@Test
+	public void testRecord_countsInvocationsPerHandler() {
+		// Act
+		metrics.record(Handler.WIDGET_LOADED, metrics.start());
+		metrics.record(Handler.WIDGET_LOADED, metrics.start());
+		metrics.record(Handler.OVERHEAD_TEXT_CHANGED, metrics.start());
+
+		// Assert
+		assertEquals("Widget loaded count", 2, metrics.getInvocations(Handler.WIDGET_LOADED));
+		assertEquals("Overhead text count", 1, metrics.getInvocations(Handler.OVERHEAD_TEXT_CHANGED));
+		assertEquals("Untouched handler count", 0, metrics.getInvocations(Handler.WIDGET_CLOSED));
+	}
+
+	@Test
+	public void testRecord_tracksTimeAndMax() {
+		// Arrange - Pretend the handler started 2ms ago
+		long start = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(2);
+
+		// Act
+		metrics.record(Handler.WIDGET_CLOSED, start);
+
+		// Assert
+		assertTrue("Total time should include elapsed time",
+			metrics.getTotalNanos(Handler.WIDGET_CLOSED) >= TimeUnit.MILLISECONDS.toNanos(2));
+		assertEquals("Max should match the only invocation",
+			metrics.getTotalNanos(Handler.WIDGET_CLOSED), metrics.getMaxNanos(Handler.WIDGET_CLOSED));
+		assertEquals("Busy time should match", metrics.getTotalNanos(Handler.WIDGET_CLOSED), metrics.getBusyNanos());
+	}
+
+	@Test
+	public void testRecord_countsInvocationsOverBudget() {
+		// Act
+		metrics.record(Handler.WIDGET_LOADED_DEFERRED, metrics.start());
+		metrics.record(Handler.WIDGET_LOADED_DEFERRED, System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(5));
+
+		// Assert
+		assertEquals("Only the slow invocation is over budget", 1, metrics.getOverBudget(Handler.WIDGET_LOADED_DEFERRED));
+	}
+
+	@Test
+	public void testSetBudgetMicros_changesThreshold() {
+		// Arrange
+		metrics.setBudgetMicros(10_000);
+
+		// Act
+		metrics.record(Handler.WIDGET_LOADED_DEFERRED, System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(5));
+
+		// Assert
+		assertEquals("5ms is within a 10ms budget", 0, metrics.getOverBudget(Handler.WIDGET_LOADED_DEFERRED));
+	}
+
+	@Test
+	public void testSampleClientThreadShare_reportsBusyFraction() throws InterruptedException {
+		// Arrange - 100ms of handler time within a window of just over a second
+		metrics.reset();
+		metrics.record(Handler.OVERHEAD_TEXT_CHANGED, System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(100));
+		Thread.sleep(1050);
+
+		// Act
+		double share = metrics.sampleClientThreadShare();
+
+		// Assert
+		assertTrue("Share should be roughly 10% but was " + share, share > 0.05 && share < 0.11);
+	}
+
+	@Test
+	public void testReset_clearsCounters() {
+		// Arrange
+		metrics.record(Handler.WIDGET_LOADED, System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(5));
+
+		// Act
+		metrics.reset();
+
+		// Assert
+		assertEquals("Invocations cleared", 0, metrics.getInvocations(Handler.WIDGET_LOADED));
+		assertEquals("Over budget cleared", 0, metrics.getOverBudget(Handler.WIDGET_LOADED));
+		assertEquals("Busy time cleared", 0, metrics.getBusyNanos());
+	}
+}
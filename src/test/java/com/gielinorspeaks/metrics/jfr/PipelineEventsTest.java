@@ -0,0 +1,120 @@
+package com.gielinorspeaks.metrics.jfr;
+
+import com.gielinorspeaks.model.DialogueSource;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for PipelineEvents.
+ * Focus: nothing is allocated while no recording runs, and events reach a running recording.
+ */
+public class PipelineEventsTest {
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Before
+	public void setUp() {
+		PipelineEvents.install();
+	}
+
+	@After
+	public void tearDown() {
+		PipelineEvents.uninstall();
+	}
+
+	// ===========================
+	// Not Recording
+	// ===========================
+
+	@Test
+	public void testBegin_returnsNullWhenNotRecording() {
+		// Assert
+		assertFalse("No recording is running", PipelineEvents.isRecording());
+		assertNull("No event should be created", PipelineEvents.beginCacheLookup());
+		assertNull("No event should be created", PipelineEvents.beginFetch());
+		assertNull("No event should be created", PipelineEvents.beginDecode());
+		assertNull("No event should be created", PipelineEvents.beginPlayback());
+	}
+
+	@Test
+	public void testEnd_acceptsNullHandle() {
+		// Act - Should not throw
+		PipelineEvents.endCacheLookup(null, 1234, 1L, PipelineEvents.LookupResult.MISS);
+		PipelineEvents.endFetch(null, 1234, 1L, 200, 10);
+		PipelineEvents.endDecode(null, 1L, 10, 20);
+		PipelineEvents.endPlayback(null, 20, false);
+		PipelineEvents.dialogueDetected(DialogueSource.DIALOGUE_BOX, 1234);
+	}
+
+	// ===========================
+	// Recording
+	// ===========================
+
+	@Test
+	public void testRecording_enablesEventsWhileRunning() throws Exception {
+		Path dump = temporaryFolder.getRoot().toPath().resolve("pipeline.jfr");
+
+		// Arrange
+		try (Recording recording = new Recording()) {
+			recording.start();
+			assertTrue("Events should be enabled while recording", PipelineEvents.isRecording());
+
+			// Act
+			PipelineEvents.dialogueDetected(DialogueSource.OVERHEAD_TEXT, 1234);
+			Object lookup = PipelineEvents.beginCacheLookup();
+			assertNotNull("Lookup event should be created while recording", lookup);
+			PipelineEvents.endCacheLookup(lookup, 1234, 42L, PipelineEvents.LookupResult.DISK);
+
+			recording.stop();
+			recording.dump(dump);
+		}
+
+		// Assert
+		assertFalse("Events should be disabled once recording stops", PipelineEvents.isRecording());
+		List<RecordedEvent> events = RecordingFile.readAllEvents(dump).stream()
+			.filter(e -> e.getEventType().getName().startsWith("gielinorspeaks."))
+			.collect(Collectors.toList());
+		assertEquals("Both events should be recorded", 2, events.size());
+
+		RecordedEvent detected = find(events, "gielinorspeaks.DialogueDetected");
+		assertEquals("Source should be recorded", "OVERHEAD_TEXT", detected.getString("source"));
+		assertEquals("NPC id should be recorded", 1234, detected.getInt("npcId"));
+
+		RecordedEvent lookup = find(events, "gielinorspeaks.CacheLookup");
+		assertEquals("Lookup result should be recorded", "DISK", lookup.getString("result"));
+		assertEquals("Hash should be recorded", 42L, lookup.getLong("dialogueHash"));
+	}
+
+	@Test
+	public void testUninstall_disablesEventsDuringRecording() {
+		try (Recording recording = new Recording()) {
+			recording.start();
+
+			// Act
+			PipelineEvents.uninstall();
+
+			// Assert
+			assertFalse("Events should be disabled after uninstall", PipelineEvents.isRecording());
+			assertNull("No event should be created after uninstall", PipelineEvents.beginFetch());
+		}
+	}
+
+	private static RecordedEvent find(List<RecordedEvent> events, String name) {
+		return events.stream()
+			.filter(e -> e.getEventType().getName().equals(name))
+			.findFirst()
+			.orElseThrow(() -> new AssertionError("Missing event " + name));
+	}
+}
@@ -0,0 +1,126 @@
+package com.gielinorspeaks.model;
+
+import com.gielinorspeaks.cache.DialogueHash;
+import com.gielinorspeaks.model.QuestStageTable.VarType;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for QuestStageTable.
+ * Focus: Parsing the server's table, skipping what it can't read, and finding the bundles for a
+ * quest stage.
+ */
+public class QuestStageTableTest {
+	private static final long GREETING = DialogueHash.of(3308, "Greetings!");
+	private static final long FAREWELL = DialogueHash.of(3308, "Farewell!");
+	private static final long THANKS = DialogueHash.of(4626, "Thank you!");
+
+	// ===========================
+	// Parsing
+	// ===========================
+
+	@Test
+	public void testParse_readsBundlesWithEmotions() throws IOException {
+		// Act
+		QuestStageTable table = parse(
+			"# Cook's Assistant",
+			"",
+			"varp 29 1 1 4626 " + DialogueHash.toHex(THANKS) + ":happy",
+			"varbit 281 1 3 3308 " + DialogueHash.toHex(GREETING) + " " + DialogueHash.toHex(FAREWELL));
+
+		// Assert
+		assertEquals("Comments and blank lines should be skipped", 2, table.getBundleCount());
+		assertEquals("NPC should be read", 4626, table.getNpcId(0));
+		assertEquals("Emotion should be read", Emotion.HAPPY, table.getEmotion(0, 0));
+		assertEquals("Each line of a bundle should be read", 2, table.getLineCount(1));
+		assertEquals("Lines should keep their order", FAREWELL, table.getLineHash(1, 1));
+		assertEquals("Lines without an emotion should be neutral", Emotion.NEUTRAL, table.getEmotion(1, 0));
+	}
+
+	@Test
+	public void testParse_skipsMalformedBundles() throws IOException {
+		// Act
+		QuestStageTable table = parse(
+			"varbit 281 1 3 3308",
+			"varbyte 281 1 3 3308 " + DialogueHash.toHex(GREETING),
+			"varbit 281 3 1 3308 " + DialogueHash.toHex(GREETING),
+			"varbit 281 1 3 3308 nothex",
+			"varbit 281 1 3 3308 " + DialogueHash.toHex(GREETING) + ":grumpy",
+			"varbit 281 1 3 3308 " + DialogueHash.toHex(GREETING));
+
+		// Assert
+		assertEquals("Only the well-formed bundle should be kept", 1, table.getBundleCount());
+		assertEquals("Kept bundle should be intact", GREETING, table.getLineHash(0, 0));
+	}
+
+	@Test
+	public void testParse_growsPastInitialCapacity() throws IOException {
+		// Arrange
+		String[] lines = new String[200];
+		for (int i = 0; i < lines.length; i++) {
+			lines[i] = "varbit " + i + " 0 10 " + i + " " + DialogueHash.toHex(GREETING) + " " + DialogueHash.toHex(FAREWELL);
+		}
+
+		// Act
+		QuestStageTable table = parse(lines);
+
+		// Assert
+		assertEquals("Every bundle should be kept", 200, table.getBundleCount());
+		assertEquals("Last bundle should keep its lines", FAREWELL, table.getLineHash(199, 1));
+		assertEquals("Every variable should be tracked", 200, table.getTrackedIds(VarType.VARBIT).length);
+	}
+
+	// ===========================
+	// Lookup
+	// ===========================
+
+	@Test
+	public void testForEachBundle_matchesStageRangeInclusive() throws IOException {
+		// Arrange
+		QuestStageTable table = parse(
+			"varbit 281 1 3 3308 " + DialogueHash.toHex(GREETING),
+			"varbit 281 4 4 3308 " + DialogueHash.toHex(FAREWELL),
+			"varp 281 1 3 4626 " + DialogueHash.toHex(THANKS));
+
+		// Act & Assert
+		assertEquals("First stage of the range should match", Arrays.asList(0), bundles(table, VarType.VARBIT, 281, 1));
+		assertEquals("Last stage of the range should match", Arrays.asList(0), bundles(table, VarType.VARBIT, 281, 3));
+		assertEquals("Next stage should match the next bundle", Arrays.asList(1), bundles(table, VarType.VARBIT, 281, 4));
+		assertEquals("Stages outside every range should match nothing", Arrays.asList(), bundles(table, VarType.VARBIT, 281, 5));
+		assertEquals("Varps should be told apart from varbits", Arrays.asList(2), bundles(table, VarType.VARP, 281, 2));
+	}
+
+	@Test
+	public void testGetTrackedIds_sortedAndDistinctPerType() throws IOException {
+		// Arrange
+		QuestStageTable table = parse(
+			"varbit 900 1 1 1 " + DialogueHash.toHex(GREETING),
+			"varbit 281 1 1 1 " + DialogueHash.toHex(GREETING),
+			"varbit 900 2 2 1 " + DialogueHash.toHex(GREETING),
+			"varp 29 1 1 1 " + DialogueHash.toHex(GREETING));
+
+		// Act & Assert
+		assertArrayEquals("Varbits should be sorted and distinct", new int[]{281, 900}, table.getTrackedIds(VarType.VARBIT));
+		assertArrayEquals("Varps should be tracked separately", new int[]{29}, table.getTrackedIds(VarType.VARP));
+		assertEquals("Tracked varbit should be found", 1, table.indexOfTracked(VarType.VARBIT, 900));
+		assertTrue("Untracked varbit should not be found", table.indexOfTracked(VarType.VARBIT, 29) < 0);
+	}
+
+	private static List<Integer> bundles(QuestStageTable table, VarType type, int varId, int stage) {
+		List<Integer> bundles = new ArrayList<>();
+		table.forEachBundle(type, varId, stage, bundles::add);
+		return bundles;
+	}
+
+	private static QuestStageTable parse(String... lines) throws IOException {
+		return QuestStageTable.parse(new BufferedReader(new StringReader(String.join("\n", lines))));
+	}
+}
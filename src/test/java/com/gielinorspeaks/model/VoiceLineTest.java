@@ -0,0 +1,115 @@
+package com.gielinorspeaks.model;
+
+import com.gielinorspeaks.cache.DialogueHash;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for VoiceLine.
+ * Focus: the DialogueEvent adapter round-trips, and creating a line allocates less than
+ * creating the equivalent DialogueEvent.
+ */
+public class VoiceLineTest {
+	private static final int ALLOCATION_ITERATIONS = 100_000;
+	private static final int SINK_SIZE = 1024;
+
+	/**
+	 * CHATANGRY1; above the Integer cache, so boxing it allocates.
+	 */
+	private static final int ANIMATION = 614;
+
+	// ===========================
+	// Adapter
+	// ===========================
+
+	@Test
+	public void testToDialogueEvent_mapsSentinelToNull() {
+		// Arrange
+		VoiceLine line = new VoiceLine(1234, "Hans", "Hello!", DialogueSource.OVERHEAD_TEXT, VoiceLine.NO_ANIMATION);
+
+		// Act
+		DialogueEvent event = line.toDialogueEvent();
+
+		// Assert
+		assertNull("Missing animation should be null", event.getAnimationId());
+		assertEquals("Text should be carried over", "Hello!", event.getDialogueText());
+		assertSame("Name should not be copied", line.getNpcName(), event.getNpcName());
+	}
+
+	@Test
+	public void testFrom_roundTripsDialogueEvent() {
+		// Arrange
+		DialogueEvent event = new DialogueEvent(1234, "Hans", "Hello!", DialogueSource.DIALOGUE_BOX, ANIMATION);
+
+		// Act
+		VoiceLine line = VoiceLine.from(event);
+
+		// Assert
+		assertTrue("Animation should be present", line.hasAnimation());
+		assertEquals("Animation should be carried over", ANIMATION, line.getAnimationId());
+		assertEquals("Line hash should be precomputed", DialogueHash.of(1234, "Hello!"), line.getLineHash());
+		assertEquals("Adapter should round-trip", event, line.toDialogueEvent());
+	}
+
+	// ===========================
+	// Allocation
+	// ===========================
+
+	@Test
+	public void testConstruction_allocatesLessThanDialogueEvent() {
+		// Arrange
+		com.sun.management.ThreadMXBean threads = allocationCounter();
+		// The detection services take the NPC from the NpcTable, created once per composition
+		NpcInfo npc = new NpcInfo(1234, "Hans");
+		String text = "Hello!";
+		create(true, npc, text, ALLOCATION_ITERATIONS);
+		create(false, npc, text, ALLOCATION_ITERATIONS);
+
+		// Act
+		long eventBytes = measure(threads, true, npc, text);
+		long lineBytes = measure(threads, false, npc, text);
+
+		// Assert
+		assertTrue("VoiceLine (" + lineBytes + "B) should allocate less than DialogueEvent (" + eventBytes + "B)",
+			lineBytes < eventBytes);
+	}
+
+	private static com.sun.management.ThreadMXBean allocationCounter() {
+		Assume.assumeTrue("Allocation counting not supported",
+			ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue("Allocation counting not supported", threads.isThreadAllocatedMemorySupported());
+		threads.setThreadAllocatedMemoryEnabled(true);
+		return threads;
+	}
+
+	/**
+	 * Bytes allocated per object created, averaged over {@link #ALLOCATION_ITERATIONS}.
+	 */
+	private static long measure(com.sun.management.ThreadMXBean threads, boolean dialogueEvent, NpcInfo npc, String text) {
+		long threadId = Thread.currentThread().getId();
+		long before = threads.getThreadAllocatedBytes(threadId);
+		create(dialogueEvent, npc, text, ALLOCATION_ITERATIONS);
+		return (threads.getThreadAllocatedBytes(threadId) - before) / ALLOCATION_ITERATIONS;
+	}
+
+	/**
+	 * Creates {@code count} objects, keeping them reachable through a small array so escape
+	 * analysis can't remove the allocations.
+	 */
+	private static Object[] create(boolean dialogueEvent, NpcInfo npc, String text, int count) {
+		Object[] sink = new Object[SINK_SIZE];
+		for (int i = 0; i < count; i++) {
+			// Same work the detection services do per line
+			int animation = ANIMATION + (i & 3);
+			sink[i & (SINK_SIZE - 1)] = dialogueEvent
+				? new DialogueEvent(npc.getId(), npc.getName(), text, DialogueSource.DIALOGUE_BOX, animation)
+				: new VoiceLine(npc, text, DialogueSource.DIALOGUE_BOX, animation);
+		}
+		return sink;
+	}
+}
@@ -1,5 +1,6 @@
 package com.gielinorspeaks.service;
 
+import com.gielinorspeaks.metrics.ClientThreadMetrics;
 import com.gielinorspeaks.model.DialogueEvent;
 import net.runelite.api.Client;
 import net.runelite.api.NPC;
@@ -26,6 +27,7 @@ public abstract class DialogueDetectionServiceTestBase {
 	protected NPC mockNpc;
 	protected Widget mockDialogWidget;
 	protected Widget mockHeadWidget;
+	protected ClientThreadMetrics metrics;
 
 	protected List<DialogueEvent> capturedDialogueEvents;
 	protected List<Integer> capturedDialogueEndEvents;
@@ -38,8 +40,9 @@ public abstract class DialogueDetectionServiceTestBase {
 		mockNpc = mock(NPC.class);
 		mockDialogWidget = mock(Widget.class);
 		mockHeadWidget = mock(Widget.class);
+		metrics = new ClientThreadMetrics();
 
-		service = new DialogueDetectionService(mockClient, mockClientThread);
+		service = new DialogueDetectionService(mockClient, mockClientThread, metrics, new NpcTable());
 
 		capturedDialogueEvents = new ArrayList<>();
 		capturedDialogueEndEvents = new ArrayList<>();
@@ -2,12 +2,18 @@ package com.gielinorspeaks.service;
 
 import com.gielinorspeaks.model.DialogueEvent;
 import com.gielinorspeaks.model.DialogueSource;
+import com.gielinorspeaks.model.VoiceLine;
+import net.runelite.api.NPC;
+import net.runelite.api.events.InteractingChanged;
 import net.runelite.api.events.WidgetClosed;
 import net.runelite.api.events.WidgetLoaded;
 import net.runelite.api.gameval.InterfaceID;
 import net.runelite.api.widgets.Widget;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
@@ -345,4 +351,108 @@ public class DialogueDetectionServiceWidgetTest extends DialogueDetectionService
 		// Assert - Should fire again because state was reset
 		assertEquals("Should fire dialogue event after reset", 1, capturedDialogueEvents.size());
 	}
+
+	// ===========================
+	// Line History Tests
+	// ===========================
+
+	@Test
+	public void testReopenedDialogue_sendsLineAsRepeat() {
+		// Arrange
+		List<VoiceLine> lines = new ArrayList<>();
+		List<VoiceLine> repeats = new ArrayList<>();
+		service.setLineCallback(lines::add);
+		service.setRepeatCallback(repeats::add);
+		setupNpcInteraction();
+		loadDialogue("Hello!");
+		loadDialogue("Lovely day.");
+		closeDialogue();
+
+		// Act
+		loadDialogue("Hello!");
+
+		// Assert
+		assertEquals("Lines said once should go to the line callback", 2, lines.size());
+		assertEquals("Line said again after re-opening should go to the repeat callback", 1, repeats.size());
+		assertEquals("Repeat should be the same line", lines.get(0).getLineHash(), repeats.get(0).getLineHash());
+		assertEquals("Dialogue callback should still see every line", 3, capturedDialogueEvents.size());
+	}
+
+	@Test
+	public void testReopenedDialogue_sendsRepeatToLineCallbackWhenNoRepeatCallback() {
+		// Arrange
+		List<VoiceLine> lines = new ArrayList<>();
+		service.setLineCallback(lines::add);
+		setupNpcInteraction();
+		loadDialogue("Hello!");
+		closeDialogue();
+
+		// Act
+		loadDialogue("Hello!");
+
+		// Assert
+		assertEquals("Repeat should fall back to the line callback", 2, lines.size());
+	}
+
+	@Test
+	public void testNewInteraction_clearsLineHistory() {
+		// Arrange
+		List<VoiceLine> repeats = new ArrayList<>();
+		service.setRepeatCallback(repeats::add);
+		setupNpcInteraction();
+		loadDialogue("Hello!");
+		closeDialogue();
+
+		NPC otherNpc = mock(NPC.class);
+		when(otherNpc.getId()).thenReturn(1234);
+		when(otherNpc.getName()).thenReturn("Hans");
+		when(otherNpc.getIndex()).thenReturn(99);
+		when(otherNpc.getAnimation()).thenReturn(-1);
+		InteractingChanged interaction = mock(InteractingChanged.class);
+		when(interaction.getSource()).thenReturn(mockPlayer);
+		when(mockPlayer.getInteracting()).thenReturn(otherNpc);
+		service.onInteractingChanged(interaction);
+
+		// Act
+		loadDialogue("Hello!");
+
+		// Assert
+		assertEquals("Both lines should be sent", 2, capturedDialogueEvents.size());
+		assertTrue("Line in a new interaction should not be a repeat", repeats.isEmpty());
+	}
+
+	@Test
+	public void testLineHistory_forgetsOldestLines() {
+		// Arrange
+		List<VoiceLine> repeats = new ArrayList<>();
+		service.setRepeatCallback(repeats::add);
+		setupNpcInteraction();
+		for (int i = 0; i <= DialogueDetectionService.RECENT_LINES; i++) {
+			loadDialogue("Line " + i);
+		}
+
+		// Act
+		loadDialogue("Line 0");
+		loadDialogue("Line " + DialogueDetectionService.RECENT_LINES);
+
+		// Assert
+		assertEquals("Only the line still in the history should be a repeat", 1, repeats.size());
+		assertEquals("Recent line should be the repeat", "Line " + DialogueDetectionService.RECENT_LINES,
+			repeats.get(0).getText());
+	}
+
+	private void loadDialogue(String text) {
+		WidgetLoaded event = mock(WidgetLoaded.class);
+		when(event.getGroupId()).thenReturn(InterfaceID.CHAT_LEFT);
+		when(mockClient.getWidget(InterfaceID.ChatLeft.TEXT)).thenReturn(mockDialogWidget);
+		when(mockDialogWidget.isHidden()).thenReturn(false);
+		when(mockDialogWidget.getText()).thenReturn(text);
+		service.onWidgetLoaded(event);
+	}
+
+	private void closeDialogue() {
+		WidgetClosed event = mock(WidgetClosed.class);
+		when(event.getGroupId()).thenReturn(InterfaceID.CHAT_LEFT);
+		service.onWidgetClosed(event);
+	}
 }
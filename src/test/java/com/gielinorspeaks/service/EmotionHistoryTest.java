@@ -0,0 +1,68 @@
+package com.gielinorspeaks.service;
+
+import com.gielinorspeaks.model.Emotion;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for EmotionHistory.
+ * Focus: likeliest() ranks an NPC's emotions by frequency, and NPCs don't share counts.
+ */
+public class EmotionHistoryTest {
+	@Test
+	public void testLikeliest_ordersByFrequencyAndSkipsExcluded() {
+		// Arrange
+		EmotionHistory history = new EmotionHistory();
+		history.record(1, Emotion.HAPPY);
+		history.record(1, Emotion.ANGRY);
+		history.record(1, Emotion.ANGRY);
+		history.record(1, Emotion.NEUTRAL);
+		history.record(1, Emotion.NEUTRAL);
+		history.record(1, Emotion.NEUTRAL);
+		Emotion[] out = new Emotion[2];
+
+		// Act
+		int count = history.likeliest(1, Emotion.NEUTRAL, out);
+
+		// Assert
+		assertEquals("Two emotions should be returned", 2, count);
+		assertEquals("Most frequent emotion should come first", Emotion.ANGRY, out[0]);
+		assertEquals("Second most frequent emotion should come next", Emotion.HAPPY, out[1]);
+	}
+
+	@Test
+	public void testLikeliest_onlyReturnsSeenEmotionsOfThatNpc() {
+		// Arrange
+		EmotionHistory history = new EmotionHistory();
+		history.record(1, Emotion.SAD);
+		history.record(2, Emotion.LAUGHING);
+		Emotion[] out = new Emotion[2];
+
+		// Act
+		int count = history.likeliest(1, Emotion.NEUTRAL, out);
+
+		// Assert
+		assertEquals("Only the NPC's own emotion should be returned", 1, count);
+		assertEquals("NPC's emotion should be returned", Emotion.SAD, out[0]);
+		assertEquals("Unknown NPC should have no history", 0, history.likeliest(3, Emotion.NEUTRAL, out));
+	}
+
+	@Test
+	public void testRecord_clearsWhenFull() {
+		// Arrange
+		EmotionHistory history = new EmotionHistory();
+		history.record(0, Emotion.HAPPY);
+		Emotion[] out = new Emotion[1];
+
+		// Act
+		for (int npcId = 1; npcId <= EmotionHistory.CAPACITY; npcId++) {
+			history.record(npcId, Emotion.ANGRY);
+		}
+
+		// Assert
+		assertEquals("Oldest NPCs should be forgotten once the table fills",
+			0, history.likeliest(0, Emotion.NEUTRAL, out));
+		assertEquals("Latest NPC should be remembered", 1, history.likeliest(EmotionHistory.CAPACITY, Emotion.NEUTRAL, out));
+	}
+}
@@ -0,0 +1,178 @@
+package com.gielinorspeaks.service;
+
+import com.gielinorspeaks.cache.DialogueHash;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for NearMatchIndex.
+ * Focus: closest() finds an NPC's voiced line despite punctuation, numbers or a changed word,
+ * turns down unrelated lines and other NPCs' lines, and the index stays within its bounds.
+ */
+public class NearMatchIndexTest {
+	private static final int NPC = 1234;
+	private static final String ORIGINAL = "I've been trying to catch that goblin for weeks, can you help me?";
+
+	// ===========================
+	// Matching
+	// ===========================
+
+	@Test
+	public void testClosest_ignoresPunctuationAndCase() {
+		// Arrange
+		NearMatchIndex index = indexWith(ORIGINAL);
+
+		// Act
+		long match = query(index, "i've been trying to catch that goblin for weeks. Can you help me");
+
+		// Assert
+		assertEquals("Punctuation and case changes should match the original", hash(ORIGINAL), match);
+	}
+
+	@Test
+	public void testClosest_matchesLineWithChangedWordOrNumber() {
+		// Arrange
+		NearMatchIndex index = indexWith(ORIGINAL, "That will be 50 coins, please.");
+
+		// Act
+		long changedWord = query(index, "I've been trying to catch that goblin for days, can you help me?");
+		long changedNumber = query(index, "That will be 125 coins, please.");
+
+		// Assert
+		assertEquals("A changed word should still match", hash(ORIGINAL), changedWord);
+		assertEquals("A changed number should still match", hash("That will be 50 coins, please."), changedNumber);
+	}
+
+	@Test
+	public void testClosest_picksMostSimilarLine() {
+		// Arrange
+		NearMatchIndex index = indexWith("Would you like to buy some fish?", "Would you like to buy some bread?");
+
+		// Act
+		long match = query(index, "Would you like to buy some fresh fish?");
+
+		// Assert
+		assertEquals("The closer of two similar lines should win", hash("Would you like to buy some fish?"), match);
+	}
+
+	@Test
+	public void testClosest_rejectsUnrelatedLine() {
+		// Arrange
+		NearMatchIndex index = indexWith(ORIGINAL, "Welcome to Varrock!", "Mind the cows on your way out.");
+
+		// Act
+		long match = query(index, "The bank is just north of the square.");
+
+		// Assert
+		assertEquals("An unrelated line should not match", NearMatchIndex.NO_MATCH, match);
+	}
+
+	@Test
+	public void testClosest_onlySearchesThatNpc() {
+		// Arrange
+		NearMatchIndex index = new NearMatchIndex();
+		index.add(5678, DialogueHash.of(5678, ORIGINAL), ORIGINAL);
+
+		// Act
+		long match = query(index, ORIGINAL + " ");
+
+		// Assert
+		assertEquals("Another NPC's line should not match", NearMatchIndex.NO_MATCH, match);
+	}
+
+	@Test
+	public void testClosest_skipsTheLineItself() {
+		// Arrange
+		NearMatchIndex index = indexWith(ORIGINAL);
+
+		// Act
+		long match = index.closest(NPC, hash(ORIGINAL), ORIGINAL);
+
+		// Assert
+		assertEquals("A line should not be its own near match", NearMatchIndex.NO_MATCH, match);
+	}
+
+	@Test
+	public void testClosest_ignoresTextWithoutWords() {
+		// Arrange
+		NearMatchIndex index = indexWith("...", ORIGINAL);
+
+		// Act
+		long match = query(index, "?!");
+
+		// Assert
+		assertEquals("Text without letters or digits should not match", NearMatchIndex.NO_MATCH, match);
+		assertEquals("Text without letters or digits should not be indexed", 1, index.size());
+	}
+
+	// ===========================
+	// Bounds
+	// ===========================
+
+	@Test
+	public void testAdd_indexesEachLineOnce() {
+		// Arrange
+		NearMatchIndex index = indexWith(ORIGINAL);
+
+		// Act
+		index.add(NPC, hash(ORIGINAL), ORIGINAL);
+
+		// Assert
+		assertEquals("A line added twice should be indexed once", 1, index.size());
+		assertTrue("Line should be indexed", index.contains(NPC, hash(ORIGINAL)));
+	}
+
+	@Test
+	public void testAdd_evictsLeastRecentlyUsedNpc() {
+		// Arrange - The first NPC fills the index, then is looked up so the second is older
+		NearMatchIndex index = new NearMatchIndex();
+		index.add(1, DialogueHash.of(1, "First NPC"), "First NPC");
+		index.add(2, DialogueHash.of(2, "Second NPC"), "Second NPC");
+		for (int i = 0; i < NearMatchIndex.MAX_LINES - 2; i++) {
+			index.add(3, DialogueHash.of(3, "Line " + i), "Line " + i);
+		}
+		index.closest(1, 0, "First NPC!");
+
+		// Act
+		index.add(4, DialogueHash.of(4, "Fourth NPC"), "Fourth NPC");
+
+		// Assert
+		assertEquals("Index should stay within its capacity", NearMatchIndex.MAX_LINES, index.size());
+		assertFalse("Least recently used NPC should be evicted", index.contains(2, DialogueHash.of(2, "Second NPC")));
+		assertTrue("Recently used NPC should be kept", index.contains(1, DialogueHash.of(1, "First NPC")));
+	}
+
+	@Test
+	public void testEstimateBytes_growsWithLines() {
+		// Arrange
+		NearMatchIndex index = new NearMatchIndex();
+		long empty = index.estimateBytes();
+
+		// Act
+		for (int i = 0; i < 1000; i++) {
+			index.add(NPC, DialogueHash.of(NPC, "Line " + i), "Line " + i);
+		}
+
+		// Assert
+		assertEquals("An empty index should use nothing", 0, empty);
+		assertTrue("A thousand lines should cost at least their signatures",
+			index.estimateBytes() >= 1000L * NearMatchIndex.BYTES_PER_LINE);
+	}
+
+	private static NearMatchIndex indexWith(String... texts) {
+		NearMatchIndex index = new NearMatchIndex();
+		for (String text : texts) {
+			index.add(NPC, hash(text), text);
+		}
+		return index;
+	}
+
+	private static long query(NearMatchIndex index, String text) {
+		return index.closest(NPC, hash(text), text);
+	}
+
+	private static long hash(String text) {
+		return DialogueHash.of(NPC, text);
+	}
+}
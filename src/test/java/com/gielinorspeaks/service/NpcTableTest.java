@@ -0,0 +1,85 @@
+package com.gielinorspeaks.service;
+
+import com.gielinorspeaks.cache.DialogueHash;
+import com.gielinorspeaks.model.NpcInfo;
+import net.runelite.api.NPC;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for NpcTable.
+ * Focus: an NPC is read from the actor once per composition, and the table keeps every
+ * entry as it grows.
+ */
+public class NpcTableTest {
+	@Test
+	public void testIntern_readsNameOnlyOnFirstSight() {
+		// Arrange
+		NpcTable table = new NpcTable();
+		NPC npc = createNpc(1234, "Hans");
+
+		// Act
+		NpcInfo first = table.intern(npc);
+		NpcInfo second = table.intern(npc);
+
+		// Assert
+		assertSame("Same composition should share one entry", first, second);
+		assertEquals("Name should be canonical", "Hans", first.getName());
+		assertEquals("Name hash should be precomputed", DialogueHash.ofName("Hans"), first.getNameHash());
+		verify(npc, times(1)).getName();
+	}
+
+	@Test
+	public void testIntern_usesPlaceholderForNullName() {
+		// Arrange
+		NpcTable table = new NpcTable();
+
+		// Act
+		NpcInfo info = table.intern(createNpc(1234, null));
+
+		// Assert
+		assertEquals("Should use 'Unknown' for null name", NpcTable.UNKNOWN_NAME, info.getName());
+	}
+
+	@Test
+	public void testIntern_keepsEntriesWhenGrowing() {
+		// Arrange
+		NpcTable table = new NpcTable();
+		int count = NpcTable.INITIAL_CAPACITY * 2;
+
+		// Act
+		for (int id = 0; id < count; id++) {
+			table.intern(createNpc(id, "Npc " + id));
+		}
+
+		// Assert
+		assertEquals("Every NPC should be in the table", count, table.size());
+		for (int id = 0; id < count; id++) {
+			assertEquals("Entry should survive growing", "Npc " + id, table.get(id).getName());
+		}
+		assertNull("Unseen NPC should not be in the table", table.get(count));
+	}
+
+	@Test
+	public void testClear_forgetsEntries() {
+		// Arrange
+		NpcTable table = new NpcTable();
+		table.intern(createNpc(1234, "Hans"));
+
+		// Act
+		table.clear();
+
+		// Assert
+		assertNull("Entry should be gone", table.get(1234));
+		assertEquals("Table should be empty", 0, table.size());
+	}
+
+	private static NPC createNpc(int id, String name) {
+		NPC npc = mock(NPC.class);
+		when(npc.getId()).thenReturn(id);
+		when(npc.getName()).thenReturn(name);
+		return npc;
+	}
+}
@@ -1,9 +1,16 @@
 package com.gielinorspeaks.service;
 
+import com.gielinorspeaks.cache.DialogueHash;
+import com.gielinorspeaks.metrics.ClientThreadMetrics;
 import com.gielinorspeaks.model.DialogueEvent;
 import com.gielinorspeaks.model.DialogueSource;
+import com.gielinorspeaks.model.NpcInfo;
+import com.gielinorspeaks.model.VoiceLine;
+import net.runelite.api.Client;
 import net.runelite.api.NPC;
 import net.runelite.api.Player;
+import net.runelite.api.coords.LocalPoint;
+import net.runelite.api.events.GameTick;
 import net.runelite.api.events.OverheadTextChanged;
 import org.junit.Before;
 import org.junit.Test;
@@ -16,15 +23,22 @@ import static org.mockito.Mockito.*;
 
 /**
  * Tests for OverheadTextService.
- * Focus: Ensuring NPC overhead text is properly detected and player overhead text is filtered out.
+ * Focus: Ensuring NPC overhead text is properly detected and player overhead text is filtered out,
+ * and that each tick's text is deduplicated, prioritized and handed off once, on the game tick.
  */
 public class OverheadTextServiceTest {
 	private OverheadTextService service;
+	private Client mockClient;
+	private ClientThreadMetrics metrics;
+	private NpcTable npcTable;
 	private List<DialogueEvent> capturedDialogueEvents;
 
 	@Before
 	public void setUp() {
-		service = new OverheadTextService();
+		mockClient = mock(Client.class);
+		metrics = new ClientThreadMetrics();
+		npcTable = new NpcTable();
+		service = new OverheadTextService(mockClient, metrics, npcTable);
 		capturedDialogueEvents = new ArrayList<>();
 		service.setDialogueCallback(capturedDialogueEvents::add);
 	}
@@ -46,6 +60,7 @@ public class OverheadTextServiceTest {
 
 		// Act
 		service.onOverheadTextChanged(event);
+		tick();
 
 		// Assert
 		assertEquals("Should capture one overhead text event", 1, capturedDialogueEvents.size());
@@ -68,6 +83,7 @@ public class OverheadTextServiceTest {
 
 		// Act
 		service.onOverheadTextChanged(event);
+		tick();
 
 		// Assert
 		assertEquals("Should not capture player overhead text", 0, capturedDialogueEvents.size());
@@ -86,6 +102,7 @@ public class OverheadTextServiceTest {
 
 		// Act
 		service.onOverheadTextChanged(event);
+		tick();
 
 		// Assert
 		assertEquals("Should not capture null overhead text", 0, capturedDialogueEvents.size());
@@ -104,6 +121,7 @@ public class OverheadTextServiceTest {
 
 		// Act
 		service.onOverheadTextChanged(event);
+		tick();
 
 		// Assert
 		assertEquals("Should not capture empty overhead text", 0, capturedDialogueEvents.size());
@@ -122,6 +140,7 @@ public class OverheadTextServiceTest {
 
 		// Act
 		service.onOverheadTextChanged(event);
+		tick();
 
 		// Assert
 		assertEquals("Should use 'Unknown' for null name", "Unknown", capturedDialogueEvents.get(0).getNpcName());
@@ -137,6 +156,7 @@ public class OverheadTextServiceTest {
 		NPC npc2 = mock(NPC.class);
 		when(npc2.getId()).thenReturn(2222);
 		when(npc2.getName()).thenReturn("Goblin 2");
+		when(npc2.getIndex()).thenReturn(1);
 
 		OverheadTextChanged event1 = mock(OverheadTextChanged.class);
 		when(event1.getActor()).thenReturn(npc1);
@@ -149,6 +169,7 @@ public class OverheadTextServiceTest {
 		// Act
 		service.onOverheadTextChanged(event1);
 		service.onOverheadTextChanged(event2);
+		tick();
 
 		// Assert
 		assertEquals("Should capture both overhead text events", 2, capturedDialogueEvents.size());
@@ -177,6 +198,7 @@ public class OverheadTextServiceTest {
 
 		// Act - Should not throw
 		service.onOverheadTextChanged(event);
+		tick();
 
 		// Assert - No assertion needed, just shouldn't crash
 	}
@@ -194,10 +216,178 @@ public class OverheadTextServiceTest {
 
 		// Act
 		service.onOverheadTextChanged(event);
+		tick();
 
 		// Assert - Overhead text should NOT be cleaned (no HTML in overhead text)
 		assertEquals("Overhead text should be preserved as-is",
 			"Text with   multiple   spaces",
 			capturedDialogueEvents.get(0).getDialogueText());
 	}
-}
\ No newline at end of file
+
+	// ===========================
+	// Tick Batching
+	// ===========================
+
+	@Test
+	public void testOnOverheadTextChanged_holdsLinesUntilGameTick() {
+		// Arrange
+		NPC goblin = npc(5678, 1, 0, 0);
+
+		// Act
+		say(goblin, "Oi!");
+
+		// Assert
+		assertTrue("Nothing should be handed off before the tick", capturedDialogueEvents.isEmpty());
+		tick();
+		assertEquals("Line should be handed off on the tick", 1, capturedDialogueEvents.size());
+		tick();
+		assertEquals("Batch should be empty after the tick", 1, capturedDialogueEvents.size());
+	}
+
+	@Test
+	public void testOnGameTick_keepsNewestTextPerNpc() {
+		// Arrange
+		NPC goblin = npc(5678, 1, 0, 0);
+		say(goblin, "Oi!");
+		say(goblin, "Get away from me!");
+
+		// Act
+		tick();
+
+		// Assert
+		assertEquals("One line per NPC per tick", 1, capturedDialogueEvents.size());
+		assertEquals("Newest text should win", "Get away from me!", capturedDialogueEvents.get(0).getDialogueText());
+	}
+
+	@Test
+	public void testOnGameTick_voicesSameLineOnce() {
+		// Arrange - Two guards of the same kind shouting together
+		NPC near = npc(3010, 1, 128, 0);
+		NPC far = npc(3010, 2, 1280, 0);
+		List<VoiceLine> lines = new ArrayList<>();
+		service.setLineCallback(lines::add);
+		Player player = player(0, 0);
+		when(mockClient.getLocalPlayer()).thenReturn(player);
+		say(far, "Halt!");
+		say(near, "Halt!");
+
+		// Act
+		tick();
+
+		// Assert
+		assertEquals("Same line should be handed off once", 1, lines.size());
+		assertEquals("Nearest speaker should say it", 1, lines.get(0).getSpeakerIndex());
+	}
+
+	@Test
+	public void testOnGameTick_handsOffBatchOnce() {
+		// Arrange
+		List<List<VoiceLine>> batches = new ArrayList<>();
+		service.setBatchCallback(batches::add);
+		say(npc(1111, 1, 0, 0), "Arg!");
+		say(npc(2222, 2, 0, 0), "Grrr!");
+		say(npc(3333, 3, 0, 0), "Hmph.");
+
+		// Act
+		tick();
+		tick();
+
+		// Assert
+		assertEquals("Batch callback should run once for the tick with lines", 1, batches.size());
+		assertEquals("Batch should hold every line", 3, batches.get(0).size());
+		assertEquals("Lines should carry their precomputed hash", DialogueHash.of(1111, "Arg!"),
+			batches.get(0).get(0).getLineHash());
+	}
+
+	@Test
+	public void testOnGameTick_capsLinesVoicedFirstThenNearest() {
+		// Arrange - More speakers than are handed off in a tick
+		Player player = player(0, 0);
+		when(mockClient.getLocalPlayer()).thenReturn(player);
+		List<VoiceLine> lines = new ArrayList<>();
+		service.setLineCallback(lines::add);
+		NPC unavailable = npc(9000, 100, 0, 0);
+		NpcInfo unavailableInfo = npcTable.intern(unavailable);
+		for (int i = 0; i < NpcInfo.UNVOICED_LINES_BEFORE_UNAVAILABLE; i++) {
+			unavailableInfo.markUnvoiced();
+		}
+		say(unavailable, "Nobody voiced me.");
+		for (int i = 0; i < OverheadTextService.MAX_LINES_PER_TICK + 2; i++) {
+			// Further away the later they speak
+			say(npc(1000 + i, i, 128 * (OverheadTextService.MAX_LINES_PER_TICK + 2 - i), 0), "Line " + i);
+		}
+		NPC voiced = npc(8000, 200, 128 * 15, 0);
+		npcTable.intern(voiced).markVoiced();
+		say(voiced, "I have a voice.");
+
+		// Act
+		tick();
+
+		// Assert
+		assertEquals("Lines per tick should be capped", OverheadTextService.MAX_LINES_PER_TICK, lines.size());
+		assertEquals("NPC with a voice should come first, though far", 200, lines.get(0).getSpeakerIndex());
+		assertEquals("Nearest NPC without a known voice should come next",
+			OverheadTextService.MAX_LINES_PER_TICK + 1, lines.get(1).getSpeakerIndex());
+		for (VoiceLine line : lines) {
+			assertNotEquals("NPC known to have no voice should be left out", 100, line.getSpeakerIndex());
+		}
+	}
+
+	// ===========================
+	// Client Thread Metrics Tests
+	// ===========================
+
+	@Test
+	public void testOnOverheadTextChanged_recordsEveryInvocation() {
+		// Arrange
+		Player mockPlayer = mock(Player.class);
+
+		OverheadTextChanged event = mock(OverheadTextChanged.class);
+		when(event.getActor()).thenReturn(mockPlayer);
+		when(event.getOverheadText()).thenReturn("Hello!");
+
+		// Act - Filtered events still cost client thread time
+		service.onOverheadTextChanged(event);
+		service.onOverheadTextChanged(event);
+
+		// Assert
+		assertEquals("Both invocations should be counted", 2,
+			metrics.getInvocations(ClientThreadMetrics.Handler.OVERHEAD_TEXT_CHANGED));
+	}
+
+	@Test
+	public void testOnGameTick_recordsBatchInvocation() {
+		// Act
+		tick();
+
+		// Assert
+		assertEquals("Tick should be counted", 1,
+			metrics.getInvocations(ClientThreadMetrics.Handler.OVERHEAD_TEXT_BATCH));
+	}
+
+	private void tick() {
+		service.onGameTick(new GameTick());
+	}
+
+	private void say(NPC npc, String text) {
+		OverheadTextChanged event = mock(OverheadTextChanged.class);
+		when(event.getActor()).thenReturn(npc);
+		when(event.getOverheadText()).thenReturn(text);
+		service.onOverheadTextChanged(event);
+	}
+
+	private static NPC npc(int id, int index, int x, int y) {
+		NPC npc = mock(NPC.class);
+		when(npc.getId()).thenReturn(id);
+		when(npc.getName()).thenReturn("Npc " + index);
+		when(npc.getIndex()).thenReturn(index);
+		when(npc.getLocalLocation()).thenReturn(new LocalPoint(x, y));
+		return npc;
+	}
+
+	private static Player player(int x, int y) {
+		Player player = mock(Player.class);
+		when(player.getLocalLocation()).thenReturn(new LocalPoint(x, y));
+		return player;
+	}
+}
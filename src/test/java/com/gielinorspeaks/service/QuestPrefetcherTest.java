@@ -0,0 +1,198 @@
+package com.gielinorspeaks.service;
+
+import com.gielinorspeaks.api.StandInVoiceServer;
+import com.gielinorspeaks.api.VoiceApiClient;
+import com.gielinorspeaks.cache.DialogueHash;
+import com.gielinorspeaks.metrics.ClientThreadMetrics;
+import com.google.gson.Gson;
+import net.runelite.api.Client;
+import net.runelite.api.GameState;
+import net.runelite.api.events.GameStateChanged;
+import net.runelite.api.events.VarbitChanged;
+import net.runelite.client.callback.ClientThread;
+import okhttp3.OkHttpClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for QuestPrefetcher, against the stand-in voice server.
+ * Focus: Bundles for the current quest stages are queued at login, the next stage's when a
+ * quest advances, and nothing for variables or stages that don't change what's likely next.
+ */
+public class QuestPrefetcherTest {
+	private static final int QUEST_VARBIT = 281;
+	private static final int QUEST_VARP = 29;
+
+	private StandInVoiceServer server;
+	private VoiceApiClient voiceApiClient;
+	private Client mockClient;
+	private QuestPrefetcher prefetcher;
+
+	/**
+	 * NPC ids of the bundles handed to the callback, in order.
+	 */
+	private BlockingQueue<Integer> queuedNpcs;
+
+	@Before
+	public void setUp() throws IOException {
+		mockClient = mock(Client.class);
+		when(mockClient.getGameState()).thenReturn(GameState.LOGGED_IN);
+		when(mockClient.getVarbitValue(QUEST_VARBIT)).thenReturn(2);
+
+		// Run client thread work wherever it is posted from
+		ClientThread mockClientThread = mock(ClientThread.class);
+		doAnswer(invocation -> {
+			invocation.<Runnable>getArgument(0).run();
+			return null;
+		}).when(mockClientThread).invoke(any(Runnable.class));
+
+		server = new StandInVoiceServer();
+		server.setQuestStages(String.join("\n",
+			"varbit " + QUEST_VARBIT + " 1 3 3308 " + DialogueHash.toHex(DialogueHash.of(3308, "Greetings!")),
+			"varbit " + QUEST_VARBIT + " 4 5 3309 " + DialogueHash.toHex(DialogueHash.of(3309, "Nearly there.")),
+			"varp " + QUEST_VARP + " 1 1 4626 " + DialogueHash.toHex(DialogueHash.of(4626, "Thank you!"))));
+		voiceApiClient = new VoiceApiClient(new OkHttpClient(), new Gson());
+		voiceApiClient.setBaseUrl(server.start());
+
+		queuedNpcs = new LinkedBlockingQueue<>();
+		prefetcher = new QuestPrefetcher(mockClient, mockClientThread, new ClientThreadMetrics(), voiceApiClient);
+		prefetcher.setBundleCallback((table, bundle) -> queuedNpcs.add(table.getNpcId(bundle)));
+	}
+
+	@After
+	public void tearDown() {
+		server.close();
+	}
+
+	// ===========================
+	// Login
+	// ===========================
+
+	@Test
+	public void testLogin_queuesBundlesForCurrentStages() throws Exception {
+		// Act
+		login();
+
+		// Assert
+		assertEquals("Bundle for the current stage should be queued", Integer.valueOf(3308), queuedNpcs.poll(5, TimeUnit.SECONDS));
+		assertNull("Bundles for other stages should not be queued", queuedNpcs.poll(100, TimeUnit.MILLISECONDS));
+		assertEquals("Table should be downloaded once", 1, server.getRequests().get());
+	}
+
+	@Test
+	public void testLogin_afterLoadingScreenQueuesNothingNew() throws Exception {
+		// Arrange
+		login();
+		queuedNpcs.poll(5, TimeUnit.SECONDS);
+
+		// Act - LOGGED_IN follows every loading screen
+		login();
+
+		// Assert
+		assertTrue("Nothing should be queued again", queuedNpcs.isEmpty());
+		assertEquals("Table should not be downloaded again", 1, server.getRequests().get());
+	}
+
+	// ===========================
+	// Quest Progress
+	// ===========================
+
+	@Test
+	public void testVarbitChanged_queuesBundlesOfNextStage() throws Exception {
+		// Arrange
+		login();
+		queuedNpcs.poll(5, TimeUnit.SECONDS);
+
+		// Act
+		prefetcher.onVarbitChanged(varbitChanged(QUEST_VARBIT, 4));
+
+		// Assert
+		assertEquals("Bundle for the new stage should be queued", Integer.valueOf(3309), queuedNpcs.poll());
+	}
+
+	@Test
+	public void testVarbitChanged_queuesVarpQuestStage() throws Exception {
+		// Arrange
+		login();
+		queuedNpcs.poll(5, TimeUnit.SECONDS);
+
+		// Act
+		VarbitChanged event = new VarbitChanged();
+		event.setVarpId(QUEST_VARP);
+		event.setValue(1);
+		prefetcher.onVarbitChanged(event);
+
+		// Assert
+		assertEquals("Bundle for the varp quest should be queued", Integer.valueOf(4626), queuedNpcs.poll());
+	}
+
+	@Test
+	public void testVarbitChanged_ignoresUntrackedAndUnchangedVariables() throws Exception {
+		// Arrange
+		login();
+		queuedNpcs.poll(5, TimeUnit.SECONDS);
+
+		// Act
+		prefetcher.onVarbitChanged(varbitChanged(9999, 1));
+		prefetcher.onVarbitChanged(varbitChanged(QUEST_VARBIT, 2));
+		prefetcher.onVarbitChanged(varbitChanged(QUEST_VARBIT, 3));
+
+		// Assert - Stage 3 is in the same bundle as stage 2
+		assertTrue("Nothing new should be queued", queuedNpcs.isEmpty());
+	}
+
+	@Test
+	public void testVarbitChanged_ignoredBeforeTableLoaded() {
+		// Act
+		prefetcher.onVarbitChanged(varbitChanged(QUEST_VARBIT, 4));
+
+		// Assert
+		assertTrue("Nothing should be queued without a table", queuedNpcs.isEmpty());
+	}
+
+	// ===========================
+	// Reload
+	// ===========================
+
+	@Test
+	public void testReload_dropsDownloadStartedBefore() throws Exception {
+		// Arrange - The old server is slow to answer, and the player switches to a new one meanwhile
+		server.setLatencyMillis(500);
+		login();
+		try (StandInVoiceServer newServer = new StandInVoiceServer()) {
+			newServer.setQuestStages("varbit " + QUEST_VARBIT + " 2 2 5000 "
+				+ DialogueHash.toHex(DialogueHash.of(5000, "Welcome back.")));
+			voiceApiClient.setBaseUrl(newServer.start());
+
+			// Act
+			prefetcher.reload();
+
+			// Assert
+			assertEquals("New server's bundle should be queued", Integer.valueOf(5000), queuedNpcs.poll(5, TimeUnit.SECONDS));
+			assertNull("Old server's table should be dropped when it arrives", queuedNpcs.poll(1, TimeUnit.SECONDS));
+			assertEquals("Old server should have been asked for its table", 1, server.getRequests().get());
+		}
+	}
+
+	private void login() {
+		GameStateChanged event = new GameStateChanged();
+		event.setGameState(GameState.LOGGED_IN);
+		prefetcher.onGameStateChanged(event);
+	}
+
+	private static VarbitChanged varbitChanged(int varbitId, int value) {
+		VarbitChanged event = new VarbitChanged();
+		event.setVarbitId(varbitId);
+		event.setValue(value);
+		return event;
+	}
+}
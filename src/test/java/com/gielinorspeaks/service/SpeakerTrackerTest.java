@@ -0,0 +1,74 @@
+package com.gielinorspeaks.service;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for SpeakerTracker.
+ * Focus: Gain falls off with distance, and pan follows the camera.
+ */
+public class SpeakerTrackerTest {
+	private static final int TILE = SpeakerTracker.LOCAL_TILE_SIZE;
+	private static final float DELTA = 0.001f;
+
+	private final float[] gains = new float[2];
+
+	// ===========================
+	// Distance
+	// ===========================
+
+	@Test
+	public void testCompute_fullAndCenteredNextToPlayer() {
+		// Act - one tile north, facing north
+		SpeakerTracker.compute(0, TILE, 0, gains);
+
+		// Assert
+		assertEquals("Left should be at full gain", 1, gains[0], DELTA);
+		assertEquals("Right should be at full gain", 1, gains[1], DELTA);
+	}
+
+	@Test
+	public void testCompute_attenuatesWithDistance() {
+		// Act - eight tiles north, four times the full gain distance
+		SpeakerTracker.compute(0, 8 * TILE, 0, gains);
+
+		// Assert
+		assertEquals("Gain should fall with the inverse of the distance", 0.25, gains[0], DELTA);
+		assertEquals("Voice straight ahead should stay centered", gains[0], gains[1], DELTA);
+	}
+
+	@Test
+	public void testCompute_silentBeyondAudibleRange() {
+		// Act
+		SpeakerTracker.compute((int) (SpeakerTracker.MAX_AUDIBLE_TILES + 1) * TILE, 0, 0, gains);
+
+		// Assert
+		assertEquals("Left should be silent", 0, gains[0], DELTA);
+		assertEquals("Right should be silent", 0, gains[1], DELTA);
+	}
+
+	// ===========================
+	// Direction
+	// ===========================
+
+	@Test
+	public void testCompute_pansTowardsSpeaker() {
+		// Act - four tiles east, facing north
+		SpeakerTracker.compute(4 * TILE, 0, 0, gains);
+
+		// Assert
+		assertEquals("Left should be silent for a speaker to the right", 0, gains[0], DELTA);
+		assertEquals("Right should carry the attenuated voice", 0.5, gains[1], DELTA);
+	}
+
+	@Test
+	public void testCompute_followsCameraYaw() {
+		// Act - four tiles east, camera turned half a circle
+		SpeakerTracker.compute(4 * TILE, 0, 1024, gains);
+
+		// Assert
+		assertEquals("Speaker should be heard on the left with the camera turned", 0.5, gains[0], DELTA);
+		assertEquals("Right should be silent", 0, gains[1], DELTA);
+	}
+}
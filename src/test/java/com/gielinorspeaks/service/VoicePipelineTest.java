@@ -0,0 +1,886 @@
+package com.gielinorspeaks.service;
+
+import com.gielinorspeaks.api.VoiceApiClient;
+import com.gielinorspeaks.audio.AudioOutput;
+import com.gielinorspeaks.audio.ClipDecoder;
+import com.gielinorspeaks.audio.ClipProcessor;
+import com.gielinorspeaks.buffer.BufferPool;
+import com.gielinorspeaks.cache.ClipCache;
+import com.gielinorspeaks.cache.ClipIndex;
+import com.gielinorspeaks.cache.ClipStore;
+import com.gielinorspeaks.cache.ClipWriter;
+import com.gielinorspeaks.cache.DialogueHash;
+import com.gielinorspeaks.cache.HotSet;
+import com.gielinorspeaks.cache.ProfileGenerations;
+import com.gielinorspeaks.model.DialogueSource;
+import com.gielinorspeaks.model.Emotion;
+import com.gielinorspeaks.model.NpcInfo;
+import com.gielinorspeaks.model.NpcManifest;
+import com.gielinorspeaks.model.QuestStageTable;
+import com.gielinorspeaks.model.VoiceLine;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.InOrder;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for VoicePipeline startup and event handling.
+ * Focus: start() must not wait for subsystem initialization, and events that arrive
+ * before the pipeline is ready must be queued (bounded) and processed afterwards.
+ */
+public class VoicePipelineTest {
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private ClipStore mockClipStore;
+	private ClipWriter mockClipWriter;
+	private ClipIndex mockClipIndex;
+	private ClipCache clipCache;
+	private AudioOutput mockAudioOutput;
+	private HotSet hotSet;
+	private ProfileGenerations profileGenerations;
+	private VoiceApiClient mockApiClient;
+	private BufferPool bufferPool;
+	private VoicePipeline pipeline;
+
+	/**
+	 * Holds initialization open until released, simulating a slow disk.
+	 */
+	private CountDownLatch initializationGate;
+
+	@Before
+	public void setUp() throws IOException {
+		mockClipStore = mock(ClipStore.class);
+		mockClipWriter = mock(ClipWriter.class);
+		mockClipIndex = mock(ClipIndex.class);
+		mockAudioOutput = mock(AudioOutput.class);
+		mockApiClient = mock(VoiceApiClient.class);
+		bufferPool = new BufferPool();
+		clipCache = new ClipCache();
+		hotSet = new HotSet(new File(temporaryFolder.getRoot(), "hotset.dat"));
+		initializationGate = new CountDownLatch(1);
+
+		doAnswer(invocation -> {
+			initializationGate.await(10, TimeUnit.SECONDS);
+			return null;
+		}).when(mockClipIndex).load(mockClipStore);
+		when(mockClipIndex.mightContain(anyLong())).thenReturn(true);
+		when(mockClipStore.read(anyInt(), anyLong(), any(BufferPool.class))).thenAnswer(invocation -> pooled(createWav(100)));
+		// Behaves like a store no other client shares: always downloads, then writes
+		when(mockClipStore.readOrDownload(anyInt(), anyLong(), anyLong(), any(Emotion.class), anyInt(), any(BufferPool.class),
+			any(ClipStore.ClipDownloader.class)))
+			.thenAnswer(invocation -> {
+				ByteBuffer clip = invocation.<ClipStore.ClipDownloader>getArgument(6).download();
+				if (clip != null) {
+					mockClipStore.write(invocation.<Integer>getArgument(0), invocation.<Long>getArgument(1),
+						invocation.<Long>getArgument(2), invocation.<Emotion>getArgument(3), invocation.<Integer>getArgument(4), clip);
+				}
+				return clip;
+			});
+
+		profileGenerations = new ProfileGenerations(new File(temporaryFolder.getRoot(), "generations.dat"));
+		pipeline = new VoicePipeline(mockClipStore, mockClipWriter, mockClipIndex, clipCache, mockAudioOutput, new ClipDecoder(), hotSet,
+			profileGenerations, mockApiClient, bufferPool);
+	}
+
+	@After
+	public void tearDown() {
+		initializationGate.countDown();
+		pipeline.shutdown();
+	}
+
+	// ===========================
+	// Startup
+	// ===========================
+
+	@Test
+	public void testStart_returnsBeforeInitializationCompletes() {
+		// Act
+		long start = System.nanoTime();
+		pipeline.start();
+		long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+		// Assert
+		assertTrue("start() should return without waiting for initialization, took " + elapsedMillis + "ms",
+			elapsedMillis < 50);
+		assertEquals("Pipeline should still be initializing", VoicePipeline.State.INITIALIZING, pipeline.getState());
+	}
+
+	@Test
+	public void testStart_becomesReadyAfterInitialization() throws Exception {
+		// Act
+		pipeline.start();
+		initializationGate.countDown();
+
+		// Assert
+		awaitState(VoicePipeline.State.READY);
+		verify(mockAudioOutput).open();
+	}
+
+	@Test
+	public void testStart_failsGracefullyWhenIndexCannotLoad() throws Exception {
+		// Arrange
+		doThrow(new IOException("disk on fire")).when(mockClipIndex).load(mockClipStore);
+
+		// Act
+		pipeline.start();
+		pipeline.submit(createEvent("Hello!"));
+
+		// Assert
+		awaitState(VoicePipeline.State.FAILED);
+		assertEquals("Queued events should be discarded", 0, pipeline.getPendingEventCount());
+		verify(mockAudioOutput, never()).play(any(byte[].class), anyInt());
+	}
+
+	// ===========================
+	// Events Before Readiness
+	// ===========================
+
+	@Test
+	public void testSubmit_queuesEventsUntilReady() throws Exception {
+		// Arrange
+		pipeline.start();
+
+		// Act
+		pipeline.submit(createEvent("Hello!"));
+		pipeline.submit(createEvent("Goodbye!"));
+
+		// Assert - Nothing played yet
+		assertEquals("Events should be queued", 2, pipeline.getPendingEventCount());
+		verify(mockAudioOutput, never()).play(any(byte[].class), anyInt());
+
+		// Act - Finish initialization
+		initializationGate.countDown();
+		awaitState(VoicePipeline.State.READY);
+
+		// Assert - Queued events are processed in order
+		verify(mockClipStore, timeout(1000)).read(1234, DialogueHash.of(1234, "Hello!"), bufferPool);
+		verify(mockClipStore, timeout(1000)).read(1234, DialogueHash.of(1234, "Goodbye!"), bufferPool);
+		verify(mockAudioOutput, timeout(1000).times(2)).play(any(byte[].class), anyInt());
+	}
+
+	@Test
+	public void testSubmit_dropsOldestEventWhenQueueFull() {
+		// Arrange
+		pipeline.start();
+
+		// Act
+		for (int i = 0; i < VoicePipeline.MAX_PENDING_EVENTS + 5; i++) {
+			pipeline.submit(createEvent("Line " + i));
+		}
+
+		// Assert
+		assertEquals("Queue should be bounded", VoicePipeline.MAX_PENDING_EVENTS, pipeline.getPendingEventCount());
+	}
+
+	@Test
+	public void testSubmitAll_playsOnlyFirstLineOfBatchWithClip() throws Exception {
+		// Arrange
+		pipeline.start();
+		pipeline.submitAll(Arrays.asList(createEvent("Before ready"), createEvent("Also before ready")));
+		initializationGate.countDown();
+		awaitState(VoicePipeline.State.READY);
+
+		// Act
+		pipeline.submitAll(Arrays.asList(createEvent("Hello!"), createEvent("Goodbye!")));
+
+		// Assert
+		verify(mockAudioOutput, timeout(1000).times(2)).play(any(byte[].class), anyInt());
+		InOrder inOrder = inOrder(mockClipStore);
+		inOrder.verify(mockClipStore).read(1234, DialogueHash.of(1234, "Before ready"), bufferPool);
+		inOrder.verify(mockClipStore).read(1234, DialogueHash.of(1234, "Hello!"), bufferPool);
+		awaitVoiceThread();
+		verify(mockAudioOutput, times(2)).play(any(byte[].class), anyInt());
+		verify(mockClipStore, never()).read(1234, DialogueHash.of(1234, "Also before ready"), bufferPool);
+		verify(mockClipStore, never()).read(1234, DialogueHash.of(1234, "Goodbye!"), bufferPool);
+	}
+
+	@Test
+	public void testSubmitAll_fallsBackToNextLineWithoutClip() throws Exception {
+		// Arrange - The top line isn't stored, and there is no server to ask
+		long unvoiced = DialogueHash.of(1234, "Not voiced");
+		when(mockClipIndex.mightContain(unvoiced)).thenReturn(false);
+		pipeline.start();
+		initializationGate.countDown();
+		awaitState(VoicePipeline.State.READY);
+
+		// Act
+		pipeline.submitAll(Arrays.asList(createEvent("Not voiced"), createEvent("Hello!"), createEvent("Goodbye!")));
+
+		// Assert
+		verify(mockClipStore, timeout(1000)).read(1234, DialogueHash.of(1234, "Hello!"), bufferPool);
+		awaitVoiceThread();
+		verify(mockAudioOutput, times(1)).play(any(byte[].class), anyInt());
+		verify(mockClipStore, never()).read(1234, DialogueHash.of(1234, "Goodbye!"), bufferPool);
+	}
+
+	@Test
+	public void testSubmit_ignoredWhenStopped() {
+		// Act
+		pipeline.submit(createEvent("Hello!"));
+
+		// Assert
+		assertEquals("Stopped pipeline should not queue events", 0, pipeline.getPendingEventCount());
+	}
+
+	// ===========================
+	// Ready Pipeline
+	// ===========================
+
+	@Test
+	public void testSubmit_skipsDiskWhenIndexMisses() throws Exception {
+		// Arrange
+		when(mockClipIndex.mightContain(anyLong())).thenReturn(false);
+		pipeline.start();
+		initializationGate.countDown();
+		awaitState(VoicePipeline.State.READY);
+
+		// Act
+		pipeline.submit(createEvent("Hello!"));
+
+		// Assert
+		verify(mockClipIndex, timeout(1000)).mightContain(DialogueHash.of(1234, "Hello!"));
+		verify(mockClipStore, never()).read(anyInt(), anyLong(), any(BufferPool.class));
+		verify(mockAudioOutput, never()).play(any(byte[].class), anyInt());
+	}
+
+	@Test
+	public void testSubmit_playsRepeatedLineFromMemory() throws Exception {
+		// Arrange
+		pipeline.start();
+		initializationGate.countDown();
+		awaitState(VoicePipeline.State.READY);
+
+		// Act
+		pipeline.submit(createEvent("Hello!"));
+		pipeline.submit(createEvent("Hello!"));
+
+		// Assert - Second play comes from the clip cache, not the disk
+		verify(mockAudioOutput, timeout(1000).times(2)).play(any(byte[].class), anyInt());
+		verify(mockClipStore, times(1)).read(anyInt(), anyLong(), any(BufferPool.class));
+		assertTrue("Decoded clip should be cached", clipCache.contains(DialogueHash.of(1234, "Hello!")));
+		assertEquals("Disk read buffer should be released", 0, bufferPool.getOutstandingCount());
+	}
+
+	@Test
+	public void testSubmit_replaysRepeatWithoutLookup() throws Exception {
+		// Arrange
+		long hash = DialogueHash.of(1234, "Hello!");
+		pipeline.start();
+		initializationGate.countDown();
+		awaitState(VoicePipeline.State.READY);
+		VoiceLine line = createEvent("Hello!");
+
+		// Act
+		pipeline.submit(line);
+		pipeline.submitRepeat(line);
+
+		// Assert - Replayed from the clip cache without consulting the index
+		verify(mockAudioOutput, timeout(1000).times(2)).play(any(byte[].class), anyInt());
+		verify(mockClipIndex, times(1)).mightContain(hash);
+	}
+
+	@Test
+	public void testSubmit_leavesRepeatAloneWhileStillPlaying() throws Exception {
+		// Arrange
+		when(mockAudioOutput.play(any(byte[].class), anyInt())).thenReturn(7);
+		when(mockAudioOutput.isPlaying(7)).thenReturn(true);
+		pipeline.start();
+		initializationGate.countDown();
+		awaitState(VoicePipeline.State.READY);
+		VoiceLine line = createEvent("Hello!");
+
+		// Act
+		pipeline.submit(line);
+		pipeline.submitRepeat(line);
+		pipeline.submit(createEvent("Goodbye!"));
+
+		// Assert - Only the two distinct lines are played
+		verify(mockClipStore, timeout(1000)).read(1234, DialogueHash.of(1234, "Goodbye!"), bufferPool);
+		verify(mockAudioOutput, timeout(1000).times(2)).play(any(byte[].class), anyInt());
+		verify(mockAudioOutput, times(2)).play(any(byte[].class), anyInt());
+	}
+
+	@Test
+	public void testSubmit_downloadsAndCachesMissingLine() throws Exception {
+		// Arrange
+		long hash = DialogueHash.of(1234, "Hello!");
+		when(mockClipIndex.mightContain(anyLong())).thenReturn(false);
+		when(mockApiClient.isConfigured()).thenReturn(true);
+		when(mockApiClient.fetchClip(1234, hash, Emotion.NEUTRAL, bufferPool)).thenAnswer(invocation -> pooled(createWav(100)));
+		pipeline.start();
+		initializationGate.countDown();
+		awaitState(VoicePipeline.State.READY);
+
+		// Act
+		pipeline.submit(createEvent("Hello!"));
+
+		// Assert
+		verify(mockAudioOutput, timeout(1000)).play(any(byte[].class), anyInt());
+		verify(mockClipStore).write(eq(1234), eq(hash), eq(hash), eq(Emotion.NEUTRAL), eq(0), any(ByteBuffer.class));
+		verify(mockClipIndex).add(hash);
+		verify(mockClipWriter).sync(1234, hash);
+		assertEquals("Download buffer should be released", 0, bufferPool.getOutstandingCount());
+	}
+
+	@Test
+	public void testSubmit_downloadsAgainAfterVoiceRegenerated() throws Exception {
+		// Arrange - The line is cached, but the server has regenerated the voice since
+		long hash = DialogueHash.of(1234, "Hello!");
+		long regenerated = DialogueHash.generation(hash, 2);
+		when(mockClipIndex.mightContain(hash)).thenReturn(true);
+		when(mockClipIndex.mightContain(regenerated)).thenReturn(false);
+		when(mockApiClient.isConfigured()).thenReturn(true);
+		when(mockApiClient.fetchManifest(1234)).thenReturn(new NpcManifest(2, new long[0], new String[0]));
+		when(mockApiClient.fetchClip(1234, hash, Emotion.NEUTRAL, bufferPool)).thenAnswer(invocation -> pooled(createWav(100)));
+		pipeline.start();
+		initializationGate.countDown();
+		awaitState(VoicePipeline.State.READY);
+		pipeline.submit(createEvent("Hello!"));
+		awaitGeneration(1234, 2);
+
+		// Act
+		pipeline.submit(createEvent("Hello!"));
+
+		// Assert
+		verify(mockAudioOutput, timeout(1000).times(2)).play(any(byte[].class), anyInt());
+		verify(mockClipStore).read(1234, hash, bufferPool);
+		verify(mockApiClient).fetchClip(1234, hash, Emotion.NEUTRAL, bufferPool);
+		verify(mockClipStore).write(eq(1234), eq(regenerated), eq(hash), eq(Emotion.NEUTRAL), eq(2), any(ByteBuffer.class));
+		assertEquals("New generation should be recorded", 2, profileGenerations.get(1234));
+		assertTrue("New clip should be cached under its new key", clipCache.contains(regenerated));
+	}
+
+	@Test
+	public void testSubmit_playsWhileManifestIsRead() throws Exception {
+		// Arrange - The server holds the manifest request open
+		CountDownLatch manifestGate = new CountDownLatch(1);
+		when(mockApiClient.isConfigured()).thenReturn(true);
+		when(mockApiClient.fetchManifest(1234)).thenAnswer(invocation -> {
+			manifestGate.await(10, TimeUnit.SECONDS);
+			return new NpcManifest(2, new long[0], new String[0]);
+		});
+		pipeline.start();
+		initializationGate.countDown();
+		awaitState(VoicePipeline.State.READY);
+		pipeline.submit(createEvent("Hello!"));
+		verify(mockApiClient, timeout(1000)).fetchManifest(1234);
+
+		// Act
+		pipeline.submit(createEvent("Goodbye!"));
+
+		// Assert
+		verify(mockAudioOutput, timeout(1000).times(2)).play(any(byte[].class), anyInt());
+		assertEquals("Generation should not be recorded before the manifest is read", 0, profileGenerations.get(1234));
+		manifestGate.countDown();
+		awaitGeneration(1234, 2);
+	}
+
+	@Test
+	public void testStopSpeaking_onlyStopsThatNpcsLine() throws Exception {
+		// Arrange - Hans is speaking
+		when(mockAudioOutput.play(any(byte[].class), anyInt())).thenReturn(7);
+		pipeline.start();
+		initializationGate.countDown();
+		awaitState(VoicePipeline.State.READY);
+		pipeline.submit(createEvent("Hello!"));
+		verify(mockAudioOutput, timeout(1000)).play(any(byte[].class), anyInt());
+		awaitVoiceThread();
+
+		// Act
+		pipeline.stopSpeaking(5678);
+
+		// Assert
+		verify(mockAudioOutput, never()).stop(anyInt());
+
+		// Act - Hans' dialogue ends
+		pipeline.stopSpeaking(1234);
+
+		// Assert
+		verify(mockAudioOutput).stop(7);
+	}
+
+	@Test
+	public void testSubmit_doesNotRequestUnvoicedLineTwice() throws Exception {
+		// Arrange - Server has no clip for the line
+		when(mockClipIndex.mightContain(anyLong())).thenReturn(false);
+		when(mockApiClient.isConfigured()).thenReturn(true);
+		when(mockApiClient.fetchClip(anyInt(), anyLong(), any(Emotion.class), any(BufferPool.class))).thenReturn(null);
+		pipeline.start();
+		initializationGate.countDown();
+		awaitState(VoicePipeline.State.READY);
+
+		// Act
+		pipeline.submit(createEvent("Hello!"));
+		pipeline.submit(createEvent("Hello!"));
+
+		// Assert - Each line checks for a server twice, before its manifest and before its clip
+		verify(mockApiClient, timeout(1000).times(4)).isConfigured();
+		verify(mockApiClient, times(1)).fetchClip(anyInt(), anyLong(), any(Emotion.class), any(BufferPool.class));
+		verify(mockAudioOutput, never()).play(any(byte[].class), anyInt());
+	}
+
+	@Test
+	public void testSubmit_stopsRequestingNpcWithoutVoice() throws Exception {
+		// Arrange - Server has no clip for any of Hans' lines
+		when(mockClipIndex.mightContain(anyLong())).thenReturn(false);
+		when(mockApiClient.isConfigured()).thenReturn(true);
+		NpcInfo hans = new NpcInfo(1234, "Hans");
+		pipeline.start();
+		initializationGate.countDown();
+		awaitState(VoicePipeline.State.READY);
+
+		// Act
+		for (int i = 0; i <= NpcInfo.UNVOICED_LINES_BEFORE_UNAVAILABLE; i++) {
+			pipeline.submit(new VoiceLine(hans, "Line " + i, DialogueSource.DIALOGUE_BOX, VoiceLine.NO_ANIMATION));
+		}
+
+		// Assert - Each line checks for a server twice, before its manifest and before its clip
+		verify(mockApiClient, timeout(1000).times(2 * (NpcInfo.UNVOICED_LINES_BEFORE_UNAVAILABLE + 1))).isConfigured();
+		verify(mockApiClient, times(NpcInfo.UNVOICED_LINES_BEFORE_UNAVAILABLE))
+			.fetchClip(anyInt(), anyLong(), any(Emotion.class), any(BufferPool.class));
+		assertEquals("Hans should be marked as having no voice", NpcInfo.VoiceProfile.UNAVAILABLE, hans.getVoiceProfile());
+	}
+
+	@Test
+	public void testSubmit_playsNearMatchOfUnvoicedLine() throws Exception {
+		// Arrange - The server voiced the line before a game update reworded it
+		long original = DialogueHash.of(1234, "Welcome to my shop, adventurer!");
+		long reworded = DialogueHash.of(1234, "Welcome to my shop adventurer.");
+		when(mockClipIndex.mightContain(anyLong())).thenReturn(false);
+		when(mockApiClient.isConfigured()).thenReturn(true);
+		when(mockApiClient.fetchManifest(1234)).thenReturn(new NpcManifest(1,
+			new long[]{original}, new String[]{"Welcome to my shop, adventurer!"}));
+		when(mockApiClient.fetchClip(1234, original, Emotion.NEUTRAL, bufferPool)).thenAnswer(invocation -> pooled(createWav(100)));
+		pipeline.start();
+		initializationGate.countDown();
+		awaitState(VoicePipeline.State.READY);
+		pipeline.submit(createEvent("Hello!"));
+		awaitGeneration(1234, 1);
+
+		// Act
+		pipeline.submit(createEvent("Welcome to my shop adventurer."));
+
+		// Assert
+		verify(mockAudioOutput, timeout(1000)).play(any(byte[].class), anyInt());
+		verify(mockApiClient).fetchClip(1234, reworded, Emotion.NEUTRAL, bufferPool);
+		verify(mockApiClient).fetchClip(1234, original, Emotion.NEUTRAL, bufferPool);
+		assertTrue("Near match should be cached under its own key", clipCache.contains(DialogueHash.generation(original, 1)));
+	}
+
+	@Test
+	public void testSubmit_missingNearMatchCountsOnceAgainstNpc() throws Exception {
+		// Arrange - The manifest lists the original line, but neither it nor the reworded one has a clip
+		long original = DialogueHash.of(1234, "Welcome to my shop, adventurer!");
+		long reworded = DialogueHash.of(1234, "Welcome to my shop adventurer.");
+		when(mockClipIndex.mightContain(anyLong())).thenReturn(false);
+		when(mockApiClient.isConfigured()).thenReturn(true);
+		when(mockApiClient.fetchManifest(1234)).thenReturn(new NpcManifest(1,
+			new long[]{original}, new String[]{"Welcome to my shop, adventurer!"}));
+		NpcInfo hans = new NpcInfo(1234, "Hans");
+		pipeline.start();
+		initializationGate.countDown();
+		awaitState(VoicePipeline.State.READY);
+		pipeline.submit(new VoiceLine(hans, "Hello!", DialogueSource.DIALOGUE_BOX, VoiceLine.NO_ANIMATION));
+		awaitGeneration(1234, 1);
+
+		// Act
+		pipeline.submit(new VoiceLine(hans, "Welcome to my shop adventurer.", DialogueSource.DIALOGUE_BOX, VoiceLine.NO_ANIMATION));
+
+		// Assert - Two unvoiced lines, below the limit, however many clips they asked for
+		verify(mockApiClient, timeout(1000)).fetchClip(1234, original, Emotion.NEUTRAL, bufferPool);
+		verify(mockApiClient).fetchClip(1234, reworded, Emotion.NEUTRAL, bufferPool);
+		// A line of another NPC with Hans' id, past everything Hans' lines posted to the voice thread
+		long sentinel = DialogueHash.generation(DialogueHash.of(1234, "Sentinel"), 1);
+		pipeline.submit(createEvent("Sentinel"));
+		verify(mockClipIndex, timeout(1000)).mightContain(sentinel);
+		assertEquals("Hans should still be unknown after two unvoiced lines",
+			NpcInfo.VoiceProfile.UNKNOWN, hans.getVoiceProfile());
+	}
+
+	@Test
+	public void testSubmit_storesProcessedClip() throws Exception {
+		// Arrange
+		long hash = DialogueHash.of(1234, "Hello!");
+		pipeline.start();
+		initializationGate.countDown();
+		awaitState(VoicePipeline.State.READY);
+
+		// Act
+		pipeline.submit(createEvent("Hello!"));
+
+		// Assert
+		verify(mockAudioOutput, timeout(1000)).play(any(byte[].class), anyInt());
+		verify(mockClipWriter).writeProcessed(eq(1234), eq(hash), eq(ClipProcessor.VERSION), any(byte[].class));
+	}
+
+	@Test
+	public void testSubmit_playsProcessedClipWithoutReadingOriginal() throws Exception {
+		// Arrange
+		byte[] pcm = new byte[200];
+		when(mockClipWriter.readProcessed(1234, DialogueHash.of(1234, "Hello!"), ClipProcessor.VERSION)).thenReturn(pcm);
+		pipeline.start();
+		initializationGate.countDown();
+		awaitState(VoicePipeline.State.READY);
+
+		// Act
+		pipeline.submit(createEvent("Hello!"));
+
+		// Assert
+		verify(mockAudioOutput, timeout(1000)).play(eq(pcm), anyInt());
+		verify(mockClipStore, never()).read(anyInt(), anyLong(), any(BufferPool.class));
+	}
+
+	// ===========================
+	// Emotional variants
+	// ===========================
+
+	@Test
+	public void testSubmit_fetchesVariantForChatheadEmotion() throws Exception {
+		// Arrange
+		long hash = DialogueHash.of(1234, "Hello!");
+		long angry = DialogueHash.variant(hash, Emotion.ANGRY);
+		when(mockClipIndex.mightContain(anyLong())).thenReturn(false);
+		when(mockApiClient.isConfigured()).thenReturn(true);
+		when(mockApiClient.fetchClip(1234, angry, Emotion.ANGRY, bufferPool)).thenAnswer(invocation -> pooled(createWav(100)));
+		pipeline.start();
+		initializationGate.countDown();
+		awaitState(VoicePipeline.State.READY);
+
+		// Act - CHATANGRY1
+		pipeline.submit(createEvent("Hello!", 614));
+
+		// Assert
+		verify(mockAudioOutput, timeout(1000)).play(any(byte[].class), anyInt());
+		verify(mockClipStore).write(eq(1234), eq(angry), eq(hash), eq(Emotion.ANGRY), eq(0), any(ByteBuffer.class));
+		assertTrue("Variant should be cached under its own key", clipCache.contains(angry));
+		assertFalse("Neutral line should not be cached", clipCache.contains(DialogueHash.of(1234, "Hello!")));
+	}
+
+	@Test
+	public void testSubmit_fallsBackToNeutralWhenVariantUnvoiced() throws Exception {
+		// Arrange
+		long hash = DialogueHash.of(1234, "Hello!");
+		when(mockClipIndex.mightContain(anyLong())).thenReturn(false);
+		when(mockApiClient.isConfigured()).thenReturn(true);
+		when(mockApiClient.fetchClip(1234, hash, Emotion.NEUTRAL, bufferPool)).thenAnswer(invocation -> pooled(createWav(100)));
+		pipeline.start();
+		initializationGate.countDown();
+		awaitState(VoicePipeline.State.READY);
+
+		// Act - CHATSAD1, which the server doesn't have
+		pipeline.submit(createEvent("Hello!", 610));
+
+		// Assert
+		verify(mockAudioOutput, timeout(1000)).play(any(byte[].class), anyInt());
+		verify(mockApiClient).fetchClip(1234, DialogueHash.variant(hash, Emotion.SAD), Emotion.SAD, bufferPool);
+		assertTrue("Neutral clip should be cached", clipCache.contains(hash));
+	}
+
+	@Test
+	public void testSubmit_prefetchesLikelyVariantsOfLine() throws Exception {
+		// Arrange - Hans has been happy before
+		long hash = DialogueHash.of(1234, "Goodbye!");
+		when(mockClipIndex.mightContain(anyLong())).thenReturn(false);
+		when(mockApiClient.isConfigured()).thenReturn(true);
+		when(mockApiClient.fetchClip(anyInt(), anyLong(), any(Emotion.class), any(BufferPool.class)))
+			.thenAnswer(invocation -> pooled(createWav(100)));
+		pipeline.start();
+		initializationGate.countDown();
+		awaitState(VoicePipeline.State.READY);
+		pipeline.submit(createEvent("Hello!", 567));
+
+		// Act
+		pipeline.submit(createEvent("Goodbye!", 588));
+
+		// Assert
+		long happy = DialogueHash.variant(hash, Emotion.HAPPY);
+		verify(mockApiClient, timeout(1000)).fetchClip(1234, happy, Emotion.HAPPY, bufferPool);
+		verify(mockClipWriter, timeout(1000)).writeProcessed(eq(1234), eq(happy), eq(ClipProcessor.VERSION), any(byte[].class));
+		assertFalse("Prefetched variant should not be cached in memory", clipCache.contains(happy));
+		verify(mockAudioOutput, times(2)).play(any(byte[].class), anyInt());
+	}
+
+	@Test
+	public void testRedownload_fetchesCorruptClipAgainThoughIndexed() throws Exception {
+		// Arrange - Index still lists the quarantined clip
+		long hash = DialogueHash.of(1234, "Hello!");
+		when(mockClipIndex.mightContain(anyLong())).thenReturn(true);
+		when(mockApiClient.isConfigured()).thenReturn(true);
+		when(mockApiClient.fetchClip(1234, hash, Emotion.NEUTRAL, bufferPool)).thenAnswer(invocation -> pooled(createWav(100)));
+		pipeline.start();
+		initializationGate.countDown();
+		awaitState(VoicePipeline.State.READY);
+
+		// Act
+		pipeline.redownload(1234, hash, Emotion.NEUTRAL);
+
+		// Assert
+		verify(mockClipWriter, timeout(1000)).writeProcessed(eq(1234), eq(hash), anyInt(), any(byte[].class));
+		verify(mockClipStore).write(eq(1234), eq(hash), eq(hash), eq(Emotion.NEUTRAL), eq(0), any(ByteBuffer.class));
+		verify(mockAudioOutput, never()).play(any(byte[].class), anyInt());
+	}
+
+	@Test
+	public void testRedownload_fetchesVariantInCurrentGeneration() throws Exception {
+		// Arrange - A corrupt angry clip of the NPC's second voice
+		long hash = DialogueHash.of(1234, "Hello!");
+		long angry = DialogueHash.variant(hash, Emotion.ANGRY);
+		long key = DialogueHash.generation(angry, 2);
+		profileGenerations.update(1234, 2);
+		when(mockClipIndex.mightContain(anyLong())).thenReturn(true);
+		when(mockApiClient.isConfigured()).thenReturn(true);
+		when(mockApiClient.fetchClip(1234, angry, Emotion.ANGRY, bufferPool)).thenAnswer(invocation -> pooled(createWav(100)));
+		pipeline.start();
+		initializationGate.countDown();
+		awaitState(VoicePipeline.State.READY);
+
+		// Act
+		pipeline.redownload(1234, hash, Emotion.ANGRY);
+
+		// Assert
+		verify(mockClipWriter, timeout(1000)).writeProcessed(eq(1234), eq(key), anyInt(), any(byte[].class));
+		verify(mockClipStore).write(eq(1234), eq(key), eq(hash), eq(Emotion.ANGRY), eq(2), any(ByteBuffer.class));
+	}
+
+	@Test
+	public void testPrefetchQuestBundle_downloadsLinesNotOnDisk() throws Exception {
+		// Arrange - The first line of the bundle is already cached on disk
+		long cached = DialogueHash.of(3308, "Greetings!");
+		long missing = DialogueHash.of(3308, "Off you go.");
+		QuestStageTable table = QuestStageTable.parse(new BufferedReader(new StringReader(
+			"varbit 281 1 3 3308 " + DialogueHash.toHex(cached) + " " + DialogueHash.toHex(missing))));
+		when(mockClipIndex.mightContain(anyLong())).thenReturn(false);
+		when(mockClipIndex.mightContain(cached)).thenReturn(true);
+		when(mockApiClient.isConfigured()).thenReturn(true);
+		when(mockApiClient.fetchClip(anyInt(), anyLong(), any(Emotion.class), any(BufferPool.class)))
+			.thenAnswer(invocation -> pooled(createWav(100)));
+		pipeline.start();
+
+		// Act - Queued while initializing
+		pipeline.prefetchQuestBundle(table, 0);
+		initializationGate.countDown();
+
+		// Assert
+		verify(mockClipWriter, timeout(1000)).writeProcessed(eq(3308), eq(missing), eq(ClipProcessor.VERSION), any(byte[].class));
+		verify(mockApiClient, never()).fetchClip(3308, cached, Emotion.NEUTRAL, bufferPool);
+		assertFalse("Prefetched line should not be cached in memory", clipCache.contains(missing));
+		verify(mockAudioOutput, never()).play(any(byte[].class), anyInt());
+	}
+
+	@Test
+	public void testPrefetchQuestBundle_downloadsLinesAtOnceOffVoiceThread() throws Exception {
+		// Arrange - Each download waits until all of them have started
+		String[] texts = {"Greetings!", "Off you go.", "Mind the goblins.", "Come back soon."};
+		StringBuilder row = new StringBuilder("varbit 281 1 3 3308");
+		for (String text : texts) {
+			row.append(' ').append(DialogueHash.toHex(DialogueHash.of(3308, text)));
+		}
+		QuestStageTable table = QuestStageTable.parse(new BufferedReader(new StringReader(row.toString())));
+		CountDownLatch allStarted = new CountDownLatch(texts.length);
+		Set<String> threads = ConcurrentHashMap.newKeySet();
+		when(mockClipIndex.mightContain(anyLong())).thenReturn(false);
+		when(mockApiClient.isConfigured()).thenReturn(true);
+		when(mockApiClient.fetchClip(anyInt(), anyLong(), any(Emotion.class), any(BufferPool.class)))
+			.thenAnswer(invocation -> {
+				threads.add(Thread.currentThread().getName());
+				allStarted.countDown();
+				allStarted.await(5, TimeUnit.SECONDS);
+				return pooled(createWav(100));
+			});
+		pipeline.start();
+		initializationGate.countDown();
+		awaitState(VoicePipeline.State.READY);
+
+		// Act
+		pipeline.prefetchQuestBundle(table, 0);
+
+		// Assert
+		assertTrue("Downloads should all be in flight at once", allStarted.await(5, TimeUnit.SECONDS));
+		for (String text : texts) {
+			long hash = DialogueHash.of(3308, text);
+			verify(mockClipWriter, timeout(1000)).writeProcessed(eq(3308), eq(hash), eq(ClipProcessor.VERSION), any(byte[].class));
+			verify(mockClipIndex, timeout(1000)).add(hash);
+		}
+		for (String thread : threads) {
+			assertTrue("Downloads should run on the fetch executor, not " + thread, thread.startsWith("gielinor-speaks-fetch-"));
+		}
+	}
+
+	@Test
+	public void testSubmit_readsManifestsWithinFetchParallelism() throws Exception {
+		// Arrange - The server holds every manifest request open
+		CountDownLatch manifestGate = new CountDownLatch(1);
+		when(mockApiClient.isConfigured()).thenReturn(true);
+		pipeline.start();
+		initializationGate.countDown();
+		awaitState(VoicePipeline.State.READY);
+		int parallelism = pipeline.getFetchParallelism();
+		CountDownLatch started = new CountDownLatch(parallelism);
+		when(mockApiClient.fetchManifest(anyInt())).thenAnswer(invocation -> {
+			started.countDown();
+			manifestGate.await(10, TimeUnit.SECONDS);
+			return null;
+		});
+
+		// Act - One more NPC than requests may run at once
+		for (int i = 0; i <= parallelism; i++) {
+			pipeline.submit(new VoiceLine(2000 + i, "Guard", "Halt!", DialogueSource.DIALOGUE_BOX, VoiceLine.NO_ANIMATION));
+		}
+
+		// Assert
+		assertTrue("Manifest reads should start up to the parallelism", started.await(5, TimeUnit.SECONDS));
+		awaitVoiceThread();
+		verify(mockApiClient, times(parallelism)).fetchManifest(anyInt());
+		manifestGate.countDown();
+		verify(mockApiClient, timeout(1000)).fetchManifest(2000 + parallelism);
+	}
+
+	@Test
+	public void testStart_skipsIndexLoadWhenRetained() throws Exception {
+		// Arrange - Index kept loaded from a previous run
+		when(mockClipIndex.isLoaded()).thenReturn(true);
+
+		// Act
+		pipeline.start();
+
+		// Assert
+		awaitState(VoicePipeline.State.READY);
+		verify(mockClipIndex, never()).load(any(ClipStore.class));
+	}
+
+	// ===========================
+	// Hot Set
+	// ===========================
+
+	@Test
+	public void testStart_preloadsHotClipsIntoMemory() throws Exception {
+		// Arrange - A line played in a previous session
+		long hash = DialogueHash.of(1234, "Hello!");
+		hotSet.recordPlay(1234, hash);
+
+		// Act
+		pipeline.start();
+		initializationGate.countDown();
+		awaitState(VoicePipeline.State.READY);
+
+		// Assert
+		verify(mockClipStore, timeout(1000)).read(1234, hash, bufferPool);
+		long deadline = System.currentTimeMillis() + 1000;
+		while (!clipCache.contains(hash) && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		assertTrue("Hot clip should be preloaded", clipCache.contains(hash));
+		verify(mockAudioOutput, never()).play(any(byte[].class), anyInt());
+	}
+
+	@Test
+	public void testSubmit_recordsPlaysInHotSet() throws Exception {
+		// Arrange
+		pipeline.start();
+		initializationGate.countDown();
+		awaitState(VoicePipeline.State.READY);
+
+		// Act
+		pipeline.submit(createEvent("Hello!"));
+
+		// Assert
+		verify(mockAudioOutput, timeout(1000)).play(any(byte[].class), anyInt());
+		assertEquals("Play should be recorded", DialogueHash.of(1234, "Hello!"),
+			hotSet.getHottest(1).get(0).getDialogueHash());
+	}
+
+	@Test
+	public void testShutdown_releasesAudioDevice() throws Exception {
+		// Arrange
+		pipeline.start();
+		initializationGate.countDown();
+		awaitState(VoicePipeline.State.READY);
+
+		// Act
+		pipeline.shutdown();
+
+		// Assert
+		assertEquals("Pipeline should be stopped", VoicePipeline.State.STOPPED, pipeline.getState());
+		verify(mockAudioOutput).close();
+	}
+
+	private void awaitState(VoicePipeline.State expected) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 2000;
+		while (pipeline.getState() != expected && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		assertEquals("Pipeline should reach " + expected, expected, pipeline.getState());
+	}
+
+	/**
+	 * Waits for an NPC's manifest to be read and recorded on the voice thread.
+	 */
+	private void awaitGeneration(int npcId, int expected) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 2000;
+		while (profileGenerations.get(npcId) != expected && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		assertEquals("Manifest generation should be recorded", expected, profileGenerations.get(npcId));
+	}
+
+	/**
+	 * Creates a silent WAV clip in the output format.
+	 */
+	static byte[] createWav(int frames) throws IOException {
+		byte[] pcm = new byte[frames * AudioOutput.OUTPUT_FORMAT.getFrameSize()];
+		AudioInputStream stream = new AudioInputStream(new ByteArrayInputStream(pcm), AudioOutput.OUTPUT_FORMAT, frames);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		AudioSystem.write(stream, AudioFileFormat.Type.WAVE, out);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Copies data into a buffer from the test's pool, as the store and API client do.
+	 */
+	private ByteBuffer pooled(byte[] data) {
+		ByteBuffer buffer = bufferPool.acquire(data.length);
+		buffer.put(data).flip();
+		return buffer;
+	}
+
+	/**
+	 * Waits for everything submitted so far to be processed, by following it with a line that
+	 * has no clip.
+	 */
+	private void awaitVoiceThread() {
+		long sentinel = DialogueHash.of(1234, "Sentinel");
+		when(mockClipIndex.mightContain(sentinel)).thenReturn(false);
+		pipeline.submit(createEvent("Sentinel"));
+		verify(mockClipIndex, timeout(1000)).mightContain(sentinel);
+	}
+
+	private static VoiceLine createEvent(String text) {
+		return createEvent(text, VoiceLine.NO_ANIMATION);
+	}
+
+	private static VoiceLine createEvent(String text, int animationId) {
+		return new VoiceLine(1234, "Hans", text, DialogueSource.DIALOGUE_BOX, animationId);
+	}
+}
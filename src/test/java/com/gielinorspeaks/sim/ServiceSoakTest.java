@@ -0,0 +1,154 @@
+package com.gielinorspeaks.sim;
+
+import com.gielinorspeaks.model.DialogueSource;
+import net.runelite.api.NPC;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+/**
+ * Soak test for the detection services, over hours of simulated play.
+ * Focus: A busy scene played for a long time leaks nothing and doesn't slow down; heap,
+ * client thread queue depth and the rate of lines detected all stay flat.
+ * ===
+ * The test plays {@link #TEST_HOURS} simulated hours, a few seconds of real time. For longer
+ * runs, {@link #main} takes the number of hours:
+ * {@code ./gradlew soakTest --args=12}
+ */
+public class ServiceSoakTest {
+	private static final int TEST_HOURS = 2;
+	private static final int TICKS_PER_HOUR = (int) (3_600_000 / TickSimulation.TICK_MILLIS);
+	private static final int CHECKPOINT_TICKS = 1000;
+
+	private static final int CROWD = 300;
+	private static final double SPEAK_CHANCE = 1.0 / 50;
+	private static final int CONVERSATION_EVERY_TICKS = 40;
+	private static final String[] CROWD_LINES = {
+		"Hello there!", "Nice weather.", "Buying gf!", "Selling lobbies.", "Watch out for goblins."};
+	private static final List<String> CONVERSATION = Arrays.asList(
+		"Greetings, adventurer.", "Have you seen my cat?", "Let me know if you find her.");
+
+	private static final long MAX_HEAP_GROWTH_BYTES = 8L * 1024 * 1024;
+	private static final int MAX_QUEUE_DEPTH = 4;
+	private static final double MAX_RATE_DRIFT = 0.2;
+
+	/**
+	 * Measurements taken every {@link #CHECKPOINT_TICKS}.
+	 */
+	static final class Checkpoint {
+		final int tick;
+		final long heapBytes;
+		final long lines;
+
+		Checkpoint(int tick, long heapBytes, long lines) {
+			this.tick = tick;
+			this.heapBytes = heapBytes;
+			this.lines = lines;
+		}
+	}
+
+	@Test
+	public void testSoak_heapQueueAndRateStayFlat() {
+		// Arrange
+		TickSimulation simulation = scene(7);
+
+		// Act
+		List<Checkpoint> checkpoints = soak(simulation, TEST_HOURS * TICKS_PER_HOUR);
+
+		// Assert - the first window includes warm-up (class loading, first interning)
+		Checkpoint baseline = checkpoints.get(1);
+		Checkpoint last = checkpoints.get(checkpoints.size() - 1);
+		assertTrue("Heap should not grow over the run, grew " + (last.heapBytes - baseline.heapBytes) + " bytes",
+			last.heapBytes - baseline.heapBytes < MAX_HEAP_GROWTH_BYTES);
+
+		double expected = CROWD * SPEAK_CHANCE * CHECKPOINT_TICKS;
+		for (int i = 1; i < checkpoints.size(); i++) {
+			long window = checkpoints.get(i).lines - checkpoints.get(i - 1).lines;
+			assertTrue("Lines per window should hold steady, got " + window + " by tick " + checkpoints.get(i).tick,
+				Math.abs(window - expected) < expected * MAX_RATE_DRIFT);
+		}
+
+		assertTrue("Client thread queue should stay shallow, reached " + simulation.getClientThread().getMaxDepth(),
+			simulation.getClientThread().getMaxDepth() <= MAX_QUEUE_DEPTH);
+		assertTrue("NPC table should hold only the NPCs in the scene, holds " + simulation.getNpcTable().size(),
+			simulation.getNpcTable().size() <= CROWD + 1);
+		assertEquals("Every conversation should be detected in full",
+			(long) TEST_HOURS * TICKS_PER_HOUR / CONVERSATION_EVERY_TICKS * CONVERSATION.size(),
+			simulation.getLinesBySource(DialogueSource.DIALOGUE_BOX));
+	}
+
+	/**
+	 * A crowd of {@link #CROWD} NPCs chatting overhead, and a conversation with one of them
+	 * every {@link #CONVERSATION_EVERY_TICKS}.
+	 */
+	static TickSimulation scene(long seed) {
+		TickSimulation simulation = new TickSimulation(seed);
+		List<NPC> crowd = simulation.addCrowd(1000, CROWD, SPEAK_CHANCE, CROWD_LINES);
+		NPC questGiver = simulation.getClient().addNpc(5000, "Quest Giver");
+
+		int ticksPerLine = CONVERSATION_EVERY_TICKS / (CONVERSATION.size() + 1);
+		simulation.addBehaviour((sim, tick) -> {
+			int offset = tick % CONVERSATION_EVERY_TICKS;
+			if (offset == 1) {
+				sim.interact(questGiver);
+			}
+			if (offset > 0 && (offset - 1) % ticksPerLine == 0) {
+				int index = (offset - 1) / ticksPerLine;
+				if (index < CONVERSATION.size()) {
+					sim.showDialogue(questGiver, CONVERSATION.get(index), TickSimulation.VoiceLineAnimations.pick(sim.getRandom()));
+				}
+				else if (index == CONVERSATION.size()) {
+					sim.closeDialogue();
+				}
+			}
+		});
+		return simulation;
+	}
+
+	/**
+	 * Runs the simulation, measuring heap after a full collection every {@link #CHECKPOINT_TICKS}.
+	 */
+	static List<Checkpoint> soak(TickSimulation simulation, int ticks) {
+		List<Checkpoint> checkpoints = new ArrayList<>();
+		checkpoints.add(new Checkpoint(0, usedHeap(), 0));
+		for (int done = 0; done < ticks; done += CHECKPOINT_TICKS) {
+			simulation.run(Math.min(CHECKPOINT_TICKS, ticks - done));
+			checkpoints.add(new Checkpoint(simulation.getTick(), usedHeap(), simulation.getLinesBySource(DialogueSource.OVERHEAD_TEXT)));
+		}
+		return checkpoints;
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * Plays the scene for the given number of simulated hours (default 8), printing each
+	 * checkpoint.
+	 */
+	public static void main(String[] args) {
+		int hours = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+		long start = System.nanoTime();
+		TickSimulation simulation = scene(System.nanoTime());
+		List<Checkpoint> checkpoints = soak(simulation, hours * TICKS_PER_HOUR);
+
+		Checkpoint previous = checkpoints.get(0);
+		for (Checkpoint checkpoint : checkpoints.subList(1, checkpoints.size())) {
+			System.out.printf(Locale.ROOT, "tick %7d  heap %6.1fMB  lines %6d%n", checkpoint.tick,
+				checkpoint.heapBytes / 1048576.0, checkpoint.lines - previous.lines);
+			previous = checkpoint;
+		}
+		System.out.printf(Locale.ROOT, "%d simulated hours in %ds: %d lines, max queue depth %d, %d NPCs interned%n",
+			hours, (System.nanoTime() - start) / 1_000_000_000L, simulation.getLines(),
+			simulation.getClientThread().getMaxDepth(), simulation.getNpcTable().size());
+	}
+}
@@ -0,0 +1,191 @@
+package com.gielinorspeaks.sim;
+
+import com.gielinorspeaks.model.VoiceLine;
+import net.runelite.api.Actor;
+import net.runelite.api.Client;
+import net.runelite.api.NPC;
+import net.runelite.api.Player;
+import net.runelite.api.coords.LocalPoint;
+import net.runelite.api.gameval.InterfaceID;
+import net.runelite.api.widgets.Widget;
+
+import javax.annotation.Nullable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Client, local player, NPCs and chat widgets answering what the detection services ask.
+ * ===
+ * Built from {@link Proxy} rather than mocks, so it is cheap enough to drive hundreds of NPCs
+ * for hours of simulated play. Methods the services don't use return zero, false or null.
+ * ===
+ * Only the left chat box (NPC dialogue) is modelled: {@link #showDialogue} sets its text,
+ * name and chathead animation, and {@link #hideDialogue} hides it.
+ * ===
+ * The player stands in the middle of the scene, and NPCs on a grid around it, a tile apart
+ * in rows of {@link #GRID_WIDTH} in the order added.
+ */
+public final class SimulatedClient {
+	private static final String PLAYER_NAME = "Simulated Player";
+	private static final int TILE = 128;
+	private static final int GRID_WIDTH = 32;
+	private static final LocalPoint PLAYER_LOCATION = new LocalPoint(52 * TILE, 52 * TILE);
+
+	private final List<NPC> npcs = new ArrayList<>();
+
+	@Nullable
+	private volatile Actor interacting;
+	private volatile boolean dialogueShown;
+	private volatile String dialogueName = "";
+	private volatile String dialogueText = "";
+	private volatile int headAnimation = VoiceLine.NO_ANIMATION;
+	private volatile int tickCount;
+
+	private final Player player = proxy(Player.class, Map.of(
+		"getName", args -> PLAYER_NAME,
+		"getInteracting", args -> interacting,
+		"getLocalLocation", args -> PLAYER_LOCATION));
+
+	private final Widget textWidget = widget(() -> dialogueText, () -> VoiceLine.NO_ANIMATION);
+	private final Widget nameWidget = widget(() -> dialogueName, () -> VoiceLine.NO_ANIMATION);
+	private final Widget headWidget = widget(() -> "", () -> headAnimation);
+
+	private final Client client = proxy(Client.class, Map.of(
+		"getLocalPlayer", args -> player,
+		"getWidget", args -> args.length == 1 ? widget((Integer) args[0]) : null,
+		"getNpcs", args -> Collections.unmodifiableList(npcs),
+		"getTickCount", args -> tickCount,
+		"isClientThread", args -> true));
+
+	public Client getClient() {
+		return client;
+	}
+
+	public Player getPlayer() {
+		return player;
+	}
+
+	/**
+	 * Adds an NPC to the scene, with the next free index.
+	 */
+	public NPC addNpc(int id, String name) {
+		int index = npcs.size();
+		LocalPoint location = new LocalPoint(PLAYER_LOCATION.getX() + (index % GRID_WIDTH - GRID_WIDTH / 2) * TILE,
+			PLAYER_LOCATION.getY() + (index / GRID_WIDTH % GRID_WIDTH - GRID_WIDTH / 2) * TILE);
+		NPC npc = proxy(NPC.class, Map.of(
+			"getId", args -> id,
+			"getName", args -> name,
+			"getIndex", args -> index,
+			"getLocalLocation", args -> location,
+			"getAnimation", args -> -1,
+			"toString", args -> name + "#" + index));
+		npcs.add(npc);
+		return npc;
+	}
+
+	public List<NPC> getNpcs() {
+		return Collections.unmodifiableList(npcs);
+	}
+
+	public void setInteracting(@Nullable Actor target) {
+		interacting = target;
+	}
+
+	public void showDialogue(NPC npc, String text, int animation) {
+		dialogueShown = true;
+		dialogueName = npc.getName();
+		dialogueText = text;
+		headAnimation = animation;
+	}
+
+	public void hideDialogue() {
+		dialogueShown = false;
+	}
+
+	void setTickCount(int tickCount) {
+		this.tickCount = tickCount;
+	}
+
+	@Nullable
+	private Widget widget(int id) {
+		if (!dialogueShown) {
+			return null;
+		}
+		if (id == InterfaceID.ChatLeft.TEXT) {
+			return textWidget;
+		}
+		if (id == InterfaceID.ChatLeft.NAME) {
+			return nameWidget;
+		}
+		return id == InterfaceID.ChatLeft.HEAD ? headWidget : null;
+	}
+
+	private static Widget widget(Supplier<String> text, IntSupplier animation) {
+		return proxy(Widget.class, Map.of(
+			"getText", args -> text.get(),
+			"getAnimationId", args -> animation.getAsInt(),
+			"isHidden", args -> false));
+	}
+
+	@FunctionalInterface
+	private interface Answer {
+		@Nullable
+		Object answer(Object[] args);
+	}
+
+	private static <T> T proxy(Class<T> type, Map<String, Answer> answers) {
+		InvocationHandler handler = (proxy, method, args) -> {
+			Object[] arguments = args != null ? args : new Object[0];
+			Answer answer = answers.get(method.getName());
+			if (answer != null) {
+				return answer.answer(arguments);
+			}
+			switch (method.getName()) {
+				case "hashCode":
+					return System.identityHashCode(proxy);
+				case "equals":
+					return proxy == arguments[0];
+				case "toString":
+					return type.getSimpleName();
+				default:
+					return defaultValue(method.getReturnType());
+			}
+		};
+		return type.cast(Proxy.newProxyInstance(SimulatedClient.class.getClassLoader(), new Class<?>[]{type}, handler));
+	}
+
+	@Nullable
+	private static Object defaultValue(Class<?> type) {
+		if (!type.isPrimitive() || type == void.class) {
+			return null;
+		}
+		if (type == boolean.class) {
+			return false;
+		}
+		if (type == char.class) {
+			return '\0';
+		}
+		if (type == long.class) {
+			return 0L;
+		}
+		if (type == double.class) {
+			return 0.0;
+		}
+		if (type == float.class) {
+			return 0f;
+		}
+		if (type == short.class) {
+			return (short) 0;
+		}
+		if (type == byte.class) {
+			return (byte) 0;
+		}
+		return 0;
+	}
+}
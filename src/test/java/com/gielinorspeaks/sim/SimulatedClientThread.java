@@ -0,0 +1,71 @@
+package com.gielinorspeaks.sim;
+
+import net.runelite.client.callback.ClientThread;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Client thread queue that behaves like the real one, driven by the {@link TickSimulation}.
+ * ===
+ * invokeLater() tasks run when the next frame is processed, not when queued. Tasks queued
+ * while a frame is being processed run in the following frame, and a BooleanSupplier task
+ * that returns false stays queued for the next frame, as in the client. invoke() runs at once,
+ * since everything in the simulation happens on the client thread.
+ */
+public class SimulatedClientThread extends ClientThread {
+	private Deque<BooleanSupplier> queue = new ArrayDeque<>();
+	private Deque<BooleanSupplier> running = new ArrayDeque<>();
+
+	private long tasksRun;
+	private int maxDepth;
+
+	@Override
+	public void invoke(Runnable runnable) {
+		runnable.run();
+	}
+
+	@Override
+	public void invokeLater(Runnable runnable) {
+		invokeLater(() -> {
+			runnable.run();
+			return true;
+		});
+	}
+
+	@Override
+	public void invokeLater(BooleanSupplier task) {
+		queue.addLast(task);
+		maxDepth = Math.max(maxDepth, queue.size());
+	}
+
+	/**
+	 * Runs the tasks queued before this frame began.
+	 */
+	void processFrame() {
+		Deque<BooleanSupplier> frame = queue;
+		queue = running;
+		running = frame;
+
+		BooleanSupplier task;
+		while ((task = frame.pollFirst()) != null) {
+			tasksRun++;
+			if (!task.getAsBoolean()) {
+				invokeLater(task);
+			}
+		}
+	}
+
+	public int getDepth() {
+		return queue.size();
+	}
+
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	public long getTasksRun() {
+		return tasksRun;
+	}
+}
@@ -0,0 +1,251 @@
+package com.gielinorspeaks.sim;
+
+import com.gielinorspeaks.metrics.ClientThreadMetrics;
+import com.gielinorspeaks.model.DialogueSource;
+import com.gielinorspeaks.model.VoiceLine;
+import com.gielinorspeaks.service.DialogueDetectionService;
+import com.gielinorspeaks.service.NpcTable;
+import com.gielinorspeaks.service.OverheadTextService;
+import net.runelite.api.NPC;
+import net.runelite.api.events.GameTick;
+import net.runelite.api.events.InteractingChanged;
+import net.runelite.api.events.OverheadTextChanged;
+import net.runelite.api.events.WidgetClosed;
+import net.runelite.api.events.WidgetLoaded;
+import net.runelite.api.gameval.InterfaceID;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Consumer;
+
+/**
+ * Deterministic, tick-driven simulation of the game around the detection services.
+ * ===
+ * Time is a {@link VirtualClock} advanced in game ticks of {@link #TICK_MILLIS}, each split
+ * into {@link #FRAMES_PER_TICK} client frames. At the start of a tick every {@link Behaviour}
+ * posts its events to the services, followed by the {@link GameTick}; then each frame runs
+ * the {@link SimulatedClientThread} queue, so work deferred with invokeLater() happens a
+ * frame later, as in the client.
+ * ===
+ * Behaviours are driven by one seeded {@link Random}, so a run is reproducible from its seed:
+ * {@link #getDigest()} summarizes every line detected, with the tick it was detected on.
+ * ===
+ * The services report lines to a counting sink ({@link #getLinesBySource()}), and optionally
+ * to a listener set with {@link #setLineListener}.
+ */
+public final class TickSimulation {
+	public static final long TICK_MILLIS = 600;
+	public static final int FRAMES_PER_TICK = 30;
+
+	private final VirtualClock clock = new VirtualClock();
+	private final SimulatedClientThread clientThread = new SimulatedClientThread();
+	private final SimulatedClient client = new SimulatedClient();
+	private final NpcTable npcTable = new NpcTable();
+	private final ClientThreadMetrics metrics = new ClientThreadMetrics();
+	private final DialogueDetectionService dialogueService;
+	private final OverheadTextService overheadService;
+	private final Random random;
+	private final List<Behaviour> behaviours = new ArrayList<>();
+
+	private final long[] linesBySource = new long[DialogueSource.values().length];
+	private long dialogueEnds;
+	private long digest;
+	private int tick;
+
+	@Nullable
+	private Consumer<VoiceLine> lineListener;
+
+	/**
+	 * Something happening in the scene, asked to post its events once per tick.
+	 */
+	@FunctionalInterface
+	public interface Behaviour {
+		void onTick(TickSimulation simulation, int tick);
+	}
+
+	public TickSimulation(long seed) {
+		random = new Random(seed);
+		dialogueService = new DialogueDetectionService(client.getClient(), clientThread, metrics, npcTable);
+		overheadService = new OverheadTextService(client.getClient(), metrics, npcTable);
+		dialogueService.setLineCallback(this::onLine);
+		dialogueService.setDialogueEndCallback(npcId -> dialogueEnds++);
+		overheadService.setLineCallback(this::onLine);
+	}
+
+	public void addBehaviour(Behaviour behaviour) {
+		behaviours.add(behaviour);
+	}
+
+	/**
+	 * Adds {@code size} NPCs that each say one of {@code lines} overhead with probability
+	 * {@code chancePerTick} every tick.
+	 *
+	 * @return the NPCs, in the order added
+	 */
+	public List<NPC> addCrowd(int firstId, int size, double chancePerTick, String[] lines) {
+		List<NPC> crowd = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			crowd.add(client.addNpc(firstId + i, "Crowd " + i));
+		}
+		addBehaviour((simulation, tick) -> {
+			for (NPC npc : crowd) {
+				if (random.nextDouble() < chancePerTick) {
+					say(npc, lines[random.nextInt(lines.length)]);
+				}
+			}
+		});
+		return crowd;
+	}
+
+	/**
+	 * Schedules a dialogue conversation: the player talks to {@code npc} at {@code startTick},
+	 * each line is shown for {@code ticksPerLine}, and the dialogue closes after the last.
+	 */
+	public void addConversation(NPC npc, List<String> lines, int startTick, int ticksPerLine) {
+		int endTick = startTick + lines.size() * ticksPerLine;
+		addBehaviour((simulation, tick) -> {
+			if (tick < startTick || tick > endTick || (tick - startTick) % ticksPerLine != 0) {
+				return;
+			}
+			if (tick == startTick) {
+				interact(npc);
+			}
+			if (tick == endTick) {
+				closeDialogue();
+			}
+			else {
+				showDialogue(npc, lines.get((tick - startTick) / ticksPerLine), VoiceLineAnimations.pick(random));
+			}
+		});
+	}
+
+	/**
+	 * Runs the simulation for {@code ticks} game ticks.
+	 */
+	public void run(int ticks) {
+		for (int i = 0; i < ticks; i++) {
+			tick++;
+			client.setTickCount(tick);
+			for (Behaviour behaviour : behaviours) {
+				behaviour.onTick(this, tick);
+			}
+			overheadService.onGameTick(new GameTick());
+			for (int frame = 0; frame < FRAMES_PER_TICK; frame++) {
+				clientThread.processFrame();
+				clock.advanceMillis(TICK_MILLIS / FRAMES_PER_TICK);
+			}
+		}
+	}
+
+	// ===========================
+	// Events
+	// ===========================
+
+	public void say(NPC npc, String text) {
+		overheadService.onOverheadTextChanged(new OverheadTextChanged(npc, text));
+	}
+
+	public void interact(NPC npc) {
+		client.setInteracting(npc);
+		dialogueService.onInteractingChanged(new InteractingChanged(client.getPlayer(), npc));
+	}
+
+	public void showDialogue(NPC npc, String text, int animation) {
+		client.showDialogue(npc, text, animation);
+		WidgetLoaded loaded = new WidgetLoaded();
+		loaded.setGroupId(InterfaceID.CHAT_LEFT);
+		dialogueService.onWidgetLoaded(loaded);
+	}
+
+	public void closeDialogue() {
+		client.hideDialogue();
+		dialogueService.onWidgetClosed(new WidgetClosed(InterfaceID.CHAT_LEFT, 0, true));
+		client.setInteracting(null);
+	}
+
+	// ===========================
+	// State
+	// ===========================
+
+	public SimulatedClient getClient() {
+		return client;
+	}
+
+	public SimulatedClientThread getClientThread() {
+		return clientThread;
+	}
+
+	public VirtualClock getClock() {
+		return clock;
+	}
+
+	public NpcTable getNpcTable() {
+		return npcTable;
+	}
+
+	public ClientThreadMetrics getMetrics() {
+		return metrics;
+	}
+
+	public Random getRandom() {
+		return random;
+	}
+
+	public int getTick() {
+		return tick;
+	}
+
+	public long getLinesBySource(DialogueSource source) {
+		return linesBySource[source.ordinal()];
+	}
+
+	public long getLines() {
+		long total = 0;
+		for (long lines : linesBySource) {
+			total += lines;
+		}
+		return total;
+	}
+
+	public long getDialogueEnds() {
+		return dialogueEnds;
+	}
+
+	/**
+	 * Order-sensitive summary of every line detected so far and the tick it was detected on.
+	 */
+	public long getDigest() {
+		return digest;
+	}
+
+	public void setLineListener(@Nullable Consumer<VoiceLine> lineListener) {
+		this.lineListener = lineListener;
+	}
+
+	private void onLine(VoiceLine line) {
+		linesBySource[line.getSource().ordinal()]++;
+		digest = digest * 31 + line.getLineHash() * 17 + tick;
+		if (lineListener != null) {
+			lineListener.accept(line);
+		}
+	}
+
+	/**
+	 * Chathead animations for scripted dialogue: mostly none, sometimes an emotion.
+	 */
+	static final class VoiceLineAnimations {
+		private static final int FIRST_CHATHEAD_ANIMATION = 554;
+		private static final int LAST_CHATHEAD_ANIMATION = 617;
+
+		private VoiceLineAnimations() {
+		}
+
+		static int pick(Random random) {
+			return random.nextInt(3) == 0
+				? FIRST_CHATHEAD_ANIMATION + random.nextInt(LAST_CHATHEAD_ANIMATION - FIRST_CHATHEAD_ANIMATION + 1)
+				: VoiceLine.NO_ANIMATION;
+		}
+	}
+}
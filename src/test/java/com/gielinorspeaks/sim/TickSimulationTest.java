@@ -0,0 +1,123 @@
+package com.gielinorspeaks.sim;
+
+import com.gielinorspeaks.model.DialogueSource;
+import com.gielinorspeaks.model.VoiceLine;
+import net.runelite.api.NPC;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for TickSimulation and its simulated client thread.
+ * Focus: Deferred work runs on later frames as in the client, scripted scenes are detected as
+ * scripted, and a seed reproduces a run exactly.
+ */
+public class TickSimulationTest {
+	private static final String[] CROWD_LINES = {"Hello there!", "Nice weather.", "Buying gf!"};
+
+	// ===========================
+	// Client thread
+	// ===========================
+
+	@Test
+	public void testInvokeLater_runsOnNextFrame() {
+		// Arrange
+		SimulatedClientThread clientThread = new SimulatedClientThread();
+		int[] runs = new int[1];
+
+		// Act
+		clientThread.invokeLater(() -> runs[0]++);
+		int before = runs[0];
+		clientThread.processFrame();
+
+		// Assert
+		assertEquals("Task should not run when queued", 0, before);
+		assertEquals("Task should run on the next frame", 1, runs[0]);
+		assertEquals("Queue should be empty afterwards", 0, clientThread.getDepth());
+	}
+
+	@Test
+	public void testInvokeLater_retriesTaskReturningFalse() {
+		// Arrange
+		SimulatedClientThread clientThread = new SimulatedClientThread();
+		int[] attempts = new int[1];
+		clientThread.invokeLater(() -> ++attempts[0] == 3);
+
+		// Act
+		for (int frame = 0; frame < 5; frame++) {
+			clientThread.processFrame();
+		}
+
+		// Assert
+		assertEquals("Task should run once per frame until it returns true", 3, attempts[0]);
+		assertEquals("Task should be dropped once done", 0, clientThread.getDepth());
+	}
+
+	// ===========================
+	// Scenes
+	// ===========================
+
+	@Test
+	public void testAddCrowd_speaksAtConfiguredRate() {
+		// Arrange
+		TickSimulation simulation = new TickSimulation(1);
+		simulation.addCrowd(1000, 100, 0.05, CROWD_LINES);
+
+		// Act
+		simulation.run(100);
+
+		// Assert - 500 expected, binomial standard deviation about 22; few ticks reach the per-tick cap
+		long lines = simulation.getLinesBySource(DialogueSource.OVERHEAD_TEXT);
+		assertTrue("About 500 overhead lines expected, got " + lines, lines > 425 && lines < 575);
+		assertEquals("Each speaker should be interned once", 100, simulation.getNpcTable().size());
+		assertEquals("Simulated time should advance a tick at a time", 100 * TickSimulation.TICK_MILLIS,
+			simulation.getClock().millis());
+	}
+
+	@Test
+	public void testAddConversation_detectsEachLineInOrder() {
+		// Arrange
+		TickSimulation simulation = new TickSimulation(1);
+		NPC guide = simulation.getClient().addNpc(3308, "Gielinor Guide");
+		simulation.addConversation(guide, Arrays.asList("Greetings!", "Welcome to Gielinor.", "Off you go."), 5, 4);
+		List<String> detected = new ArrayList<>();
+		simulation.setLineListener(line -> detected.add(line.getText()));
+
+		// Act
+		simulation.run(30);
+
+		// Assert
+		assertEquals("Lines should be detected in the order shown",
+			Arrays.asList("Greetings!", "Welcome to Gielinor.", "Off you go."), detected);
+		assertEquals("Lines should come from the dialogue box", 3, simulation.getLinesBySource(DialogueSource.DIALOGUE_BOX));
+		assertEquals("Closing the dialogue should end it once", 1, simulation.getDialogueEnds());
+	}
+
+	@Test
+	public void testRun_sameSeedReproducesRun() {
+		// Arrange
+		TickSimulation first = busyScene(42);
+		TickSimulation second = busyScene(42);
+		TickSimulation other = busyScene(43);
+
+		// Act
+		first.run(500);
+		second.run(500);
+		other.run(500);
+
+		// Assert
+		assertEquals("Same seed should detect the same lines on the same ticks", first.getDigest(), second.getDigest());
+		assertNotEquals("Another seed should play out differently", first.getDigest(), other.getDigest());
+	}
+
+	private static TickSimulation busyScene(long seed) {
+		TickSimulation simulation = new TickSimulation(seed);
+		List<NPC> crowd = simulation.addCrowd(1000, 20, 0.05, CROWD_LINES);
+		simulation.addConversation(crowd.get(0), Arrays.asList("One.", "Two.", "Three."), 10, 3);
+		return simulation;
+	}
+}
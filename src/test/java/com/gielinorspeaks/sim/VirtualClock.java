@@ -0,0 +1,20 @@
+package com.gielinorspeaks.sim;
+
+/**
+ * Simulated time, advanced only by the {@link TickSimulation}.
+ */
+public final class VirtualClock {
+	private long nanos;
+
+	public long nanoTime() {
+		return nanos;
+	}
+
+	public long millis() {
+		return nanos / 1_000_000;
+	}
+
+	void advanceMillis(long millis) {
+		nanos += millis * 1_000_000;
+	}
+}